@@ -99,6 +99,21 @@ public class ArgbRenderer {
      */
     public static BufferedImage renderWithNoise(final RenderParameters renderParameters,
                                                 final boolean fillWithNoise) {
+        return renderWithNoise(renderParameters, fillWithNoise, ImageProcessorCache.DISABLED_CACHE);
+    }
+
+    /**
+     * Constructs a renderer instance and renders an image optionally pre-filled with noise.
+     *
+     * @param  renderParameters     specifies what to render.
+     * @param  fillWithNoise        indicates whether image should be filled with noise before rendering.
+     * @param  imageProcessorCache  cache of source tile data (shared with other renders).
+     *
+     * @return the rendered image.
+     */
+    public static BufferedImage renderWithNoise(final RenderParameters renderParameters,
+                                                final boolean fillWithNoise,
+                                                final ImageProcessorCache imageProcessorCache) {
 
         LOG.info("renderWithNoise: entry, fillWithNoise={}", fillWithNoise);
 
@@ -110,7 +125,7 @@ public class ArgbRenderer {
             bufferedImage.getGraphics().drawImage(ip.createImage(), 0, 0, null);
         }
 
-        ArgbRenderer.render(renderParameters, bufferedImage, ImageProcessorCache.DISABLED_CACHE);
+        ArgbRenderer.render(renderParameters, bufferedImage, imageProcessorCache);
 
         LOG.info("renderWithNoise: exit");
 
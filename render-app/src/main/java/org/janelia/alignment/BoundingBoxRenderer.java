@@ -54,13 +54,24 @@ public class BoundingBoxRenderer {
 
     public void render(final BufferedImage targetImage)
             throws IllegalArgumentException {
+        render(targetImage, true);
+    }
+
+    /**
+     * @param  targetImage      target for rendered boxes.
+     * @param  clearBackground  if true, the target is cleared with the background color (if one is defined)
+     *                          before boxes are rendered; otherwise boxes are drawn over the existing target.
+     */
+    public void render(final BufferedImage targetImage,
+                       final boolean clearBackground)
+            throws IllegalArgumentException {
 
         final Graphics2D targetGraphics = targetImage.createGraphics();
 
         targetGraphics.setColor(foregroundColor);
         targetGraphics.setStroke(stroke);
 
-        if (backgroundColor != null) {
+        if (clearBackground && (backgroundColor != null)) {
             targetGraphics.setBackground(backgroundColor);
             targetGraphics.clearRect(0, 0, targetImage.getWidth(), targetImage.getHeight());
         }
@@ -192,7 +192,7 @@ public class MipmapGeneratorParameters {
                     if (tileSpec.hasTransforms()) {
                         transforms = tileSpec.getTransforms();
                         transforms.removeNullSpecs(); // TODO: remove this hack to work around bad data
-                        transforms.resolveReferences(transformIdToSpecMap);
+                        tileSpec.resolveTransformReferences(transformIdToSpecMap);
                         transforms.validate();
                     }
                 }
@@ -130,6 +130,9 @@ public class RenderParameters implements Serializable {
     @Parameter(names = "--channels", description = "Specify channel(s) and weights to render (e.g. 'DAPI' or 'DAPI__0.7__TdTomato__0.3').", required = false)
     private String channels;
 
+    @Parameter(names = "--target_type", description = "Pixel type for rendered target channels: FLOAT (default), SHORT, or BYTE (reduced precision types use less memory)", required = false)
+    private RenderTargetType targetType;
+
     private MipmapPathBuilder mipmapPathBuilder;
 
     /** List of tile specifications parsed from --tileSpecUrl or deserialized directly from json. */
@@ -157,6 +160,7 @@ public class RenderParameters implements Serializable {
     private transient URI outUri;
     private transient boolean initialized;
     private transient ChannelNamesAndWeights channelNamesAndWeights;
+    private transient Long renderDeadline;
 
     public RenderParameters() {
         this(null,
@@ -199,6 +203,7 @@ public class RenderParameters implements Serializable {
         this.doFilter = false;
         this.backgroundRGBColor = null;
         this.channels = null;
+        this.targetType = null;
         this.parametersUrl = null;
 
         this.tileSpecs = new ArrayList<>();
@@ -558,6 +563,29 @@ public class RenderParameters implements Serializable {
         this.excludeMask = (excludeMask != null) && excludeMask;
     }
 
+    /**
+     * @return pixel type for rendered target channels (defaults to {@link RenderTargetType#FLOAT}).
+     */
+    public RenderTargetType getTargetType() {
+        return targetType == null ? RenderTargetType.FLOAT : targetType;
+    }
+
+    public void setTargetType(final RenderTargetType targetType) {
+        this.targetType = targetType;
+    }
+
+    /**
+     * @return time (in milliseconds since the epoch) after which no additional tiles should be rendered
+     *         or null if rendering is not time limited.
+     */
+    public Long getRenderDeadline() {
+        return renderDeadline;
+    }
+
+    public void setRenderDeadline(final Long renderDeadline) {
+        this.renderDeadline = renderDeadline;
+    }
+
     public boolean doFilter() {
         return doFilter;
     }
@@ -640,6 +668,10 @@ public class RenderParameters implements Serializable {
         return this.mipmapPathBuilder != null;
     }
 
+    public MipmapPathBuilder getMipmapPathBuilder() {
+        return mipmapPathBuilder;
+    }
+
     public void setMipmapPathBuilder(final MipmapPathBuilder mipmapPathBuilder) {
         this.mipmapPathBuilder = mipmapPathBuilder;
     }
@@ -796,6 +828,10 @@ public class RenderParameters implements Serializable {
             sb.append("channels=").append(channels).append(", ");
         }
 
+        if (targetType != null) {
+            sb.append("targetType=").append(targetType).append(", ");
+        }
+
         if (in != null) {
             sb.append("in='").append(in).append("', ");
         }
@@ -901,6 +937,7 @@ public class RenderParameters implements Serializable {
             doFilter = mergedValue(doFilter, baseParameters.doFilter, false);
             backgroundRGBColor = mergedValue(backgroundRGBColor, baseParameters.backgroundRGBColor);
             channels = mergedValue(channels, baseParameters.channels);
+            targetType = mergedValue(targetType, baseParameters.targetType);
             mipmapPathBuilder = mergedValue(mipmapPathBuilder, baseParameters.mipmapPathBuilder);
 
             tileSpecs.addAll(baseParameters.tileSpecs);
@@ -0,0 +1,47 @@
+package org.janelia.alignment;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Pixel types for rendered target channels.
+ *
+ * Float targets retain source intensities and are scaled (using the source intensity range)
+ * when they are converted for output.  Byte and short targets need 4x and 2x less memory than float targets
+ * because source intensities are scaled to the full byte or short range as each source is mapped.
+ * This makes them a good fit for large renders that will be saved as 8-bit or 16-bit images anyway.
+ *
+ * @author Eric Trautman
+ */
+public enum RenderTargetType {
+
+    BYTE,
+    SHORT,
+    FLOAT;
+
+    /**
+     * @return a new (empty) target processor of this type with the specified dimensions.
+     *         Byte and short processors have a display range that covers all possible values.
+     */
+    public ImageProcessor createProcessor(final int width,
+                                          final int height) {
+        final ImageProcessor processor;
+        switch (this) {
+            case BYTE:
+                processor = new ByteProcessor(width, height);
+                processor.setMinAndMax(0, 255);
+                break;
+            case SHORT:
+                processor = new ShortProcessor(width, height);
+                processor.setMinAndMax(0, 65535);
+                break;
+            default:
+                processor = new FloatProcessor(width, height);
+                break;
+        }
+        return processor;
+    }
+
+}
@@ -0,0 +1,282 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.models.AbstractAffineModel2D;
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformList;
+
+import org.janelia.alignment.mapper.PixelMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps {@link PixelMapper} sources to targets with one affine transform.
+ *
+ * When every transform in a render context is affine, each triangle of a {@link RenderTransformMesh}
+ * carries the same affine, so mesh construction and per-triangle containment tests are wasted work.
+ * This mapping instead walks each target row, solves for the span of target pixels whose inverse
+ * falls within the source, and maps that span directly.  The mapped pixels and the
+ * interpolation, mask, and alpha handling (all delegated to the pixel mapper) match
+ * {@link RenderTransformMeshMappingWithMasks} for a mesh built from the same transform.
+ *
+ * @author Eric Trautman
+ */
+public class RenderTransformAffineMapping {
+
+    private final AffineTransform sourceToTarget;
+    private final double sourceMaxX;
+    private final double sourceMaxY;
+
+    // target to source matrix elements
+    private final double m00;
+    private final double m01;
+    private final double m02;
+    private final double m10;
+    private final double m11;
+    private final double m12;
+
+    /**
+     * @param  sourceToTarget  affine transform from source pixel coordinates to target pixel coordinates.
+     * @param  sourceWidth     width of the source.
+     * @param  sourceHeight    height of the source.
+     *
+     * @throws NoninvertibleTransformException
+     *   if the transform cannot be inverted.
+     */
+    public RenderTransformAffineMapping(final AffineTransform sourceToTarget,
+                                        final int sourceWidth,
+                                        final int sourceHeight)
+            throws NoninvertibleTransformException {
+
+        this.sourceToTarget = sourceToTarget;
+
+        // meshes cover source pixel centers from 0 to width - 1 (see RenderTransformMesh)
+        this.sourceMaxX = sourceWidth - 1;
+        this.sourceMaxY = sourceHeight - 1;
+
+        final double[] m = new double[6];
+        sourceToTarget.createInverse().getMatrix(m);
+        this.m00 = m[0];
+        this.m10 = m[1];
+        this.m01 = m[2];
+        this.m11 = m[3];
+        this.m02 = m[4];
+        this.m12 = m[5];
+    }
+
+    public final void map(final PixelMapper pixelMapper) {
+        map(pixelMapper, Runtime.getRuntime().availableProcessors());
+    }
+
+    public final void map(final PixelMapper pixelMapper,
+                          final int numThreads) {
+
+        final double[] corners = {
+                0, 0,
+                sourceMaxX, 0,
+                0, sourceMaxY,
+                sourceMaxX, sourceMaxY
+        };
+        sourceToTarget.transform(corners, 0, corners, 0, 4);
+
+        double minTargetY = corners[1];
+        double maxTargetY = corners[1];
+        for (int i = 3; i < corners.length; i += 2) {
+            minTargetY = Math.min(minTargetY, corners[i]);
+            maxTargetY = Math.max(maxTargetY, corners[i]);
+        }
+
+        final int minY = Math.max(0, (int) Math.floor(minTargetY));
+        final int maxY = Math.min(pixelMapper.getTargetHeight() - 1, (int) Math.ceil(maxTargetY));
+
+        if (minY <= maxY) {
+            if (numThreads > 1) {
+                final AtomicInteger nextRow = new AtomicInteger(minY);
+                final ArrayList<Thread> threads = new ArrayList<>(numThreads);
+                for (int k = 0; k < numThreads; ++k) {
+                    final Thread mrt = new MapRowsThread(this, nextRow, maxY, pixelMapper);
+                    threads.add(mrt);
+                    mrt.start();
+                }
+                for (final Thread mrt : threads) {
+                    try {
+                        mrt.join();
+                    } catch (final InterruptedException e) {
+                        LOG.warn("ignoring exception", e);
+                    }
+                }
+            } else {
+                for (int targetY = minY; targetY <= maxY; ++targetY) {
+                    mapRow(targetY, pixelMapper);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a mapping for the specified transform or null if the transform is not a
+     *         (possibly nested) list of affine transforms or cannot be inverted.
+     */
+    public static RenderTransformAffineMapping build(final CoordinateTransform transform,
+                                                     final int sourceWidth,
+                                                     final int sourceHeight) {
+
+        RenderTransformAffineMapping mapping = null;
+
+        final AffineTransform affine = getConcatenatedAffine(transform);
+        if (affine != null) {
+            try {
+                mapping = new RenderTransformAffineMapping(affine, sourceWidth, sourceHeight);
+            } catch (final NoninvertibleTransformException e) {
+                LOG.warn("build: ignoring noninvertible affine " + affine, e);
+            }
+        }
+
+        return mapping;
+    }
+
+    /**
+     * @return the single affine equivalent to the specified transform or null if the transform is not a
+     *         (possibly nested) list of affine transforms.
+     */
+    public static AffineTransform getConcatenatedAffine(final CoordinateTransform transform) {
+
+        AffineTransform affine = null;
+
+        if (transform instanceof AbstractAffineModel2D) {
+
+            affine = ((AbstractAffineModel2D<?>) transform).createAffine();
+
+        } else if (transform instanceof CoordinateTransformList) {
+
+            affine = new AffineTransform();
+
+            // list transforms are applied in order, so each one is concatenated after the previous ones
+            for (final CoordinateTransform listTransform : ((CoordinateTransformList<?>) transform).getList(null)) {
+                final AffineTransform listAffine = getConcatenatedAffine(listTransform);
+                if (listAffine == null) {
+                    affine = null;
+                    break;
+                }
+                affine.preConcatenate(listAffine);
+            }
+
+        }
+
+        return affine;
+    }
+
+    private void mapRow(final int targetY,
+                        final PixelMapper pixelMapper) {
+
+        // within a row, source coordinates are linear in targetX
+        final double rowSourceX = (m01 * targetY) + m02;
+        final double rowSourceY = (m11 * targetY) + m12;
+
+        final double[] targetXRange = { 0, pixelMapper.getTargetWidth() - 1 };
+        clipTargetRange(m00, rowSourceX, sourceMaxX, targetXRange);
+        clipTargetRange(m10, rowSourceY, sourceMaxY, targetXRange);
+
+        final int minX = Math.max(0, (int) Math.ceil(targetXRange[0] - EPSILON));
+        final int maxX = Math.min(pixelMapper.getTargetWidth() - 1, (int) Math.floor(targetXRange[1] + EPSILON));
+
+        double sourceX;
+        double sourceY;
+
+        if (pixelMapper.isMappingInterpolated()) {
+
+            for (int targetX = minX; targetX <= maxX; ++targetX) {
+                sourceX = clamp((m00 * targetX) + rowSourceX, sourceMaxX);
+                sourceY = clamp((m10 * targetX) + rowSourceY, sourceMaxY);
+                pixelMapper.mapInterpolated(sourceX, sourceY, targetX, targetY);
+            }
+
+        } else {
+
+            for (int targetX = minX; targetX <= maxX; ++targetX) {
+                sourceX = clamp((m00 * targetX) + rowSourceX, sourceMaxX);
+                sourceY = clamp((m10 * targetX) + rowSourceY, sourceMaxY);
+                pixelMapper.map(sourceX, sourceY, targetX, targetY);
+            }
+
+        }
+    }
+
+    /**
+     * Narrows the specified target x range so that 0 <= (step * targetX) + start <= max.
+     */
+    private static void clipTargetRange(final double step,
+                                        final double start,
+                                        final double max,
+                                        final double[] targetXRange) {
+        if (step == 0) {
+            if ((start < -EPSILON) || (start > max + EPSILON)) {
+                targetXRange[0] = Double.POSITIVE_INFINITY;
+            }
+        } else {
+            final double x0 = -start / step;
+            final double x1 = (max - start) / step;
+            targetXRange[0] = Math.max(targetXRange[0], Math.min(x0, x1));
+            targetXRange[1] = Math.min(targetXRange[1], Math.max(x0, x1));
+        }
+    }
+
+    /**
+     * @return the specified source coordinate limited to [0, max]
+     *         (span end points can fall a rounding error outside the source).
+     */
+    private static double clamp(final double value,
+                                final double max) {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+
+    private static final class MapRowsThread extends Thread {
+        private final RenderTransformAffineMapping mapping;
+        private final AtomicInteger nextRow;
+        private final int maxRow;
+        private final PixelMapper pixelMapper;
+
+        MapRowsThread(final RenderTransformAffineMapping mapping,
+                      final AtomicInteger nextRow,
+                      final int maxRow,
+                      final PixelMapper pixelMapper) {
+            this.mapping = mapping;
+            this.nextRow = nextRow;
+            this.maxRow = maxRow;
+            this.pixelMapper = pixelMapper;
+        }
+
+        @Override
+        final public void run() {
+            int row = nextRow.getAndIncrement();
+            while (!isInterrupted() && row <= maxRow) {
+                mapping.mapRow(row, pixelMapper);
+                row = nextRow.getAndIncrement();
+            }
+        }
+    }
+
+    private static final double EPSILON = 1e-6;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderTransformAffineMapping.class);
+}
@@ -14,11 +14,23 @@ public class TransformableCanvas {
 
     private final MipmapSource source;
     private final CoordinateTransformList<CoordinateTransform> transformList;
+    private final Double averageScale;
 
     public TransformableCanvas(final MipmapSource source,
                                final CoordinateTransformList<CoordinateTransform> transformList) {
+        this(source, transformList, null);
+    }
+
+    /**
+     * @param  averageScale  previously derived average scale factor for the transform list
+     *                       (or null if it should be derived when needed).
+     */
+    public TransformableCanvas(final MipmapSource source,
+                               final CoordinateTransformList<CoordinateTransform> transformList,
+                               final Double averageScale) {
         this.source = source;
         this.transformList = transformList;
+        this.averageScale = averageScale;
     }
 
     public MipmapSource getSource() {
@@ -29,4 +41,12 @@ public class TransformableCanvas {
         return transformList;
     }
 
+    /**
+     * @return the previously derived average scale factor for this canvas' transform list
+     *         or null if it has not been derived.
+     */
+    public Double getAverageScale() {
+        return averageScale;
+    }
+
 }
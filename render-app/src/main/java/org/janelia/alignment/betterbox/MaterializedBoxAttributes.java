@@ -0,0 +1,158 @@
+package org.janelia.alignment.betterbox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.janelia.alignment.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Render options used to generate the materialized boxes in a base box directory
+ * (e.g. [stack directory]/[tile width]x[tile height]).
+ *
+ * The options are persisted in a {@value #ATTRIBUTES_FILE_NAME} file in the base box directory so that
+ * readers (e.g. the render web service) only serve materialized boxes for requests with matching options.
+ *
+ * @author Eric Trautman
+ */
+public class MaterializedBoxAttributes
+        implements Serializable {
+
+    public static final String ATTRIBUTES_FILE_NAME = "boxes.properties";
+
+    private final String format;
+    private final boolean binaryMask;
+    private final boolean skipInterpolation;
+    private long attributesLastModified;
+
+    /**
+     * Basic constructor.
+     *
+     * @param  format             format for all box images (e.g. 'png').
+     * @param  binaryMask         indicates whether boxes were rendered with binary masks.
+     * @param  skipInterpolation  indicates whether boxes were rendered without interpolation.
+     */
+    public MaterializedBoxAttributes(final String format,
+                                     final boolean binaryMask,
+                                     final boolean skipInterpolation) {
+        this.format = format;
+        this.binaryMask = binaryMask;
+        this.skipInterpolation = skipInterpolation;
+        this.attributesLastModified = 0;
+    }
+
+    /**
+     * @param  baseBoxPath  base path for all boxes.
+     *
+     * @return the attributes persisted in the specified directory or null if the directory does not contain any.
+     *
+     * @throws IOException
+     *   if the attributes cannot be read.
+     */
+    public static MaterializedBoxAttributes load(final String baseBoxPath)
+            throws IOException {
+
+        MaterializedBoxAttributes boxAttributes = null;
+
+        final File attributesFile = new File(baseBoxPath, ATTRIBUTES_FILE_NAME);
+        if (attributesFile.exists()) {
+            final Properties attributes = new Properties();
+            try (final InputStream inputStream = new FileInputStream(attributesFile)) {
+                attributes.load(inputStream);
+            }
+            final String format = attributes.getProperty("format");
+            if (format == null) {
+                throw new IOException("missing format in " + attributesFile.getAbsolutePath());
+            }
+            boxAttributes = new MaterializedBoxAttributes(format,
+                                                          Boolean.parseBoolean(attributes.getProperty("binaryMask")),
+                                                          Boolean.parseBoolean(
+                                                                  attributes.getProperty("skipInterpolation")));
+            boxAttributes.attributesLastModified = attributesFile.lastModified();
+        }
+
+        return boxAttributes;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public boolean isBinaryMask() {
+        return binaryMask;
+    }
+
+    public boolean isSkipInterpolation() {
+        return skipInterpolation;
+    }
+
+    /**
+     * @param  requestedFormat      format of the requested image.
+     * @param  requestedBinaryMask  binary mask option for the requested image (null for default).
+     *
+     * @return true if boxes with these attributes match a dynamic render of the requested image
+     *         (that does not override any other default render options); otherwise false.
+     */
+    public boolean matches(final String requestedFormat,
+                           final Boolean requestedBinaryMask) {
+        final boolean requestedMask = (requestedBinaryMask != null) && requestedBinaryMask;
+        return format.equalsIgnoreCase(requestedFormat) &&
+               (binaryMask == requestedMask) &&
+               (! skipInterpolation);
+    }
+
+    /**
+     * @return true if these attributes were {@link #load loaded} from the specified directory and
+     *         have not since been replaced (e.g. by a subsequent run that regenerated the boxes); otherwise false.
+     */
+    public boolean isCurrent(final String baseBoxPath) {
+        final File attributesFile = new File(baseBoxPath, ATTRIBUTES_FILE_NAME);
+        return (attributesLastModified > 0) && (attributesFile.lastModified() == attributesLastModified);
+    }
+
+    /**
+     * Saves these attributes to the specified directory so that they can be {@link #load loaded} by readers.
+     *
+     * @throws IOException
+     *   if the attributes cannot be saved.
+     */
+    public void save(final String baseBoxPath)
+            throws IOException {
+
+        final File baseDirectory = new File(baseBoxPath);
+        FileUtil.ensureWritableDirectory(baseDirectory);
+
+        final Properties attributes = new Properties();
+        attributes.setProperty("format", format);
+        attributes.setProperty("binaryMask", String.valueOf(binaryMask));
+        attributes.setProperty("skipInterpolation", String.valueOf(skipInterpolation));
+
+        // write to a (uniquely named) temporary file and then rename it so that readers never see
+        // partial attributes even when parallel generator processes save the same attributes
+        final File attributesFile = new File(baseDirectory, ATTRIBUTES_FILE_NAME);
+        final File tempFile = File.createTempFile(ATTRIBUTES_FILE_NAME, ".tmp", baseDirectory);
+        try (final OutputStream outputStream = new FileOutputStream(tempFile)) {
+            attributes.store(outputStream, "materialized box attributes");
+        }
+        Files.move(tempFile.toPath(), attributesFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        LOG.info("save: saved {}", attributesFile.getAbsolutePath());
+    }
+
+    @Override
+    public String toString() {
+        return "{format: " + format + ", binaryMask: " + binaryMask + ", skipInterpolation: " + skipInterpolation + '}';
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(MaterializedBoxAttributes.class);
+}
@@ -10,6 +10,10 @@ import java.io.IOException;
 
 import mpicbg.trakem2.util.Downsampler;
 
+import org.janelia.alignment.Utils;
+import org.janelia.alignment.mipmap.BoxImageCache;
+import org.janelia.alignment.mipmap.BoxMipmapGenerator;
+
 /**
  * Cached pixels for the rendered components (child boxes) of a parent level box along with
  * methods to render the parent level box from in-memory child pixels or from child image files.
@@ -89,6 +93,50 @@ public class RenderedBoxParent {
         }
     }
 
+    /**
+     * Loads the pixel data for this box's children from the specified sharded store.
+     *
+     * @param  shardedBoxStore  store containing the children.
+     *
+     * @throws IOException
+     *   if any child cannot be read from the store.
+     */
+    public void loadChildren(final ShardedBoxStore shardedBoxStore)
+            throws IOException {
+        for (final BoxData childData : boxData.getChildren()) {
+            final RenderedBox renderedChild = new RenderedBox(childData.getAbsoluteLevelFile(baseBoxPath, pathSuffix),
+                                                              shardedBoxStore.readImage(childData));
+            setChild(renderedChild, childData.getParentIndex());
+        }
+    }
+
+    /**
+     * Loads the pixel data for this box's children, taking it from the specified cache when possible
+     * and otherwise reading it from disk (or from the specified sharded store).
+     *
+     * @param  boxCache         cache of recently rendered boxes.
+     * @param  shardedBoxStore  store containing the children (or null if children are saved as individual files).
+     *
+     * @throws IOException
+     *   if any child cannot be read from the store.
+     */
+    public void loadChildren(final BoxImageCache boxCache,
+                             final ShardedBoxStore shardedBoxStore)
+            throws IOException {
+        File childFile;
+        BufferedImage childImage;
+        for (final BoxData childData : boxData.getChildren()) {
+            childFile = childData.getAbsoluteLevelFile(baseBoxPath, pathSuffix);
+            childImage = boxCache.take(childFile);
+            if (childImage == null) {
+                childImage = shardedBoxStore == null ?
+                             Utils.openImage(childFile.getAbsolutePath()) :
+                             shardedBoxStore.readImage(childData);
+            }
+            setChild(new RenderedBox(childFile, childImage), childData.getParentIndex());
+        }
+    }
+
     /**
      * Builds this box's pixel data from it's children's pixel data.
      *
@@ -125,6 +173,33 @@ public class RenderedBoxParent {
         return parentProcessor.getBufferedImage();
     }
 
+    /**
+     * Builds this box's pixel data by directly averaging it's children's pixel data
+     * (see {@link BoxMipmapGenerator#reduceFourBoxes}).
+     * This is faster than {@link #buildImage} but does not smooth the children before down-sampling.
+     *
+     * @param  boxWidth   width of this box (and its children boxes).
+     * @param  boxHeight  height of this box (and its children boxes).
+     * @param  isLabel    indicates that the children are labels and not standard images.
+     *
+     * @return pixel data for this box.
+     */
+    public BufferedImage buildReducedImage(final int boxWidth,
+                                           final int boxHeight,
+                                           final boolean isLabel) {
+        return BoxMipmapGenerator.reduceFourBoxes(getImage(children[0]),
+                                                  getImage(children[1]),
+                                                  getImage(children[2]),
+                                                  getImage(children[3]),
+                                                  boxWidth,
+                                                  boxHeight,
+                                                  isLabel);
+    }
+
+    private BufferedImage getImage(final RenderedBox renderedBox) {
+        return renderedBox == null ? null : renderedBox.getImage();
+    }
+
     private void drawImage(final RenderedBox renderedBox,
                            final int x,
                            final int y,
@@ -0,0 +1,832 @@
+package org.janelia.alignment.betterbox;
+
+import com.google.common.util.concurrent.Striped;
+
+import ij.ImagePlus;
+import ij.io.Opener;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.janelia.alignment.Utils;
+import org.janelia.alignment.mipmap.BoxMipmapGenerator;
+import org.janelia.alignment.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores encoded box images in sharded container files instead of in one file per box.
+ *
+ * Each shard holds the boxes for one level and layer (z) within a square "super-block"
+ * of shardSize x shardSize boxes in a data file and an index file:
+ * <pre>
+ *         [base box path]/[level]/[z]/shards/[super-block row]_[super-block column].shard
+ *         [base box path]/[level]/[z]/shards/[super-block row]_[super-block column].index
+ * </pre>
+ *
+ * The data file simply contains the encoded box images.
+ * The index file contains a fixed size header followed by an offset index into the data file:
+ * <pre>
+ *         magic (int), version (int), shardSize (int), data file generation (int)
+ *         shardSize x shardSize index entries: data offset (long), data length (int)
+ * </pre>
+ *
+ * Box data is always appended to the end of the data file, but index updates are buffered by each writer
+ * and only published when the writer has written every box in a super-block, when too many shards have
+ * pending updates, or when the writer is {@link #flush flushed}.  Publishing forces the data to disk
+ * before a new copy of the index is written to a temporary file and atomically renamed to replace the
+ * prior index, so readers never see partially written boxes or indexes.
+ * Writes are serialized with both an in-process lock and a file lock so that
+ * multiple threads and processes can safely write to the same shard.
+ *
+ * Regenerated boxes (and boxes from failed runs that were never published) leave unreferenced data
+ * in the data file until the shard is {@link #compactShards compacted}.  Compaction copies referenced data
+ * into a new generation of the data file (e.g. [super-block row]_[super-block column].[generation].shard)
+ * so that readers using the prior index can still find the prior data file while the new index is published.
+ *
+ * The store's shard size and format are persisted in a {@value #ATTRIBUTES_FILE_NAME} file in the
+ * base box directory so that readers (e.g. the render web service) can locate boxes.
+ *
+ * @author Eric Trautman
+ */
+public class ShardedBoxStore
+        implements Serializable {
+
+    public static final String ATTRIBUTES_FILE_NAME = "shards.properties";
+
+    private static final String SHARD_EXTENSION = ".shard";
+    private static final String INDEX_EXTENSION = ".index";
+
+    private static final int MAGIC = 0x52424F58; // "RBOX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private static final int GENERATION_POSITION = 12;
+
+    private static final int MAX_PENDING_SHARDS = 16;
+    private static final double MIN_UNREFERENCED_FRACTION_TO_COMPACT = 0.1;
+
+    private static final Striped<Lock> SHARD_LOCKS = Striped.lock(64);
+
+    private final String baseBoxPath;
+    private final String format;
+    private final int shardSize;
+    private long attributesLastModified;
+
+    // unpublished index updates (in write order) for shards written by this instance, created lazily by each worker
+    private transient Map<String, PendingIndex> shardPathToPendingIndex;
+
+    /**
+     * Basic constructor.
+     *
+     * @param  baseBoxPath  base path for all boxes (e.g. [stack directory]/[tile width]x[tile height]).
+     * @param  format       format for all encoded box images (e.g. 'png').
+     * @param  shardSize    number of box rows and columns in each shard.
+     *
+     * @throws IllegalArgumentException
+     *   if the shard size is not positive.
+     */
+    public ShardedBoxStore(final String baseBoxPath,
+                           final String format,
+                           final int shardSize)
+            throws IllegalArgumentException {
+
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("shardSize must be positive");
+        }
+
+        this.baseBoxPath = baseBoxPath;
+        this.format = format;
+        this.shardSize = shardSize;
+        this.attributesLastModified = 0;
+    }
+
+    /**
+     * @param  baseBoxPath  base path for all boxes.
+     *
+     * @return the store persisted in the specified directory or null if the directory does not contain a store.
+     *
+     * @throws IOException
+     *   if the store attributes cannot be read.
+     */
+    public static ShardedBoxStore load(final String baseBoxPath)
+            throws IOException {
+
+        ShardedBoxStore store = null;
+
+        final File attributesFile = new File(baseBoxPath, ATTRIBUTES_FILE_NAME);
+        if (attributesFile.exists()) {
+            final Properties attributes = new Properties();
+            try (final InputStream inputStream = new FileInputStream(attributesFile)) {
+                attributes.load(inputStream);
+            }
+            try {
+                store = new ShardedBoxStore(baseBoxPath,
+                                            attributes.getProperty("format"),
+                                            Integer.parseInt(attributes.getProperty("shardSize")));
+                store.attributesLastModified = attributesFile.lastModified();
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("invalid attributes in " + attributesFile.getAbsolutePath(), e);
+            }
+        }
+
+        return store;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * @return true if this store was {@link #load loaded} from attributes that have not since been replaced
+     *         (e.g. by a subsequent run that regenerated the boxes); otherwise false.
+     */
+    public boolean isCurrent() {
+        final File attributesFile = new File(baseBoxPath, ATTRIBUTES_FILE_NAME);
+        return (attributesLastModified > 0) && (attributesFile.lastModified() == attributesLastModified);
+    }
+
+    /**
+     * Saves this store's attributes to its base directory so that it can be {@link #load loaded} by readers.
+     *
+     * @throws IOException
+     *   if the attributes cannot be saved.
+     */
+    public void saveAttributes()
+            throws IOException {
+
+        final File baseDirectory = new File(baseBoxPath);
+        FileUtil.ensureWritableDirectory(baseDirectory);
+
+        final Properties attributes = new Properties();
+        attributes.setProperty("format", format);
+        attributes.setProperty("shardSize", String.valueOf(shardSize));
+
+        // write to a temporary file and then rename it so that readers never see partial attributes
+        final File attributesFile = new File(baseDirectory, ATTRIBUTES_FILE_NAME);
+        final File tempFile = new File(baseDirectory, ATTRIBUTES_FILE_NAME + ".tmp");
+        try (final OutputStream outputStream = new FileOutputStream(tempFile)) {
+            attributes.store(outputStream, "sharded box store attributes");
+        }
+        Files.move(tempFile.toPath(), attributesFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        LOG.info("saveAttributes: saved {}", attributesFile.getAbsolutePath());
+    }
+
+    /**
+     * @return the (initial generation) shard data file that contains (or will contain) the specified box.
+     */
+    public File getShardFile(final int level,
+                             final int z,
+                             final int row,
+                             final int column) {
+        return new File(baseBoxPath, getShardPathWithoutExtension(level, z, row, column) + SHARD_EXTENSION);
+    }
+
+    /**
+     * @return the shard index file that references (or will reference) the specified box.
+     */
+    public File getIndexFile(final int level,
+                             final int z,
+                             final int row,
+                             final int column) {
+        return new File(baseBoxPath, getShardPathWithoutExtension(level, z, row, column) + INDEX_EXTENSION);
+    }
+
+    /**
+     * @return true if the specified box has been stored; otherwise false.
+     *
+     * @throws IOException
+     *   if the box's shard cannot be read.
+     */
+    public boolean hasBox(final BoxData boxData)
+            throws IOException {
+        return mapBox(boxData.getLevel(), (int) boxData.getZ(), boxData.getRow(), boxData.getColumn()) != null;
+    }
+
+    /**
+     * Memory maps the encoded data for the specified box.
+     *
+     * @return read-only buffer containing the encoded box image or null if the box has not been stored.
+     *
+     * @throws IOException
+     *   if the box's shard cannot be read.
+     */
+    public ByteBuffer mapBox(final int level,
+                             final int z,
+                             final int row,
+                             final int column)
+            throws IOException {
+
+        final File shardFile = getShardFile(level, z, row, column);
+        final long entryPosition = getIndexEntryPosition(row, column);
+
+        final PendingIndex pendingIndex = getPendingIndexes().get(shardFile.getAbsolutePath());
+        final IndexEntry pendingEntry = pendingIndex == null ? null : pendingIndex.entries.get(entryPosition);
+
+        ByteBuffer boxBuffer;
+        if (pendingEntry != null) {
+            // boxes written by this instance are readable before their index is published
+            boxBuffer = mapData(pendingIndex.dataFile, pendingEntry.offset, pendingEntry.length);
+        } else {
+            final File indexFile = getIndexFile(level, z, row, column);
+            try {
+                boxBuffer = mapPublishedBox(indexFile, shardFile, entryPosition);
+            } catch (final NoSuchFileException e) {
+                // the shard was compacted after its index was read, so use the compacted index
+                boxBuffer = mapPublishedBox(indexFile, shardFile, entryPosition);
+            }
+        }
+
+        return boxBuffer;
+    }
+
+    /**
+     * @return decoded ARGB image for the specified box or null if the box has not been stored.
+     *
+     * @throws IOException
+     *   if the box cannot be read or decoded.
+     */
+    public BufferedImage readImage(final BoxData boxData)
+            throws IOException {
+
+        BufferedImage image = null;
+
+        final ByteBuffer boxBuffer =
+                mapBox(boxData.getLevel(), (int) boxData.getZ(), boxData.getRow(), boxData.getColumn());
+
+        if (boxBuffer != null) {
+            final byte[] bytes = new byte[boxBuffer.remaining()];
+            boxBuffer.get(bytes);
+            image = decodeImage(bytes, boxData);
+        }
+
+        return image;
+    }
+
+    /**
+     * Encodes the specified image and stores it in the box's shard.
+     *
+     * @param  boxData  box being stored.
+     * @param  image    image to store.
+     * @param  isLabel  indicates that the image is a label and not a standard image.
+     *
+     * @throws IOException
+     *   if the image cannot be encoded or stored.
+     */
+    public void writeImage(final BoxData boxData,
+                           final BufferedImage image,
+                           final boolean isLabel)
+            throws IOException {
+
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+
+        final BufferedImage imageToWrite = isLabel ? BoxMipmapGenerator.convertArgbLabelTo16BitGray(image) : image;
+        if (Utils.TIFF_FORMAT.equals(format) || Utils.TIF_FORMAT.equals(format)) {
+            Utils.writeTiffImage(imageToWrite, byteStream);
+        } else {
+            try (final ImageOutputStream outputStream = new MemoryCacheImageOutputStream(byteStream)) {
+                Utils.writeImage(imageToWrite, format, (! isLabel), 0.85f, outputStream);
+            }
+        }
+
+        writeBox(boxData.getLevel(), (int) boxData.getZ(), boxData.getRow(), boxData.getColumn(),
+                 byteStream.toByteArray());
+    }
+
+    /**
+     * Appends the specified encoded box data to the box's shard and buffers the box's index update.
+     * The update is published once all boxes in the shard's super-block have been written by this instance,
+     * when too many shards have pending updates, or when this store is {@link #flush flushed}.
+     *
+     * @throws IOException
+     *   if the data cannot be stored.
+     */
+    public void writeBox(final int level,
+                         final int z,
+                         final int row,
+                         final int column,
+                         final byte[] encodedBox)
+            throws IOException {
+
+        final File shardFile = getShardFile(level, z, row, column);
+        final String shardPath = shardFile.getAbsolutePath();
+        final Map<String, PendingIndex> pendingIndexes = getPendingIndexes();
+
+        final Lock lock = SHARD_LOCKS.get(shardPath);
+        lock.lock();
+        try {
+
+            PendingIndex pendingIndex = pendingIndexes.get(shardPath);
+            if (pendingIndex == null) {
+                pendingIndex = new PendingIndex(shardFile, getIndexFile(level, z, row, column));
+                pendingIndexes.put(shardPath, pendingIndex);
+            }
+
+            final long offset;
+            try (final FileLock ignored = pendingIndex.dataChannel.lock()) {
+                offset = pendingIndex.dataChannel.size();
+                writeFully(pendingIndex.dataChannel, ByteBuffer.wrap(encodedBox), offset);
+            }
+
+            pendingIndex.entries.put(getIndexEntryPosition(row, column), new IndexEntry(offset, encodedBox.length));
+
+            if (pendingIndex.entries.size() == (shardSize * shardSize)) {
+                // this instance has written the entire super-block
+                pendingIndexes.remove(shardPath);
+                publish(pendingIndex);
+            }
+
+        } finally {
+            lock.unlock();
+        }
+
+        // publish the oldest pending index outside of the shard lock to avoid lock ordering issues
+        String oldestShardPath = null;
+        synchronized (pendingIndexes) {
+            if (pendingIndexes.size() > MAX_PENDING_SHARDS) {
+                oldestShardPath = pendingIndexes.keySet().iterator().next();
+            }
+        }
+        if (oldestShardPath != null) {
+            publishPendingIndex(oldestShardPath);
+        }
+
+        LOG.debug("writeBox: saved level {} z {} row {} column {} to {}", level, z, row, column, shardFile);
+    }
+
+    /**
+     * Publishes all of this instance's pending index updates.
+     *
+     * @throws IOException
+     *   if any updates cannot be published.
+     */
+    public void flush()
+            throws IOException {
+        final Map<String, PendingIndex> pendingIndexes = getPendingIndexes();
+        final List<String> shardPaths;
+        synchronized (pendingIndexes) {
+            shardPaths = new ArrayList<>(pendingIndexes.keySet());
+        }
+        for (final String shardPath : shardPaths) {
+            publishPendingIndex(shardPath);
+        }
+    }
+
+    /**
+     * Reclaims unreferenced data (e.g. from regenerated boxes or from failed runs) in the shards
+     * for the specified level and layer.  Compaction is safe for concurrent readers, but must not be run
+     * while boxes for the level and layer are being written.
+     *
+     * @return number of unreferenced bytes that were removed.
+     *
+     * @throws IOException
+     *   if any shards cannot be compacted.
+     */
+    public long compactShards(final int level,
+                              final int z)
+            throws IOException {
+
+        long removedByteCount = 0;
+
+        final File shardsDirectory = getShardFile(level, z, 0, 0).getParentFile();
+        final File[] indexFiles = shardsDirectory.listFiles((dir, name) -> name.endsWith(".index"));
+        if (indexFiles != null) {
+            for (final File indexFile : indexFiles) {
+                removedByteCount += compactShard(indexFile);
+            }
+        }
+
+        return removedByteCount;
+    }
+
+    private String getShardPathWithoutExtension(final int level,
+                                                final int z,
+                                                final int row,
+                                                final int column) {
+        return level + "/" + z + "/shards/" + (row / shardSize) + "_" + (column / shardSize);
+    }
+
+    private int getIndexSize() {
+        return HEADER_SIZE + (shardSize * shardSize * INDEX_ENTRY_SIZE);
+    }
+
+    private long getIndexEntryPosition(final int row,
+                                       final int column) {
+        final int index = ((row % shardSize) * shardSize) + (column % shardSize);
+        return HEADER_SIZE + ((long) index * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * @return the data file generation for the index.
+     */
+    private int readHeader(final FileChannel channel,
+                           final File indexFile)
+            throws IOException {
+
+        final ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        final int magic = header.getInt();
+        final int version = header.getInt();
+        final int fileShardSize = header.getInt();
+        final int generation = header.getInt();
+
+        if ((magic != MAGIC) || (version != VERSION) || (fileShardSize != shardSize)) {
+            throw new IOException("shard index " + indexFile.getAbsolutePath() + " has invalid header (magic=" + magic +
+                                  ", version=" + version + ", shardSize=" + fileShardSize +
+                                  "), expected shardSize is " + shardSize);
+        }
+
+        return generation;
+    }
+
+    /**
+     * @return the complete index (including header) for a shard or a new empty index if the shard has no index.
+     */
+    private ByteBuffer readIndex(final File indexFile)
+            throws IOException {
+
+        final ByteBuffer index;
+        if (indexFile.exists()) {
+            try (final FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                readHeader(indexChannel, indexFile);
+                index = readFully(indexChannel, 0, getIndexSize());
+            }
+        } else {
+            index = ByteBuffer.allocate(getIndexSize());
+            index.putInt(MAGIC).putInt(VERSION).putInt(shardSize).putInt(0);
+            index.rewind();
+        }
+        return index;
+    }
+
+    /**
+     * Writes the specified index to a temporary file and then atomically renames it to replace any prior index.
+     * Callers must hold the shard's file lock since it protects the temporary index file from other writers.
+     */
+    private static void publishIndex(final ByteBuffer index,
+                                     final File indexFile)
+            throws IOException {
+
+        final File tempIndexFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        try (final FileChannel tempChannel = FileChannel.open(tempIndexFile.toPath(),
+                                                              StandardOpenOption.CREATE,
+                                                              StandardOpenOption.TRUNCATE_EXISTING,
+                                                              StandardOpenOption.WRITE)) {
+            index.rewind();
+            writeFully(tempChannel, index, 0);
+            tempChannel.force(false);
+        }
+        Files.move(tempIndexFile.toPath(), indexFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ByteBuffer mapPublishedBox(final File indexFile,
+                                       final File shardFile,
+                                       final long entryPosition)
+            throws IOException {
+
+        ByteBuffer boxBuffer = null;
+
+        if (indexFile.exists()) {
+
+            // index files are replaced (renamed) rather than modified, so an opened index is always complete
+            final int generation;
+            final long offset;
+            final int length;
+            try (final FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                generation = readHeader(indexChannel, indexFile);
+                final ByteBuffer entry = readFully(indexChannel, entryPosition, INDEX_ENTRY_SIZE);
+                offset = entry.getLong();
+                length = entry.getInt();
+            }
+
+            if (length > 0) {
+                // data referenced by an index is always written before the index is published
+                boxBuffer = mapData(getDataFile(shardFile, generation), offset, length);
+            }
+        }
+
+        return boxBuffer;
+    }
+
+    private static ByteBuffer mapData(final File dataFile,
+                                      final long offset,
+                                      final int length)
+            throws IOException {
+        try (final FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+            if (offset + length > channel.size()) {
+                throw new IOException("index references data beyond the end of " + dataFile.getAbsolutePath());
+            }
+            // mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+    }
+
+    /**
+     * @return the data file for the specified generation of a shard.
+     */
+    private static File getDataFile(final File shardFile,
+                                    final int generation) {
+        final File dataFile;
+        if (generation == 0) {
+            dataFile = shardFile;
+        } else {
+            final String name = shardFile.getName();
+            dataFile = new File(shardFile.getParentFile(),
+                                name.substring(0, name.length() - SHARD_EXTENSION.length()) + "." + generation +
+                                SHARD_EXTENSION);
+        }
+        return dataFile;
+    }
+
+    private synchronized Map<String, PendingIndex> getPendingIndexes() {
+        if (shardPathToPendingIndex == null) {
+            shardPathToPendingIndex = Collections.synchronizedMap(new LinkedHashMap<>());
+        }
+        return shardPathToPendingIndex;
+    }
+
+    private void publishPendingIndex(final String shardPath)
+            throws IOException {
+        final Lock lock = SHARD_LOCKS.get(shardPath);
+        lock.lock();
+        try {
+            final PendingIndex pendingIndex = getPendingIndexes().remove(shardPath);
+            if (pendingIndex != null) {
+                publish(pendingIndex);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces pending box data to disk and then merges the pending index updates into the shard's published index.
+     * Callers must hold the shard's in-process lock.
+     */
+    private void publish(final PendingIndex pendingIndex)
+            throws IOException {
+
+        try (final FileChannel channel = pendingIndex.dataChannel;
+             final FileLock ignored = channel.lock()) {
+
+            channel.force(false);
+
+            // other writers may have published updates for other boxes in the shard
+            final ByteBuffer index = readIndex(pendingIndex.indexFile);
+            final int generation = index.getInt(GENERATION_POSITION);
+            if (generation != pendingIndex.generation) {
+                throw new IOException("shard " + pendingIndex.indexFile.getAbsolutePath() +
+                                      " was compacted while boxes were being written to it");
+            }
+
+            for (final Map.Entry<Long, IndexEntry> entry : pendingIndex.entries.entrySet()) {
+                final int entryPosition = entry.getKey().intValue();
+                index.putLong(entryPosition, entry.getValue().offset);
+                index.putInt(entryPosition + 8, entry.getValue().length);
+            }
+
+            publishIndex(index, pendingIndex.indexFile);
+        }
+
+        LOG.debug("publish: published {} index entries for {}",
+                  pendingIndex.entries.size(), pendingIndex.dataFile);
+    }
+
+    /**
+     * Copies the referenced data for a shard into a new generation of its data file if enough of the
+     * current data file is unreferenced and removes any other (stale) data files for the shard.
+     *
+     * @return number of unreferenced bytes that were removed.
+     */
+    private long compactShard(final File indexFile)
+            throws IOException {
+
+        long removedByteCount = 0;
+
+        final String indexName = indexFile.getName();
+        final String shardBaseName = indexName.substring(0, indexName.length() - INDEX_EXTENSION.length());
+        final File shardFile = new File(indexFile.getParentFile(), shardBaseName + SHARD_EXTENSION);
+
+        final Lock lock = SHARD_LOCKS.get(shardFile.getAbsolutePath());
+        lock.lock();
+        try {
+
+            final ByteBuffer index = readIndex(indexFile);
+            final int generation = index.getInt(GENERATION_POSITION);
+            final File dataFile = getDataFile(shardFile, generation);
+
+            File compactedDataFile = dataFile;
+
+            try (final FileChannel channel = FileChannel.open(dataFile.toPath(),
+                                                              StandardOpenOption.READ,
+                                                              StandardOpenOption.WRITE);
+                 final FileLock ignored = channel.lock()) {
+
+                long referencedByteCount = 0;
+                for (int position = HEADER_SIZE; position < index.limit(); position += INDEX_ENTRY_SIZE) {
+                    referencedByteCount += index.getInt(position + 8);
+                }
+
+                final long unreferencedByteCount = channel.size() - referencedByteCount;
+                if (unreferencedByteCount > (channel.size() * MIN_UNREFERENCED_FRACTION_TO_COMPACT)) {
+
+                    compactedDataFile = getDataFile(shardFile, generation + 1);
+                    try (final FileChannel compactedChannel = FileChannel.open(compactedDataFile.toPath(),
+                                                                               StandardOpenOption.CREATE,
+                                                                               StandardOpenOption.TRUNCATE_EXISTING,
+                                                                               StandardOpenOption.WRITE)) {
+                        long compactedOffset = 0;
+                        for (int position = HEADER_SIZE; position < index.limit(); position += INDEX_ENTRY_SIZE) {
+                            final long offset = index.getLong(position);
+                            final int length = index.getInt(position + 8);
+                            if (length > 0) {
+                                transferFully(channel, offset, length, compactedChannel, compactedOffset);
+                                index.putLong(position, compactedOffset);
+                                compactedOffset += length;
+                            }
+                        }
+                        compactedChannel.force(false);
+                    }
+
+                    index.putInt(GENERATION_POSITION, generation + 1);
+                    publishIndex(index, indexFile);
+
+                    removedByteCount += unreferencedByteCount;
+                }
+            }
+
+            // remove replaced data files along with data files left by any failed compactions
+            final String dataFilePrefix = shardBaseName + ".";
+            final File[] shardDataFiles = indexFile.getParentFile().listFiles(
+                    (dir, name) -> name.startsWith(dataFilePrefix) && name.endsWith(SHARD_EXTENSION));
+            if (shardDataFiles != null) {
+                for (final File shardDataFile : shardDataFiles) {
+                    if (! shardDataFile.equals(compactedDataFile)) {
+                        final long length = shardDataFile.length();
+                        if (shardDataFile.delete()) {
+                            if (! shardDataFile.equals(dataFile)) {
+                                removedByteCount += length;
+                            }
+                        } else {
+                            LOG.warn("compactShard: failed to delete {}", shardDataFile.getAbsolutePath());
+                        }
+                    }
+                }
+            }
+
+        } finally {
+            lock.unlock();
+        }
+
+        if (removedByteCount > 0) {
+            LOG.info("compactShard: removed {} unreferenced bytes from {}", removedByteCount, shardFile);
+        }
+
+        return removedByteCount;
+    }
+
+    private BufferedImage decodeImage(final byte[] bytes,
+                                      final BoxData boxData)
+            throws IOException {
+
+        final BufferedImage decodedImage;
+        if (Utils.TIFF_FORMAT.equals(format) || Utils.TIF_FORMAT.equals(format)) {
+            final ImagePlus imagePlus = new Opener().openTiff(new ByteArrayInputStream(bytes), boxData.toString());
+            decodedImage = imagePlus == null ? null : imagePlus.getBufferedImage();
+        } else {
+            decodedImage = ImageIO.read(new ByteArrayInputStream(bytes));
+        }
+
+        if (decodedImage == null) {
+            throw new IOException("failed to decode stored image for box " + boxData);
+        }
+
+        // draw into an ARGB image to get the same pixels as Utils.openImage
+        final BufferedImage image = new BufferedImage(decodedImage.getWidth(),
+                                                      decodedImage.getHeight(),
+                                                      BufferedImage.TYPE_INT_ARGB);
+        image.createGraphics().drawImage(decodedImage, 0, 0, null);
+
+        return image;
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel,
+                                        final long position,
+                                        final int length)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of shard at position " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void transferFully(final FileChannel fromChannel,
+                                      final long fromPosition,
+                                      final long length,
+                                      final FileChannel toChannel,
+                                      final long toPosition)
+            throws IOException {
+        long transferredByteCount = 0;
+        while (transferredByteCount < length) {
+            final long count = fromChannel.transferTo(fromPosition + transferredByteCount,
+                                                      length - transferredByteCount,
+                                                      toChannel.position(toPosition + transferredByteCount));
+            if (count <= 0) {
+                throw new IOException("unexpected end of shard at position " + (fromPosition + transferredByteCount));
+            }
+            transferredByteCount += count;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel,
+                                   final ByteBuffer buffer,
+                                   final long position)
+            throws IOException {
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    /**
+     * Location of a box's data within a shard data file.
+     */
+    private static class IndexEntry {
+
+        private final long offset;
+        private final int length;
+
+        IndexEntry(final long offset,
+                   final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Open data file and unpublished index entries for a shard being written by this instance.
+     */
+    private class PendingIndex {
+
+        private final File indexFile;
+        private final int generation;
+        private final File dataFile;
+        private final FileChannel dataChannel;
+        private final Map<Long, IndexEntry> entries;
+
+        PendingIndex(final File shardFile,
+                     final File indexFile)
+                throws IOException {
+
+            FileUtil.ensureWritableDirectory(shardFile.getParentFile());
+
+            this.indexFile = indexFile;
+            this.generation = readIndex(indexFile).getInt(GENERATION_POSITION);
+            this.dataFile = getDataFile(shardFile, generation);
+            this.dataChannel = FileChannel.open(dataFile.toPath(),
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE);
+            this.entries = new ConcurrentHashMap<>();
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedBoxStore.class);
+}
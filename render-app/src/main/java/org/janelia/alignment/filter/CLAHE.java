@@ -61,4 +61,10 @@ public class CLAHE implements Filter {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        return "CLAHE{fast=" + fast + ", blockRadius=" + blockRadius + ", bins=" + bins
+                + ", slope=" + slope + "}";
+    }
 }
@@ -49,4 +49,9 @@ public class EqualizeHistogram implements Filter {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        return "EqualizeHistogram{saturatedpixels=" + saturatedpixels + "}";
+    }
 }
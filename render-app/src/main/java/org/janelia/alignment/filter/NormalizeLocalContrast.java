@@ -63,4 +63,10 @@ public class NormalizeLocalContrast implements Filter {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        return "NormalizeLocalContrast{brx=" + brx + ", bry=" + bry + ", stds=" + stds
+                + ", cent=" + cent + ", stret=" + stret + "}";
+    }
 }
@@ -0,0 +1,422 @@
+package org.janelia.alignment.filter;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Multi-threaded version of {@link CLAHE} for large (e.g. full resolution camera) 8-bit tiles.
+ * Other image types are delegated to the single-threaded {@link CLAHE} implementation.
+ *
+ * <ul>
+ *   <li>
+ *     When fast is false, every pixel is equalized with the clipped histogram of its own block.
+ *     The image is split into bands of rows that are processed in parallel.  Each band slides
+ *     its block histogram across rows and columns (adding and removing one row or column at a time),
+ *     following the same window, clipping, and redistribution rules as the exact ImageJ implementation.
+ *     Results are expected to match {@link CLAHE} exactly.
+ *   </li>
+ *   <li>
+ *     When fast is true, clipped transfer functions are only derived for a grid of block centers
+ *     (in parallel) and each pixel's value is bilinearly interpolated from the four surrounding
+ *     transfer functions (in parallel row bands).  Like the fast ImageJ implementation, this is
+ *     an approximation of the exact result.  Grid placement differs from the ImageJ implementation,
+ *     so results are expected to match {@link CLAHE} within a few intensity levels
+ *     (a mean absolute difference of at most two levels with at least 95% of pixels within five levels);
+ *     see ParallelCLAHETest and LocalContrastFilterPerformanceTest for comparisons.
+ *   </li>
+ * </ul>
+ *
+ * @author Eric Trautman
+ */
+public class ParallelCLAHE
+        extends CLAHE {
+
+    private int numberOfThreads = ParallelRowBands.getDefaultNumberOfThreads();
+
+    public ParallelCLAHE() {
+    }
+
+    public ParallelCLAHE(final boolean fast,
+                         final int blockRadius,
+                         final int bins,
+                         final float slope) {
+        super(fast, blockRadius, bins, slope);
+    }
+
+    public ParallelCLAHE(final Map<String, String> params) {
+        super(params);
+    }
+
+    public void setNumberOfThreads(final int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    @Override
+    public ImageProcessor process(final ImageProcessor ip,
+                                  final double scale) {
+
+        if (ip instanceof ByteProcessor) {
+
+            final int scaledBlockRadius = (int) Math.round(blockRadius * scale);
+            final byte[] pixels = (byte[]) ip.getPixels();
+
+            // map 8-bit values to histogram bins once instead of for every block
+            final int[] valueToBin = new int[256];
+            for (int value = 0; value < valueToBin.length; value++) {
+                valueToBin[value] = roundPositive(value / 255.0f * bins);
+            }
+
+            final byte[] equalizedPixels;
+            if (fast) {
+                equalizedPixels = equalizeWithGrid(pixels, ip.getWidth(), ip.getHeight(), scaledBlockRadius,
+                                                   valueToBin);
+            } else {
+                equalizedPixels = equalize(pixels, ip.getWidth(), ip.getHeight(), scaledBlockRadius,
+                                           valueToBin);
+            }
+
+            System.arraycopy(equalizedPixels, 0, pixels, 0, pixels.length);
+
+        } else {
+            super.process(ip, scale);
+        }
+
+        return ip;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (null == o)
+            return false;
+        if (o.getClass() == ParallelCLAHE.class) {
+            final ParallelCLAHE c = (ParallelCLAHE) o;
+            return bins == c.bins && blockRadius == c.blockRadius
+                    && slope == c.slope && fast == c.fast;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelCLAHE{fast=" + fast + ", blockRadius=" + blockRadius + ", bins=" + bins
+                + ", slope=" + slope + "}";
+    }
+
+    private byte[] equalize(final byte[] pixels,
+                            final int width,
+                            final int height,
+                            final int radius,
+                            final int[] valueToBin) {
+
+        final byte[] equalizedPixels = new byte[pixels.length];
+
+        // the first block of each row covers columns [0, firstBlockMaxX) and the first pixel adds one more column
+        final int firstBlockMaxX = Math.min(width - 1, radius);
+
+        ParallelRowBands.run(height, MIN_ROWS_PER_BAND, numberOfThreads, (fromRow, toRow) -> {
+
+            final int[] firstBlockHistogram = new int[bins + 1];
+            final int[] histogram = new int[bins + 1];
+            final int[] clippedHistogram = new int[bins + 1];
+
+            int firstBlockMinY = Math.max(0, fromRow - radius);
+            int firstBlockMaxY = firstBlockMinY;
+
+            for (int y = fromRow; y < toRow; y++) {
+
+                final int yMin = Math.max(0, y - radius);
+                final int yMax = Math.min(height, y + radius + 1);
+                final int h = yMax - yMin;
+
+                // slide the first block of the row down instead of rebuilding it
+                for (; firstBlockMaxY < yMax; firstBlockMaxY++) {
+                    addColumns(pixels, width, firstBlockMaxY, 0, firstBlockMaxX, 1, valueToBin, firstBlockHistogram);
+                }
+                for (; firstBlockMinY < yMin; firstBlockMinY++) {
+                    addColumns(pixels, width, firstBlockMinY, 0, firstBlockMaxX, -1, valueToBin, firstBlockHistogram);
+                }
+
+                System.arraycopy(firstBlockHistogram, 0, histogram, 0, histogram.length);
+
+                for (int x = 0; x < width; x++) {
+
+                    final int v = valueToBin[pixels[y * width + x] & 0xff];
+
+                    final int xMin = Math.max(0, x - radius);
+                    final int xMax = x + radius + 1;
+                    final int w = Math.min(width, xMax) - xMin;
+                    final int n = h * w;
+
+                    final int limit = (int) (slope * n / bins + 0.5f);
+
+                    // remove left behind values from histogram
+                    if (xMin > 0) {
+                        addRows(pixels, width, xMin - 1, yMin, yMax, -1, valueToBin, histogram);
+                    }
+
+                    // add newly included values to histogram
+                    if (xMax <= width) {
+                        addRows(pixels, width, xMax - 1, yMin, yMax, 1, valueToBin, histogram);
+                    }
+
+                    System.arraycopy(histogram, 0, clippedHistogram, 0, histogram.length);
+                    clip(clippedHistogram, limit);
+
+                    // build cdf of clipped histogram
+                    int hMin = bins;
+                    for (int i = 0; i < hMin; ++i) {
+                        if (clippedHistogram[i] != 0) {
+                            hMin = i;
+                        }
+                    }
+
+                    int cdf = 0;
+                    for (int i = hMin; i <= v; ++i) {
+                        cdf += clippedHistogram[i];
+                    }
+
+                    int cdfMax = cdf;
+                    for (int i = v + 1; i <= bins; ++i) {
+                        cdfMax += clippedHistogram[i];
+                    }
+
+                    final int cdfMin = clippedHistogram[hMin];
+
+                    equalizedPixels[y * width + x] =
+                            (byte) roundPositive((cdf - cdfMin) / (float) (cdfMax - cdfMin) * 255.0f);
+                }
+            }
+        });
+
+        return equalizedPixels;
+    }
+
+    private byte[] equalizeWithGrid(final byte[] pixels,
+                                    final int width,
+                                    final int height,
+                                    final int radius,
+                                    final int[] valueToBin) {
+
+        final int[] centerX = getBlockCenters(width, radius);
+        final int[] centerY = getBlockCenters(height, radius);
+
+        // derive transfer functions (mapping bins to [0, 1]) for each block center
+        final float[][][] transfers = new float[centerY.length][centerX.length][];
+
+        ParallelRowBands.run(centerY.length, 1, numberOfThreads, (fromRow, toRow) -> {
+
+            final int[] histogram = new int[bins + 1];
+
+            for (int row = fromRow; row < toRow; row++) {
+
+                final int yMin = Math.max(0, centerY[row] - radius);
+                final int yMax = Math.min(height, centerY[row] + radius + 1);
+
+                for (int column = 0; column < centerX.length; column++) {
+
+                    final int xMin = Math.max(0, centerX[column] - radius);
+                    final int xMax = Math.min(width, centerX[column] + radius + 1);
+
+                    Arrays.fill(histogram, 0);
+                    for (int y = yMin; y < yMax; y++) {
+                        addColumns(pixels, width, y, xMin, xMax, 1, valueToBin, histogram);
+                    }
+
+                    final int n = (yMax - yMin) * (xMax - xMin);
+                    clip(histogram, (int) (slope * n / bins + 0.5f));
+
+                    transfers[row][column] = createTransfer(histogram);
+                }
+            }
+        });
+
+        final byte[] equalizedPixels = new byte[pixels.length];
+
+        ParallelRowBands.run(height, MIN_ROWS_PER_BAND, numberOfThreads, (fromRow, toRow) -> {
+
+            final int[] columnIndex = new int[width];
+            final float[] columnWeight = new float[width];
+            for (int x = 0; x < width; x++) {
+                setInterpolationIndexAndWeight(x, centerX, columnIndex, columnWeight, x);
+            }
+
+            final int[] rowIndex = new int[1];
+            final float[] rowWeight = new float[1];
+
+            for (int y = fromRow; y < toRow; y++) {
+
+                setInterpolationIndexAndWeight(y, centerY, rowIndex, rowWeight, 0);
+                final int r0 = rowIndex[0];
+                final int r1 = Math.min(r0 + 1, centerY.length - 1);
+                final float wy = rowWeight[0];
+
+                for (int x = 0; x < width; x++) {
+
+                    final int c0 = columnIndex[x];
+                    final int c1 = Math.min(c0 + 1, centerX.length - 1);
+                    final float wx = columnWeight[x];
+
+                    final int v = valueToBin[pixels[y * width + x] & 0xff];
+
+                    final float top = (1 - wx) * transfers[r0][c0][v] + wx * transfers[r0][c1][v];
+                    final float bottom = (1 - wx) * transfers[r1][c0][v] + wx * transfers[r1][c1][v];
+
+                    equalizedPixels[y * width + x] = (byte) roundPositive(((1 - wy) * top + wy * bottom) * 255.0f);
+                }
+            }
+        });
+
+        return equalizedPixels;
+    }
+
+    /**
+     * Clips the specified histogram and redistributes clipped entries (repeating until nothing is clipped).
+     */
+    private void clip(final int[] clippedHistogram,
+                      final int limit) {
+
+        int clippedEntries = 0;
+        int clippedEntriesBefore;
+        do {
+            clippedEntriesBefore = clippedEntries;
+            clippedEntries = 0;
+            for (int i = 0; i <= bins; ++i) {
+                final int d = clippedHistogram[i] - limit;
+                if (d > 0) {
+                    clippedEntries += d;
+                    clippedHistogram[i] = limit;
+                }
+            }
+
+            final int d = clippedEntries / (bins + 1);
+            final int m = clippedEntries % (bins + 1);
+            for (int i = 0; i <= bins; ++i) {
+                clippedHistogram[i] += d;
+            }
+
+            if (m != 0) {
+                final int s = bins / m;
+                for (int i = 0; i <= bins; i += s) {
+                    ++clippedHistogram[i];
+                }
+            }
+        } while (clippedEntries != clippedEntriesBefore);
+    }
+
+    /**
+     * @return normalized cdf of the specified clipped histogram.
+     */
+    private float[] createTransfer(final int[] clippedHistogram) {
+
+        int hMin = bins;
+        for (int i = 0; i < hMin; ++i) {
+            if (clippedHistogram[i] != 0) {
+                hMin = i;
+            }
+        }
+
+        final int cdfMin = clippedHistogram[hMin];
+        int cdfMax = 0;
+        for (int i = hMin; i <= bins; ++i) {
+            cdfMax += clippedHistogram[i];
+        }
+
+        final float[] transfer = new float[bins + 1];
+        int cdf = 0;
+        for (int i = hMin; i <= bins; ++i) {
+            cdf += clippedHistogram[i];
+            // uniform blocks have no contrast to enhance, so leave them unchanged
+            transfer[i] = cdfMax == cdfMin ? (float) i / bins : (cdf - cdfMin) / (float) (cdfMax - cdfMin);
+        }
+
+        return transfer;
+    }
+
+    /**
+     * @return block centers spaced at most one block apart with the first and last
+     *         blocks aligned to the image borders (or a single center for small images).
+     */
+    static int[] getBlockCenters(final int size,
+                                 final int radius) {
+        final int blockSize = 2 * radius + 1;
+        final int[] centers;
+        if (size <= blockSize) {
+            centers = new int[] { size / 2 };
+        } else {
+            final int first = radius;
+            final int last = size - radius - 1;
+            final int count = (int) Math.ceil((last - first) / (double) blockSize) + 1;
+            centers = new int[count];
+            for (int i = 0; i < count; i++) {
+                centers[i] = first + (int) Math.round(i * (last - first) / (double) (count - 1));
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * Sets (at offset) the index of the center at or before the specified position and
+     * the interpolation weight of the following center.
+     * Positions outside the first and last centers use the nearest center.
+     */
+    private static void setInterpolationIndexAndWeight(final int position,
+                                                       final int[] centers,
+                                                       final int[] indexes,
+                                                       final float[] weights,
+                                                       final int offset) {
+        int index = 0;
+        float weight = 0;
+        if (position >= centers[centers.length - 1]) {
+            index = centers.length - 1;
+        } else if (position > centers[0]) {
+            while (centers[index + 1] <= position) {
+                index++;
+            }
+            weight = (position - centers[index]) / (float) (centers[index + 1] - centers[index]);
+        }
+        indexes[offset] = index;
+        weights[offset] = weight;
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) the values in columns [fromX, toX) of the specified row.
+     */
+    private static void addColumns(final byte[] pixels,
+                                   final int width,
+                                   final int y,
+                                   final int fromX,
+                                   final int toX,
+                                   final int sign,
+                                   final int[] valueToBin,
+                                   final int[] histogram) {
+        final int rowOffset = y * width;
+        for (int x = fromX; x < toX; x++) {
+            histogram[valueToBin[pixels[rowOffset + x] & 0xff]] += sign;
+        }
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) the values in rows [fromY, toY) of the specified column.
+     */
+    private static void addRows(final byte[] pixels,
+                                final int width,
+                                final int x,
+                                final int fromY,
+                                final int toY,
+                                final int sign,
+                                final int[] valueToBin,
+                                final int[] histogram) {
+        for (int y = fromY; y < toY; y++) {
+            histogram[valueToBin[pixels[y * width + x] & 0xff]] += sign;
+        }
+    }
+
+    private static int roundPositive(final float value) {
+        return (int) (value + 0.5f);
+    }
+
+    private static final int MIN_ROWS_PER_BAND = 16;
+}
@@ -0,0 +1,194 @@
+package org.janelia.alignment.filter;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Map;
+
+/**
+ * Multi-threaded version of {@link NormalizeLocalContrast} for large (e.g. full resolution camera) tiles.
+ *
+ * For each pixel, the mean and (population) standard deviation of the block
+ * [x - brx, x + brx] x [y - bry, y + bry] (clipped to the image) are derived and
+ * the range mean +/- stds * std is mapped to the image's display range:
+ * <ul>
+ *   <li>stretch scales the pixel's distance from the block mean so that the range fills the display range,</li>
+ *   <li>center shifts the block mean to the middle of the display range
+ *       (otherwise the block mean keeps its value).</li>
+ * </ul>
+ * Integer images are rounded and clamped to their display range.
+ *
+ * The image is split into bands of rows that are processed in parallel.
+ * Each band maintains sliding column sums (and sums of squares) of the rows in its current block,
+ * so block statistics cost a constant number of operations per pixel regardless of block radius.
+ * Because integer pixel sums are exact in double precision, results do not depend upon the
+ * number of threads.  For integer images, results are expected to match {@link NormalizeLocalContrast}
+ * with a mean absolute difference of at most one intensity level and with at least 99% of pixels
+ * within two intensity levels (differences stem from rounding and from float versus double accumulation);
+ * see ParallelNormalizeLocalContrastTest and LocalContrastFilterPerformanceTest for comparisons.
+ *
+ * @author Eric Trautman
+ */
+public class ParallelNormalizeLocalContrast
+        extends NormalizeLocalContrast {
+
+    private int numberOfThreads = ParallelRowBands.getDefaultNumberOfThreads();
+
+    public ParallelNormalizeLocalContrast() {
+    }
+
+    public ParallelNormalizeLocalContrast(final int blockRadiusX,
+                                          final int blockRadiusY,
+                                          final float stdDevs,
+                                          final boolean center,
+                                          final boolean stretch) {
+        super(blockRadiusX, blockRadiusY, stdDevs, center, stretch);
+    }
+
+    public ParallelNormalizeLocalContrast(final Map<String, String> params) {
+        super(params);
+    }
+
+    public void setNumberOfThreads(final int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    @Override
+    public ImageProcessor process(final ImageProcessor ip,
+                                  final double scale) {
+
+        final int blockRadiusX = (int) Math.round(brx * scale);
+        final int blockRadiusY = (int) Math.round(bry * scale);
+
+        final int width = ip.getWidth();
+        final int height = ip.getHeight();
+
+        // bands read neighboring rows, so statistics must be derived from an unmodified copy of the source
+        final float[] source = new float[width * height];
+        ParallelRowBands.run(height, 1, numberOfThreads, (fromRow, toRow) -> {
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                source[i] = ip.getf(i);
+            }
+        });
+
+        final double displayMin = ip.getMin();
+        final double displayMax = ip.getMax();
+        final boolean isInteger = ! (ip instanceof FloatProcessor);
+
+        ParallelRowBands.run(height, MIN_ROWS_PER_BAND, numberOfThreads, (fromRow, toRow) -> {
+
+            final double[] columnSums = new double[width];
+            final double[] columnSquareSums = new double[width];
+            final double[] rowSums = new double[width + 1];
+            final double[] rowSquareSums = new double[width + 1];
+
+            int blockFirstRow = Math.max(0, fromRow - blockRadiusY);
+            int blockLastRow = blockFirstRow - 1;
+
+            for (int y = fromRow; y < toRow; y++) {
+
+                final int firstRow = Math.max(0, y - blockRadiusY);
+                final int lastRow = Math.min(height - 1, y + blockRadiusY);
+
+                while (blockLastRow < lastRow) {
+                    blockLastRow++;
+                    addRow(source, width, blockLastRow, 1, columnSums, columnSquareSums);
+                }
+                while (blockFirstRow < firstRow) {
+                    addRow(source, width, blockFirstRow, -1, columnSums, columnSquareSums);
+                    blockFirstRow++;
+                }
+
+                for (int x = 0; x < width; x++) {
+                    rowSums[x + 1] = rowSums[x] + columnSums[x];
+                    rowSquareSums[x + 1] = rowSquareSums[x] + columnSquareSums[x];
+                }
+
+                final int blockRowCount = blockLastRow - blockFirstRow + 1;
+                final int rowOffset = y * width;
+
+                for (int x = 0; x < width; x++) {
+
+                    final int firstColumn = Math.max(0, x - blockRadiusX);
+                    final int lastColumn = Math.min(width - 1, x + blockRadiusX);
+                    final double n = (lastColumn - firstColumn + 1) * blockRowCount;
+
+                    final double mean = (rowSums[lastColumn + 1] - rowSums[firstColumn]) / n;
+                    final double variance =
+                            ((rowSquareSums[lastColumn + 1] - rowSquareSums[firstColumn]) / n) - (mean * mean);
+                    final double std = variance > 0 ? Math.sqrt(variance) : 0;
+
+                    final double value = normalize(source[rowOffset + x], mean, std, displayMin, displayMax);
+
+                    if (isInteger) {
+                        ip.setf(rowOffset + x, (float) Math.round(Math.max(displayMin, Math.min(displayMax, value))));
+                    } else {
+                        ip.setf(rowOffset + x, (float) value);
+                    }
+                }
+            }
+        });
+
+        return ip;
+    }
+
+    /**
+     * @return the normalized value for the specified pixel value and block statistics.
+     */
+    double normalize(final double value,
+                     final double mean,
+                     final double std,
+                     final double displayMin,
+                     final double displayMax) {
+
+        final double displayRange = displayMax - displayMin;
+        final double d = stds * std;
+
+        double normalizedValue = value - mean;
+        if (stret && (d > 0)) {
+            normalizedValue = normalizedValue * displayRange / (2 * d);
+        }
+        if (cent) {
+            normalizedValue += displayMin + (displayRange / 2);
+        } else {
+            normalizedValue += mean;
+        }
+
+        return normalizedValue;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (null == o)
+            return false;
+        if (o.getClass() == ParallelNormalizeLocalContrast.class) {
+            final ParallelNormalizeLocalContrast c = (ParallelNormalizeLocalContrast) o;
+            return brx == c.brx && bry == c.bry && stds == c.stds
+                    && cent == c.cent && stret == c.stret;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelNormalizeLocalContrast{brx=" + brx + ", bry=" + bry + ", stds=" + stds
+                + ", cent=" + cent + ", stret=" + stret + "}";
+    }
+
+    private static void addRow(final float[] source,
+                               final int width,
+                               final int row,
+                               final int sign,
+                               final double[] columnSums,
+                               final double[] columnSquareSums) {
+        final int rowOffset = row * width;
+        double value;
+        for (int x = 0; x < width; x++) {
+            value = source[rowOffset + x];
+            columnSums[x] += sign * value;
+            columnSquareSums[x] += sign * value * value;
+        }
+    }
+
+    private static final int MIN_ROWS_PER_BAND = 64;
+}
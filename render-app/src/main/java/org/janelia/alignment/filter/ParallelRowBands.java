@@ -0,0 +1,100 @@
+package org.janelia.alignment.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits images into bands of rows that are processed in parallel on a shared executor.
+ * Band tasks may read rows outside of their band (e.g. to gather block statistics),
+ * so every band effectively processes an overlapping block of the source image.
+ * Tasks must therefore only write to rows within their band and must not modify shared source pixels.
+ *
+ * @author Eric Trautman
+ */
+final class ParallelRowBands {
+
+    /**
+     * Processes a band of rows.
+     */
+    interface BandTask {
+
+        /**
+         * @param  fromRow  first row in the band.
+         * @param  toRow    row after the last row in the band.
+         */
+        void process(final int fromRow,
+                     final int toRow);
+    }
+
+    private ParallelRowBands() {
+    }
+
+    /**
+     * Runs the specified task for bands covering all rows and waits for every band to complete.
+     *
+     * @param  numberOfRows     total number of rows to process.
+     * @param  minRowsPerBand   minimum number of rows for each band
+     *                          (keeps per-band setup costs from dominating small images).
+     * @param  numberOfThreads  maximum number of bands to process concurrently.
+     * @param  task             task to run for each band.
+     *
+     * @throws IllegalStateException
+     *   if any band fails.
+     */
+    static void run(final int numberOfRows,
+                    final int minRowsPerBand,
+                    final int numberOfThreads,
+                    final BandTask task)
+            throws IllegalStateException {
+
+        final int maxBandCount = Math.max(1, numberOfRows / Math.max(1, minRowsPerBand));
+        final int bandCount = Math.min(maxBandCount, Math.max(1, numberOfThreads));
+
+        if (bandCount == 1) {
+
+            task.process(0, numberOfRows);
+
+        } else {
+
+            final int rowsPerBand = (numberOfRows + bandCount - 1) / bandCount;
+            final ExecutorService executorService = getSharedExecutorService();
+            final List<Future<?>> futures = new ArrayList<>(bandCount);
+            for (int fromRow = 0; fromRow < numberOfRows; fromRow += rowsPerBand) {
+                final int bandFromRow = fromRow;
+                final int bandToRow = Math.min(numberOfRows, fromRow + rowsPerBand);
+                futures.add(executorService.submit(() -> task.process(bandFromRow, bandToRow)));
+            }
+
+            try {
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("failed to process row bands", e);
+            }
+        }
+    }
+
+    static int getDefaultNumberOfThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static synchronized ExecutorService getSharedExecutorService() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = Executors.newFixedThreadPool(
+                    getDefaultNumberOfThreads(),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "parallel-filter");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return sharedExecutorService;
+    }
+
+    private static ExecutorService sharedExecutorService = null;
+}
@@ -50,4 +50,9 @@ public class RollingBallSubtraction implements Filter {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        return "RollingBallSubtraction{radius=" + radius + "}";
+    }
 }
@@ -121,4 +121,9 @@ public class ValueToNoise implements Filter {
         }
         return false;
     }
+
+    @Override
+    public String toString() {
+        return "ValueToNoise{value=" + value + ", min=" + min + ", max=" + max + "}";
+    }
 }
@@ -111,7 +111,10 @@ public class MultiChannelMapper
         for (int i = 0; i < normalizedSourceList.size(); i++) {
             normalizedSource = normalizedSourceList.get(i);
             target = targetList.get(i);
-            target.ip.setf(targetX, targetY, normalizedSource.ip.getf(roundedSourceX, roundedSourceY));
+            SingleChannelMapper.setTargetIntensity(target.ip,
+                                                   targetX,
+                                                   targetY,
+                                                   normalizedSource.ip.getf(roundedSourceX, roundedSourceY));
         }
     }
 
@@ -126,7 +129,10 @@ public class MultiChannelMapper
         for (int i = 0; i < normalizedSourceList.size(); i++) {
             normalizedSource = normalizedSourceList.get(i);
             target = targetList.get(i);
-            target.ip.setf(targetX, targetY, (float) normalizedSource.ip.getInterpolatedPixel(sourceX, sourceY));
+            SingleChannelMapper.setTargetIntensity(target.ip,
+                                                   targetX,
+                                                   targetY,
+                                                   normalizedSource.ip.getInterpolatedPixel(sourceX, sourceY));
         }
     }
 
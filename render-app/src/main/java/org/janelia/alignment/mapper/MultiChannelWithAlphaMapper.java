@@ -104,7 +104,7 @@ public class MultiChannelWithAlphaMapper
                                                                          targetIntensity,
                                                                          targetAlpha);
 
-        target.ip.setf(targetX, targetY, (float) blendedIntensityAndAlpha[0]);
+        SingleChannelMapper.setTargetIntensity(target.ip, targetX, targetY, blendedIntensityAndAlpha[0]);
         target.mask.setf(targetX, targetY, (float) (blendedIntensityAndAlpha[1] * targetMaxMaskIntensity));
     }
 
@@ -29,7 +29,7 @@ public class MultiChannelWithBinaryMaskMapper
                                     final double sourceMaxMaskIntensity) {
 
         if (sourceMaskIntensity > 0.0) {
-            target.ip.setf(targetX, targetY, (float) sourceIntensity);
+            SingleChannelMapper.setTargetIntensity(target.ip, targetX, targetY, sourceIntensity);
             target.mask.setf(targetX, targetY, (float) targetMaxMaskIntensity);
         }
     }
@@ -57,7 +57,7 @@ public class SingleChannelMapper
         final int roundedSourceX = (int) Math.round(sourceX);
         final int roundedSourceY = (int) Math.round(sourceY);
 
-        target.ip.setf(targetX, targetY, normalizedSource.ip.getf(roundedSourceX, roundedSourceY));
+        setTargetIntensity(target.ip, targetX, targetY, normalizedSource.ip.getf(roundedSourceX, roundedSourceY));
     }
 
     @Override
@@ -66,7 +66,7 @@ public class SingleChannelMapper
                                 final int targetX,
                                 final int targetY) {
 
-        target.ip.setf(targetX, targetY, (float) normalizedSource.ip.getInterpolatedPixel(sourceX, sourceY));
+        setTargetIntensity(target.ip, targetX, targetY, normalizedSource.ip.getInterpolatedPixel(sourceX, sourceY));
     }
 
     public static ImageProcessorWithMasks normalizeSourceForTarget(final ImageProcessorWithMasks source,
@@ -77,12 +77,14 @@ public class SingleChannelMapper
 
         if (target instanceof ByteProcessor) {
             normalizedSource =
-                    new ImageProcessorWithMasks(source.ip.convertToByteProcessor(),
+                    new ImageProcessorWithMasks(scaleToTargetRange(source.ip, new ByteProcessor(source.ip.getWidth(),
+                                                                                                source.ip.getHeight())),
                                                 source.mask,
                                                 null);
         } else if (target instanceof ShortProcessor) {
             normalizedSource =
-                    new ImageProcessorWithMasks(source.ip.convertToShortProcessor(),
+                    new ImageProcessorWithMasks(scaleToTargetRange(source.ip, new ShortProcessor(source.ip.getWidth(),
+                                                                                                 source.ip.getHeight())),
                                                 source.mask,
                                                 null);
         } else if (target instanceof FloatProcessor) {
@@ -102,4 +104,59 @@ public class SingleChannelMapper
         return normalizedSource;
     }
 
+    /**
+     * Sets the intensity of a target pixel.
+     * Byte and short intensities are rounded and clamped to the target range
+     * (instead of being truncated as they would be by {@link ImageProcessor#setf}).
+     *
+     * @param  target     target processor.
+     * @param  targetX    target x coordinate.
+     * @param  targetY    target y coordinate.
+     * @param  intensity  intensity for the pixel.
+     */
+    public static void setTargetIntensity(final ImageProcessor target,
+                                          final int targetX,
+                                          final int targetY,
+                                          final double intensity) {
+        if ((target instanceof ByteProcessor) || (target instanceof ShortProcessor)) {
+            target.putPixelValue(targetX, targetY, intensity);
+        } else {
+            target.setf(targetX, targetY, (float) intensity);
+        }
+    }
+
+    /**
+     * Scales source intensities from the source display range (min and max) to the full range of
+     * the specified byte or short processor.  This is the same scaling applied when float targets
+     * are converted to 8-bit or 16-bit images, but it happens before mapping so that reduced
+     * precision targets can be rendered directly.
+     *
+     * @param  source  source processor.
+     * @param  scaled  empty byte or short processor with the same dimensions as the source.
+     *
+     * @return the scaled processor.
+     */
+    private static ImageProcessor scaleToTargetRange(final ImageProcessor source,
+                                                     final ImageProcessor scaled) {
+
+        final double min = source.getMin();
+        final double max = source.getMax();
+        final double maxScaledIntensity = (scaled instanceof ByteProcessor) ? 255.0 : 65535.0;
+        final double scale = (max > min) ? maxScaledIntensity / (max - min) : 1.0;
+
+        // color sources are mapped by luminance, just as they are for float targets
+        final ImageProcessor grayscaleSource =
+                (source instanceof ColorProcessor) ? source.convertToFloatProcessor() : source;
+
+        final int pixelCount = source.getPixelCount();
+        for (int i = 0; i < pixelCount; i++) {
+            final double value = ((grayscaleSource.getf(i) - min) * scale) + 0.5;
+            scaled.set(i, (int) Math.max(0, Math.min(maxScaledIntensity, value)));
+        }
+
+        scaled.setMinAndMax(0, maxScaledIntensity);
+
+        return scaled;
+    }
+
 }
@@ -68,7 +68,7 @@ public class SingleChannelWithAlphaMapper
         final double[] blendedIntensityAndAlpha =
                 getBlendedIntensityAndAlpha(sourceIntensity, sourceAlpha, targetIntensity, targetAlpha);
 
-        target.ip.setf(targetX, targetY, (float) blendedIntensityAndAlpha[0]);
+        setTargetIntensity(target.ip, targetX, targetY, blendedIntensityAndAlpha[0]);
         target.mask.setf(targetX, targetY, (float) (blendedIntensityAndAlpha[1] * targetMaxMaskIntensity));
     }
 
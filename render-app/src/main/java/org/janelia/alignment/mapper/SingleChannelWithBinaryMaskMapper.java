@@ -24,7 +24,7 @@ public class SingleChannelWithBinaryMaskMapper
                                     final double sourceMaskIntensity) {
 
         if (sourceMaskIntensity > 0.0) {
-            target.ip.setf(worldTargetX, worldTargetY, (float) sourceIntensity);
+            setTargetIntensity(target.ip, worldTargetX, worldTargetY, sourceIntensity);
             target.mask.setf(worldTargetX, worldTargetY, (float) targetMaxMaskIntensity);
         }
     }
@@ -1,12 +1,19 @@
 package org.janelia.alignment.match;
 
 import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import mpicbg.ij.SIFT;
 import mpicbg.imagefeatures.Feature;
@@ -16,6 +23,7 @@ import mpicbg.util.Timer;
 import org.janelia.alignment.ArgbRenderer;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.Utils;
+import org.janelia.alignment.util.ImageProcessorCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +39,7 @@ public class CanvasFeatureExtractor implements Serializable {
     private final double minScale;
     private final double maxScale;
     private final boolean fillWithNoise;
+    private final int extractionThreads;
 
     /**
      * Sets up everything that is needed to extract the feature list for a canvas.
@@ -45,6 +54,26 @@ public class CanvasFeatureExtractor implements Serializable {
                                   final double minScale,
                                   final double maxScale,
                                   final boolean fillWithNoise) {
+        this(coreSiftParameters, minScale, maxScale, fillWithNoise, 1);
+    }
+
+    /**
+     * Sets up everything that is needed to extract the feature list for a canvas.
+     *
+     * @param  coreSiftParameters  core SIFT parameters for feature extraction.
+     * @param  minScale            SIFT minimum scale (minSize * minScale < size < maxSize * maxScale).
+     * @param  maxScale            SIFT maximum scale (minSize * minScale < size < maxSize * maxScale).
+     * @param  fillWithNoise       indicates whether the rendered canvas image should be filled with
+     *                             noise before rendering to improve point match derivation.
+     * @param  extractionThreads   number of threads to use when extracting features from a single canvas.
+     *                             Values greater than one cause fine octaves to be extracted from
+     *                             overlapping image strips in parallel (see {@link #extractFeaturesInParallel}).
+     */
+    public CanvasFeatureExtractor(final FloatArray2DSIFT.Param coreSiftParameters,
+                                  final double minScale,
+                                  final double maxScale,
+                                  final boolean fillWithNoise,
+                                  final int extractionThreads) {
 
         // clone provided parameters since they get modified during feature extraction
         this.coreSiftParameters = coreSiftParameters.clone();
@@ -52,6 +81,7 @@ public class CanvasFeatureExtractor implements Serializable {
         this.minScale = minScale;
         this.maxScale = maxScale;
         this.fillWithNoise = fillWithNoise;
+        this.extractionThreads = extractionThreads;
     }
 
     /**
@@ -72,10 +102,35 @@ public class CanvasFeatureExtractor implements Serializable {
     public List<Feature> extractFeatures(final RenderParameters renderParameters,
                                          final File renderFile)
             throws IllegalArgumentException, IllegalStateException {
+        return extractFeatures(renderParameters, renderFile, ImageProcessorCache.DISABLED_CACHE);
+    }
+
+    /**
+     * Extract SIFT features from canvas built from specified render parameters.
+     *
+     * @param  renderParameters     parameters for building canvas.
+     * @param  renderFile           file to persist rendered canvas (for debugging).
+     *                              Specify as null to skip debug persistence.
+     * @param  imageProcessorCache  cache of source tile data for rendering the canvas.
+     *
+     * @return list of extracted features.
+     *
+     * @throws IllegalArgumentException
+     *   if the specified render parameters are invalid.
+     *
+     * @throws IllegalStateException
+     *   if the specified render parameters have not been initialized or no features are found.
+     */
+    public List<Feature> extractFeatures(final RenderParameters renderParameters,
+                                         final File renderFile,
+                                         final ImageProcessorCache imageProcessorCache)
+            throws IllegalArgumentException, IllegalStateException {
 
         renderParameters.validate();
 
-        final BufferedImage bufferedImage = ArgbRenderer.renderWithNoise(renderParameters, fillWithNoise);
+        final BufferedImage bufferedImage = ArgbRenderer.renderWithNoise(renderParameters,
+                                                                         fillWithNoise,
+                                                                         imageProcessorCache);
 
         if (renderFile != null) {
             try {
@@ -124,11 +179,12 @@ public class CanvasFeatureExtractor implements Serializable {
         // fewer extracted features when bufferedImage was loaded from disk.
         final ImagePlus imagePlus = new ImagePlus("", bufferedImage);
 
-        final FloatArray2DSIFT sift = new FloatArray2DSIFT(siftParameters);
-        final SIFT ijSIFT = new SIFT(sift);
-
-        final List<Feature> featureList = new ArrayList<>();
-        ijSIFT.extractFeatures(imagePlus.getProcessor(), featureList);
+        final List<Feature> featureList;
+        if (extractionThreads > 1) {
+            featureList = extractFeaturesInParallel(imagePlus.getProcessor(), siftParameters);
+        } else {
+            featureList = extractFeaturesFromProcessor(imagePlus.getProcessor(), siftParameters);
+        }
 
         if (featureList.size() == 0) {
 
@@ -163,5 +219,152 @@ public class CanvasFeatureExtractor implements Serializable {
         return featureList;
     }
 
+    /**
+     * Extracts features from the specified image using multiple threads.
+     *
+     * The fine (most expensive) octaves are extracted from overlapping strips of the image in parallel.
+     * Each strip only keeps features located within its non-overlapping core region so that features
+     * found in the seams are not duplicated.  The remaining coarse octaves are extracted in parallel with
+     * the strips from a single downsampled copy of the whole image since they are cheap to compute and
+     * their large support would require unreasonably wide strip overlaps.
+     *
+     * Because each strip and the coarse copy are processed with their own scale space, the resulting
+     * feature set is not bit-identical to {@link #extractFeaturesFromProcessor single-threaded extraction}
+     * but features near strip seams and octave boundaries differ only slightly in location and scale.
+     *
+     * @param  ip              image to process.
+     * @param  siftParameters  SIFT parameters derived for the full image.
+     *
+     * @return list of extracted features (in full image coordinates).
+     */
+    List<Feature> extractFeaturesInParallel(final ImageProcessor ip,
+                                            final FloatArray2DSIFT.Param siftParameters) {
+
+        final int w = ip.getWidth();
+        final int h = ip.getHeight();
+        final boolean splitRows = (w >= h);
+        final int shortSide = splitRows ? h : w;
+        final int longSide = splitRows ? w : h;
+
+        // mirror the initial downsampling done by mpicbg.ij.SIFT for images larger than maxOctaveSize
+        final double maxSize = siftParameters.maxOctaveSize - 1;
+        final double initialScale = (maxSize < longSide) ? maxSize / longSide : 1.0;
+
+        final int fineOctaveScale = 1 << FINE_OCTAVE_COUNT;
+        final int margin = (int) Math.ceil(STRIP_MARGIN_PER_OCTAVE * (fineOctaveScale / 2) / initialScale);
+
+        // each strip must be large enough to build all of its fine octaves
+        final double minCoreSize = (fineOctaveScale / 2.0) * Math.max(siftParameters.minOctaveSize, 1) / initialScale;
+        final int stripCount = Math.min(extractionThreads, (int) (shortSide / minCoreSize));
+
+        if (stripCount < 2) {
+            LOG.info("extractFeaturesInParallel: {}x{} image is too small to split, using single thread", w, h);
+            return extractFeaturesFromProcessor(ip, siftParameters);
+        }
+
+        final ExecutorService executorService = getSharedExecutorService();
+        final List<Future<List<Feature>>> futureList = new ArrayList<>(stripCount + 1);
+
+        final double coreSize = shortSide / (double) stripCount;
+        for (int i = 0; i < stripCount; i++) {
+
+            final int coreMin = (int) Math.round(i * coreSize);
+            final int coreMax = (i == stripCount - 1) ? shortSide : (int) Math.round((i + 1) * coreSize);
+            final int stripMin = Math.max(0, coreMin - margin);
+            final int stripMax = Math.min(shortSide, coreMax + margin);
+            final int stripSize = stripMax - stripMin;
+
+            if (splitRows) {
+                ip.setRoi(0, stripMin, w, stripSize);
+            } else {
+                ip.setRoi(stripMin, 0, stripSize, h);
+            }
+            final ImageProcessor stripProcessor = ip.crop();
+            ip.resetRoi();
+
+            // keep intensity normalization consistent with the full image
+            if ((ip instanceof FloatProcessor) || (ip instanceof ShortProcessor)) {
+                stripProcessor.setMinAndMax(ip.getMin(), ip.getMax());
+            }
+
+            // only build the fine octaves for each strip
+            final FloatArray2DSIFT.Param stripParameters = siftParameters.clone();
+            stripParameters.minOctaveSize =
+                    Math.max(siftParameters.minOctaveSize,
+                             (int) Math.floor(stripSize * initialScale / fineOctaveScale) + 1);
+
+            futureList.add(executorService.submit(() -> {
+                final List<Feature> stripFeatures = extractFeaturesFromProcessor(stripProcessor, stripParameters);
+                final List<Feature> coreFeatures = new ArrayList<>(stripFeatures.size());
+                final int axis = splitRows ? 1 : 0;
+                for (final Feature feature : stripFeatures) {
+                    feature.location[axis] += stripMin;
+                    if ((feature.location[axis] >= coreMin) && (feature.location[axis] < coreMax)) {
+                        coreFeatures.add(feature);
+                    }
+                }
+                return coreFeatures;
+            }));
+        }
+
+        // coarse octaves come from the whole image downsampled past the fine octaves
+        // (submitted after all strips are cropped so that the image roi is no longer changing)
+        final FloatArray2DSIFT.Param coarseParameters = siftParameters.clone();
+        coarseParameters.maxOctaveSize = (int) Math.ceil(longSide * initialScale / fineOctaveScale) + 1;
+        futureList.add(executorService.submit(() -> extractFeaturesFromProcessor(ip, coarseParameters)));
+
+        final List<Feature> featureList = new ArrayList<>();
+        try {
+            for (final Future<List<Feature>> future : futureList) {
+                featureList.addAll(future.get());
+            }
+        } catch (final InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("failed to extract features in parallel", e);
+        }
+
+        LOG.info("extractFeaturesInParallel: extracted features from {} strips with {} pixel margins",
+                 stripCount, margin);
+
+        return featureList;
+    }
+
+    /**
+     * Extract SIFT features from the specified image processor on the current thread.
+     *
+     * @param  ip              image to process.
+     * @param  siftParameters  SIFT parameters for extraction.
+     *
+     * @return list of extracted features.
+     */
+    static List<Feature> extractFeaturesFromProcessor(final ImageProcessor ip,
+                                                      final FloatArray2DSIFT.Param siftParameters) {
+        final FloatArray2DSIFT sift = new FloatArray2DSIFT(siftParameters);
+        final SIFT ijSIFT = new SIFT(sift);
+        final List<Feature> featureList = new ArrayList<>();
+        ijSIFT.extractFeatures(ip, featureList);
+        return featureList;
+    }
+
+    private static synchronized ExecutorService getSharedExecutorService() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "sift-extractor");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return sharedExecutorService;
+    }
+
+    /** Number of (finest) octaves extracted from image strips when extracting in parallel. */
+    private static final int FINE_OCTAVE_COUNT = 2;
+
+    /** Strip overlap (in octave pixels) needed to cover the support of features in a fine octave. */
+    private static final int STRIP_MARGIN_PER_OCTAVE = 64;
+
+    private static ExecutorService sharedExecutorService = null;
+
     private static final Logger LOG = LoggerFactory.getLogger(CanvasFeatureExtractor.class);
 }
@@ -33,6 +33,8 @@ public class CanvasFeatureMatcher implements Serializable {
     private final int minNumInliers;
     private final Integer maxNumInliers;
     private final boolean filterMatches;
+    private final Integer indexMaxChecks;
+    private final int ransacThreads;
 
     /**
      * Sets up everything that is needed to derive point matches from the feature lists of two canvases.
@@ -57,6 +59,48 @@ public class CanvasFeatureMatcher implements Serializable {
                                 final double maxTrust,
                                 final Integer maxNumInliers,
                                 final boolean filterMatches) {
+        this(rod,
+             modelType,
+             iterations,
+             maxEpsilon,
+             minInlierRatio,
+             minNumInliers,
+             maxTrust,
+             maxNumInliers,
+             filterMatches,
+             null,
+             1);
+    }
+
+    /**
+     * Sets up everything that is needed to derive point matches from the feature lists of two canvases.
+     *
+     * @param  rod             ratio of distances (e.g. 0.92f).
+     *
+     * @param  modelType       type of model to use for filter.
+     * @param  iterations      filter iterations (e.g. 1000).
+     * @param  maxEpsilon      minimal allowed transfer error (e.g. 20.0f).
+     * @param  minInlierRatio  minimal ratio of inliers to candidates (e.g. 0.0f).
+     * @param  minNumInliers   minimal absolute number of inliers for matches (e.g. 10).
+     * @param  maxTrust        reject candidates with a cost larger than maxTrust * median cost (e.g. 3).
+     * @param  maxNumInliers   (optional) maximum number of inliers for matches; null indicates no maximum.
+     * @param  filterMatches   indicates whether matches should be filtered.
+     * @param  indexMaxChecks  (optional) maximum number of descriptor comparisons per feature when matching
+     *                         with a {@link FeatureDescriptorIndex}; zero indicates an exact index search and
+     *                         null indicates that all descriptor pairs should be compared (no index).
+     * @param  ransacThreads   number of threads to use for RANSAC filtering (see {@link ParallelRansac}).
+     */
+    public CanvasFeatureMatcher(final float rod,
+                                final ModelType modelType,
+                                final int iterations,
+                                final float maxEpsilon,
+                                final float minInlierRatio,
+                                final int minNumInliers,
+                                final double maxTrust,
+                                final Integer maxNumInliers,
+                                final boolean filterMatches,
+                                final Integer indexMaxChecks,
+                                final int ransacThreads) {
         this.rod = rod;
 
         this.modelType = modelType;
@@ -67,12 +111,21 @@ public class CanvasFeatureMatcher implements Serializable {
         this.maxTrust = maxTrust;
         this.maxNumInliers = maxNumInliers;
         this.filterMatches = filterMatches;
+        this.indexMaxChecks = indexMaxChecks;
+        this.ransacThreads = ransacThreads;
     }
 
     public boolean isFilterMatches() {
         return filterMatches;
     }
 
+    /**
+     * @return true if matches should be derived using a {@link FeatureDescriptorIndex}.
+     */
+    public boolean isIndexedMatching() {
+        return indexMaxChecks != null;
+    }
+
     /**
      * @param  canvas1Features  feature list for first canvas.
      * @param  canvas2Features  feature list for second canvas.
@@ -82,17 +135,59 @@ public class CanvasFeatureMatcher implements Serializable {
     public CanvasFeatureMatchResult deriveMatchResult(final List<Feature> canvas1Features,
                                                       final List<Feature> canvas2Features) {
 
+        if (isIndexedMatching()) {
+            return deriveMatchResult(canvas1Features, new FeatureDescriptorIndex(canvas2Features), null);
+        }
+
         LOG.info("deriveMatchResult: entry, canvas1Features.size={}, canvas2Features.size={}",
                  canvas1Features.size(), canvas2Features.size());
 
         final Timer timer = new Timer();
         timer.start();
 
-        final Model model = modelType.getInstance();
         final List<PointMatch> candidates = new ArrayList<>(canvas1Features.size());
 
         FeatureTransform.matchFeatures(canvas1Features, canvas2Features, candidates, rod);
 
+        final CanvasFeatureMatchResult result = filterCandidates(candidates);
+
+        LOG.info("deriveMatchResult: exit, result={}, elapsedTime={}s", result, (timer.stop() / 1000));
+
+        return result;
+    }
+
+    /**
+     * @param  canvas1Features  feature list for first canvas.
+     * @param  canvas2Index     descriptor index for second canvas' features.
+     * @param  spatialWindow    (optional) geometric prior for second canvas match locations;
+     *                          null to consider all second canvas features.
+     *
+     * @return match results for the specified features.
+     */
+    public CanvasFeatureMatchResult deriveMatchResult(final List<Feature> canvas1Features,
+                                                      final FeatureDescriptorIndex canvas2Index,
+                                                      final FeatureDescriptorIndex.SpatialWindow spatialWindow) {
+
+        LOG.info("deriveMatchResult: entry, canvas1Features.size={}, canvas2Index.size={}, spatialWindow={}",
+                 canvas1Features.size(), canvas2Index.size(), spatialWindow);
+
+        final Timer timer = new Timer();
+        timer.start();
+
+        final int maxChecks = indexMaxChecks == null ? 0 : indexMaxChecks;
+        final List<PointMatch> candidates = canvas2Index.matchFeatures(canvas1Features, rod, maxChecks, spatialWindow);
+
+        final CanvasFeatureMatchResult result = filterCandidates(candidates);
+
+        LOG.info("deriveMatchResult: exit, result={}, elapsedTime={}s", result, (timer.stop() / 1000));
+
+        return result;
+    }
+
+    private CanvasFeatureMatchResult filterCandidates(final List<PointMatch> candidates) {
+
+        final Model model = modelType.getInstance();
+
         final List<PointMatch> inliers;
         if (filterMatches) {
             inliers = filterMatches(candidates, model);
@@ -107,15 +202,10 @@ public class CanvasFeatureMatcher implements Serializable {
             inlierRatio = 0.0;
         }
 
-        final CanvasFeatureMatchResult result =
-                new CanvasFeatureMatchResult(inliers.size() > 0,
-                                             model,
-                                             inliers,
-                                             inlierRatio);
-
-        LOG.info("deriveMatchResult: exit, result={}, elapsedTime={}s", result, (timer.stop() / 1000));
-
-        return result;
+        return new CanvasFeatureMatchResult(inliers.size() > 0,
+                                            model,
+                                            inliers,
+                                            inlierRatio);
     }
 
     public List<PointMatch> filterMatches(final List<PointMatch> candidates,
@@ -125,13 +215,24 @@ public class CanvasFeatureMatcher implements Serializable {
 
         if (candidates.size() > 0) {
             try {
-                model.filterRansac(candidates,
-                                   inliers,
-                                   iterations,
-                                   maxEpsilon,
-                                   minInlierRatio,
-                                   minNumInliers,
-                                   maxTrust);
+                if (ransacThreads > 1) {
+                    new ParallelRansac(ransacThreads).filterRansac(model,
+                                                                   candidates,
+                                                                   inliers,
+                                                                   iterations,
+                                                                   maxEpsilon,
+                                                                   minInlierRatio,
+                                                                   minNumInliers,
+                                                                   maxTrust);
+                } else {
+                    model.filterRansac(candidates,
+                                       inliers,
+                                       iterations,
+                                       maxEpsilon,
+                                       minInlierRatio,
+                                       minNumInliers,
+                                       maxTrust);
+                }
             } catch (final NotEnoughDataPointsException e) {
                 LOG.warn("failed to filter outliers", e);
             }
@@ -0,0 +1,483 @@
+package org.janelia.alignment.match;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * K-d tree index over the descriptors of a canvas' features.
+ *
+ * The index is built once per canvas and can then be used to find the nearest and second nearest
+ * descriptors for features from any number of other canvases without comparing every descriptor pair.
+ * Searches are exact when maxChecks is zero and use best-bin-first approximation otherwise
+ * (see Beis and Lowe, "Shape indexing using approximate nearest-neighbour search in high-dimensional spaces").
+ *
+ * Searches restricted by a {@link SpatialWindow} use a second set of trees built (on first use) over
+ * location based cells of the features, so only cells that intersect the window are searched.
+ *
+ * @author Eric Trautman
+ */
+public class FeatureDescriptorIndex implements Serializable {
+
+    /**
+     * Optional geometric prior that restricts match candidates to features located within
+     * a radius of the expected location for a given source feature.
+     */
+    public static class SpatialWindow implements Serializable {
+
+        private final double offsetX;
+        private final double offsetY;
+        private final double maxDistanceSquared;
+
+        /**
+         * @param  offsetX      expected x offset between source and indexed feature locations.
+         * @param  offsetY      expected y offset between source and indexed feature locations.
+         * @param  maxDistance  maximum distance between expected and actual indexed feature locations.
+         */
+        public SpatialWindow(final double offsetX,
+                             final double offsetY,
+                             final double maxDistance) {
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.maxDistanceSquared = maxDistance * maxDistance;
+        }
+
+        boolean intersects(final double[] sourceLocation,
+                           final Cell cell) {
+            final double expectedX = sourceLocation[0] + offsetX;
+            final double expectedY = sourceLocation[1] + offsetY;
+            final double dx = Math.max(0, Math.max(cell.minX - expectedX, expectedX - cell.maxX));
+            final double dy = Math.max(0, Math.max(cell.minY - expectedY, expectedY - cell.maxY));
+            return (dx * dx + dy * dy) <= maxDistanceSquared;
+        }
+
+        boolean contains(final double[] sourceLocation,
+                         final double[] indexedLocation) {
+            final double dx = indexedLocation[0] - (sourceLocation[0] + offsetX);
+            final double dy = indexedLocation[1] - (sourceLocation[1] + offsetY);
+            return (dx * dx + dy * dy) <= maxDistanceSquared;
+        }
+
+        @Override
+        public String toString() {
+            return "{offset: (" + offsetX + ", " + offsetY + "), maxDistance: " + Math.sqrt(maxDistanceSquared) + '}';
+        }
+    }
+
+    private final List<Feature> featureList;
+    private final int dimension;
+    private final float[] descriptors;
+    private final int[] featureIndexes;
+    private final Node root;
+    private Cell rootCell;
+
+    /**
+     * Builds an index for the specified features.
+     *
+     * @param  featureList  features to index (all descriptors must have the same length).
+     */
+    public FeatureDescriptorIndex(final List<Feature> featureList) {
+
+        this.featureList = featureList;
+        this.dimension = featureList.size() > 0 ? featureList.get(0).descriptor.length : 0;
+        this.descriptors = new float[featureList.size() * dimension];
+        this.featureIndexes = new int[featureList.size()];
+
+        for (int i = 0; i < featureList.size(); i++) {
+            final float[] descriptor = featureList.get(i).descriptor;
+            System.arraycopy(descriptor, 0, descriptors, i * dimension, dimension);
+            featureIndexes[i] = i;
+        }
+
+        this.root = featureList.size() > 0 ? buildNode(featureIndexes, 0, featureList.size()) : null;
+        this.rootCell = null;
+    }
+
+    public List<Feature> getFeatureList() {
+        return featureList;
+    }
+
+    public int size() {
+        return featureList.size();
+    }
+
+    /**
+     * Identifies candidate matches for the specified features using the same ratio of distances test as
+     * {@link mpicbg.ij.FeatureTransform#matchFeatures}.  Like that method, candidates that share an indexed
+     * feature location with another candidate are considered ambiguous and are removed.
+     *
+     * @param  sourceFeatures  features to match against this index.
+     * @param  rod             ratio of distances (e.g. 0.92f).
+     * @param  maxChecks       maximum number of indexed descriptors to compare for each source feature
+     *                         or zero for an exact search.
+     * @param  spatialWindow   (optional) geometric prior restricting candidate locations; null for no restriction.
+     *                         Indexed features in cells outside of the window are never compared.
+     *
+     * @return list of candidate matches with source locations as p1 and indexed locations as p2.
+     */
+    public List<PointMatch> matchFeatures(final List<Feature> sourceFeatures,
+                                          final double rod,
+                                          final int maxChecks,
+                                          final SpatialWindow spatialWindow) {
+
+        final List<PointMatch> candidates = new ArrayList<>(sourceFeatures.size());
+        final List<double[]> indexedLocations = new ArrayList<>(sourceFeatures.size());
+
+        if (root != null) {
+
+            final Cell windowRootCell = spatialWindow == null ? null : getRootCell();
+            final Search search = new Search(maxChecks, spatialWindow, windowRootCell);
+            for (final Feature sourceFeature : sourceFeatures) {
+                search.run(sourceFeature);
+                if ((search.bestIndex >= 0) &&
+                    (search.secondBestDistanceSquared < Double.MAX_VALUE) &&
+                    (Math.sqrt(search.bestDistanceSquared / search.secondBestDistanceSquared) < rod)) {
+
+                    final double[] indexedLocation = featureList.get(search.bestIndex).location;
+                    candidates.add(new PointMatch(new Point(new double[] {sourceFeature.location[0],
+                                                                          sourceFeature.location[1]}),
+                                                  new Point(new double[] {indexedLocation[0],
+                                                                          indexedLocation[1]})));
+                    indexedLocations.add(indexedLocation);
+                }
+            }
+
+        }
+
+        return removeAmbiguousMatches(candidates, indexedLocations);
+    }
+
+    /**
+     * @return root of the location based cell tree (built on first request and then retained).
+     */
+    private synchronized Cell getRootCell() {
+        if (rootCell == null) {
+            final int[] indexes = new int[featureList.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            rootCell = buildCell(indexes, 0, indexes.length);
+        }
+        return rootCell;
+    }
+
+    private Cell buildCell(final int[] indexes,
+                           final int from,
+                           final int to) {
+
+        final Cell cell = new Cell();
+
+        cell.minX = Double.MAX_VALUE;
+        cell.minY = Double.MAX_VALUE;
+        cell.maxX = -Double.MAX_VALUE;
+        cell.maxY = -Double.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            final double[] location = featureList.get(indexes[i]).location;
+            cell.minX = Math.min(cell.minX, location[0]);
+            cell.minY = Math.min(cell.minY, location[1]);
+            cell.maxX = Math.max(cell.maxX, location[0]);
+            cell.maxY = Math.max(cell.maxY, location[1]);
+        }
+
+        if (to - from <= MAX_CELL_SIZE) {
+            cell.root = buildNode(indexes, from, to);
+            return cell;
+        }
+
+        // split the longer side of the cell at the median location
+        final int axis = (cell.maxX - cell.minX) >= (cell.maxY - cell.minY) ? 0 : 1;
+        final int count = to - from;
+        final Integer[] range = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            range[i] = indexes[from + i];
+        }
+        Arrays.sort(range, Comparator.comparingDouble((Integer index) -> featureList.get(index).location[axis]));
+        for (int i = 0; i < count; i++) {
+            indexes[from + i] = range[i];
+        }
+
+        final int median = from + (count / 2);
+        cell.left = buildCell(indexes, from, median);
+        cell.right = buildCell(indexes, median, to);
+
+        return cell;
+    }
+
+    private Node buildNode(final int[] indexes,
+                           final int from,
+                           final int to) {
+
+        final Node node = new Node();
+
+        if (to - from <= MAX_LEAF_SIZE) {
+            node.indexes = indexes;
+            node.from = from;
+            node.to = to;
+            return node;
+        }
+
+        // split on the dimension with the largest variance
+        final double[] mean = new double[dimension];
+        for (int i = from; i < to; i++) {
+            final int offset = indexes[i] * dimension;
+            for (int d = 0; d < dimension; d++) {
+                mean[d] += descriptors[offset + d];
+            }
+        }
+        final int count = to - from;
+        for (int d = 0; d < dimension; d++) {
+            mean[d] /= count;
+        }
+
+        final double[] variance = new double[dimension];
+        for (int i = from; i < to; i++) {
+            final int offset = indexes[i] * dimension;
+            for (int d = 0; d < dimension; d++) {
+                final double delta = descriptors[offset + d] - mean[d];
+                variance[d] += delta * delta;
+            }
+        }
+
+        int splitDimension = 0;
+        for (int d = 1; d < dimension; d++) {
+            if (variance[d] > variance[splitDimension]) {
+                splitDimension = d;
+            }
+        }
+
+        // sort the range by the split dimension and split at the median
+        final int sortDimension = splitDimension;
+        final Integer[] range = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            range[i] = indexes[from + i];
+        }
+        Arrays.sort(range, Comparator.comparingDouble((Integer index) -> descriptors[index * dimension + sortDimension]));
+        for (int i = 0; i < count; i++) {
+            indexes[from + i] = range[i];
+        }
+
+        final int median = from + (count / 2);
+
+        node.splitDimension = splitDimension;
+        node.splitValue = descriptors[indexes[median] * dimension + splitDimension];
+        node.left = buildNode(indexes, from, median);
+        node.right = buildNode(indexes, median, to);
+
+        return node;
+    }
+
+    private static List<PointMatch> removeAmbiguousMatches(final List<PointMatch> candidates,
+                                                           final List<double[]> indexedLocations) {
+
+        final Integer[] order = new Integer[candidates.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            final double[] aLocation = indexedLocations.get(a);
+            final double[] bLocation = indexedLocations.get(b);
+            int result = Double.compare(aLocation[0], bLocation[0]);
+            if (result == 0) {
+                result = Double.compare(aLocation[1], bLocation[1]);
+            }
+            return result;
+        });
+
+        final boolean[] isAmbiguous = new boolean[candidates.size()];
+        for (int i = 1; i < order.length; i++) {
+            final double[] previousLocation = indexedLocations.get(order[i - 1]);
+            final double[] location = indexedLocations.get(order[i]);
+            if ((previousLocation[0] == location[0]) && (previousLocation[1] == location[1])) {
+                isAmbiguous[order[i - 1]] = true;
+                isAmbiguous[order[i]] = true;
+            }
+        }
+
+        final List<PointMatch> matches = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            if (! isAmbiguous[i]) {
+                matches.add(candidates.get(i));
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Location based cell.  Leaf cells contain a descriptor tree for the features located within them.
+     */
+    private static class Cell implements Serializable {
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+        private Cell left;
+        private Cell right;
+        private Node root;
+
+        boolean isLeaf() {
+            return left == null;
+        }
+    }
+
+    /**
+     * K-d tree node.  Leaf nodes identify a range of feature indexes.
+     */
+    private static class Node implements Serializable {
+        private int splitDimension;
+        private float splitValue;
+        private Node left;
+        private Node right;
+        private int[] indexes;
+        private int from;
+        private int to;
+
+        boolean isLeaf() {
+            return left == null;
+        }
+    }
+
+    /**
+     * Unexplored branch and the lower bound for distances to descriptors within it.
+     */
+    private static class Branch {
+        private final Node node;
+        private final double minDistanceSquared;
+
+        Branch(final Node node,
+               final double minDistanceSquared) {
+            this.node = node;
+            this.minDistanceSquared = minDistanceSquared;
+        }
+    }
+
+    /**
+     * Mutable state for nearest and second nearest neighbor searches (reused for each source feature).
+     */
+    private class Search {
+
+        private final int maxChecks;
+        private final SpatialWindow spatialWindow;
+        private final Cell windowRootCell;
+        private final PriorityQueue<Branch> branchQueue;
+
+        private float[] query;
+        private double[] queryLocation;
+        private int checks;
+        private int bestIndex;
+        private double bestDistanceSquared;
+        private double secondBestDistanceSquared;
+
+        Search(final int maxChecks,
+               final SpatialWindow spatialWindow,
+               final Cell windowRootCell) {
+            this.maxChecks = maxChecks;
+            this.spatialWindow = spatialWindow;
+            this.windowRootCell = windowRootCell;
+            this.branchQueue = new PriorityQueue<>(64, Comparator.comparingDouble((Branch b) -> b.minDistanceSquared));
+        }
+
+        void run(final Feature sourceFeature) {
+
+            query = sourceFeature.descriptor;
+            queryLocation = sourceFeature.location;
+            checks = 0;
+            bestIndex = -1;
+            bestDistanceSquared = Double.MAX_VALUE;
+            secondBestDistanceSquared = Double.MAX_VALUE;
+
+            branchQueue.clear();
+            if (spatialWindow == null) {
+                branchQueue.add(new Branch(root, 0.0));
+            } else {
+                addCellsInWindow(windowRootCell);
+            }
+
+            Branch branch;
+            while ((branch = branchQueue.poll()) != null) {
+                if ((branch.minDistanceSquared >= secondBestDistanceSquared) ||
+                    ((maxChecks > 0) && (checks >= maxChecks))) {
+                    break;
+                }
+                descend(branch.node);
+            }
+        }
+
+        private void addCellsInWindow(final Cell cell) {
+            if (spatialWindow.intersects(queryLocation, cell)) {
+                if (cell.isLeaf()) {
+                    branchQueue.add(new Branch(cell.root, 0.0));
+                } else {
+                    addCellsInWindow(cell.left);
+                    addCellsInWindow(cell.right);
+                }
+            }
+        }
+
+        private void descend(final Node startNode) {
+
+            Node node = startNode;
+            while (! node.isLeaf()) {
+                final double delta = query[node.splitDimension] - node.splitValue;
+                final Node nearChild;
+                final Node farChild;
+                if (delta < 0) {
+                    nearChild = node.left;
+                    farChild = node.right;
+                } else {
+                    nearChild = node.right;
+                    farChild = node.left;
+                }
+                final double farDistanceSquared = delta * delta;
+                if (farDistanceSquared < secondBestDistanceSquared) {
+                    branchQueue.add(new Branch(farChild, farDistanceSquared));
+                }
+                node = nearChild;
+            }
+
+            for (int i = node.from; i < node.to; i++) {
+                final int featureIndex = node.indexes[i];
+
+                if ((spatialWindow != null) &&
+                    (! spatialWindow.contains(queryLocation, featureList.get(featureIndex).location))) {
+                    continue;
+                }
+
+                checks++;
+
+                final double distanceSquared = getDistanceSquared(featureIndex);
+                if (distanceSquared < bestDistanceSquared) {
+                    secondBestDistanceSquared = bestDistanceSquared;
+                    bestDistanceSquared = distanceSquared;
+                    bestIndex = featureIndex;
+                } else if (distanceSquared < secondBestDistanceSquared) {
+                    secondBestDistanceSquared = distanceSquared;
+                }
+            }
+        }
+
+        private double getDistanceSquared(final int featureIndex) {
+            final int offset = featureIndex * dimension;
+            double sum = 0.0;
+            for (int d = 0; d < dimension; d++) {
+                final double delta = query[d] - descriptors[offset + d];
+                sum += delta * delta;
+            }
+            return sum;
+        }
+    }
+
+    /** Maximum number of descriptors in a leaf node. */
+    private static final int MAX_LEAF_SIZE = 8;
+
+    /** Maximum number of features in a leaf cell. */
+    private static final int MAX_CELL_SIZE = 256;
+
+}
@@ -0,0 +1,444 @@
+package org.janelia.alignment.match;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.models.Affine2D;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.PointMatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Multi-threaded version of {@link Model#filterRansac} for 2D affine (and simpler) models.
+ *
+ * Hypotheses are evaluated in parallel chunks that share the best model found so far.
+ * Candidate locations are copied into primitive arrays once so that residuals for each hypothesis
+ * can be computed directly from the affine coefficients without touching (or mutating)
+ * the candidate {@link PointMatch} objects.
+ * The number of evaluated hypotheses adapts to the best inlier ratio found so far, so runs stop early
+ * once enough hypotheses have been tested to find an all-inlier sample with {@link #CONFIDENCE} probability.
+ *
+ * Like the mpicbg implementation, each hypothesis is refined by refitting to its inliers until the inlier set
+ * stops growing and the best hypothesis is then robustly filtered with {@link Model#filter}.
+ *
+ * @author Eric Trautman
+ */
+public class ParallelRansac {
+
+    private final int numberOfThreads;
+
+    /**
+     * @param  numberOfThreads  number of threads to use for hypothesis evaluation.
+     */
+    public ParallelRansac(final int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Same contract as {@link Model#filterRansac(List, java.util.Collection, int, double, double, int, double)}.
+     *
+     * @param  model           model to fit (must implement {@link Affine2D}); updated with the best fit.
+     * @param  candidates      candidate matches.
+     * @param  inliers         collection that will be populated with the filtered inliers.
+     * @param  iterations      maximum number of hypotheses to evaluate.
+     * @param  maxEpsilon      maximal allowed transfer error.
+     * @param  minInlierRatio  minimal ratio of inliers to candidates.
+     * @param  minNumInliers   minimal absolute number of inliers.
+     * @param  maxTrust        reject candidates with a cost larger than maxTrust * median cost.
+     *
+     * @return true if a model was found.
+     *
+     * @throws NotEnoughDataPointsException
+     *   if there are not enough candidates to fit the model.
+     *
+     * @throws IllegalArgumentException
+     *   if the model does not implement {@link Affine2D}.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean filterRansac(final Model model,
+                                final List<PointMatch> candidates,
+                                final List<PointMatch> inliers,
+                                final int iterations,
+                                final double maxEpsilon,
+                                final double minInlierRatio,
+                                final int minNumInliers,
+                                final double maxTrust)
+            throws NotEnoughDataPointsException, IllegalArgumentException {
+
+        if (! (model instanceof Affine2D)) {
+            throw new IllegalArgumentException("parallel RANSAC requires an affine model but " +
+                                               model.getClass().getName() + " was specified");
+        }
+
+        if (candidates.size() < model.getMinNumMatches()) {
+            throw new NotEnoughDataPointsException(candidates.size() + " data points are not enough to solve the " +
+                                                   "Model, at least " + model.getMinNumMatches() +
+                                                   " data points required.");
+        }
+
+        final Hypothesis best = findBestHypothesis(model,
+                                                   candidates,
+                                                   iterations,
+                                                   maxEpsilon,
+                                                   minInlierRatio,
+                                                   minNumInliers);
+
+        inliers.clear();
+
+        if (best == null) {
+            return false;
+        }
+
+        final List<PointMatch> ransacInliers = best.getInliers(candidates);
+        try {
+            model.fit(ransacInliers);
+        } catch (final IllDefinedDataPointsException e) {
+            LOG.warn("filterRansac: failed to refit best hypothesis", e);
+            return false;
+        }
+
+        if (! model.filter(ransacInliers, inliers, maxTrust, minNumInliers)) {
+            inliers.clear();
+            return false;
+        }
+
+        return true;
+    }
+
+    private Hypothesis findBestHypothesis(final Model prototype,
+                                          final List<PointMatch> candidates,
+                                          final int iterations,
+                                          final double maxEpsilon,
+                                          final double minInlierRatio,
+                                          final int minNumInliers) {
+
+        final CandidateLocations locations = new CandidateLocations(candidates);
+        final SharedState sharedState = new SharedState(iterations, prototype.getMinNumMatches(), candidates.size());
+        final int workerCount = Math.max(1, Math.min(numberOfThreads, (iterations / CHUNK_SIZE) + 1));
+
+        final List<Worker> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(new Worker(i,
+                                   prototype,
+                                   candidates,
+                                   locations,
+                                   maxEpsilon,
+                                   minInlierRatio,
+                                   minNumInliers,
+                                   sharedState));
+        }
+
+        if (workerCount == 1) {
+            workers.get(0).run();
+        } else {
+            final ExecutorService executorService = getSharedExecutorService();
+            final List<Future<?>> futures = new ArrayList<>(workerCount);
+            for (final Worker worker : workers) {
+                futures.add(executorService.submit(worker));
+            }
+            try {
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("failed to evaluate RANSAC hypotheses", e);
+            }
+        }
+
+        LOG.debug("findBestHypothesis: evaluated {} of {} hypotheses with {} workers, best has {} inliers",
+                  sharedState.startedCount.get(), iterations, workerCount,
+                  sharedState.best == null ? 0 : sharedState.best.inlierCount);
+
+        return sharedState.best;
+    }
+
+    /**
+     * Candidate locations copied into primitive arrays
+     * (local p1 coordinates and world p2 coordinates, as used by {@link Model#test}).
+     */
+    private static class CandidateLocations {
+
+        private final double[] pX;
+        private final double[] pY;
+        private final double[] qX;
+        private final double[] qY;
+
+        CandidateLocations(final List<PointMatch> candidates) {
+            final int size = candidates.size();
+            this.pX = new double[size];
+            this.pY = new double[size];
+            this.qX = new double[size];
+            this.qY = new double[size];
+            for (int i = 0; i < size; i++) {
+                final PointMatch pointMatch = candidates.get(i);
+                final double[] p = pointMatch.getP1().getL();
+                final double[] q = pointMatch.getP2().getW();
+                pX[i] = p[0];
+                pY[i] = p[1];
+                qX[i] = q[0];
+                qY[i] = q[1];
+            }
+        }
+
+        /**
+         * Counts residuals within epsilon for the specified affine coefficients
+         * (see {@link Affine2D#toArray} for ordering).
+         *
+         * @return number of inliers (with their indexes written to inlierIndexes).
+         */
+        int test(final double[] affine,
+                 final double epsilonSquared,
+                 final int[] inlierIndexes) {
+            final double m00 = affine[0];
+            final double m10 = affine[1];
+            final double m01 = affine[2];
+            final double m11 = affine[3];
+            final double m02 = affine[4];
+            final double m12 = affine[5];
+            int inlierCount = 0;
+            for (int i = 0; i < pX.length; i++) {
+                final double dx = m00 * pX[i] + m01 * pY[i] + m02 - qX[i];
+                final double dy = m10 * pX[i] + m11 * pY[i] + m12 - qY[i];
+                if ((dx * dx + dy * dy) < epsilonSquared) {
+                    inlierIndexes[inlierCount] = i;
+                    inlierCount++;
+                }
+            }
+            return inlierCount;
+        }
+    }
+
+    /**
+     * Inliers for a hypothesis.
+     */
+    private static class Hypothesis {
+
+        private final int[] inlierIndexes;
+        private final int inlierCount;
+
+        Hypothesis(final int[] inlierIndexes,
+                   final int inlierCount) {
+            this.inlierIndexes = inlierIndexes;
+            this.inlierCount = inlierCount;
+        }
+
+        List<PointMatch> getInliers(final List<PointMatch> candidates) {
+            final List<PointMatch> inliers = new ArrayList<>(inlierCount);
+            for (int i = 0; i < inlierCount; i++) {
+                inliers.add(candidates.get(inlierIndexes[i]));
+            }
+            return inliers;
+        }
+    }
+
+    /**
+     * Best hypothesis and iteration limits shared by all workers.
+     */
+    private static class SharedState {
+
+        private final AtomicInteger startedCount;
+        private final int minNumMatches;
+        private final int candidateCount;
+        private volatile int requiredIterations;
+        private Hypothesis best;
+
+        SharedState(final int iterations,
+                    final int minNumMatches,
+                    final int candidateCount) {
+            this.startedCount = new AtomicInteger(0);
+            this.minNumMatches = minNumMatches;
+            this.candidateCount = candidateCount;
+            this.requiredIterations = iterations;
+            this.best = null;
+        }
+
+        /**
+         * @return index of the first hypothesis in the next chunk or -1 if no more hypotheses are needed.
+         */
+        int nextChunk() {
+            final int first = startedCount.getAndAdd(CHUNK_SIZE);
+            return first < requiredIterations ? first : -1;
+        }
+
+        synchronized void offer(final Hypothesis hypothesis) {
+            if ((best == null) || (hypothesis.inlierCount > best.inlierCount)) {
+                best = hypothesis;
+
+                // standard adaptive stopping criterion: log(1 - p) / log(1 - w^s)
+                final double inlierRatio = (double) best.inlierCount / candidateCount;
+                final double allInlierSampleProbability = Math.pow(inlierRatio, minNumMatches);
+                if (allInlierSampleProbability >= 1.0) {
+                    requiredIterations = 0;
+                } else if (allInlierSampleProbability > 0.0) {
+                    final double adaptiveIterations =
+                            Math.log(1.0 - CONFIDENCE) / Math.log(1.0 - allInlierSampleProbability);
+                    if (adaptiveIterations < requiredIterations) {
+                        requiredIterations = (int) Math.ceil(adaptiveIterations);
+                    }
+                }
+            }
+        }
+
+        synchronized int getBestInlierCount() {
+            return best == null ? 0 : best.inlierCount;
+        }
+    }
+
+    /**
+     * Evaluates chunks of hypotheses until the shared iteration limit is reached.
+     */
+    private static class Worker implements Runnable {
+
+        private final Model model;
+        private final List<PointMatch> candidates;
+        private final CandidateLocations locations;
+        private final double epsilonSquared;
+        private final double minInlierRatio;
+        private final int minNumInliers;
+        private final SharedState sharedState;
+        private final Random random;
+        private final double[] affine;
+
+        @SuppressWarnings("unchecked")
+        Worker(final int workerIndex,
+               final Model prototype,
+               final List<PointMatch> candidates,
+               final CandidateLocations locations,
+               final double maxEpsilon,
+               final double minInlierRatio,
+               final int minNumInliers,
+               final SharedState sharedState) {
+            this.model = prototype.copy();
+            this.candidates = candidates;
+            this.locations = locations;
+            this.epsilonSquared = maxEpsilon * maxEpsilon;
+            this.minInlierRatio = minInlierRatio;
+            this.minNumInliers = minNumInliers;
+            this.sharedState = sharedState;
+            this.random = new Random(RANDOM_SEED + workerIndex);
+            this.affine = new double[6];
+        }
+
+        @Override
+        public void run() {
+            final int minNumMatches = model.getMinNumMatches();
+            final int[] sampleIndexes = new int[minNumMatches];
+            final List<PointMatch> sample = new ArrayList<>(minNumMatches);
+            int[] inlierIndexes = new int[candidates.size()];
+
+            for (int first = sharedState.nextChunk(); first >= 0; first = sharedState.nextChunk()) {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+
+                    chooseSample(sampleIndexes);
+                    sample.clear();
+                    for (final int index : sampleIndexes) {
+                        sample.add(candidates.get(index));
+                    }
+
+                    final int inlierCount = evaluate(sample, inlierIndexes);
+
+                    if ((inlierCount >= minNumInliers) && (inlierCount > sharedState.getBestInlierCount())) {
+                        sharedState.offer(new Hypothesis(inlierIndexes, inlierCount));
+                        inlierIndexes = new int[candidates.size()];
+                    }
+                }
+            }
+        }
+
+        private void chooseSample(final int[] sampleIndexes) {
+            for (int j = 0; j < sampleIndexes.length; j++) {
+                boolean isDuplicate;
+                do {
+                    sampleIndexes[j] = random.nextInt(candidates.size());
+                    isDuplicate = false;
+                    for (int k = 0; k < j; k++) {
+                        if (sampleIndexes[k] == sampleIndexes[j]) {
+                            isDuplicate = true;
+                            break;
+                        }
+                    }
+                } while (isDuplicate);
+            }
+        }
+
+        /**
+         * Fits the model to the sample and then refits it to its inliers until the inlier set stops growing.
+         *
+         * @return number of inliers for a good hypothesis or 0 if the hypothesis should be rejected.
+         */
+        @SuppressWarnings("unchecked")
+        private int evaluate(final List<PointMatch> sample,
+                             final int[] inlierIndexes) {
+            try {
+                model.fit(sample);
+            } catch (final NotEnoughDataPointsException | IllDefinedDataPointsException e) {
+                return 0;
+            }
+
+            ((Affine2D) model).toArray(affine);
+            int inlierCount = locations.test(affine, epsilonSquared, inlierIndexes);
+            boolean isGood = isGood(inlierCount, model.getMinNumMatches());
+
+            int previousInlierCount = 0;
+            final List<PointMatch> refitInliers = new ArrayList<>();
+            while (isGood && (previousInlierCount < inlierCount)) {
+                previousInlierCount = inlierCount;
+                refitInliers.clear();
+                for (int i = 0; i < inlierCount; i++) {
+                    refitInliers.add(candidates.get(inlierIndexes[i]));
+                }
+                try {
+                    model.fit(refitInliers);
+                } catch (final NotEnoughDataPointsException | IllDefinedDataPointsException e) {
+                    return 0;
+                }
+                ((Affine2D) model).toArray(affine);
+                inlierCount = locations.test(affine, epsilonSquared, inlierIndexes);
+                isGood = isGood(inlierCount, minNumInliers);
+            }
+
+            return isGood ? inlierCount : 0;
+        }
+
+        private boolean isGood(final int inlierCount,
+                               final int minCount) {
+            final double inlierRatio = (double) inlierCount / candidates.size();
+            return (inlierCount >= minCount) && (inlierRatio > minInlierRatio);
+        }
+    }
+
+    private static synchronized ExecutorService getSharedExecutorService() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "parallel-ransac");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return sharedExecutorService;
+    }
+
+    /** Probability of having drawn at least one all-inlier sample when stopping early. */
+    private static final double CONFIDENCE = 0.999;
+
+    /** Number of hypotheses each worker evaluates before checking shared iteration limits. */
+    private static final int CHUNK_SIZE = 16;
+
+    private static final long RANDOM_SEED = 9876543210L;
+
+    private static ExecutorService sharedExecutorService = null;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelRansac.class);
+}
@@ -1,10 +1,13 @@
 package org.janelia.alignment.mipmap;
 
 import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 
 import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
 
 import org.janelia.alignment.ChannelMap;
+import org.janelia.alignment.mapper.SingleChannelMapper;
 import org.janelia.alignment.spec.ChannelNamesAndWeights;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,9 +71,10 @@ public class AveragedChannelMipmapSource
         final int height = firstSourceChannel.ip.getHeight();
         final int pixelCount = width * height;
 
-        final ImageProcessorWithMasks averagedChannel =
-                    new ImageProcessorWithMasks(firstSourceChannel.ip.createProcessor(width, height),
-                                                new ByteProcessor(width, height),
+        // accumulate in float so that integer (byte or short) sources are not truncated with each channel
+        final ImageProcessorWithMasks floatAverage =
+                    new ImageProcessorWithMasks(new FloatProcessor(width, height),
+                                                new FloatProcessor(width, height),
                                                 null);
 
         for (final String channelName : channelNamesAndWeights.getNames()) {
@@ -82,12 +86,17 @@ public class AveragedChannelMipmapSource
                 final float sourceWeight = channelNamesAndWeights.getWeight(channelName).floatValue();
 
                 for (int i = 0; i < pixelCount; i++) {
-                    averageChannelAndAlphaPixels(sourceChannel, sourceWeight, averagedChannel, i);
+                    averageChannelAndAlphaPixels(sourceChannel, sourceWeight, floatAverage, i);
                 }
             }
 
         }
 
+        final ImageProcessorWithMasks averagedChannel =
+                new ImageProcessorWithMasks(convertToSourceType(floatAverage.ip, firstSourceChannel.ip),
+                                            convertToByteMask(floatAverage.mask),
+                                            null);
+
         final ChannelMap averagedChannelMap = new ChannelMap(averagedChannelName, averagedChannel);
 
         final long stop = System.currentTimeMillis();
@@ -158,6 +167,36 @@ public class AveragedChannelMipmapSource
         } // else weightedSourceAlpha is 0, so nothing needs to change in the target
     }
 
+    /**
+     * @return the accumulated float intensities rounded and clamped (where appropriate) into
+     *         a processor with the same type and display range as the specified source.
+     */
+    private static ImageProcessor convertToSourceType(final ImageProcessor floatAverage,
+                                                      final ImageProcessor source) {
+        final ImageProcessor converted;
+        if (source instanceof FloatProcessor) {
+            converted = floatAverage;
+        } else {
+            final int width = floatAverage.getWidth();
+            converted = source.createProcessor(width, floatAverage.getHeight());
+            final int pixelCount = width * floatAverage.getHeight();
+            for (int i = 0; i < pixelCount; i++) {
+                SingleChannelMapper.setTargetIntensity(converted, i % width, i / width, floatAverage.getf(i));
+            }
+            converted.setMinAndMax(source.getMin(), source.getMax());
+        }
+        return converted;
+    }
+
+    private static ByteProcessor convertToByteMask(final ImageProcessor floatMask) {
+        final ByteProcessor byteMask = new ByteProcessor(floatMask.getWidth(), floatMask.getHeight());
+        final int pixelCount = floatMask.getPixelCount();
+        for (int i = 0; i < pixelCount; i++) {
+            byteMask.set(i, Math.min(255, Math.round(floatMask.getf(i))));
+        }
+        return byteMask;
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(AveragedChannelMipmapSource.class);
 
 }
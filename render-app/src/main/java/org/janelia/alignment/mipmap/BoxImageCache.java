@@ -0,0 +1,154 @@
+package org.janelia.alignment.mipmap;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.janelia.alignment.Utils;
+
+/**
+ * Bounded cache of rendered box images that allows a parent level box to be reduced from
+ * its (just rendered) children without reloading the children from disk.
+ *
+ * Each child box is only needed once (to build its parent), so images are removed from the cache
+ * when they are taken.  Once the cache is full, additional images are rejected (instead of evicting
+ * older images) so that a level that does not fit in the cache still gets hits for its first boxes
+ * when the next level is built in the same order.  Rejected and evicted images are simply reloaded
+ * from disk.
+ *
+ * Instances are intended to be used by a single worker and are not serializable.
+ *
+ * @author Eric Trautman
+ */
+public class BoxImageCache {
+
+    private final int maxNumberOfImages;
+    private final Map<File, BufferedImage> fileToImage;
+
+    private long hitCount;
+    private long missCount;
+    private long rejectCount;
+
+    /**
+     * @param  maxNumberOfImages  maximum number of box images to keep in memory.
+     *
+     * @throws IllegalArgumentException
+     *   if the maximum number of images is not positive.
+     */
+    public BoxImageCache(final int maxNumberOfImages)
+            throws IllegalArgumentException {
+
+        if (maxNumberOfImages < 1) {
+            throw new IllegalArgumentException("maxNumberOfImages must be positive");
+        }
+
+        this.maxNumberOfImages = maxNumberOfImages;
+        this.fileToImage = new HashMap<>();
+        this.hitCount = 0;
+        this.missCount = 0;
+        this.rejectCount = 0;
+    }
+
+    /**
+     * @return number of images currently in the cache.
+     */
+    public synchronized int size() {
+        return fileToImage.size();
+    }
+
+    /**
+     * Adds the specified box image to the cache if there is room for it.
+     *
+     * @param  boxFile  file where the box image has been saved.
+     * @param  image    box image pixels.
+     *
+     * @return true if the image was cached; otherwise false.
+     */
+    public synchronized boolean put(final File boxFile,
+                                    final BufferedImage image) {
+        final boolean isCached;
+        if (fileToImage.containsKey(boxFile) || (fileToImage.size() < maxNumberOfImages)) {
+            fileToImage.put(boxFile, image);
+            isCached = true;
+        } else {
+            rejectCount++;
+            isCached = false;
+        }
+        return isCached;
+    }
+
+    /**
+     * Removes the specified box image from the cache.
+     *
+     * @param  boxFile  file where the box image has been saved.
+     *
+     * @return the cached image or null if it is not cached.
+     */
+    public synchronized BufferedImage take(final File boxFile) {
+        final BufferedImage image = fileToImage.remove(boxFile);
+        if (image == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return image;
+    }
+
+    /**
+     * Removes the specified box image from the cache without tracking a hit or miss.
+     * This should be called when an image's parent has been built without taking the image from the cache.
+     *
+     * @param  boxFile  file where the box image has been saved.
+     */
+    public synchronized void remove(final File boxFile) {
+        fileToImage.remove(boxFile);
+    }
+
+    /**
+     * Removes all images that are not saved within the specified directory.
+     * This should be called before each level is reduced to free space held by stale images
+     * (e.g. children of parent boxes that already existed and therefore were never taken).
+     *
+     * @param  directory  directory containing the box images to keep.
+     */
+    public synchronized void retainOnly(final File directory) {
+        final Path directoryPath = directory.getAbsoluteFile().toPath();
+        final Iterator<File> iterator = fileToImage.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (! iterator.next().getAbsoluteFile().toPath().startsWith(directoryPath)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return loaded image for the specified box file, taking it from the cache if possible.
+     */
+    public BufferedImage takeOrLoad(final File boxFile) {
+        BufferedImage image = take(boxFile);
+        if (image == null) {
+            image = Utils.openImage(boxFile.getAbsolutePath());
+        }
+        return image;
+    }
+
+    /**
+     * @return cache statistics suitable for logging.
+     */
+    public synchronized String getStats() {
+        return "{size: " + fileToImage.size() +
+               ", maxNumberOfImages: " + maxNumberOfImages +
+               ", hitCount: " + hitCount +
+               ", missCount: " + missCount +
+               ", rejectCount: " + rejectCount +
+               '}';
+    }
+
+    @Override
+    public String toString() {
+        return getStats();
+    }
+}
@@ -7,6 +7,7 @@ import ij.process.ShortProcessor;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -57,6 +58,7 @@ public class BoxMipmapGenerator {
     private final int firstSourceColumn;
     private final int lastSourceColumn;
     private final boolean forceGeneration;
+    private final BoxImageCache boxCache;
 
     private final List<List<File>> rowFileLists; // row -> column
     private final List<File> emptyRow;
@@ -88,6 +90,33 @@ public class BoxMipmapGenerator {
                               final int firstSourceColumn,
                               final int lastSourceColumn,
                               final boolean forceGeneration) {
+        this(z, isLabel, format, boxWidth, boxHeight, boxDirectory, sourceLevel,
+             firstSourceRow, lastSourceRow, firstSourceColumn, lastSourceColumn, forceGeneration,
+             null);
+    }
+
+    /**
+     * Constructs a generator that (optionally) reduces levels in memory.
+     *
+     * @param  boxCache  cache of source images (or null to always reload source images from disk).
+     *                   When specified, down-sampled images are reduced directly from cached pixels
+     *                   and are themselves cached for the next level.
+     *
+     * @see #BoxMipmapGenerator(int, boolean, String, int, int, File, int, int, int, int, int, boolean)
+     */
+    public BoxMipmapGenerator(final int z,
+                              final boolean isLabel,
+                              final String format,
+                              final int boxWidth,
+                              final int boxHeight,
+                              final File boxDirectory,
+                              final int sourceLevel,
+                              final int firstSourceRow,
+                              final int lastSourceRow,
+                              final int firstSourceColumn,
+                              final int lastSourceColumn,
+                              final boolean forceGeneration,
+                              final BoxImageCache boxCache) {
         this.z = z;
         this.isLabel = isLabel;
         this.format = format;
@@ -100,6 +129,7 @@ public class BoxMipmapGenerator {
         this.firstSourceColumn = (firstSourceColumn / 2) * 2; // ensure first column is a multiple of 2
         this.lastSourceColumn = lastSourceColumn;
         this.forceGeneration = forceGeneration;
+        this.boxCache = boxCache;
 
         // make sure all column lists are the same length
         this.rowFileLists = new ArrayList<>(this.lastSourceRow + 1);
@@ -143,6 +173,26 @@ public class BoxMipmapGenerator {
         rowFiles.add(sourceColumn, source);
     }
 
+    /**
+     * Adds the source file to the specified row and column of this generator and
+     * caches the source pixels (if this generator has a cache) so that they can be
+     * down-sampled without being reloaded from disk.
+     *
+     * @param  sourceRow     number of row containing the source image (in context of source scaling level).
+     * @param  sourceColumn  number of column containing the source image (in context of source scaling level).
+     * @param  source        image to add.
+     * @param  sourceImage   pixels for the image.
+     */
+    public void addSource(final int sourceRow,
+                          final int sourceColumn,
+                          final File source,
+                          final BufferedImage sourceImage) {
+        addSource(sourceRow, sourceColumn, source);
+        if (boxCache != null) {
+            boxCache.put(source, sourceImage);
+        }
+    }
+
     /**
      * Generates next level (n+1) of the mipmap pyramid and saves the resulting images to disk.
      *
@@ -158,6 +208,13 @@ public class BoxMipmapGenerator {
 
         LOG.info("generateNextLevel: generating level {} mipmaps for z={}", scaledLevel, z);
 
+        if (boxCache != null) {
+            // drop any images that were never taken (e.g. children of already generated boxes)
+            boxCache.retainOnly(Paths.get(boxDirectory.getAbsolutePath(),
+                                          String.valueOf(sourceLevel),
+                                          String.valueOf(z)).toFile());
+        }
+
         final BoxMipmapGenerator nextLevelGenerator =  new BoxMipmapGenerator(z,
                                                                               isLabel,
                                                                               format,
@@ -169,7 +226,8 @@ public class BoxMipmapGenerator {
                                                                               (lastSourceRow / 2),
                                                                               (firstSourceColumn / 2),
                                                                               (lastSourceColumn / 2),
-                                                                              forceGeneration);
+                                                                              forceGeneration,
+                                                                              boxCache);
         List<File> firstRowFiles;
         int secondRow;
         List<File> secondRowFiles;
@@ -218,6 +276,11 @@ public class BoxMipmapGenerator {
             }
         }
 
+        if (boxCache != null) {
+            LOG.info("generateNextLevel: generated level {} mipmaps for z={}, boxCache={}",
+                     scaledLevel, z, boxCache.getStats());
+        }
+
         return nextLevelGenerator;
     }
 
@@ -257,7 +320,7 @@ public class BoxMipmapGenerator {
 
             final List<File> firstRowFiles = rowFileLists.get(0);
             final File sourceFile = firstRowFiles.get(0);
-            BufferedImage sourceImage = Utils.openImage(sourceFile.getAbsolutePath());
+            BufferedImage sourceImage = loadSourceImage(sourceFile);
 
             // clip source image if it is bigger than scaled stack bounds
             if ((scaledStackMaxX <= sourceImage.getWidth()) &&
@@ -388,6 +451,131 @@ public class BoxMipmapGenerator {
         return sp.get16BitBufferedImage();
     }
 
+    /**
+     * Reduces (down-samples by 50%) the four specified child box images into one parent box image
+     * by averaging each 2x2 block of child pixels.  Pixels are processed as primitive int arrays
+     * (instead of drawing the children onto a Graphics2D canvas and scaling) to minimize overhead.
+     *
+     * Missing (null) children are treated as fully transparent.  Since averaging would corrupt label
+     * values, label images are reduced by sampling the upper left pixel of each 2x2 block instead.
+     *
+     * @param  upperLeft   upper left child image (or null if missing).
+     * @param  upperRight  upper right child image (or null if missing).
+     * @param  lowerLeft   lower left child image (or null if missing).
+     * @param  lowerRight  lower right child image (or null if missing).
+     * @param  boxWidth    width of the parent box (and each child box).
+     * @param  boxHeight   height of the parent box (and each child box).
+     * @param  isLabel     indicates that the images are labels and not standard images.
+     *
+     * @return ARGB image for the parent box.
+     */
+    public static BufferedImage reduceFourBoxes(final BufferedImage upperLeft,
+                                                final BufferedImage upperRight,
+                                                final BufferedImage lowerLeft,
+                                                final BufferedImage lowerRight,
+                                                final int boxWidth,
+                                                final int boxHeight,
+                                                final boolean isLabel) {
+
+        final int[][] childPixels = {
+                getArgbPixels(upperLeft, boxWidth, boxHeight),
+                getArgbPixels(upperRight, boxWidth, boxHeight),
+                getArgbPixels(lowerLeft, boxWidth, boxHeight),
+                getArgbPixels(lowerRight, boxWidth, boxHeight)
+        };
+
+        final BufferedImage parentImage = new BufferedImage(boxWidth, boxHeight, BufferedImage.TYPE_INT_ARGB);
+        final int[] parentPixels = ((DataBufferInt) parentImage.getRaster().getDataBuffer()).getData();
+
+        final int fourTileWidth = boxWidth * 2;
+        final int fourTileHeight = boxHeight * 2;
+
+        int p = 0;
+        for (int sourceY = 0; sourceY < fourTileHeight; sourceY += 2) {
+            for (int sourceX = 0; sourceX < fourTileWidth; sourceX += 2) {
+
+                if (isLabel) {
+
+                    parentPixels[p] = getFourTilePixel(childPixels, sourceX, sourceY, boxWidth, boxHeight);
+
+                } else {
+
+                    int a = 0;
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    int argb;
+                    for (int dy = 0; dy < 2; dy++) {
+                        for (int dx = 0; dx < 2; dx++) {
+                            argb = getFourTilePixel(childPixels, sourceX + dx, sourceY + dy, boxWidth, boxHeight);
+                            a += (argb >>> 24);
+                            r += (argb >> 16) & 0xff;
+                            g += (argb >> 8) & 0xff;
+                            b += argb & 0xff;
+                        }
+                    }
+
+                    // add 2 to round averages
+                    parentPixels[p] = (((a + 2) >> 2) << 24) |
+                                      (((r + 2) >> 2) << 16) |
+                                      (((g + 2) >> 2) << 8) |
+                                      ((b + 2) >> 2);
+                }
+
+                p++;
+            }
+        }
+
+        return parentImage;
+    }
+
+    /**
+     * @return ARGB pixels for the specified image (padded with transparent pixels to the box size)
+     *         or null if the image is null.
+     */
+    private static int[] getArgbPixels(final BufferedImage image,
+                                       final int boxWidth,
+                                       final int boxHeight) {
+        int[] pixels = null;
+        if (image != null) {
+            pixels = new int[boxWidth * boxHeight];
+            final int width = Math.min(image.getWidth(), boxWidth);
+            final int height = Math.min(image.getHeight(), boxHeight);
+            image.getRGB(0, 0, width, height, pixels, 0, boxWidth);
+        }
+        return pixels;
+    }
+
+    /**
+     * @return ARGB value for the specified location in the virtual four tile (2x2 children) image.
+     */
+    private static int getFourTilePixel(final int[][] childPixels,
+                                        final int fourTileX,
+                                        final int fourTileY,
+                                        final int boxWidth,
+                                        final int boxHeight) {
+        int childIndex = 0;
+        int x = fourTileX;
+        int y = fourTileY;
+        if (x >= boxWidth) {
+            childIndex += 1;
+            x -= boxWidth;
+        }
+        if (y >= boxHeight) {
+            childIndex += 2;
+            y -= boxHeight;
+        }
+        final int[] pixels = childPixels[childIndex];
+        return pixels == null ? 0 : pixels[(y * boxWidth) + x];
+    }
+
+    /**
+     * @return pixels for the specified source file, taken from this generator's cache when possible.
+     */
+    private BufferedImage loadSourceImage(final File sourceFile) {
+        return boxCache == null ? Utils.openImage(sourceFile.getAbsolutePath()) : boxCache.takeOrLoad(sourceFile);
+    }
+
     /**
      * Utility to ensure that all parent directories are created for the specified file.
      *
@@ -460,6 +648,16 @@ public class BoxMipmapGenerator {
         public void saveScaledFile(final File scaledFile)
                 throws IOException {
 
+            if (boxCache == null) {
+                saveDrawnFile(scaledFile);
+            } else {
+                saveReducedFile(scaledFile);
+            }
+        }
+
+        private void saveDrawnFile(final File scaledFile)
+                throws IOException {
+
             final BufferedImage fourTileImage =
                     new BufferedImage(boxWidth * 2, boxHeight * 2, BufferedImage.TYPE_INT_ARGB);
             final Graphics2D fourTileGraphics = fourTileImage.createGraphics();
@@ -478,6 +676,35 @@ public class BoxMipmapGenerator {
             fourTileGraphics.dispose();
         }
 
+        /**
+         * Creates a scaled (50%) mipmap from this source's (ideally cached) pixels,
+         * and caches the result for the next level.
+         *
+         * @param  scaledFile  file to save.
+         *
+         * @throws IOException
+         *   if the mipmap cannot be saved.
+         */
+        private void saveReducedFile(final File scaledFile)
+                throws IOException {
+
+            final BufferedImage scaledImage = reduceFourBoxes(loadImage(upperLeft),
+                                                              loadImage(upperRight),
+                                                              loadImage(lowerLeft),
+                                                              loadImage(lowerRight),
+                                                              boxWidth,
+                                                              boxHeight,
+                                                              isLabel);
+
+            saveImage(scaledImage, scaledFile, isLabel, format);
+
+            boxCache.put(scaledFile, scaledImage);
+        }
+
+        private BufferedImage loadImage(final File file) {
+            return file == null ? null : loadSourceImage(file);
+        }
+
         private void drawImage(final File file,
                                final int x,
                                final int y,
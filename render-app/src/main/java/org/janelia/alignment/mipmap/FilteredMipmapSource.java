@@ -9,6 +9,7 @@ import org.janelia.alignment.ChannelMap;
 import org.janelia.alignment.filter.Filter;
 import org.janelia.alignment.filter.NormalizeLocalContrast;
 import org.janelia.alignment.filter.ValueToNoise;
+import org.janelia.alignment.util.FilteredChannelMapCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +17,9 @@ import org.slf4j.LoggerFactory;
  * A {@link MipmapSource} implementation that filters the pixels of
  * another {@link MipmapSource} using a list of {@link Filter filters}.
  *
+ * When a {@link FilteredChannelMapCache} is provided and the filtered source is a {@link UrlMipmapSource},
+ * filtered pixels are cached so that frequently rendered tiles are not re-filtered for every render.
+ *
  * @author Eric Trautman
  */
 public class FilteredMipmapSource
@@ -24,13 +28,30 @@ public class FilteredMipmapSource
     private final String sourceName;
     private final MipmapSource source;
     private final List<Filter> filterList;
+    private final String filterChainKey;
+    private final FilteredChannelMapCache filteredChannelMapCache;
 
     public FilteredMipmapSource(final String sourceName,
                                 final MipmapSource source,
                                 final List<Filter> filterList) {
+        this(sourceName, source, filterList, null);
+    }
+
+    /**
+     * @param  sourceName               name of this source.
+     * @param  source                   source to filter.
+     * @param  filterList               filters to apply (in order).
+     * @param  filteredChannelMapCache  cache for filtered pixels (or null if caching is not desired).
+     */
+    public FilteredMipmapSource(final String sourceName,
+                                final MipmapSource source,
+                                final List<Filter> filterList,
+                                final FilteredChannelMapCache filteredChannelMapCache) {
         this.sourceName = sourceName;
         this.source = source;
         this.filterList = filterList;
+        this.filterChainKey = getFilterChainKey(filterList);
+        this.filteredChannelMapCache = filteredChannelMapCache;
     }
 
     @Override
@@ -52,7 +73,40 @@ public class FilteredMipmapSource
     public ChannelMap getChannels(final int mipmapLevel)
             throws IllegalArgumentException {
 
-        // TODO: filtering changes the source pixels (in-place) making multiple calls for the same level unsafe, is that okay?
+        final ChannelMap channels;
+        if ((filteredChannelMapCache != null) && (source instanceof UrlMipmapSource)) {
+            final String sourceKey = ((UrlMipmapSource) source).getChannelsKey(mipmapLevel);
+            channels = filteredChannelMapCache.get(sourceKey,
+                                                   mipmapLevel,
+                                                   filterChainKey,
+                                                   () -> loadAndFilterChannels(mipmapLevel));
+        } else {
+            channels = loadAndFilterChannels(mipmapLevel);
+        }
+
+        return channels;
+    }
+
+    /**
+     * @return canonical description of the specified filter chain (suitable for cache keys).
+     */
+    public static String getFilterChainKey(final List<Filter> filterList) {
+        final StringBuilder key = new StringBuilder();
+        for (final Filter filter : filterList) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(filter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Filters the source pixels in place.  This is safe because sources always return
+     * copies of any cached pixels (see {@link org.janelia.alignment.util.ImageProcessorCache#get}).
+     */
+    private ChannelMap loadAndFilterChannels(final int mipmapLevel)
+            throws IllegalArgumentException {
 
         final double mipmapScale = 1.0 / (1 << mipmapLevel);
 
@@ -3,6 +3,9 @@ package org.janelia.alignment.mipmap;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -10,10 +13,13 @@ import java.util.Set;
 import mpicbg.models.AffineModel2D;
 import mpicbg.models.CoordinateTransform;
 import mpicbg.models.CoordinateTransformList;
+import mpicbg.models.TranslationModel2D;
 import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
 
 import org.janelia.alignment.ChannelMap;
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.RenderTargetType;
+import org.janelia.alignment.RenderTransformAffineMapping;
 import org.janelia.alignment.RenderTransformMesh;
 import org.janelia.alignment.RenderTransformMeshMappingWithMasks;
 import org.janelia.alignment.TransformableCanvas;
@@ -26,6 +32,7 @@ import org.janelia.alignment.mapper.SingleChannelMapper;
 import org.janelia.alignment.mapper.SingleChannelWithAlphaMapper;
 import org.janelia.alignment.mapper.SingleChannelWithBinaryMaskMapper;
 import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.util.FilteredChannelMapCache;
 import org.janelia.alignment.util.ImageProcessorCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +60,8 @@ public class RenderedCanvasMipmapSource
     private final boolean skipInterpolation;
     private final boolean hasMasks;
     private final boolean binaryMask;
+    private final RenderTargetType targetType;
+    private Long renderDeadline;
 
     /**
      * Constructs a canvas based upon {@link RenderParameters} that is dynamically
@@ -76,7 +85,10 @@ public class RenderedCanvasMipmapSource
              renderParameters.getNumberOfThreads(),
              renderParameters.skipInterpolation(),
              renderParameters.hasMasks(),
-             renderParameters.binaryMask());
+             renderParameters.binaryMask(),
+             renderParameters.getTargetType());
+
+        this.renderDeadline = renderParameters.getRenderDeadline();
     }
 
     /**
@@ -96,6 +108,7 @@ public class RenderedCanvasMipmapSource
      * @param  skipInterpolation       enable sloppy but fast rendering by skipping interpolation.
      * @param  hasMasks                true if this canvas contains at least one source with a mask.
      * @param  binaryMask              render only 100% opaque pixels.
+     * @param  targetType              pixel type for rendered channels.
      */
     public RenderedCanvasMipmapSource(final String canvasName,
                                       final Set<String> channelNames,
@@ -109,7 +122,8 @@ public class RenderedCanvasMipmapSource
                                       final int numberOfMappingThreads,
                                       final boolean skipInterpolation,
                                       final boolean hasMasks,
-                                      final boolean binaryMask) {
+                                      final boolean binaryMask,
+                                      final RenderTargetType targetType) {
         this.canvasName = canvasName;
         this.channelNames = channelNames;
         this.canvasList = canvasList;
@@ -123,6 +137,7 @@ public class RenderedCanvasMipmapSource
         this.skipInterpolation = skipInterpolation;
         this.hasMasks = hasMasks;
         this.binaryMask = binaryMask;
+        this.targetType = targetType;
     }
 
     @Override
@@ -153,15 +168,22 @@ public class RenderedCanvasMipmapSource
         for (final String channelName : channelNames) {
             targetChannels.put(channelName,
                                new ImageProcessorWithMasks(
-                                       new FloatProcessor(levelWidth, levelHeight),
+                                       targetType.createProcessor(levelWidth, levelHeight),
                                        null, // mask is added by mapPixels call later (if necessary)
                                        null));
         }
 
         long totalScaleDerivationTime = 0;
 
+        int numberOfMappedCanvases = 0;
         for (final TransformableCanvas canvas : canvasList) {
 
+            if ((renderDeadline != null) && (System.currentTimeMillis() > renderDeadline)) {
+                LOG.warn("getChannels: render deadline passed, skipping {} of {} canvases",
+                         canvasList.size() - numberOfMappedCanvases, canvasList.size());
+                break;
+            }
+
             final long scaleDerivationStart = System.currentTimeMillis();
 
             final CoordinateTransformList<CoordinateTransform> renderTransformList =
@@ -169,10 +191,17 @@ public class RenderedCanvasMipmapSource
 
             final MipmapSource source = canvas.getSource();
 
-            final double averageScale = Utils.sampleAverageScale(renderTransformList,
-                                                                 source.getFullScaleWidth(),
-                                                                 source.getFullScaleHeight(),
-                                                                 meshCellSize);
+            final double averageScale;
+            if (canvas.getAverageScale() == null) {
+                averageScale = Utils.sampleAverageScale(renderTransformList,
+                                                        source.getFullScaleWidth(),
+                                                        source.getFullScaleHeight(),
+                                                        meshCellSize);
+            } else {
+                // The render scale and offset transform is a uniform scale plus a translation,
+                // so it simply scales the canvas' (least squares fit) average scale.
+                averageScale = canvas.getAverageScale() * levelScale;
+            }
 
             final int componentMipmapLevel = Utils.bestMipmapLevel(averageScale);
 
@@ -187,6 +216,8 @@ public class RenderedCanvasMipmapSource
                       numberOfMappingThreads,
                       skipInterpolation,
                       targetChannels);
+
+            numberOfMappedCanvases++;
         }
 
         LOG.debug("getChannels: deriving average scale for {} canvases took {} milliseconds",
@@ -206,6 +237,9 @@ public class RenderedCanvasMipmapSource
 
         final List<TransformableCanvas> canvasList = new ArrayList<>(renderParameters.numberOfTileSpecs());
 
+        final FilteredChannelMapCache filteredChannelMapCache =
+                imageProcessorCache == null ? null : imageProcessorCache.getFilteredChannelMapCache();
+
         MipmapSource source;
         for (final TileSpec tileSpec : renderParameters.getTileSpecs()) {
 
@@ -221,10 +255,13 @@ public class RenderedCanvasMipmapSource
             if (renderParameters.doFilter()) {
                 source = new FilteredMipmapSource("filtered " + source.getSourceName(),
                                                   source,
-                                                  FilteredMipmapSource.getDefaultFilters());
+                                                  FilteredMipmapSource.getDefaultFilters(),
+                                                  filteredChannelMapCache);
             }
 
-            canvasList.add(new TransformableCanvas(source, tileSpec.getTransforms().getNewInstanceAsList()));
+            canvasList.add(new TransformableCanvas(source,
+                                                   tileSpec.getTransforms().getNewInstanceAsList(),
+                                                   tileSpec.getStoredAverageScale()));
         }
 
         return canvasList;
@@ -284,14 +321,9 @@ public class RenderedCanvasMipmapSource
                                                        final int mipmapWidth,
                                                        final int mipmapHeight) {
 
-        // attach mipmap transformation
-        final CoordinateTransformList<CoordinateTransform> mipmapLevelTransformList = new CoordinateTransformList<>();
-        mipmapLevelTransformList.add(Utils.createScaleLevelTransform(mipmapLevel));
-        mipmapLevelTransformList.add(renderTransformList);
-
         // create mesh
         final RenderTransformMesh mesh = new RenderTransformMesh(
-                mipmapLevelTransformList,
+                createMipmapLevelTransformList(mipmapLevel, renderTransformList),
                 (int) (fullScaleWidth / meshCellSize + 0.5),
                 mipmapWidth,
                 mipmapHeight);
@@ -301,8 +333,27 @@ public class RenderedCanvasMipmapSource
         return mesh;
     }
 
+    /**
+     * @param  mipmapLevel          source mipmap level.
+     * @param  renderTransformList  list of transforms for the render context.
+     *
+     * @return list that applies a scale transform based upon the mipmap level
+     *         followed by the transforms for the render context.
+     */
+    public static CoordinateTransformList<CoordinateTransform> createMipmapLevelTransformList(
+            final int mipmapLevel,
+            final CoordinateTransformList<CoordinateTransform> renderTransformList) {
+
+        final CoordinateTransformList<CoordinateTransform> mipmapLevelTransformList = new CoordinateTransformList<>();
+        mipmapLevelTransformList.add(Utils.createScaleLevelTransform(mipmapLevel));
+        mipmapLevelTransformList.add(renderTransformList);
+        return mipmapLevelTransformList;
+    }
+
     /**
      * Maps pixels from a source to a target.
+     * Sources with purely affine transforms are mapped directly (see {@link RenderTransformAffineMapping})
+     * instead of through a mesh.
      *
      * @param  source                  source pixel data.
      * @param  mipmapLevel             source mipmap level.
@@ -325,7 +376,30 @@ public class RenderedCanvasMipmapSource
                                  final boolean skipInterpolation,
                                  final ChannelMap targetChannels) {
 
-        final ChannelMap sourceChannels = source.getChannels(mipmapLevel);
+        final CoordinateTransformList<CoordinateTransform> mipmapLevelTransformList =
+                createMipmapLevelTransformList(mipmapLevel, renderTransformList);
+
+        // for affine url sources, only load the source region that maps into the target
+        final Rectangle levelRegion = deriveSourceRegion(source, mipmapLevelTransformList, targetChannels);
+        ChannelMap sourceChannels = null;
+        CoordinateTransform sourceTransform = mipmapLevelTransformList;
+        if (levelRegion != null) {
+            sourceChannels = ((UrlMipmapSource) source).getChannels(mipmapLevel, levelRegion);
+            if (sourceChannels != null) {
+                // region pixel (0, 0) is clipped region origin in the mipmap level
+                final TranslationModel2D regionOffset = new TranslationModel2D();
+                regionOffset.set(Math.max(0, levelRegion.x), Math.max(0, levelRegion.y));
+                final CoordinateTransformList<CoordinateTransform> regionTransformList =
+                        new CoordinateTransformList<>();
+                regionTransformList.add(regionOffset);
+                regionTransformList.add(mipmapLevelTransformList);
+                sourceTransform = regionTransformList;
+            }
+        }
+
+        if (sourceChannels == null) {
+            sourceChannels = source.getChannels(mipmapLevel);
+        }
 
         if (sourceChannels.size() > 0) {
 
@@ -362,25 +436,45 @@ public class RenderedCanvasMipmapSource
                                                                targetChannels);
             if (tilePixelMapper != null) {
 
-                final RenderTransformMesh mesh = createRenderMesh(mipmapLevel,
-                                                                  renderTransformList,
-                                                                  source.getFullScaleWidth(),
-                                                                  meshCellSize,
-                                                                  mipmapWidth,
-                                                                  mipmapHeight);
+                final RenderTransformAffineMapping affineMapping =
+                        RenderTransformAffineMapping.build(sourceTransform,
+                                                           mipmapWidth,
+                                                           mipmapHeight);
 
-                final long meshCreationStop = System.currentTimeMillis();
+                final long meshCreationStop;
+                final String mapType;
+                if (affineMapping == null) {
 
-                final RenderTransformMeshMappingWithMasks mapping = new RenderTransformMeshMappingWithMasks(mesh);
+                    final RenderTransformMesh mesh = createRenderMesh(mipmapLevel,
+                                                                      renderTransformList,
+                                                                      source.getFullScaleWidth(),
+                                                                      meshCellSize,
+                                                                      mipmapWidth,
+                                                                      mipmapHeight);
 
-                final String mapType = skipInterpolation ? "" : " interpolated";
-                mapping.map(tilePixelMapper, numberOfMappingThreads);
+                    meshCreationStop = System.currentTimeMillis();
 
-                // apply source channel intensity ranges to corresponding target channels
+                    final RenderTransformMeshMappingWithMasks mapping = new RenderTransformMeshMappingWithMasks(mesh);
+
+                    mapType = skipInterpolation ? "" : " interpolated";
+                    mapping.map(tilePixelMapper, numberOfMappingThreads);
+
+                } else {
+
+                    meshCreationStop = System.currentTimeMillis();
+
+                    mapType = skipInterpolation ? " affine" : " affine interpolated";
+                    affineMapping.map(tilePixelMapper, numberOfMappingThreads);
+                }
+
+                // apply source channel intensity ranges to corresponding float target channels
+                // (byte and short target intensities were scaled to the full target range during mapping)
                 for (final String channelName : targetChannels.names()) {
                     final ImageProcessorWithMasks sourceChannel = sourceChannels.get(channelName);
                     final ImageProcessorWithMasks targetChannel = targetChannels.get(channelName);
-                    targetChannel.ip.setMinAndMax(sourceChannel.ip.getMin(), sourceChannel.ip.getMax());
+                    if (targetChannel.ip instanceof FloatProcessor) {
+                        targetChannel.ip.setMinAndMax(sourceChannel.ip.getMin(), sourceChannel.ip.getMax());
+                    }
                 }
 
                 final long mapStop = System.currentTimeMillis();
@@ -399,6 +493,69 @@ public class RenderedCanvasMipmapSource
 
     }
 
+    /**
+     * @return the mipmap level region of the specified source that maps into the target channels
+     *         (padded to cover interpolation neighbors) or null if the source region cannot be
+     *         loaded separately because the source is not a {@link UrlMipmapSource} or
+     *         because its transforms are not affine.
+     */
+    private static Rectangle deriveSourceRegion(final MipmapSource source,
+                                                final CoordinateTransform mipmapLevelTransformList,
+                                                final ChannelMap targetChannels) {
+
+        Rectangle levelRegion = null;
+
+        final AffineTransform levelToTarget;
+        if ((source instanceof UrlMipmapSource) && (targetChannels.size() > 0)) {
+            levelToTarget = RenderTransformAffineMapping.getConcatenatedAffine(mipmapLevelTransformList);
+        } else {
+            levelToTarget = null;
+        }
+
+        if (levelToTarget != null) {
+
+            final ImageProcessorWithMasks firstTargetChannel = targetChannels.getFirstChannel();
+            final double targetWidth = firstTargetChannel.ip.getWidth();
+            final double targetHeight = firstTargetChannel.ip.getHeight();
+            final double[] targetCorners = { 0, 0, targetWidth, 0, 0, targetHeight, targetWidth, targetHeight };
+
+            try {
+                final double[] levelCorners = new double[targetCorners.length];
+                levelToTarget.inverseTransform(targetCorners, 0, levelCorners, 0, 4);
+
+                double minX = Double.MAX_VALUE;
+                double minY = Double.MAX_VALUE;
+                double maxX = -Double.MAX_VALUE;
+                double maxY = -Double.MAX_VALUE;
+                for (int i = 0; i < levelCorners.length; i += 2) {
+                    minX = Math.min(minX, levelCorners[i]);
+                    maxX = Math.max(maxX, levelCorners[i]);
+                    minY = Math.min(minY, levelCorners[i + 1]);
+                    maxY = Math.max(maxY, levelCorners[i + 1]);
+                }
+
+                // limit the region to a range that can be expressed with int coordinates
+                final int regionMinX = (int) clampToIntRange(Math.floor(minX) - REGION_PADDING);
+                final int regionMinY = (int) clampToIntRange(Math.floor(minY) - REGION_PADDING);
+                final int regionMaxX = (int) clampToIntRange(Math.ceil(maxX) + REGION_PADDING);
+                final int regionMaxY = (int) clampToIntRange(Math.ceil(maxY) + REGION_PADDING);
+                levelRegion = new Rectangle(regionMinX,
+                                            regionMinY,
+                                            regionMaxX - regionMinX,
+                                            regionMaxY - regionMinY);
+
+            } catch (final NoninvertibleTransformException e) {
+                LOG.warn("deriveSourceRegion: ignoring noninvertible affine " + levelToTarget, e);
+            }
+        }
+
+        return levelRegion;
+    }
+
+    private static double clampToIntRange(final double value) {
+        return Math.max(-MAX_REGION_COORDINATE, Math.min(MAX_REGION_COORDINATE, value));
+    }
+
     /**
      * @return {@link PixelMapper} instance "optimized" for mapping source channel(s) for
      *         a specific render context.
@@ -466,6 +623,11 @@ public class RenderedCanvasMipmapSource
         return tilePixelMapper;
     }
 
+    /** Pixels added around source regions so that interpolation near region edges uses real neighbors. */
+    private static final int REGION_PADDING = 2;
+
+    private static final double MAX_REGION_COORDINATE = Integer.MAX_VALUE / 4;
+
     private static final Logger LOG = LoggerFactory.getLogger(RenderedCanvasMipmapSource.class);
 
 }
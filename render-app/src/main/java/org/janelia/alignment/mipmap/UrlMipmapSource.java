@@ -2,6 +2,7 @@ package org.janelia.alignment.mipmap;
 
 import ij.process.ImageProcessor;
 
+import java.awt.Rectangle;
 import java.util.List;
 import java.util.Map;
 
@@ -177,6 +178,133 @@ public class UrlMipmapSource
         return channels;
     }
 
+    /**
+     * Loads a region of this source's pixel data without (when possible) decoding the rest of the
+     * source images (see {@link ImageProcessorCache#getRegion}).
+     * Only single channel sources support region loading.
+     *
+     * @param  mipmapLevel  mipmap level.
+     * @param  levelRegion  region to load (in mipmap level pixel coordinates).
+     *                      The region is clipped to the source, so pixel (0, 0) of each returned channel
+     *                      is level pixel (max(0, levelRegion.x), max(0, levelRegion.y)).
+     *
+     * @return channels for the specified region or null if the region cannot be loaded separately
+     *         (in which case {@link #getChannels(int)} should be used instead).
+     *
+     * @throws IllegalArgumentException
+     *   if the region cannot be loaded.
+     */
+    public ChannelMap getChannels(final int mipmapLevel,
+                                  final Rectangle levelRegion)
+            throws IllegalArgumentException {
+
+        if ((channelSpecList == null) || (channelSpecList.size() != 1)) {
+            return null;
+        }
+
+        final long loadMipStart = System.currentTimeMillis();
+
+        final ChannelSpec channelSpec = channelSpecList.get(0);
+        final Map.Entry<Integer, ImageAndMask> mipmapEntry = channelSpec.getFloorMipmapEntry(mipmapLevel);
+        final ImageAndMask imageAndMask = mipmapEntry.getValue();
+        final int downSampleLevels = mipmapLevel - mipmapEntry.getKey();
+
+        if (downSampleLevels < 0) {
+            return null; // let getChannels(int) report the upscaling problem
+        }
+
+        final ImageProcessor imageProcessor = imageProcessorCache.getRegion(imageAndMask.getImageUrl(),
+                                                                            downSampleLevels,
+                                                                            false,
+                                                                            channelSpec.is16Bit(),
+                                                                            levelRegion);
+        if (imageProcessor == null) {
+            return null;
+        }
+
+        final long loadMipStop = System.currentTimeMillis();
+
+        final Rectangle loadedRegion = new Rectangle(Math.max(0, levelRegion.x),
+                                                     Math.max(0, levelRegion.y),
+                                                     imageProcessor.getWidth(),
+                                                     imageProcessor.getHeight());
+
+        // open mask, cropping it from the full mask if it cannot be loaded separately
+        ImageProcessor maskProcessor = null;
+        final String maskUrl = imageAndMask.getMaskUrl();
+        if ((maskUrl != null) && (!excludeMask)) {
+            maskProcessor = imageProcessorCache.getRegion(maskUrl, downSampleLevels, true, false, loadedRegion);
+            if (maskProcessor == null) {
+                maskProcessor = imageProcessorCache.get(maskUrl, downSampleLevels, true, false);
+                if ((maskProcessor.getWidth() >= loadedRegion.x + loadedRegion.width) &&
+                    (maskProcessor.getHeight() >= loadedRegion.y + loadedRegion.height)) {
+                    maskProcessor.setRoi(loadedRegion);
+                    maskProcessor = maskProcessor.crop();
+                }
+            }
+        }
+
+        final long loadMaskStop = System.currentTimeMillis();
+
+        setMinAndMaxIntensity(imageProcessor, channelSpec);
+
+        final ImageProcessorWithMasks channel = new ImageProcessorWithMasks(imageProcessor, maskProcessor, null);
+
+        if ((maskProcessor != null) && (channel.mask == null)) {
+            LOG.warn("getChannels: {} mask removed because image {} region {} size ({}x{}) differs from mask {} size ({}x{})",
+                     sourceName,
+                     imageAndMask.getImageUrl(), loadedRegion, imageProcessor.getWidth(), imageProcessor.getHeight(),
+                     imageAndMask.getMaskUrl(), maskProcessor.getWidth(), maskProcessor.getHeight());
+        }
+
+        final ChannelMap channels = new ChannelMap();
+        channels.put(channelSpec.getName(), channel);
+
+        LOG.debug("getChannels: {} took {} milliseconds to load level {} region {} (mip:{}, downSampleLevels:{}, mask:{}), cacheSize:{}",
+                  sourceName,
+                  loadMaskStop - loadMipStart,
+                  mipmapLevel,
+                  loadedRegion,
+                  loadMipStop - loadMipStart,
+                  downSampleLevels,
+                  loadMaskStop - loadMipStop,
+                  imageProcessorCache.size());
+
+        return channels;
+    }
+
+    /**
+     * @param  mipmapLevel  mipmap level.
+     *
+     * @return key that identifies the pixels returned by {@link #getChannels} for the specified level
+     *         (suitable for caching pixels derived from this source).
+     */
+    public String getChannelsKey(final int mipmapLevel) {
+
+        final StringBuilder key = new StringBuilder();
+
+        if (channelSpecList != null) {
+            for (final ChannelSpec channelSpec : channelSpecList) {
+                final Map.Entry<Integer, ImageAndMask> mipmapEntry = channelSpec.getFloorMipmapEntry(mipmapLevel);
+                if (mipmapEntry != null) {
+                    final ImageAndMask imageAndMask = mipmapEntry.getValue();
+                    final String maskUrl = excludeMask ? null : imageAndMask.getMaskUrl();
+                    key.append(channelSpec.getName()).append('|')
+                            .append(mipmapEntry.getKey()).append('|')
+                            .append(imageAndMask.getImageUrl()).append('|')
+                            .append(maskUrl).append('|')
+                            .append(channelSpec.is16Bit()).append('|')
+                            .append(renderMinIntensity == null ? channelSpec.getMinIntensity() : renderMinIntensity)
+                            .append('|')
+                            .append(renderMaxIntensity == null ? channelSpec.getMaxIntensity() : renderMaxIntensity)
+                            .append(';');
+                }
+            }
+        }
+
+        return key.toString();
+    }
+
     /**
      * Loads remaining channel data for multi-channel images.
      *
@@ -0,0 +1,884 @@
+package org.janelia.alignment.solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mpicbg.models.AffineModel2D;
+
+import org.janelia.alignment.match.Matches;
+import org.janelia.alignment.match.ModelType;
+import org.janelia.alignment.util.ProcessTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process least squares solver that derives one affine (match to world) transform per tile
+ * from point matches between tiles.
+ *
+ * Each tile's transform is constrained to a {@link ModelType#TRANSLATION}, {@link ModelType#SIMILARITY},
+ * or {@link ModelType#AFFINE} variation of the tile's initial transform.  The normal equations for all
+ * tile parameters are assembled as a block sparse matrix (one block per pair of connected tiles) and
+ * solved with a block Jacobi preconditioned conjugate gradient method.  Matrix vector products are
+ * distributed across multiple threads.
+ *
+ * Tiles can be fixed (their initial transforms are kept) and all other tiles are weakly regularized
+ * toward their initial transforms so that systems without fixed tiles remain well posed.
+ *
+ * @author Eric Trautman
+ */
+public class SparseAlignmentSolver {
+
+    /**
+     * Solver results.
+     */
+    public static class Solution {
+
+        private final Map<String, AffineModel2D> tileIdToModel;
+        private final int iterations;
+        private final double initialMeanMatchDistance;
+        private final double finalMeanMatchDistance;
+
+        Solution(final Map<String, AffineModel2D> tileIdToModel,
+                 final int iterations,
+                 final double initialMeanMatchDistance,
+                 final double finalMeanMatchDistance) {
+            this.tileIdToModel = tileIdToModel;
+            this.iterations = iterations;
+            this.initialMeanMatchDistance = initialMeanMatchDistance;
+            this.finalMeanMatchDistance = finalMeanMatchDistance;
+        }
+
+        /**
+         * @return solved (match to world) model for each tile that had matches.
+         */
+        public Map<String, AffineModel2D> getTileIdToModel() {
+            return tileIdToModel;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * @return weighted mean world distance between matched points using the initial tile transforms.
+         */
+        public double getInitialMeanMatchDistance() {
+            return initialMeanMatchDistance;
+        }
+
+        /**
+         * @return weighted mean world distance between matched points using the solved tile transforms.
+         */
+        public double getFinalMeanMatchDistance() {
+            return finalMeanMatchDistance;
+        }
+
+        @Override
+        public String toString() {
+            return "{numberOfTiles: " + tileIdToModel.size() +
+                   ", iterations: " + iterations +
+                   ", initialMeanMatchDistance: " + initialMeanMatchDistance +
+                   ", finalMeanMatchDistance: " + finalMeanMatchDistance + '}';
+        }
+    }
+
+    private final ModelType modelType;
+    private final int parametersPerTile;
+    private final double regularization;
+    private final int maxIterations;
+    private final double tolerance;
+    private final int numberOfThreads;
+
+    private final Map<String, Tile> tileIdToTile;
+    private final List<TilePairMatches> tilePairMatchesList;
+
+    /**
+     * @param  modelType        type of model for each tile (TRANSLATION, SIMILARITY, or AFFINE).
+     * @param  regularization   weight (relative to each tile's match weight) pulling tile parameters
+     *                          toward their initial values (e.g. 0.01).
+     * @param  maxIterations    maximum number of conjugate gradient iterations.
+     * @param  tolerance        stop iterating when the residual norm falls below this fraction
+     *                          of the right hand side norm (e.g. 1.0e-10).
+     * @param  numberOfThreads  number of threads to use for matrix vector products.
+     *
+     * @throws IllegalArgumentException
+     *   if the model type is not supported.
+     */
+    public SparseAlignmentSolver(final ModelType modelType,
+                                 final double regularization,
+                                 final int maxIterations,
+                                 final double tolerance,
+                                 final int numberOfThreads)
+            throws IllegalArgumentException {
+
+        switch (modelType) {
+            case TRANSLATION: this.parametersPerTile = 2; break;
+            case SIMILARITY:  this.parametersPerTile = 4; break;
+            case AFFINE:      this.parametersPerTile = 6; break;
+            default:
+                throw new IllegalArgumentException(
+                        modelType + " models are not supported, choose TRANSLATION, SIMILARITY, or AFFINE");
+        }
+
+        this.modelType = modelType;
+        this.regularization = regularization;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+
+        this.tileIdToTile = new LinkedHashMap<>();
+        this.tilePairMatchesList = new ArrayList<>();
+    }
+
+    /**
+     * Adds a tile to the system.
+     *
+     * @param  tileId        identifies the tile.
+     * @param  initialModel  initial transform from match coordinates to world coordinates for the tile.
+     * @param  fixed         indicates whether the initial transform should be kept.
+     */
+    public void addTile(final String tileId,
+                        final AffineModel2D initialModel,
+                        final boolean fixed) {
+        final double[] affineData = new double[6];
+        initialModel.toArray(affineData);
+        tileIdToTile.put(tileId, new Tile(tileId, affineData, fixed));
+    }
+
+    /**
+     * Adds matches between two tiles to the system.
+     *
+     * @param  pTileId  identifies the tile for the match p coordinates.
+     * @param  qTileId  identifies the tile for the match q coordinates.
+     * @param  matches  matches between the tiles.
+     *
+     * @return true if the matches were added; false if either tile has not been added to the system.
+     */
+    public boolean addMatches(final String pTileId,
+                              final String qTileId,
+                              final Matches matches) {
+        final Tile pTile = tileIdToTile.get(pTileId);
+        final Tile qTile = tileIdToTile.get(qTileId);
+        final boolean added = (pTile != null) && (qTile != null) && (pTile != qTile);
+        if (added) {
+            tilePairMatchesList.add(new TilePairMatches(pTile, qTile, matches));
+            pTile.addCenterPoints(matches.getPs(), matches.getWs());
+            qTile.addCenterPoints(matches.getQs(), matches.getWs());
+        }
+        return added;
+    }
+
+    /**
+     * @return number of tiles added to the system.
+     */
+    public int getTileCount() {
+        return tileIdToTile.size();
+    }
+
+    /**
+     * Solves the system.
+     *
+     * @return solved models for each tile that has matches.
+     *
+     * @throws IllegalStateException
+     *   if the system cannot be solved.
+     */
+    public Solution solve()
+            throws IllegalStateException {
+
+        final ProcessTimer timer = new ProcessTimer();
+
+        final List<Tile> unknownTiles = new ArrayList<>();
+        for (final Tile tile : tileIdToTile.values()) {
+            if (tile.hasMatches()) {
+                tile.deriveInitialParameters();
+                if (! tile.fixed) {
+                    tile.unknownIndex = unknownTiles.size();
+                    unknownTiles.add(tile);
+                }
+            }
+        }
+
+        LOG.info("solve: entry, {} model, {} tiles, {} unknown tiles, {} tile pairs",
+                 modelType, tileIdToTile.size(), unknownTiles.size(), tilePairMatchesList.size());
+
+        final BlockSparseSystem system = buildSystem(unknownTiles.size());
+
+        final double[] x = new double[unknownTiles.size() * parametersPerTile];
+        for (final Tile tile : unknownTiles) {
+            System.arraycopy(tile.initialParameters, 0, x, tile.unknownIndex * parametersPerTile, parametersPerTile);
+        }
+
+        final int iterations;
+        if (unknownTiles.size() > 0) {
+            final ExecutorService executorService =
+                    numberOfThreads > 1 ? Executors.newFixedThreadPool(numberOfThreads) : null;
+            try {
+                iterations = system.solve(x, executorService);
+            } finally {
+                if (executorService != null) {
+                    executorService.shutdownNow();
+                }
+            }
+        } else {
+            iterations = 0;
+        }
+
+        final Map<String, AffineModel2D> tileIdToModel = new LinkedHashMap<>();
+        for (final Tile tile : tileIdToTile.values()) {
+            if (tile.hasMatches()) {
+                if (tile.unknownIndex >= 0) {
+                    System.arraycopy(x, tile.unknownIndex * parametersPerTile,
+                                     tile.solvedParameters, 0, parametersPerTile);
+                } else {
+                    System.arraycopy(tile.initialParameters, 0, tile.solvedParameters, 0, parametersPerTile);
+                }
+                tileIdToModel.put(tile.tileId, tile.getSolvedModel());
+            }
+        }
+
+        final Solution solution = new Solution(tileIdToModel,
+                                               iterations,
+                                               getMeanMatchDistance(false),
+                                               getMeanMatchDistance(true));
+
+        LOG.info("solve: exit, returning {}, elapsedSeconds={}", solution, timer.getElapsedSeconds());
+
+        return solution;
+    }
+
+    private BlockSparseSystem buildSystem(final int numberOfUnknownTiles) {
+
+        final int k = parametersPerTile;
+        final BlockSparseSystem system = new BlockSparseSystem(numberOfUnknownTiles, k);
+
+        final double[] u = new double[2];
+        final double[] jp = new double[2 * k];
+        final double[] jq = new double[2 * k];
+        final double[] dp = new double[2];
+        final double[] dq = new double[2];
+        final double[] delta = new double[2];
+
+        for (final TilePairMatches tilePairMatches : tilePairMatchesList) {
+
+            final Tile pTile = tilePairMatches.pTile;
+            final Tile qTile = tilePairMatches.qTile;
+            final boolean isPUnknown = pTile.unknownIndex >= 0;
+            final boolean isQUnknown = qTile.unknownIndex >= 0;
+
+            if (! (isPUnknown || isQUnknown)) {
+                continue;
+            }
+
+            final double[] pBlock = isPUnknown ? system.getDiagonalBlock(pTile.unknownIndex) : null;
+            final double[] qBlock = isQUnknown ? system.getDiagonalBlock(qTile.unknownIndex) : null;
+            final double[] pqBlock = isPUnknown && isQUnknown ?
+                                     system.getOffDiagonalBlock(pTile.unknownIndex, qTile.unknownIndex) : null;
+            final double[] qpBlock = isPUnknown && isQUnknown ?
+                                     system.getOffDiagonalBlock(qTile.unknownIndex, pTile.unknownIndex) : null;
+            final double[] pRhs = isPUnknown ? system.getRhsBlock(pTile.unknownIndex) : null;
+            final double[] qRhs = isQUnknown ? system.getRhsBlock(qTile.unknownIndex) : null;
+
+            final Matches matches = tilePairMatches.matches;
+            final double[][] ps = matches.getPs();
+            final double[][] qs = matches.getQs();
+            final double[] ws = matches.getWs();
+
+            for (int m = 0; m < ws.length; m++) {
+
+                final double w = ws[m];
+
+                pTile.getMatchTerms(ps[0][m], ps[1][m], u, jp, dp);
+                qTile.getMatchTerms(qs[0][m], qs[1][m], u, jq, dq);
+
+                // known (fixed tile) positions are folded into the offsets
+                if (! isPUnknown) {
+                    addProduct(jp, pTile.initialParameters, dp, k);
+                }
+                if (! isQUnknown) {
+                    addProduct(jq, qTile.initialParameters, dq, k);
+                }
+
+                delta[0] = dp[0] - dq[0];
+                delta[1] = dp[1] - dq[1];
+
+                if (isPUnknown) {
+                    addTransposeProduct(jp, jp, w, pBlock, k);
+                    addTransposeVectorProduct(jp, delta, -w, pRhs, k);
+                }
+                if (isQUnknown) {
+                    addTransposeProduct(jq, jq, w, qBlock, k);
+                    addTransposeVectorProduct(jq, delta, w, qRhs, k);
+                }
+                if (isPUnknown && isQUnknown) {
+                    addTransposeProduct(jp, jq, -w, pqBlock, k);
+                    addTransposeProduct(jq, jp, -w, qpBlock, k);
+                }
+            }
+        }
+
+        // regularize each unknown tile toward its initial parameters
+        for (final Tile tile : tileIdToTile.values()) {
+            if (tile.unknownIndex >= 0) {
+                final double[] block = system.getDiagonalBlock(tile.unknownIndex);
+                final double[] rhs = system.getRhsBlock(tile.unknownIndex);
+                for (int j = 0; j < k; j++) {
+                    final double diagonal = block[j * k + j];
+                    final double lambda = diagonal > 0 ? regularization * diagonal : regularization;
+                    block[j * k + j] += lambda;
+                    rhs[j] += lambda * tile.initialParameters[j];
+                }
+            }
+        }
+
+        system.finishAssembly();
+
+        return system;
+    }
+
+    private double getMeanMatchDistance(final boolean useSolvedParameters) {
+
+        final int k = parametersPerTile;
+        final double[] u = new double[2];
+        final double[] jp = new double[2 * k];
+        final double[] jq = new double[2 * k];
+        final double[] dp = new double[2];
+        final double[] dq = new double[2];
+
+        double weightedDistanceSum = 0.0;
+        double weightSum = 0.0;
+        for (final TilePairMatches tilePairMatches : tilePairMatchesList) {
+
+            final Tile pTile = tilePairMatches.pTile;
+            final Tile qTile = tilePairMatches.qTile;
+            final double[] pParameters = useSolvedParameters ? pTile.solvedParameters : pTile.initialParameters;
+            final double[] qParameters = useSolvedParameters ? qTile.solvedParameters : qTile.initialParameters;
+
+            final Matches matches = tilePairMatches.matches;
+            final double[][] ps = matches.getPs();
+            final double[][] qs = matches.getQs();
+            final double[] ws = matches.getWs();
+
+            for (int m = 0; m < ws.length; m++) {
+                pTile.getMatchTerms(ps[0][m], ps[1][m], u, jp, dp);
+                qTile.getMatchTerms(qs[0][m], qs[1][m], u, jq, dq);
+                addProduct(jp, pParameters, dp, k);
+                addProduct(jq, qParameters, dq, k);
+                weightedDistanceSum += ws[m] * Math.sqrt(squared(dp[0] - dq[0]) + squared(dp[1] - dq[1]));
+                weightSum += ws[m];
+            }
+        }
+
+        return weightSum > 0 ? weightedDistanceSum / weightSum : 0.0;
+    }
+
+    /** result += jacobian * parameters */
+    private static void addProduct(final double[] jacobian,
+                                   final double[] parameters,
+                                   final double[] result,
+                                   final int k) {
+        for (int row = 0; row < 2; row++) {
+            double sum = 0.0;
+            for (int j = 0; j < k; j++) {
+                sum += jacobian[row * k + j] * parameters[j];
+            }
+            result[row] += sum;
+        }
+    }
+
+    /** block += weight * a^T * b */
+    private static void addTransposeProduct(final double[] a,
+                                            final double[] b,
+                                            final double weight,
+                                            final double[] block,
+                                            final int k) {
+        for (int i = 0; i < k; i++) {
+            final double a0 = a[i] * weight;
+            final double a1 = a[k + i] * weight;
+            if ((a0 != 0.0) || (a1 != 0.0)) {
+                for (int j = 0; j < k; j++) {
+                    block[i * k + j] += a0 * b[j] + a1 * b[k + j];
+                }
+            }
+        }
+    }
+
+    /** result += weight * a^T * v */
+    private static void addTransposeVectorProduct(final double[] a,
+                                                  final double[] v,
+                                                  final double weight,
+                                                  final double[] result,
+                                                  final int k) {
+        for (int i = 0; i < k; i++) {
+            result[i] += weight * (a[i] * v[0] + a[k + i] * v[1]);
+        }
+    }
+
+    private static double squared(final double value) {
+        return value * value;
+    }
+
+    /**
+     * Tile parameters are expressed relative to the (weighted) center of the tile's match points
+     * to keep the system well conditioned:
+     *
+     * <pre>
+     *     world = J(u) * parameters + d(u), where u = matchPoint - center
+     * </pre>
+     */
+    private class Tile {
+
+        private final String tileId;
+        private final double[] initialAffine; // m00, m10, m01, m11, m02, m12
+        private final boolean fixed;
+
+        private double centerWeight;
+        private double centerXSum;
+        private double centerYSum;
+        private double centerX;
+        private double centerY;
+
+        private final double[] initialParameters;
+        private final double[] solvedParameters;
+        private int unknownIndex;
+
+        Tile(final String tileId,
+             final double[] initialAffine,
+             final boolean fixed) {
+            this.tileId = tileId;
+            this.initialAffine = initialAffine;
+            this.fixed = fixed;
+            this.initialParameters = new double[parametersPerTile];
+            this.solvedParameters = new double[parametersPerTile];
+            this.unknownIndex = -1;
+        }
+
+        void addCenterPoints(final double[][] points,
+                             final double[] weights) {
+            for (int i = 0; i < weights.length; i++) {
+                centerXSum += weights[i] * points[0][i];
+                centerYSum += weights[i] * points[1][i];
+                centerWeight += weights[i];
+            }
+        }
+
+        boolean hasMatches() {
+            return centerWeight > 0;
+        }
+
+        void deriveInitialParameters() {
+
+            centerX = centerXSum / centerWeight;
+            centerY = centerYSum / centerWeight;
+
+            final double m00 = initialAffine[0];
+            final double m10 = initialAffine[1];
+            final double m01 = initialAffine[2];
+            final double m11 = initialAffine[3];
+            final double worldCenterX = m00 * centerX + m01 * centerY + initialAffine[4];
+            final double worldCenterY = m10 * centerX + m11 * centerY + initialAffine[5];
+
+            switch (modelType) {
+                case TRANSLATION:
+                    initialParameters[0] = worldCenterX;
+                    initialParameters[1] = worldCenterY;
+                    break;
+                case SIMILARITY:
+                    initialParameters[0] = (m00 + m11) / 2.0;
+                    initialParameters[1] = (m10 - m01) / 2.0;
+                    initialParameters[2] = worldCenterX;
+                    initialParameters[3] = worldCenterY;
+                    break;
+                default:
+                    initialParameters[0] = m00;
+                    initialParameters[1] = m01;
+                    initialParameters[2] = m10;
+                    initialParameters[3] = m11;
+                    initialParameters[4] = worldCenterX;
+                    initialParameters[5] = worldCenterY;
+            }
+        }
+
+        /**
+         * Populates the jacobian (2 x k, row major) and offset for the specified match point.
+         */
+        void getMatchTerms(final double x,
+                           final double y,
+                           final double[] u,
+                           final double[] jacobian,
+                           final double[] offset) {
+
+            u[0] = x - centerX;
+            u[1] = y - centerY;
+
+            switch (modelType) {
+                case TRANSLATION:
+                    jacobian[0] = 1.0; jacobian[1] = 0.0;
+                    jacobian[2] = 0.0; jacobian[3] = 1.0;
+                    offset[0] = initialAffine[0] * u[0] + initialAffine[2] * u[1];
+                    offset[1] = initialAffine[1] * u[0] + initialAffine[3] * u[1];
+                    break;
+                case SIMILARITY:
+                    jacobian[0] = u[0]; jacobian[1] = -u[1]; jacobian[2] = 1.0; jacobian[3] = 0.0;
+                    jacobian[4] = u[1]; jacobian[5] = u[0];  jacobian[6] = 0.0; jacobian[7] = 1.0;
+                    offset[0] = 0.0;
+                    offset[1] = 0.0;
+                    break;
+                default:
+                    jacobian[0] = u[0]; jacobian[1] = u[1]; jacobian[2] = 0.0;  jacobian[3] = 0.0;
+                    jacobian[4] = 1.0;  jacobian[5] = 0.0;
+                    jacobian[6] = 0.0;  jacobian[7] = 0.0;  jacobian[8] = u[0]; jacobian[9] = u[1];
+                    jacobian[10] = 0.0; jacobian[11] = 1.0;
+                    offset[0] = 0.0;
+                    offset[1] = 0.0;
+            }
+        }
+
+        AffineModel2D getSolvedModel() {
+
+            final double[] p = solvedParameters;
+            final double l00;
+            final double l01;
+            final double l10;
+            final double l11;
+            final double tx;
+            final double ty;
+
+            switch (modelType) {
+                case TRANSLATION:
+                    l00 = initialAffine[0]; l01 = initialAffine[2];
+                    l10 = initialAffine[1]; l11 = initialAffine[3];
+                    tx = p[0];
+                    ty = p[1];
+                    break;
+                case SIMILARITY:
+                    l00 = p[0]; l01 = -p[1];
+                    l10 = p[1]; l11 = p[0];
+                    tx = p[2];
+                    ty = p[3];
+                    break;
+                default:
+                    l00 = p[0]; l01 = p[1];
+                    l10 = p[2]; l11 = p[3];
+                    tx = p[4];
+                    ty = p[5];
+            }
+
+            final AffineModel2D model = new AffineModel2D();
+            model.set(l00, l10, l01, l11,
+                      tx - (l00 * centerX + l01 * centerY),
+                      ty - (l10 * centerX + l11 * centerY));
+            return model;
+        }
+    }
+
+    private static class TilePairMatches {
+
+        private final Tile pTile;
+        private final Tile qTile;
+        private final Matches matches;
+
+        TilePairMatches(final Tile pTile,
+                        final Tile qTile,
+                        final Matches matches) {
+            this.pTile = pTile;
+            this.qTile = qTile;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * Symmetric positive definite system with k x k blocks for each pair of connected unknown tiles.
+     */
+    private class BlockSparseSystem {
+
+        private final int numberOfRows;
+        private final int k;
+        private final double[][] diagonalBlocks;
+        private final double[][] rhsBlocks;
+        private final List<Map<Integer, double[]>> offDiagonalBlockMaps;
+
+        private double[] rhs;
+
+        private int[][] neighborColumns;
+        private double[][][] neighborBlocks;
+        private double[][] inverseDiagonalBlocks;
+
+        BlockSparseSystem(final int numberOfRows,
+                          final int k) {
+            this.numberOfRows = numberOfRows;
+            this.k = k;
+            this.diagonalBlocks = new double[numberOfRows][k * k];
+            this.rhsBlocks = new double[numberOfRows][k];
+            this.offDiagonalBlockMaps = new ArrayList<>(numberOfRows);
+            for (int row = 0; row < numberOfRows; row++) {
+                offDiagonalBlockMaps.add(new HashMap<>());
+            }
+        }
+
+        double[] getDiagonalBlock(final int row) {
+            return diagonalBlocks[row];
+        }
+
+        double[] getOffDiagonalBlock(final int row,
+                                     final int column) {
+            return offDiagonalBlockMaps.get(row).computeIfAbsent(column, c -> new double[k * k]);
+        }
+
+        double[] getRhsBlock(final int row) {
+            return rhsBlocks[row];
+        }
+
+        void finishAssembly() {
+
+            rhs = new double[numberOfRows * k];
+            for (int row = 0; row < numberOfRows; row++) {
+                System.arraycopy(rhsBlocks[row], 0, rhs, row * k, k);
+            }
+
+            neighborColumns = new int[numberOfRows][];
+            neighborBlocks = new double[numberOfRows][][];
+            inverseDiagonalBlocks = new double[numberOfRows][];
+
+            for (int row = 0; row < numberOfRows; row++) {
+                final Map<Integer, double[]> blockMap = offDiagonalBlockMaps.get(row);
+                neighborColumns[row] = new int[blockMap.size()];
+                neighborBlocks[row] = new double[blockMap.size()][];
+                int i = 0;
+                for (final Map.Entry<Integer, double[]> entry : blockMap.entrySet()) {
+                    neighborColumns[row][i] = entry.getKey();
+                    neighborBlocks[row][i] = entry.getValue();
+                    i++;
+                }
+                inverseDiagonalBlocks[row] = invert(diagonalBlocks[row], k);
+            }
+
+            offDiagonalBlockMaps.clear();
+        }
+
+        /**
+         * Solves the system with a block Jacobi preconditioned conjugate gradient method.
+         *
+         * @param  x                initial guess that is replaced with the solution.
+         * @param  executorService  service for parallel matrix vector products (or null to run serially).
+         *
+         * @return number of iterations.
+         */
+        int solve(final double[] x,
+                  final ExecutorService executorService)
+                throws IllegalStateException {
+
+            final int n = x.length;
+            final double[] r = new double[n];
+            final double[] z = new double[n];
+            final double[] p = new double[n];
+            final double[] ap = new double[n];
+
+            multiply(x, r, executorService);
+            for (int i = 0; i < n; i++) {
+                r[i] = rhs[i] - r[i];
+            }
+
+            final double rhsNorm = Math.sqrt(dot(rhs, rhs));
+            final double stopNorm = tolerance * (rhsNorm > 0 ? rhsNorm : 1.0);
+
+            precondition(r, z);
+            System.arraycopy(z, 0, p, 0, n);
+            double rz = dot(r, z);
+
+            int iteration = 0;
+            double residualNorm = Math.sqrt(dot(r, r));
+            while ((iteration < maxIterations) && (residualNorm > stopNorm)) {
+
+                multiply(p, ap, executorService);
+
+                final double pap = dot(p, ap);
+                if (pap <= 0) {
+                    throw new IllegalStateException("system is not positive definite (p'Ap is " + pap + ")");
+                }
+
+                final double alpha = rz / pap;
+                for (int i = 0; i < n; i++) {
+                    x[i] += alpha * p[i];
+                    r[i] -= alpha * ap[i];
+                }
+
+                residualNorm = Math.sqrt(dot(r, r));
+                iteration++;
+
+                if (residualNorm > stopNorm) {
+                    precondition(r, z);
+                    final double rzNext = dot(r, z);
+                    final double beta = rzNext / rz;
+                    for (int i = 0; i < n; i++) {
+                        p[i] = z[i] + beta * p[i];
+                    }
+                    rz = rzNext;
+                }
+            }
+
+            LOG.info("solve: stopped after {} iterations with residual norm {} (right hand side norm is {})",
+                     iteration, residualNorm, rhsNorm);
+
+            return iteration;
+        }
+
+        private void multiply(final double[] v,
+                              final double[] result,
+                              final ExecutorService executorService)
+                throws IllegalStateException {
+
+            if ((executorService == null) || (numberOfRows < numberOfThreads)) {
+                multiplyRows(v, result, 0, numberOfRows);
+                return;
+            }
+
+            final List<Callable<Void>> tasks = new ArrayList<>(numberOfThreads);
+            for (int t = 0; t < numberOfThreads; t++) {
+                final int fromRow = (int) (((long) t * numberOfRows) / numberOfThreads);
+                final int toRow = (int) (((long) (t + 1) * numberOfRows) / numberOfThreads);
+                tasks.add(() -> {
+                    multiplyRows(v, result, fromRow, toRow);
+                    return null;
+                });
+            }
+
+            try {
+                for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("failed to multiply rows", e);
+            }
+        }
+
+        private void multiplyRows(final double[] v,
+                                  final double[] result,
+                                  final int fromRow,
+                                  final int toRow) {
+            for (int row = fromRow; row < toRow; row++) {
+                final int rowOffset = row * k;
+                for (int i = 0; i < k; i++) {
+                    result[rowOffset + i] = 0.0;
+                }
+                multiplyBlock(diagonalBlocks[row], v, rowOffset, result, rowOffset);
+                final int[] columns = neighborColumns[row];
+                final double[][] blocks = neighborBlocks[row];
+                for (int c = 0; c < columns.length; c++) {
+                    multiplyBlock(blocks[c], v, columns[c] * k, result, rowOffset);
+                }
+            }
+        }
+
+        private void multiplyBlock(final double[] block,
+                                   final double[] v,
+                                   final int vOffset,
+                                   final double[] result,
+                                   final int resultOffset) {
+            for (int i = 0; i < k; i++) {
+                double sum = 0.0;
+                for (int j = 0; j < k; j++) {
+                    sum += block[i * k + j] * v[vOffset + j];
+                }
+                result[resultOffset + i] += sum;
+            }
+        }
+
+        private void precondition(final double[] r,
+                                  final double[] z) {
+            for (int row = 0; row < numberOfRows; row++) {
+                final int rowOffset = row * k;
+                for (int i = 0; i < k; i++) {
+                    z[rowOffset + i] = 0.0;
+                }
+                multiplyBlock(inverseDiagonalBlocks[row], r, rowOffset, z, rowOffset);
+            }
+        }
+    }
+
+    private static double dot(final double[] a,
+                              final double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return inverse of the specified k x k (row major) matrix computed with Gauss-Jordan elimination.
+     *
+     * @throws IllegalStateException
+     *   if the matrix is singular.
+     */
+    static double[] invert(final double[] matrix,
+                           final int k)
+            throws IllegalStateException {
+
+        final double[] a = matrix.clone();
+        final double[] inverse = new double[k * k];
+        for (int i = 0; i < k; i++) {
+            inverse[i * k + i] = 1.0;
+        }
+
+        for (int column = 0; column < k; column++) {
+
+            int pivotRow = column;
+            for (int row = column + 1; row < k; row++) {
+                if (Math.abs(a[row * k + column]) > Math.abs(a[pivotRow * k + column])) {
+                    pivotRow = row;
+                }
+            }
+
+            final double pivot = a[pivotRow * k + column];
+            if (pivot == 0.0) {
+                throw new IllegalStateException("singular diagonal block");
+            }
+
+            if (pivotRow != column) {
+                swapRows(a, pivotRow, column, k);
+                swapRows(inverse, pivotRow, column, k);
+            }
+
+            for (int j = 0; j < k; j++) {
+                a[column * k + j] /= pivot;
+                inverse[column * k + j] /= pivot;
+            }
+
+            for (int row = 0; row < k; row++) {
+                if (row != column) {
+                    final double factor = a[row * k + column];
+                    if (factor != 0.0) {
+                        for (int j = 0; j < k; j++) {
+                            a[row * k + j] -= factor * a[column * k + j];
+                            inverse[row * k + j] -= factor * inverse[column * k + j];
+                        }
+                    }
+                }
+            }
+        }
+
+        return inverse;
+    }
+
+    private static void swapRows(final double[] matrix,
+                                 final int rowA,
+                                 final int rowB,
+                                 final int k) {
+        for (int j = 0; j < k; j++) {
+            final double tmp = matrix[rowA * k + j];
+            matrix[rowA * k + j] = matrix[rowB * k + j];
+            matrix[rowB * k + j] = tmp;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SparseAlignmentSolver.class);
+}
@@ -89,6 +89,18 @@ public class ChannelSpec implements Serializable {
         return mipmapLevels.get(level);
     }
 
+    /**
+     * @return the coarsest level with a mipmap in this spec (or that can be derived by this spec's
+     *         path builder) without checking whether any of the mipmap files exist.
+     */
+    public int getMaxMipmapLevel() {
+        int maxLevel = mipmapLevels.isEmpty() ? 0 : mipmapLevels.lastKey();
+        if (mipmapPathBuilder != null) {
+            maxLevel = Math.max(maxLevel, mipmapPathBuilder.getNumberOfLevels());
+        }
+        return maxLevel;
+    }
+
     public void putMipmap(final Integer level,
                           final ImageAndMask value) {
         this.mipmapLevels.put(level, value);
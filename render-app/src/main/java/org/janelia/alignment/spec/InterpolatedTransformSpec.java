@@ -61,6 +61,12 @@ public class InterpolatedTransformSpec
         b.resolveReferences(idToSpecMap);
     }
 
+    @Override
+    public void addResolvedReferenceVersions(final Map<String, String> refIdToVersion) {
+        a.addResolvedReferenceVersions(refIdToVersion);
+        b.addResolvedReferenceVersions(refIdToVersion);
+    }
+
     @Override
     public void flatten(final ListTransformSpec flattenedList)
             throws IllegalStateException {
@@ -97,6 +97,11 @@ public class LeafTransformSpec extends TransformSpec {
         // nothing to do
     }
 
+    @Override
+    public void addResolvedReferenceVersions(final Map<String, String> refIdToVersion) {
+        // nothing to do
+    }
+
     @Override
     public void flatten(final ListTransformSpec flattenedList) throws IllegalStateException {
         flattenedList.addSpec(this);
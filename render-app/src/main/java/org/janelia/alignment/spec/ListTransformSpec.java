@@ -131,6 +131,13 @@ public class ListTransformSpec extends TransformSpec {
         }
     }
 
+    @Override
+    public void addResolvedReferenceVersions(final Map<String, String> refIdToVersion) {
+        for (final TransformSpec spec : specList) {
+            spec.addResolvedReferenceVersions(refIdToVersion);
+        }
+    }
+
     @Override
     public void flatten(final ListTransformSpec flattenedList) throws IllegalStateException {
 
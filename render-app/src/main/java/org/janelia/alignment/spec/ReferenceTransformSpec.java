@@ -86,6 +86,16 @@ public class ReferenceTransformSpec extends TransformSpec {
         }
     }
 
+    @Override
+    public void addResolvedReferenceVersions(final Map<String, String> refIdToVersion) {
+        if (resolvedInstance != null) {
+            if (! refIdToVersion.containsKey(getEffectiveRefId())) {
+                refIdToVersion.put(getEffectiveRefId(), resolvedInstance.getContentVersion());
+            }
+            resolvedInstance.addResolvedReferenceVersions(refIdToVersion);
+        }
+    }
+
     @Override
     public boolean hasLabel(final String label) {
         if (! isFullyResolved()) {
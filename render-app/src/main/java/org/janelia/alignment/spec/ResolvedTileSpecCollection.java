@@ -9,8 +9,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.janelia.alignment.json.JsonUtils;
 import org.janelia.alignment.spec.validator.TileSpecValidator;
@@ -32,6 +40,7 @@ public class ResolvedTileSpecCollection implements Serializable {
     private final Map<String, TileSpec> tileIdToSpecMap;
 
     private transient TileSpecValidator tileSpecValidator;
+    private transient int numberOfThreads;
 
     // no-arg constructor needed for JSON deserialization
     public ResolvedTileSpecCollection() {
@@ -54,6 +63,7 @@ public class ResolvedTileSpecCollection implements Serializable {
         this.transformIdToSpecMap = new HashMap<>(transformSpecs.size() * 2);
         this.tileIdToSpecMap = new HashMap<>(tileSpecs.size() * 2);
         this.tileSpecValidator = null;
+        this.numberOfThreads = 1;
 
         transformSpecs.forEach(this::addTransformSpecToCollection);
         tileSpecs.forEach(this::addTileSpecToCollection);
@@ -69,6 +79,17 @@ public class ResolvedTileSpecCollection implements Serializable {
         this.tileSpecValidator = tileSpecValidator;
     }
 
+    /**
+     * Sets the number of threads used to derive bounding boxes and validate tile specs in this collection.
+     * Bounding box derivation dominates import time for large layers with mesh sampled bounds,
+     * so using all available cores can substantially reduce that time.
+     *
+     * @param  numberOfThreads  number of threads to use (values less than 2 result in serial processing).
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
     /**
      * @return true if the a tile spec with the specified id exits in this collection; otherwise false.
      */
@@ -151,6 +172,33 @@ public class ResolvedTileSpecCollection implements Serializable {
     public void addTransformSpecToTile(final String tileId,
                                        final TransformSpec transformSpec,
                                        final boolean replaceLast) throws IllegalArgumentException {
+        addTransformSpecToTile(tileId, transformSpec, replaceLast, true);
+    }
+
+    /**
+     * Adds a transform specification to the specified tile.
+     *
+     * When adding transforms to many tiles, bounding box derivation can be deferred and then
+     * done for all tiles in parallel with {@link #recalculateBoundingBoxes}.
+     *
+     * @param  tileId             identifies the tile to which the transform should be added.
+     *
+     * @param  transformSpec      the transform to add.
+     *
+     * @param  replaceLast        if true, the specified transform will replace the tile's last transform;
+     *                            otherwise, the specified transform will simply be appended.
+     *
+     * @param  deriveBoundingBox  if true, the tile's bounding box is recalculated after the transform is added.
+     *
+     * @return the updated tile spec.
+     *
+     * @throws IllegalArgumentException
+     *   if the specified tile cannot be found or the specified transform cannot be fully resolved.
+     */
+    public TileSpec addTransformSpecToTile(final String tileId,
+                                           final TransformSpec transformSpec,
+                                           final boolean replaceLast,
+                                           final boolean deriveBoundingBox) throws IllegalArgumentException {
 
         final TileSpec tileSpec = tileIdToSpecMap.get(tileId);
 
@@ -176,22 +224,38 @@ public class ResolvedTileSpecCollection implements Serializable {
         // so we need to re-resolve the tile before re-deriving the bounding box
         resolveTileSpec(tileSpec);
 
-        tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
-    }
-
-    public void recalculateBoundingBoxes() {
-        for (final TileSpec tileSpec : tileIdToSpecMap.values()) {
-            // re-resolve each tile to pick up any changes
-            resolveTileSpec(tileSpec);
+        if (deriveBoundingBox) {
             tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
         }
+
+        return tileSpec;
+    }
+
+    /**
+     * Re-resolves every tile in this collection (to pick up any changes) and then
+     * recalculates each tile's bounding box using this collection's number of threads.
+     *
+     * @throws IllegalArgumentException
+     *   if any tile cannot be resolved.
+     *
+     * @throws IllegalStateException
+     *   if the bounding box for any tile cannot be derived.
+     */
+    public void recalculateBoundingBoxes()
+            throws IllegalArgumentException, IllegalStateException {
+
+        // resolution updates shared transform specs, so it is always done serially
+        resolveTileSpecs();
+
+        deriveBoundingBoxes(new ArrayList<>(tileIdToSpecMap.values()), "recalculateBoundingBoxes");
     }
 
     /**
      * Adds a reference to the specified transform to all tiles in this collection.
      *
      * Each tile's bounding box is recalculated after the new transform is applied
-     * (so this can potentially be a long running operation).
+     * (so this can potentially be a long running operation that is split across
+     * this collection's number of threads).
      *
      * If this collection has a tile spec validator that determines one or more tile specs are invalid
      * (after applying the transform), those tile specs will be removed from the collection.
@@ -215,19 +279,12 @@ public class ResolvedTileSpecCollection implements Serializable {
 
         final TransformSpec referenceTransformSpec = new ReferenceTransformSpec(transformId);
 
-        final ProcessTimer timer = new ProcessTimer();
-        int tileSpecCount = 0;
+        final List<TileSpec> updatedTileSpecs = new ArrayList<>(tileIdToSpecMap.size());
         for (final String tileId : tileIdToSpecMap.keySet()) {
-            addTransformSpecToTile(tileId, referenceTransformSpec, replaceLast);
-            tileSpecCount++;
-            if (timer.hasIntervalPassed()) {
-                LOG.info("addReferenceTransformToAllTiles: added transform to {} out of {} tiles",
-                         tileSpecCount, tileIdToSpecMap.size());
-            }
+            updatedTileSpecs.add(addTransformSpecToTile(tileId, referenceTransformSpec, replaceLast, false));
         }
 
-        LOG.info("addReferenceTransformToAllTiles: added transform to {} tiles, elapsedSeconds={}",
-                 tileSpecCount, timer.getElapsedSeconds());
+        deriveBoundingBoxes(updatedTileSpecs, "addReferenceTransformToAllTiles");
     }
 
     /**
@@ -296,13 +353,14 @@ public class ResolvedTileSpecCollection implements Serializable {
     public void filterInvalidSpecs() {
 
         if (tileSpecValidator != null) {
-            final Iterator<Map.Entry<String, TileSpec>> i = tileIdToSpecMap.entrySet().iterator();
-            Map.Entry<String, TileSpec> entry;
-            while (i.hasNext()) {
-                entry = i.next();
-                if (isTileInvalid(entry.getValue())) {
-                    i.remove();
-                }
+            final Map<String, IllegalArgumentException> invalidTileIdToFailureMap =
+                    processTileSpecs(new ArrayList<>(tileIdToSpecMap.values()),
+                                     tileSpecValidator::validate,
+                                     "filterInvalidSpecs",
+                                     "validated");
+            for (final Map.Entry<String, IllegalArgumentException> entry : invalidTileIdToFailureMap.entrySet()) {
+                LOG.error(entry.getValue().getMessage());
+                tileIdToSpecMap.remove(entry.getKey());
             }
         }
 
@@ -412,7 +470,7 @@ public class ResolvedTileSpecCollection implements Serializable {
             throws IllegalArgumentException {
         final ListTransformSpec transforms = tileSpec.getTransforms();
         if (! transforms.isFullyResolved()) {
-            transforms.resolveReferences(transformIdToSpecMap);
+            tileSpec.resolveTransformReferences(transformIdToSpecMap);
             if (! transforms.isFullyResolved()) {
                 throw new IllegalArgumentException("tile " + tileSpec.getTileId() +
                                                    " requires the following transform ids " +
@@ -421,6 +479,123 @@ public class ResolvedTileSpecCollection implements Serializable {
         }
     }
 
+    /**
+     * Derives bounding boxes for the specified tiles.
+     * If derivation fails for any tiles, the failures are logged and the first failure is thrown.
+     */
+    private void deriveBoundingBoxes(final List<TileSpec> tileSpecs,
+                                     final String context)
+            throws IllegalArgumentException, IllegalStateException {
+
+        final Map<String, IllegalArgumentException> tileIdToFailureMap =
+                processTileSpecs(tileSpecs,
+                                 tileSpec -> tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true),
+                                 context,
+                                 "derived bounding box for");
+
+        if (tileIdToFailureMap.size() > 0) {
+            for (final Map.Entry<String, IllegalArgumentException> entry : tileIdToFailureMap.entrySet()) {
+                LOG.error("{}: failed to derive bounding box for tile {}", context, entry.getKey(), entry.getValue());
+            }
+            throw tileIdToFailureMap.values().iterator().next();
+        }
+    }
+
+    /**
+     * Applies the specified operation to each of the specified tiles,
+     * splitting the tiles into batches for this collection's number of threads.
+     *
+     * @return map of tile ids to {@link IllegalArgumentException} failures (in tile order)
+     *         for any tiles whose operation was rejected.
+     *
+     * @throws RuntimeException
+     *   the first other failure (after all batches have finished) if the operation failed unexpectedly
+     *   for any tiles.
+     */
+    private Map<String, IllegalArgumentException> processTileSpecs(final List<TileSpec> tileSpecs,
+                                                                   final Consumer<TileSpec> operation,
+                                                                   final String context,
+                                                                   final String operationDescription)
+            throws RuntimeException {
+
+        final int batchCount = Math.max(1, Math.min(numberOfThreads, tileSpecs.size()));
+
+        LOG.debug("{}: processing {} tiles with {} thread(s)", context, tileSpecs.size(), batchCount);
+
+        final ProcessTimer timer = new ProcessTimer();
+        final AtomicInteger processedCount = new AtomicInteger(0);
+
+        final List<Map<String, IllegalArgumentException>> batchFailureMaps = new ArrayList<>(batchCount);
+        final List<Map<String, RuntimeException>> batchUnexpectedFailureMaps = new ArrayList<>(batchCount);
+        final List<Runnable> batches = new ArrayList<>(batchCount);
+        for (int batch = 0; batch < batchCount; batch++) {
+            final int fromIndex = (int) ((long) batch * tileSpecs.size() / batchCount);
+            final int toIndex = (int) ((long) (batch + 1) * tileSpecs.size() / batchCount);
+            final Map<String, IllegalArgumentException> batchFailureMap = new LinkedHashMap<>();
+            batchFailureMaps.add(batchFailureMap);
+            final Map<String, RuntimeException> batchUnexpectedFailureMap = new LinkedHashMap<>();
+            batchUnexpectedFailureMaps.add(batchUnexpectedFailureMap);
+            batches.add(() -> {
+                for (final TileSpec tileSpec : tileSpecs.subList(fromIndex, toIndex)) {
+                    try {
+                        operation.accept(tileSpec);
+                    } catch (final IllegalArgumentException e) {
+                        batchFailureMap.put(tileSpec.getTileId(), e);
+                    } catch (final RuntimeException e) {
+                        batchUnexpectedFailureMap.put(tileSpec.getTileId(), e);
+                    }
+                    final int count = processedCount.incrementAndGet();
+                    synchronized (timer) {
+                        if (timer.hasIntervalPassed()) {
+                            LOG.info("{}: {} {} out of {} tiles",
+                                     context, operationDescription, count, tileSpecs.size());
+                        }
+                    }
+                }
+            });
+        }
+
+        if (batchCount == 1) {
+            batches.get(0).run();
+        } else {
+            final ExecutorService executorService = Executors.newFixedThreadPool(batchCount);
+            try {
+                final List<Future<?>> futures = new ArrayList<>(batchCount);
+                for (final Runnable batch : batches) {
+                    futures.add(executorService.submit(batch));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(context + " was interrupted", e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException(context + " failed", e.getCause());
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+
+        final Map<String, IllegalArgumentException> tileIdToFailureMap = new LinkedHashMap<>();
+        batchFailureMaps.forEach(tileIdToFailureMap::putAll);
+
+        final Map<String, RuntimeException> tileIdToUnexpectedFailureMap = new LinkedHashMap<>();
+        batchUnexpectedFailureMaps.forEach(tileIdToUnexpectedFailureMap::putAll);
+
+        LOG.info("{}: {} {} tiles, elapsedSeconds={}",
+                 context, operationDescription, processedCount.get(), timer.getElapsedSeconds());
+
+        if (tileIdToUnexpectedFailureMap.size() > 0) {
+            for (final Map.Entry<String, RuntimeException> entry : tileIdToUnexpectedFailureMap.entrySet()) {
+                LOG.error("{}: unexpected failure for tile {}", context, entry.getKey(), entry.getValue());
+            }
+            throw tileIdToUnexpectedFailureMap.values().iterator().next();
+        }
+
+        return tileIdToFailureMap;
+    }
+
     private boolean isTileInvalid(final TileSpec tileSpec) {
         boolean isInvalid = false;
         try {
@@ -17,6 +17,7 @@
 package org.janelia.alignment.spec;
 
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.Reader;
@@ -31,6 +32,8 @@ import java.util.TreeMap;
 
 import org.janelia.alignment.ImageAndMask;
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.RenderTransformAffineMapping;
+import org.janelia.alignment.Utils;
 import org.janelia.alignment.json.JsonUtils;
 import org.janelia.alignment.spec.stack.MipmapPathBuilder;
 
@@ -69,6 +72,8 @@ public class TileSpec implements Serializable {
     private MipmapPathBuilder mipmapPathBuilder;
     private ListTransformSpec transforms;
     private double meshCellSize = RenderParameters.DEFAULT_MESH_CELL_SIZE;
+    private Double averageScale;
+    private String averageScaleReferenceVersions;
 
     public TileSpec() {
         this.mipmapLevels = new TreeMap<>();
@@ -199,6 +204,10 @@ public class TileSpec implements Serializable {
     /**
      * Derives this tile's bounding box attributes.
      *
+     * When this tile's transforms concatenate to a single affine, the bounding box (and average scale) are
+     * derived exactly from the tile's transformed corners.  Otherwise, the box is derived from
+     * adaptively sampled border points (sloppy) or from a full transform mesh.
+     *
      * @param  force  if true, attributes will always be derived;
      *                otherwise attributes will only be derived if they do not already exist.
      *
@@ -209,51 +218,124 @@ public class TileSpec implements Serializable {
             throws IllegalStateException {
 
         if (force || (!isBoundingBoxDefined(meshCellSize))) {
-            if (sloppy) {
-                if (! hasWidthAndHeightDefined()) {
-                    throw new IllegalStateException("width and height must be set to create a bounding box");
-                }
 
-                final CoordinateTransformList<CoordinateTransform> ctList = getTransformList();
-                final ArrayList<double[]> borderSamples = new ArrayList<>();
+            final CoordinateTransformList<CoordinateTransform> ctList = getTransformList();
+            final AffineTransform affine = RenderTransformAffineMapping.getConcatenatedAffine(ctList);
 
-                /* top and bottom */
-                for (double x = 0; x <= width; x += meshCellSize) {
-                    borderSamples.add(new double[]{x, 0});
-                    borderSamples.add(new double[]{x, height});
-                }
+            if (affine != null) {
 
-                /* left and right */
-                for (double y = 0; y < height; y += meshCellSize) {
-                    borderSamples.add(new double[]{0, y});
-                    borderSamples.add(new double[]{width, y});
+                if (! hasWidthAndHeightDefined()) {
+                    throw new IllegalStateException("width and height must be set to create a bounding box");
                 }
 
+                final double[] corners = { 0, 0, width, 0, 0, height, width, height };
+                affine.transform(corners, 0, corners, 0, 4);
+
                 double xMin = Double.MAX_VALUE;
                 double yMin = Double.MAX_VALUE;
-
                 double xMax = -Double.MAX_VALUE;
                 double yMax = -Double.MAX_VALUE;
+                for (int i = 0; i < corners.length; i += 2) {
+                    xMin = Math.min(xMin, corners[i]);
+                    xMax = Math.max(xMax, corners[i]);
+                    yMin = Math.min(yMin, corners[i + 1]);
+                    yMax = Math.max(yMax, corners[i + 1]);
+                }
+
+                setBoundingBox(new Rectangle((int)xMin, (int)yMin, (int)Math.ceil(xMax - xMin), (int)Math.ceil(yMax - yMin)), meshCellSize);
 
-                for (final double[] point : borderSamples) {
-                    ctList.applyInPlace(point);
+                // sampled average scale fits an affine to transformed samples, which recovers this affine exactly
+                setAverageScale(Math.sqrt(Math.max((affine.getScaleX() * affine.getScaleX()) +
+                                                   (affine.getShearY() * affine.getShearY()),
+                                                   (affine.getShearX() * affine.getShearX()) +
+                                                   (affine.getScaleY() * affine.getScaleY()))));
 
-                    if ( point[ 0 ] < xMin ) xMin = point[ 0 ];
-                    if ( point[ 0 ] > xMax ) xMax = point[ 0 ];
-                    if ( point[ 1 ] < yMin ) yMin = point[ 1 ];
-                    if ( point[ 1 ] > yMax ) yMax = point[ 1 ];
+            } else if (sloppy) {
+                if (! hasWidthAndHeightDefined()) {
+                    throw new IllegalStateException("width and height must be set to create a bounding box");
                 }
 
-                setBoundingBox(new Rectangle((int)xMin, (int)yMin, (int)Math.ceil(xMax - xMin), (int)Math.ceil(yMax - yMin)), meshCellSize);
-//                setBoundingBox(new Rectangle((int)xMin, (int)yMin, (int)(xMax - xMin), (int)(yMax - yMin)), meshCellSize);
+                final TransformedBorderSampler borderSampler = new TransformedBorderSampler(ctList, meshCellSize);
+                setBoundingBox(borderSampler.sampleBounds(width, height), meshCellSize);
+
+                deriveAverageScale(ctList);
 
             } else {
                 final TransformMesh mesh = getTransformMesh(meshCellSize);
                 setBoundingBox(mesh.getBoundingBox(), meshCellSize);
+                deriveAverageScale(ctList);
             }
+
+        } else if ((averageScale == null) && hasWidthAndHeightDefined()) {
+            // tiles saved before average scales were stored only need their scale derived
+            deriveAverageScale(getTransformList());
         }
     }
 
+    /**
+     * The average scale is derived along with this tile's bounding box and is saved with the tile spec
+     * so that renderers do not need to re-sample this tile's transforms every time a mipmap level is chosen.
+     * It is cleared whenever this tile's transforms are changed or when any referenced transforms
+     * differ from the versions used to derive it.
+     *
+     * @return the average scale factor of this tile's transforms (see {@link Utils#sampleAverageScale}),
+     *         deriving it if necessary.
+     *
+     * @throws IllegalStateException
+     *   if width or height have not been defined for this tile.
+     */
+    public double getAverageScale()
+            throws IllegalStateException {
+        if (averageScale == null) {
+            deriveAverageScale(getTransformList());
+        }
+        return averageScale;
+    }
+
+    /**
+     * Unlike {@link #getAverageScale}, this method never derives the average scale
+     * so it is safe to use for tiles without width and height and is cheap enough to use for every render.
+     *
+     * @return the stored average scale factor of this tile's transforms or null if it has not been derived
+     *         (or has been cleared because this tile's transforms changed).
+     */
+    @JsonIgnore
+    public Double getStoredAverageScale() {
+        return averageScale;
+    }
+
+    private void deriveAverageScale(final CoordinateTransformList<CoordinateTransform> ctList)
+            throws IllegalStateException {
+
+        if (! hasWidthAndHeightDefined()) {
+            throw new IllegalStateException("width and height must be set to derive average scale");
+        }
+
+        setAverageScale(Utils.sampleAverageScale(ctList, width.intValue(), height.intValue(), meshCellSize));
+    }
+
+    /**
+     * Saves the specified average scale along with the versions of any referenced transforms used to derive it.
+     */
+    private void setAverageScale(final double averageScale) {
+        this.averageScale = averageScale;
+        this.averageScaleReferenceVersions = getResolvedReferenceVersions();
+    }
+
+    private void clearAverageScale() {
+        this.averageScale = null;
+        this.averageScaleReferenceVersions = null;
+    }
+
+    /**
+     * @return sorted ids and content versions of all resolved transform references for this tile.
+     */
+    private String getResolvedReferenceVersions() {
+        final Map<String, String> refIdToVersion = new TreeMap<>();
+        transforms.addResolvedReferenceVersions(refIdToVersion);
+        return refIdToVersion.toString();
+    }
+
 
     /**
      * Derives this tile's bounding box attributes.
@@ -539,14 +621,35 @@ public class TileSpec implements Serializable {
 
     public void setTransforms(final ListTransformSpec transforms) {
         this.transforms = transforms;
+        clearAverageScale();
     }
 
     public void addTransformSpecs(final List<TransformSpec> transformSpecs) {
         transforms.addAllSpecs(transformSpecs);
+        clearAverageScale();
     }
 
     public void removeLastTransformSpec() {
         transforms.removeLastSpec();
+        clearAverageScale();
+    }
+
+    /**
+     * Resolves any transform references in this tile's transform list.
+     * Since referenced transforms may have changed after this tile's average scale was derived,
+     * any stored average scale is cleared if the resolved references do not match the
+     * versions saved when the scale was derived.
+     *
+     * @param  idToSpecMap  map of transform ids to resolved transform specs.
+     */
+    public void resolveTransformReferences(final Map<String, TransformSpec> idToSpecMap) {
+        if (! transforms.isFullyResolved()) {
+            transforms.resolveReferences(idToSpecMap);
+            if ((averageScale != null) &&
+                (! getResolvedReferenceVersions().equals(averageScaleReferenceVersions))) {
+                clearAverageScale();
+            }
+        }
     }
 
     /**
@@ -580,6 +683,7 @@ public class TileSpec implements Serializable {
         } else {
             transforms = transforms.flattenAndFilter(excludeAfterLastLabels, excludeFirstAndAllAfterLabels);
         }
+        clearAverageScale();
     }
 
     /**
@@ -7,12 +7,14 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.zip.CRC32;
 
 import mpicbg.models.CoordinateTransform;
 import mpicbg.models.CoordinateTransformList;
@@ -150,6 +152,25 @@ public abstract class TransformSpec implements Serializable {
      */
     public abstract void resolveReferences(Map<String, TransformSpec> idToSpecMap);
 
+    /**
+     * Adds the effective ids and {@link #getContentVersion content versions} of any resolved spec references
+     * within this spec to the specified map.
+     *
+     * @param  refIdToVersion  map to which resolved reference ids and versions will be added.
+     */
+    public abstract void addResolvedReferenceVersions(Map<String, String> refIdToVersion);
+
+    /**
+     * @return a version derived from this spec's (JSON) content that changes whenever the content changes.
+     */
+    @JsonIgnore
+    public String getContentVersion() {
+        final byte[] jsonBytes = toJson().getBytes(StandardCharsets.UTF_8);
+        final CRC32 crc = new CRC32();
+        crc.update(jsonBytes);
+        return Long.toHexString(crc.getValue()) + "-" + jsonBytes.length;
+    }
+
     /**
      * Adds a flattened (fully resolved) version of this spec to the specified list.
      *
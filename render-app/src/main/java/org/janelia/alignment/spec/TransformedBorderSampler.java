@@ -0,0 +1,173 @@
+package org.janelia.alignment.spec;
+
+import java.awt.Rectangle;
+
+import mpicbg.models.CoordinateTransform;
+
+/**
+ * Derives the bounding box of a transformed rectangle by sampling its border.
+ *
+ * Each edge is first split into coarse segments.  The transformed midpoint of each segment is compared
+ * with the midpoint of the segment's transformed end points.  Since that deviation is largest where the
+ * transform bends the edge most, segments that deviate by more than {@link #MAX_DEVIATION} pixels are
+ * halved until they are no longer than the minimum segment length (so strongly curved edges are sampled at
+ * least as densely as a mesh with cells of that size would sample them while nearly linear edges only need
+ * a few samples).  All samples are transformed in a reused scratch buffer, so sampling does not allocate.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Eric Trautman
+ */
+class TransformedBorderSampler {
+
+    private final CoordinateTransform transform;
+    private final double minSegmentLength;
+    private final double[] point;
+
+    private double xMin;
+    private double yMin;
+    private double xMax;
+    private double yMax;
+    private int sampleCount;
+
+    /**
+     * @param  transform         transform to apply to border samples.
+     * @param  minSegmentLength  smallest (source) distance between refined samples.
+     */
+    TransformedBorderSampler(final CoordinateTransform transform,
+                             final double minSegmentLength) {
+        this.transform = transform;
+        this.minSegmentLength = minSegmentLength;
+        this.point = new double[2];
+    }
+
+    /**
+     * @return number of samples transformed by the most recent call to {@link #sampleBounds}.
+     */
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return bounding box of the transformed border of the rectangle [0, width] x [0, height].
+     */
+    Rectangle sampleBounds(final double width,
+                           final double height) {
+
+        xMin = Double.MAX_VALUE;
+        yMin = Double.MAX_VALUE;
+        xMax = -Double.MAX_VALUE;
+        yMax = -Double.MAX_VALUE;
+        sampleCount = 0;
+
+        sampleEdge(0, 0, width, 0);
+        sampleEdge(width, 0, width, height);
+        sampleEdge(width, height, 0, height);
+        sampleEdge(0, height, 0, 0);
+
+        return new Rectangle((int) xMin,
+                             (int) yMin,
+                             (int) Math.ceil(xMax - xMin),
+                             (int) Math.ceil(yMax - yMin));
+    }
+
+    /**
+     * Samples the edge from (x0, y0) to (x1, y1), excluding the end point
+     * (which is the start point of the next edge).
+     */
+    private void sampleEdge(final double x0,
+                            final double y0,
+                            final double x1,
+                            final double y1) {
+
+        final double length = Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0));
+        final int segmentCount = Math.max(1, (int) Math.ceil(length / (COARSE_SEGMENT_FACTOR * minSegmentLength)));
+        final double segmentLength = length / segmentCount;
+
+        double sourceX = x0;
+        double sourceY = y0;
+        apply(sourceX, sourceY);
+        double targetX = point[0];
+        double targetY = point[1];
+
+        for (int i = 1; i <= segmentCount; i++) {
+
+            final double nextSourceX = x0 + ((x1 - x0) * i / segmentCount);
+            final double nextSourceY = y0 + ((y1 - y0) * i / segmentCount);
+
+            // the edge end point is included as the start point of the next edge
+            if (i < segmentCount) {
+                apply(nextSourceX, nextSourceY);
+            } else {
+                applyWithoutIncluding(nextSourceX, nextSourceY);
+            }
+            final double nextTargetX = point[0];
+            final double nextTargetY = point[1];
+
+            refine(sourceX, sourceY, targetX, targetY,
+                   nextSourceX, nextSourceY, nextTargetX, nextTargetY,
+                   segmentLength);
+
+            sourceX = nextSourceX;
+            sourceY = nextSourceY;
+            targetX = nextTargetX;
+            targetY = nextTargetY;
+        }
+    }
+
+    private void refine(final double sourceX0,
+                        final double sourceY0,
+                        final double targetX0,
+                        final double targetY0,
+                        final double sourceX1,
+                        final double sourceY1,
+                        final double targetX1,
+                        final double targetY1,
+                        final double segmentLength) {
+
+        if (segmentLength > minSegmentLength) {
+
+            final double midSourceX = (sourceX0 + sourceX1) / 2;
+            final double midSourceY = (sourceY0 + sourceY1) / 2;
+            apply(midSourceX, midSourceY);
+            final double midTargetX = point[0];
+            final double midTargetY = point[1];
+
+            final double dx = midTargetX - ((targetX0 + targetX1) / 2);
+            final double dy = midTargetY - ((targetY0 + targetY1) / 2);
+
+            if (((dx * dx) + (dy * dy)) > (MAX_DEVIATION * MAX_DEVIATION)) {
+                final double halfLength = segmentLength / 2;
+                refine(sourceX0, sourceY0, targetX0, targetY0,
+                       midSourceX, midSourceY, midTargetX, midTargetY,
+                       halfLength);
+                refine(midSourceX, midSourceY, midTargetX, midTargetY,
+                       sourceX1, sourceY1, targetX1, targetY1,
+                       halfLength);
+            }
+        }
+    }
+
+    private void apply(final double x,
+                       final double y) {
+        applyWithoutIncluding(x, y);
+        if (point[0] < xMin) xMin = point[0];
+        if (point[0] > xMax) xMax = point[0];
+        if (point[1] < yMin) yMin = point[1];
+        if (point[1] > yMax) yMax = point[1];
+    }
+
+    private void applyWithoutIncluding(final double x,
+                                       final double y) {
+        point[0] = x;
+        point[1] = y;
+        transform.applyInPlace(point);
+        sampleCount++;
+    }
+
+    /** Coarse segments are this many times longer than the minimum segment length. */
+    static final int COARSE_SEGMENT_FACTOR = 8;
+
+    /** Largest allowed distance (in pixels) between a transformed segment midpoint and its chord. */
+    static final double MAX_DEVIATION = 0.5;
+}
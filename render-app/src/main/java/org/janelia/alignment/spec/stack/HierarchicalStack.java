@@ -40,6 +40,7 @@ public class HierarchicalStack implements Serializable {
     private MatchCollectionId matchCollectionId;
     private Long savedMatchPairCount;
     private Double alignmentQuality;
+    private Double alignmentMeanMatchDistance;
 
     // no-arg constructor needed for JSON deserialization
     @SuppressWarnings("unused")
@@ -135,6 +136,7 @@ public class HierarchicalStack implements Serializable {
         this.matchCollectionId = matchCollectionId;
         this.savedMatchPairCount = null;
         this.alignmentQuality = null;
+        this.alignmentMeanMatchDistance = null;
     }
 
     public StackId getRoughTilesStackId() {
@@ -207,6 +209,7 @@ public class HierarchicalStack implements Serializable {
         if (storedData != null) {
             this.savedMatchPairCount = storedData.savedMatchPairCount;
             this.alignmentQuality = storedData.alignmentQuality;
+            this.alignmentMeanMatchDistance = storedData.alignmentMeanMatchDistance;
         }
     }
 
@@ -244,6 +247,18 @@ public class HierarchicalStack implements Serializable {
         this.alignmentQuality = alignmentQuality;
     }
 
+    /**
+     * @return mean distance between matched points after alignment
+     *         (or null if the solver used for this stack does not derive it).
+     */
+    public Double getAlignmentMeanMatchDistance() {
+        return alignmentMeanMatchDistance;
+    }
+
+    public void setAlignmentMeanMatchDistance(final Double alignmentMeanMatchDistance) {
+        this.alignmentMeanMatchDistance = alignmentMeanMatchDistance;
+    }
+
     /**
      * @return conventional id for this stack.
      */
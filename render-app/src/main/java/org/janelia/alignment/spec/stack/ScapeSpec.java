@@ -0,0 +1,257 @@
+package org.janelia.alignment.spec.stack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import mpicbg.trakem2.transform.AffineModel2D;
+
+import org.janelia.alignment.ImageAndMask;
+import org.janelia.alignment.json.JsonUtils;
+import org.janelia.alignment.spec.Bounds;
+import org.janelia.alignment.spec.ChannelSpec;
+import org.janelia.alignment.spec.LeafTransformSpec;
+import org.janelia.alignment.spec.TileSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * <p>
+ *     Identifies a set of precomputed low resolution layer images (scapes) for a stack
+ *     (e.g. images produced by the RenderSectionClient or ScapeClient)
+ *     so that low scale layer renders can be derived from one scape image instead of from every tile in the layer.
+ * </p>
+ *
+ * <p>
+ *     The path for each layer's scape is derived from a pattern that may contain the following tokens:
+ * <pre>
+ *         {z}         - z value of the layer (e.g. 1234.0)
+ *         {zInt}      - integral z value of the layer (e.g. 1234)
+ *         {thousands} - zero padded thousands part of the integral z value (e.g. 001)
+ *         {hundreds}  - hundreds digit of the integral z value (e.g. 2)
+ * </pre>
+ *
+ *     For example, scapes rendered by the RenderSectionClient can be identified with the pattern:
+ * <pre>
+ *         /nrs/flyTEM/rendered_scapes/FAFB00/v12/sections_at_0.02/{thousands}/{hundreds}/{z}.png
+ * </pre>
+ * </p>
+ *
+ * <p>
+ *     The upper left pixel of each scape is located at the minimum x and y world coordinates of the stack
+ *     (or of the layer when useLayerBounds is true) unless explicit minX and minY values are specified.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class ScapeSpec
+        implements Serializable {
+
+    private final Double scale;
+    private final String pathPattern;
+    private final Boolean useLayerBounds;
+    private final Double minX;
+    private final Double minY;
+
+    // no-arg constructor needed for JSON deserialization
+    @SuppressWarnings("unused")
+    private ScapeSpec() {
+        this(null, null, null, null, null);
+    }
+
+    public ScapeSpec(final Double scale,
+                     final String pathPattern,
+                     final Boolean useLayerBounds,
+                     final Double minX,
+                     final Double minY) {
+        this.scale = scale;
+        this.pathPattern = pathPattern;
+        this.useLayerBounds = useLayerBounds;
+        this.minX = minX;
+        this.minY = minY;
+    }
+
+    @ApiModelProperty(value = "scale of all scape images relative to full scale world coordinates")
+    public Double getScale() {
+        return scale;
+    }
+
+    @ApiModelProperty(
+            value = "path pattern for scape images",
+            notes = "The tokens {z}, {zInt}, {thousands}, and {hundreds} are replaced with values for each layer.")
+    public String getPathPattern() {
+        return pathPattern;
+    }
+
+    public boolean isUseLayerBounds() {
+        return (useLayerBounds != null) && useLayerBounds;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *   if this spec is invalid.
+     */
+    public void validate()
+            throws IllegalArgumentException {
+
+        if ((scale == null) || (scale <= 0) || (scale > 1)) {
+            throw new IllegalArgumentException("scape scale must be greater than 0 and less than or equal to 1");
+        }
+
+        if ((pathPattern == null) || (! (pathPattern.contains("{z}") || pathPattern.contains("{zInt}")))) {
+            throw new IllegalArgumentException("scape pathPattern must contain a {z} or {zInt} token");
+        }
+    }
+
+    /**
+     * @return the scape image file for the specified layer.
+     */
+    public File getFile(final Double z) {
+        final int zInt = z.intValue();
+        final String path = pathPattern.replace("{z}", z.toString())
+                .replace("{zInt}", String.valueOf(zInt))
+                .replace("{thousands}", String.format("%03d", zInt / 1000))
+                .replace("{hundreds}", String.valueOf((zInt % 1000) / 100));
+        return new File(path).getAbsoluteFile();
+    }
+
+    /**
+     * Builds a tile spec that maps the specified layer's scape image into full scale world coordinates.
+     *
+     * @param  z            z value for the layer.
+     * @param  layerBounds  bounds of the layer.
+     * @param  stackBounds  bounds of the stack (or null if they are not known).
+     *
+     * @return tile spec for the scape or null if the scape image does not exist or cannot be read.
+     */
+    public TileSpec buildTileSpec(final Double z,
+                                  final Bounds layerBounds,
+                                  final Bounds stackBounds) {
+
+        final Bounds originBounds = isUseLayerBounds() ? layerBounds : stackBounds;
+        final Double originX = minX == null ? (originBounds == null ? null : originBounds.getMinX()) : minX;
+        final Double originY = minY == null ? (originBounds == null ? null : originBounds.getMinY()) : minY;
+
+        final File file = getFile(z);
+
+        TileSpec tileSpec = null;
+
+        if ((originX != null) && (originY != null) && file.exists()) {
+
+            final int[] widthAndHeight = readWidthAndHeight(file);
+
+            if (widthAndHeight != null) {
+
+                final ChannelSpec channelSpec = new ChannelSpec();
+                channelSpec.putMipmap(0, new ImageAndMask(file, null));
+
+                final double inverseScale = 1.0 / scale;
+
+                tileSpec = new TileSpec();
+                tileSpec.setTileId("scape_" + z);
+                tileSpec.setZ(z);
+                tileSpec.addChannel(channelSpec);
+                tileSpec.setWidth((double) widthAndHeight[0]);
+                tileSpec.setHeight((double) widthAndHeight[1]);
+                tileSpec.addTransformSpecs(
+                        Collections.singletonList(
+                                new LeafTransformSpec(AffineModel2D.class.getName(),
+                                                      inverseScale + " 0 0 " + inverseScale + " " +
+                                                      originX + " " + originY)));
+                tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+            }
+
+        }
+
+        return tileSpec;
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    public String toJson() {
+        return JSON_HELPER.toJson(this);
+    }
+
+    public static ScapeSpec fromJson(final String json) {
+        return JSON_HELPER.fromJson(json);
+    }
+
+    /**
+     * @return the scape with the smallest scale that is greater than or equal to the specified scale
+     *         (or null if no such scape exists).
+     */
+    public static ScapeSpec findBestScape(final List<ScapeSpec> scapes,
+                                          final double scale) {
+        ScapeSpec bestScape = null;
+        if (scapes != null) {
+            for (final ScapeSpec scape : scapes) {
+                if ((scape.scale != null) && (scape.scale >= scale) &&
+                    ((bestScape == null) || (scape.scale < bestScape.scale))) {
+                    bestScape = scape;
+                }
+            }
+        }
+        return bestScape;
+    }
+
+    /**
+     * @return the {@link #findBestScape best scape} for the specified scale or (if no scape is fine enough)
+     *         the scape with the largest scale (or null if no scapes exist).
+     */
+    public static ScapeSpec findClosestScape(final List<ScapeSpec> scapes,
+                                             final double scale) {
+        ScapeSpec closestScape = findBestScape(scapes, scale);
+        if ((closestScape == null) && (scapes != null)) {
+            for (final ScapeSpec scape : scapes) {
+                if ((scape.scale != null) && ((closestScape == null) || (scape.scale > closestScape.scale))) {
+                    closestScape = scape;
+                }
+            }
+        }
+        return closestScape;
+    }
+
+    /**
+     * @return the width and height of the specified image (read from its header) or null if they cannot be read.
+     */
+    private static int[] readWidthAndHeight(final File imageFile) {
+
+        int[] widthAndHeight = null;
+
+        try (final ImageInputStream inputStream = ImageIO.createImageInputStream(imageFile)) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+            if (readers.hasNext()) {
+                final ImageReader reader = readers.next();
+                try {
+                    reader.setInput(inputStream);
+                    widthAndHeight = new int[] { reader.getWidth(0), reader.getHeight(0) };
+                } finally {
+                    reader.dispose();
+                }
+            } else {
+                LOG.warn("readWidthAndHeight: no reader found for {}", imageFile);
+            }
+        } catch (final IOException e) {
+            LOG.warn("readWidthAndHeight: failed to read " + imageFile, e);
+        }
+
+        return widthAndHeight;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScapeSpec.class);
+
+    private static final JsonUtils.Helper<ScapeSpec> JSON_HELPER =
+            new JsonUtils.Helper<>(ScapeSpec.class);
+}
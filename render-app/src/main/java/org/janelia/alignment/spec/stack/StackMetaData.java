@@ -252,6 +252,20 @@ public class StackMetaData implements Comparable<StackMetaData>, Serializable {
         }
     }
 
+    public List<ScapeSpec> getCurrentScapes() {
+        List<ScapeSpec> scapes = null;
+        if (currentVersion != null) {
+            scapes = currentVersion.getScapes();
+        }
+        return scapes;
+    }
+
+    public void setCurrentScapes(final List<ScapeSpec> scapes) {
+        if (currentVersion != null) {
+            currentVersion.setScapes(scapes);
+        }
+    }
+
     public MipmapPathBuilder getCurrentMipmapPathBuilder() {
         MipmapPathBuilder mipmapPathBuilder = null;
         if (currentVersion != null) {
@@ -27,6 +27,7 @@ public class StackVersion
 
     private String materializedBoxRootPath;
     private MipmapPathBuilder mipmapPathBuilder;
+    private List<ScapeSpec> scapes;
 
     // no-arg constructor needed for JSON deserialization
     @SuppressWarnings("unused")
@@ -148,6 +149,18 @@ public class StackVersion
         }
     }
 
+    public List<ScapeSpec> getScapes() {
+        return scapes;
+    }
+
+    public void setScapes(final List<ScapeSpec> scapes) {
+        if ((scapes == null) || (scapes.size() == 0)) {
+            this.scapes = null;
+        } else {
+            this.scapes = new ArrayList<>(scapes);
+        }
+    }
+
     @Override
     public String toString() {
         return toJson();
@@ -5,12 +5,18 @@ import mpicbg.trakem2.transform.CoordinateTransform;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RealRandomAccess;
 import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.view.composite.RealComposite;
 
 /**
  * Transform that utilizes an {@link AffineWarpField}.
  *
+ * Fields with the default (n-linear) interpolator are evaluated directly from the field's values array
+ * with inline bilinear weights, so applying the transform does not allocate or go through ImgLib2
+ * accessors and is safe for concurrent use.  Fields with other interpolators are evaluated with
+ * per-thread ImgLib2 accessors.
+ *
  * @author Eric Trautman
  */
 public class AffineWarpFieldTransform
@@ -18,8 +24,16 @@ public class AffineWarpFieldTransform
 
     private AffineWarpField affineWarpField;
 
-    // ImgLib2 accessor for warp field
-    private RealRandomAccess<RealComposite<DoubleType>> warpFieldAccessor;
+    // ImgLib2 accessors for fields that do not use the default interpolator
+    private ThreadLocal<RealRandomAccess<RealComposite<DoubleType>>> warpFieldAccessor;
+
+    // field geometry for direct bilinear evaluation
+    private boolean isBilinear;
+    private int columnCount;
+    private int rowCount;
+    private int affineCount;
+    private double xScale;
+    private double yScale;
 
     /**
      * Default constructor applies identity transform to entire space.
@@ -44,9 +58,108 @@ public class AffineWarpFieldTransform
 
     @Override
     public void applyInPlace(final double[] location) {
+        if (isBilinear) {
+            applyBilinear(location[0], location[1], location, 0, location, 1);
+        } else {
+            applyInterpolatedInPlace(location);
+        }
+    }
+
+    /**
+     * Applies this transform to a batch of locations (e.g. mesh vertices).
+     *
+     * @param  xs  x coordinates to transform in place.
+     * @param  ys  y coordinates to transform in place.
+     *
+     * @throws IllegalArgumentException
+     *   if the coordinate arrays have different lengths.
+     */
+    public void applyInPlace(final double[] xs,
+                             final double[] ys)
+            throws IllegalArgumentException {
+
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("x and y coordinate arrays must have the same length but xs has " +
+                                               xs.length + " elements and ys has " + ys.length + " elements");
+        }
+
+        if (isBilinear) {
+            for (int i = 0; i < xs.length; i++) {
+                applyBilinear(xs[i], ys[i], xs, i, ys, i);
+            }
+        } else {
+            final double[] location = new double[2];
+            for (int i = 0; i < xs.length; i++) {
+                location[0] = xs[i];
+                location[1] = ys[i];
+                applyInterpolatedInPlace(location);
+                xs[i] = location[0];
+                ys[i] = location[1];
+            }
+        }
+    }
 
-        warpFieldAccessor.setPosition(location);
-        final RealComposite<DoubleType> coefficients = warpFieldAccessor.get();
+    /**
+     * Transforms the specified location and saves the result in the specified target array elements.
+     */
+    private void applyBilinear(final double x,
+                               final double y,
+                               final double[] targetXs,
+                               final int targetXIndex,
+                               final double[] targetYs,
+                               final int targetYIndex) {
+
+        // field values are centered within each cell and extended beyond the outermost cells
+        final double gridX = (x / xScale) - 0.5;
+        final double gridY = (y / yScale) - 0.5;
+        final double floorX = Math.floor(gridX);
+        final double floorY = Math.floor(gridY);
+        final double wx = gridX - floorX;
+        final double wy = gridY - floorY;
+
+        // limit grid positions before casting so that far away locations cannot overflow
+        final int column = (int) Math.max(-1, Math.min(columnCount, floorX));
+        final int row = (int) Math.max(-1, Math.min(rowCount, floorY));
+        final int c0 = clamp(column, columnCount);
+        final int c1 = clamp(column + 1, columnCount);
+        final int r0 = clamp(row, rowCount);
+        final int r1 = clamp(row + 1, rowCount);
+
+        final double w00 = (1 - wx) * (1 - wy);
+        final double w10 = wx * (1 - wy);
+        final double w01 = (1 - wx) * wy;
+        final double w11 = wx * wy;
+
+        final int i00 = (r0 * columnCount) + c0;
+        final int i10 = (r0 * columnCount) + c1;
+        final int i01 = (r1 * columnCount) + c0;
+        final int i11 = (r1 * columnCount) + c1;
+
+        // see AffineWarpField for value ordering
+        final double[] values = affineWarpField.getValues();
+        int offset = 0;
+        final double m00 = interpolate(values, offset, i00, i10, i01, i11, w00, w10, w01, w11);
+        offset += affineCount;
+        final double m10 = interpolate(values, offset, i00, i10, i01, i11, w00, w10, w01, w11);
+        offset += affineCount;
+        final double m01 = interpolate(values, offset, i00, i10, i01, i11, w00, w10, w01, w11);
+        offset += affineCount;
+        final double m11 = interpolate(values, offset, i00, i10, i01, i11, w00, w10, w01, w11);
+        offset += affineCount;
+        final double m02 = interpolate(values, offset, i00, i10, i01, i11, w00, w10, w01, w11);
+        offset += affineCount;
+        final double m12 = interpolate(values, offset, i00, i10, i01, i11, w00, w10, w01, w11);
+
+        // stolen from AffineModel2D.applyInPlace
+        targetXs[targetXIndex] = x * m00 + y * m01 + m02;
+        targetYs[targetYIndex] = x * m10 + y * m11 + m12;
+    }
+
+    private void applyInterpolatedInPlace(final double[] location) {
+
+        final RealRandomAccess<RealComposite<DoubleType>> accessor = warpFieldAccessor.get();
+        accessor.setPosition(location);
+        final RealComposite<DoubleType> coefficients = accessor.get();
 
         final double m00 = coefficients.get(0).getRealDouble();
         final double m10 = coefficients.get(1).getRealDouble();
@@ -90,13 +203,42 @@ public class AffineWarpFieldTransform
     }
 
     private void setWarpFieldAccessor() throws IllegalArgumentException {
-        // set accessor and validate interpolator factory instance
+        // validate interpolator factory instance
         try {
-            warpFieldAccessor = affineWarpField.getAccessor();
+            affineWarpField.getAccessor();
         } catch (final Exception e) {
             final String factoryClassName = affineWarpField.getInterpolatorFactory().getClass().getCanonicalName();
             throw new IllegalArgumentException("interpolator factory class '" + factoryClassName + "' does not implement required interface", e);
         }
+
+        final AffineWarpField field = affineWarpField;
+        warpFieldAccessor = ThreadLocal.withInitial(field::getAccessor);
+
+        isBilinear = field.getInterpolatorFactory() instanceof NLinearInterpolatorFactory;
+        columnCount = field.getColumnCount();
+        rowCount = field.getRowCount();
+        affineCount = columnCount * rowCount;
+        xScale = field.getXScale();
+        yScale = field.getYScale();
+    }
+
+    private static int clamp(final int index,
+                             final int count) {
+        return index < 0 ? 0 : (index >= count ? count - 1 : index);
+    }
+
+    private static double interpolate(final double[] values,
+                                      final int offset,
+                                      final int i00,
+                                      final int i10,
+                                      final int i01,
+                                      final int i11,
+                                      final double w00,
+                                      final double w10,
+                                      final double w01,
+                                      final double w11) {
+        return (w00 * values[offset + i00]) + (w10 * values[offset + i10]) +
+               (w01 * values[offset + i01]) + (w11 * values[offset + i11]);
     }
 
     /**
@@ -0,0 +1,206 @@
+package org.janelia.alignment.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.concurrent.Callable;
+
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.ChannelMap;
+
+/**
+ * Cache of filtered {@link ChannelMap} instances for rendering.
+ * Filtering (e.g. local contrast normalization) is often much more expensive than loading source pixels,
+ * so caching filtered results keeps frequently rendered tiles from being re-filtered for every request.
+ *
+ * Entries are keyed by source pixels (urls and intensity settings), mipmap level, and filter chain.
+ * Each cache is constrained by a maximum number of bytes.  Once a cache is full, least recently used
+ * entries are removed to make room.  Cached maps are never handed out directly: callers always receive
+ * a copy so that in-place changes made during rendering do not affect cached pixels.
+ *
+ * Hit, miss, and eviction stats are always recorded to help size the cache.
+ *
+ * @author Eric Trautman
+ */
+public class FilteredChannelMapCache {
+
+    private final long maximumNumberOfCachedBytes;
+    private final Cache<CacheKey, ChannelMap> cache;
+
+    /**
+     * @param  maximumNumberOfCachedBytes  the maximum number of pixel bytes (including masks) to maintain
+     *                                     in the cache.  This should roughly correlate to the maximum amount
+     *                                     of memory for the cache.
+     */
+    public FilteredChannelMapCache(final long maximumNumberOfCachedBytes) {
+
+        this.maximumNumberOfCachedBytes = maximumNumberOfCachedBytes;
+
+        final Weigher<CacheKey, ChannelMap> weigher =
+                (key, value) -> (int) Math.min(Integer.MAX_VALUE, getByteCount(value));
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumNumberOfCachedBytes)
+                .weigher(weigher)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param  sourceKey       key identifying the source pixels
+     *                         (see {@link org.janelia.alignment.mipmap.UrlMipmapSource#getChannelsKey}).
+     * @param  mipmapLevel     mipmap level of the source pixels.
+     * @param  filterChainKey  canonical description of the filters applied to the source pixels.
+     * @param  loader          loads and filters the source pixels if they are not already cached.
+     *
+     * @return a copy of the cached filtered channels for the specified key.
+     *         If the channels are not already cached, they will be loaded into the cache.
+     *
+     * @throws IllegalArgumentException
+     *   if the channels cannot be loaded.
+     */
+    public ChannelMap get(final String sourceKey,
+                          final int mipmapLevel,
+                          final String filterChainKey,
+                          final Callable<ChannelMap> loader)
+            throws IllegalArgumentException {
+
+        final CacheKey key = new CacheKey(sourceKey, mipmapLevel, filterChainKey);
+        final ChannelMap channels;
+        try {
+            channels = cache.get(key, loader);
+        } catch (final Throwable t) {
+            throw new IllegalArgumentException("failed to retrieve " + key + " from cache", t);
+        }
+        return copy(channels);
+    }
+
+    /**
+     * @return the number of entries currently in this cache.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return a current snapshot of this cache's cumulative statistics.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        final CacheStats stats = getStats();
+        return "{numberOfEntries: " + size() +
+               ", maximumNumberOfCachedBytes: " + maximumNumberOfCachedBytes +
+               ", hitCount: " + stats.hitCount() +
+               ", missCount: " + stats.missCount() +
+               ", evictionCount: " + stats.evictionCount() +
+               '}';
+    }
+
+    /**
+     * @return a copy of the specified channels with duplicated pixels, masks, and intensity ranges.
+     */
+    public static ChannelMap copy(final ChannelMap channels) {
+        final ChannelMap copy = new ChannelMap();
+        for (final String channelName : channels.names()) {
+            final ImageProcessorWithMasks channel = channels.get(channelName);
+            copy.put(channelName,
+                     new ImageProcessorWithMasks(duplicate(channel.ip),
+                                                 duplicate(channel.mask),
+                                                 (ByteProcessor) duplicate(channel.outside)));
+        }
+        return copy;
+    }
+
+    /**
+     * @return number of pixel bytes (including masks) for the specified channels.
+     */
+    public static long getByteCount(final ChannelMap channels) {
+        long byteCount = 0;
+        if (channels != null) {
+            for (final ImageProcessorWithMasks channel : channels.values()) {
+                byteCount += getByteCount(channel.ip) + getByteCount(channel.mask) + getByteCount(channel.outside);
+            }
+        }
+        return byteCount;
+    }
+
+    private static long getByteCount(final ImageProcessor imageProcessor) {
+        return imageProcessor == null ? 0 : (long) imageProcessor.getPixelCount() * imageProcessor.getBitDepth() / 8;
+    }
+
+    private static ImageProcessor duplicate(final ImageProcessor imageProcessor) {
+        ImageProcessor duplicate = null;
+        if (imageProcessor != null) {
+            duplicate = imageProcessor.duplicate();
+            // duplication resets the intensity range for some processor types, so explicitly restore it
+            duplicate.setMinAndMax(imageProcessor.getMin(), imageProcessor.getMax());
+        }
+        return duplicate;
+    }
+
+    /**
+     * Key that combines source pixels with mipmap level and filter chain.
+     */
+    private static class CacheKey {
+
+        private final String sourceKey;
+        private final int mipmapLevel;
+        private final String filterChainKey;
+
+        public CacheKey(final String sourceKey,
+                        final int mipmapLevel,
+                        final String filterChainKey) {
+            this.sourceKey = sourceKey;
+            this.mipmapLevel = mipmapLevel;
+            this.filterChainKey = filterChainKey;
+        }
+
+        @Override
+        public String toString() {
+            return "{sourceKey: '" + sourceKey + "', mipmapLevel: " + mipmapLevel +
+                   ", filterChainKey: '" + filterChainKey + "'}";
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean result = true;
+            if (this != o) {
+                if (o instanceof CacheKey) {
+                    final CacheKey that = (CacheKey) o;
+                    result = this.sourceKey.equals(that.sourceKey) &&
+                             (this.mipmapLevel == that.mipmapLevel) &&
+                             this.filterChainKey.equals(that.filterChainKey);
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = sourceKey.hashCode();
+            result = 31 * result + mipmapLevel;
+            result = 31 * result + filterChainKey.hashCode();
+            return result;
+        }
+    }
+
+}
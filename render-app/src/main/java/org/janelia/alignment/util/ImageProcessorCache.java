@@ -1,5 +1,6 @@
 package org.janelia.alignment.util;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
@@ -10,6 +11,17 @@ import ij.ImagePlus;
 import ij.io.Opener;
 import ij.process.ImageProcessor;
 
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.annotation.Nullable;
 
 import mpicbg.trakem2.util.Downsampler;
@@ -25,6 +37,13 @@ import org.slf4j.LoggerFactory;
  * Cache instances are thread safe and do not depend upon garbage collection or independent threads to evict
  * stale entries, making the instances safer for use in application servers.
  *
+ * Down sampled levels are derived from the closest finer level already in the cache
+ * (see {@link #loadImageProcessor}).
+ *
+ * Large uncompressed TIFF sources can also be loaded a region at a time (see {@link #getRegion}).
+ * Region loads decode and cache aligned pieces of the full scale source, so overlapping requests
+ * share the same pieces.
+ *
  * For gory details about the cache implementation, see
  * <a href="https://code.google.com/p/guava-libraries/wiki/CachesExplained">
  *     https://code.google.com/p/guava-libraries/wiki/CachesExplained
@@ -45,6 +64,9 @@ public class ImageProcessorCache {
     private final boolean cacheOriginalsForDownSampledImages;
 
     private final LoadingCache<CacheKey, ImageProcessor> cache;
+    private final LoadingCache<File, TiffRegionReader> regionReaderCache;
+
+    private FilteredChannelMapCache filteredChannelMapCache;
 
     /**
      * Constructs an instance with default parameters.
@@ -65,8 +87,9 @@ public class ImageProcessorCache {
      *                                             otherwise stats are not maintained.
      *
      * @param  cacheOriginalsForDownSampledImages  if true, when down sampled images are requested their source
-     *                                             images will also be cached (presumably improving the speed
-     *                                             of future down sampling to a different level);
+     *                                             images (and any intermediate levels) will also be cached
+     *                                             so that future down sampling to a different level can start
+     *                                             from the closest cached level;
      *                                             otherwise only the down sampled result images are cached.
      */
     public ImageProcessorCache(final long maximumNumberOfCachedPixels,
@@ -95,8 +118,12 @@ public class ImageProcessorCache {
                     public ImageProcessor load(@Nullable final CacheKey key)
                             throws Exception {
                         ImageProcessor imageProcessor = null;
-                        if (key != null) {
+                        if (key == null) {
+                            imageProcessor = null;
+                        } else if (key.getRegion() == null) {
                             imageProcessor = loadImageProcessor(key.getUri(), key.getDownSampleLevels(), key.isMask(),key.isConvertTo16Bit());
+                        } else {
+                            imageProcessor = loadRegionPiece(key);
                         }
                         return imageProcessor;
                     }
@@ -116,6 +143,18 @@ public class ImageProcessorCache {
                     .build(loader);
         }
 
+        // parsed layouts are small, so keep plenty of them around to avoid re-reading TIFF headers
+        this.regionReaderCache = CacheBuilder.newBuilder()
+                .maximumSize(MAX_REGION_READERS)
+                .build(new CacheLoader<File, TiffRegionReader>() {
+                    @Override
+                    public TiffRegionReader load(@Nullable final File file)
+                            throws Exception {
+                        return new TiffRegionReader(file);
+                    }
+                });
+
+        this.filteredChannelMapCache = null;
     }
 
     /**
@@ -152,6 +191,131 @@ public class ImageProcessorCache {
         return imageProcessor.duplicate();
     }
 
+    /**
+     * Loads the specified region of an image without decoding the rest of the image.
+     * Regions can only be loaded from local uncompressed TIFF files (see {@link TiffRegionReader}).
+     * Region loading is also skipped when the full image is already cached or when the region
+     * covers most of the image (since loading and caching the full image is then the better choice).
+     *
+     * Regions are assembled from pieces aligned to a {@link #REGION_PIECE_SIZE} (full scale) pixel grid,
+     * each of which is cached independently.  Like full images, pieces are cached at full scale and
+     * down sampled after assembly when this cache is configured to cache originals for down sampled images;
+     * otherwise pieces are down sampled to the requested level before they are cached.
+     * Each down sampled pixel only depends upon the full scale pixels it covers and piece bounds are
+     * multiples of the down sampling factor, so region pixels exactly match the corresponding pixels of
+     * the full image down sampled by {@link #get} either way.
+     *
+     * If a piece cannot be read (e.g. because the file was truncated after its layout was parsed),
+     * null is returned so that the full image is decoded instead.
+     *
+     * @param  url               url for the image.
+     *
+     * @param  downSampleLevels  number of levels to further down sample the image.
+     *                           Negative values are considered the same as zero.
+     *
+     * @param  isMask            indicates whether the image is a mask.
+     *
+     * @param  convertTo16Bit    indicates whether the loaded image processor should be converted to 16-bit.
+     *
+     * @param  levelRegion       region to load (in down sampled pixel coordinates).
+     *                           The region is clipped to the image, so pixel (0, 0) of the returned processor
+     *                           is pixel (max(0, levelRegion.x), max(0, levelRegion.y)) of the down sampled image.
+     *
+     * @return a newly assembled processor for the specified region or
+     *         null if the region should be loaded from the full image (see {@link #get}) instead.
+     *
+     * @throws IllegalArgumentException
+     *   if the region cannot be loaded.
+     */
+    public ImageProcessor getRegion(final String url,
+                                    final int downSampleLevels,
+                                    final boolean isMask,
+                                    final boolean convertTo16Bit,
+                                    final Rectangle levelRegion)
+            throws IllegalArgumentException {
+
+        final int levels = Math.max(0, downSampleLevels);
+
+        final TiffRegionReader reader = getRegionReader(url);
+        if ((reader == null) || isCachedAtOrBelowLevel(url, levels, isMask, convertTo16Bit)) {
+            return null;
+        }
+
+        // clip the region to the down sampled image and then map it to full scale,
+        // full scale bounds are multiples of the down sampling factor so that each region pixel
+        // is derived from the same full scale pixels used when the full image is down sampled
+        final Rectangle clippedLevelRegion =
+                levelRegion.intersection(new Rectangle(0, 0,
+                                                       reader.getWidth() >> levels,
+                                                       reader.getHeight() >> levels));
+        if (clippedLevelRegion.isEmpty()) {
+            return null;
+        }
+
+        final Rectangle region = new Rectangle(clippedLevelRegion.x << levels,
+                                               clippedLevelRegion.y << levels,
+                                               clippedLevelRegion.width << levels,
+                                               clippedLevelRegion.height << levels);
+
+        if (((double) region.width * region.height) >
+            (MAX_REGION_FRACTION * reader.getWidth() * reader.getHeight())) {
+            return null;
+        }
+
+        final int pieceLevel = cacheOriginalsForDownSampledImages ? 0 : levels;
+        if (pieceLevel > MAX_REGION_PIECE_LEVEL) {
+            return null;
+        }
+
+        ImageProcessor regionProcessor = null;
+
+        final int firstPieceColumn = region.x / REGION_PIECE_SIZE;
+        final int lastPieceColumn = (region.x + region.width - 1) / REGION_PIECE_SIZE;
+        final int firstPieceRow = region.y / REGION_PIECE_SIZE;
+        final int lastPieceRow = (region.y + region.height - 1) / REGION_PIECE_SIZE;
+
+        for (int pieceRow = firstPieceRow; pieceRow <= lastPieceRow; pieceRow++) {
+            for (int pieceColumn = firstPieceColumn; pieceColumn <= lastPieceColumn; pieceColumn++) {
+
+                final Rectangle pieceBounds =
+                        new Rectangle(pieceColumn * REGION_PIECE_SIZE,
+                                      pieceRow * REGION_PIECE_SIZE,
+                                      REGION_PIECE_SIZE,
+                                      REGION_PIECE_SIZE).intersection(
+                                              new Rectangle(0, 0, reader.getWidth(), reader.getHeight()));
+
+                final CacheKey pieceKey = new CacheKey(url, pieceLevel, isMask, convertTo16Bit, pieceBounds);
+                final ImageProcessor piece;
+                try {
+                    piece = cache.get(pieceKey);
+                } catch (final Throwable t) {
+                    if (Throwables.getRootCause(t) instanceof IOException) {
+                        LOG.warn("getRegion: failed to read " + pieceKey + ", full image will be loaded instead", t);
+                        regionReaderCache.invalidate(TiffRegionReader.getTiffFile(url));
+                        return null;
+                    }
+                    throw new IllegalArgumentException("failed to retrieve " + pieceKey + " from cache", t);
+                }
+
+                if (regionProcessor == null) {
+                    regionProcessor = piece.createProcessor(region.width >> pieceLevel,
+                                                            region.height >> pieceLevel);
+                }
+
+                // insert copies the piece pixels, so cached pieces are never modified
+                regionProcessor.insert(piece,
+                                       (pieceBounds.x - region.x) >> pieceLevel,
+                                       (pieceBounds.y - region.y) >> pieceLevel);
+            }
+        }
+
+        if ((regionProcessor != null) && (levels > pieceLevel)) {
+            regionProcessor = Downsampler.downsampleImageProcessor(regionProcessor, levels - pieceLevel);
+        }
+
+        return regionProcessor;
+    }
+
     /**
      * @return the number of entries currently in this cache.
      */
@@ -167,12 +331,77 @@ public class ImageProcessorCache {
         return cache.stats();
     }
 
+    /**
+     * Constructs a cache instance that reserves part of the specified memory budget for filtered channels
+     * (see {@link #enableFilteredChannelMapCache}) instead of adding a filtered cache on top of the budget.
+     *
+     * @param  maximumNumberOfCachedBytes          the maximum number of bytes for both caches.
+     *                                             Image weights are pixel counts multiplied by bytes per pixel,
+     *                                             so this is also the number of 8-bit pixels that can be cached.
+     *
+     * @param  filteredPercent                     percentage (0 - 100) of the budget reserved for filtered
+     *                                             channels (specify zero to disable filtered caching).
+     *
+     * @param  recordStats                         see {@link #ImageProcessorCache(long, boolean, boolean)}.
+     *
+     * @param  cacheOriginalsForDownSampledImages  see {@link #ImageProcessorCache(long, boolean, boolean)}.
+     *
+     * @return a new cache instance.
+     *
+     * @throws IllegalArgumentException
+     *   if the filtered percentage is not between 0 and 100.
+     */
+    public static ImageProcessorCache withFilteredChannelMapCache(final long maximumNumberOfCachedBytes,
+                                                                  final int filteredPercent,
+                                                                  final boolean recordStats,
+                                                                  final boolean cacheOriginalsForDownSampledImages)
+            throws IllegalArgumentException {
+
+        if ((filteredPercent < 0) || (filteredPercent > 100)) {
+            throw new IllegalArgumentException("filtered percentage must be between 0 and 100");
+        }
+
+        final long filteredBytes = maximumNumberOfCachedBytes / 100 * filteredPercent;
+        final long imageBytes = maximumNumberOfCachedBytes - filteredBytes;
+
+        return new ImageProcessorCache(imageBytes,
+                                       recordStats,
+                                       cacheOriginalsForDownSampledImages).enableFilteredChannelMapCache(filteredBytes);
+    }
+
+    /**
+     * @return the companion cache for filtered channels derived from this cache's images
+     *         (or null if filtered channels are not cached).
+     */
+    public FilteredChannelMapCache getFilteredChannelMapCache() {
+        return filteredChannelMapCache;
+    }
+
+    /**
+     * Enables caching of filtered channels derived from this cache's images.
+     * Filtered channels are kept in a separate cache, so cached images are never modified by filtering.
+     *
+     * @param  maximumNumberOfCachedBytes  the maximum number of filtered bytes to cache
+     *                                     (specify zero or less to disable filtered caching).
+     *
+     * @return this cache (to support chained configuration).
+     */
+    public ImageProcessorCache enableFilteredChannelMapCache(final long maximumNumberOfCachedBytes) {
+        if (maximumNumberOfCachedBytes > 0) {
+            filteredChannelMapCache = new FilteredChannelMapCache(maximumNumberOfCachedBytes);
+        } else {
+            filteredChannelMapCache = null;
+        }
+        return this;
+    }
+
     @Override
     public String toString() {
         return "{numberOfEntries: " + size() +
                ", maximumNumberOfCachedPixels: " + maximumNumberOfCachedPixels +
                ", recordStats: " + recordStats +
                ", cacheOriginalsForDownSampledImages: " + cacheOriginalsForDownSampledImages +
+               ", filteredChannelMapCache: " + filteredChannelMapCache +
                '}';
     }
 
@@ -197,6 +426,8 @@ public class ImageProcessorCache {
 
     /**
      * The core method used to load image processor instances that is called when cache misses occur.
+     * Down sampled images are derived from the closest finer level that is already cached
+     * (only loading the source image when no finer level is cached).
      *
      * @param  url               url for the image.
      * @param  downSampleLevels  number of levels to further down sample the image.
@@ -219,10 +450,15 @@ public class ImageProcessorCache {
         }
 
         ImageProcessor imageProcessor = null;
-
-        // if we need to down sample, see if source image is already cached before trying to load it
-        if (downSampleLevels > 0) {
-            imageProcessor = cache.getIfPresent(new CacheKey(url, 0, isMask,convertTo16Bit));
+        int sourceLevel = 0;
+
+        // if we need to down sample, start from the closest finer level that is already cached
+        for (int level = downSampleLevels - 1; level >= 0; level--) {
+            imageProcessor = cache.getIfPresent(new CacheKey(url, level, isMask, convertTo16Bit));
+            if (imageProcessor != null) {
+                sourceLevel = level;
+                break;
+            }
         }
 
         // load the image as needed
@@ -257,21 +493,176 @@ public class ImageProcessorCache {
                 cache.put(new CacheKey(url, 0, isMask,convertTo16Bit), imageProcessor);
             }
 
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("loadImageProcessor: down sampling cached level {} for {}", sourceLevel, url);
         }
 
-        // down sample the image as needed
-        if (downSampleLevels > 0) {
-            // NOTE: The down sample methods return a safe copy and leave the source imageProcessor unmodified,
-            //       so we don't need to duplicate a cached source instance before down sampling.
-            imageProcessor = Downsampler.downsampleImageProcessor(imageProcessor,
-                                                                  downSampleLevels);
+        // down sample the image one level at a time as needed, caching intermediate levels for future requests
+        // NOTE: The down sample methods return a safe copy and leave the source imageProcessor unmodified,
+        //       so we don't need to duplicate a cached source instance before down sampling.
+        for (int level = sourceLevel + 1; level <= downSampleLevels; level++) {
+
+            imageProcessor = downsampleOneLevel(imageProcessor);
+
+            if (cacheOriginalsForDownSampledImages && (level < downSampleLevels)) {
+                cache.put(new CacheKey(url, level, isMask, convertTo16Bit), imageProcessor);
+            }
         }
 
         return imageProcessor;
     }
 
     /**
-     * Key that combines an image's url with its down sample levels.
+     * Down samples the specified processor by one level.
+     * Large processors are split into horizontal bands (with an even number of rows)
+     * that are down sampled in parallel on a shared executor.  Since each down sampled pixel only depends upon the
+     * 2x2 source pixels it covers, the result is identical to down sampling the whole processor at once.
+     *
+     * @param  imageProcessor  processor to down sample (is not modified).
+     *
+     * @return down sampled copy of the specified processor.
+     *
+     * @throws IllegalArgumentException
+     *   if parallel down sampling fails.
+     */
+    static ImageProcessor downsampleOneLevel(final ImageProcessor imageProcessor)
+            throws IllegalArgumentException {
+
+        final int width = imageProcessor.getWidth();
+        final int height = imageProcessor.getHeight();
+        final int numberOfThreads = Math.min(Runtime.getRuntime().availableProcessors(),
+                                             height / MIN_PARALLEL_DOWN_SAMPLE_BAND_HEIGHT);
+
+        if ((((long) width * height) < MIN_PARALLEL_DOWN_SAMPLE_PIXELS) || (numberOfThreads < 2)) {
+            return Downsampler.downsampleImageProcessor(imageProcessor, 1);
+        }
+
+        final ImageProcessor downsampledProcessor = imageProcessor.createProcessor(width / 2, height / 2);
+
+        // band heights are even so that each band down samples to whole rows
+        final int bandHeight = (((height / numberOfThreads) + 1) / 2) * 2;
+        final List<Callable<Void>> bandTasks = new ArrayList<>();
+        for (int bandY = 0; bandY < height; bandY += bandHeight) {
+            final Rectangle bandBounds = new Rectangle(0, bandY, width, Math.min(bandHeight, height - bandY));
+            bandTasks.add(() -> {
+                final ImageProcessor band = cropBand(imageProcessor, bandBounds);
+                final ImageProcessor downsampledBand = Downsampler.downsampleImageProcessor(band, 1);
+                // bands write disjoint rows, so they can be inserted concurrently
+                downsampledProcessor.insert(downsampledBand, 0, bandBounds.y / 2);
+                return null;
+            });
+        }
+
+        try {
+            for (final Future<Void> future : getDownSampleExecutorService().invokeAll(bandTasks)) {
+                future.get();
+            }
+        } catch (final Exception e) {
+            throw new IllegalArgumentException("failed to down sample " + width + "x" + height + " image", e);
+        }
+
+        return downsampledProcessor;
+    }
+
+    /**
+     * @return executor shared by all down sampling requests so that concurrent requests
+     *         (e.g. from parallel render threads) do not create more threads than there are processors.
+     */
+    private static synchronized ExecutorService getDownSampleExecutorService() {
+        if (downSampleExecutorService == null) {
+            downSampleExecutorService = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "parallel-down-sample");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return downSampleExecutorService;
+    }
+
+    private static ImageProcessor cropBand(final ImageProcessor imageProcessor,
+                                           final Rectangle bandBounds) {
+        // copy the band with insert (which only reads the source) instead of crop (which changes the source roi)
+        final ImageProcessor bandSource = imageProcessor.createProcessor(bandBounds.width, bandBounds.height);
+        bandSource.insert(imageProcessor, 0, -bandBounds.y);
+        return bandSource;
+    }
+
+    /**
+     * @return true if the full image (at the specified level or any finer level) is already cached.
+     */
+    private boolean isCachedAtOrBelowLevel(final String url,
+                                           final int downSampleLevels,
+                                           final boolean isMask,
+                                           final boolean convertTo16Bit) {
+        boolean isCached = false;
+        for (int level = downSampleLevels; level >= 0; level--) {
+            if (cache.getIfPresent(new CacheKey(url, level, isMask, convertTo16Bit)) != null) {
+                isCached = true;
+                break;
+            }
+        }
+        return isCached;
+    }
+
+    /**
+     * @return a reader for the specified url's image if regions can be read from it; otherwise null.
+     */
+    private TiffRegionReader getRegionReader(final String url) {
+
+        TiffRegionReader reader = null;
+
+        final File file = TiffRegionReader.getTiffFile(url);
+        if ((file != null) && file.isFile()) {
+            try {
+                reader = regionReaderCache.get(file);
+            } catch (final Throwable t) {
+                LOG.warn("getRegionReader: failed to parse " + file + ", full image will be loaded instead", t);
+            }
+        }
+
+        if ((reader != null) && (! reader.isRegionReadable())) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("getRegionReader: cannot read regions from {} because {}",
+                          url, reader.getUnsupportedReason());
+            }
+            reader = null;
+        }
+
+        return reader;
+    }
+
+    /**
+     * Loads a region piece (down sampled to the key's level) when a cache miss occurs.
+     */
+    private ImageProcessor loadRegionPiece(final CacheKey key)
+            throws Exception {
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("loadRegionPiece: entry, key={}", key);
+        }
+
+        final TiffRegionReader reader = regionReaderCache.get(TiffRegionReader.getTiffFile(key.getUri()));
+
+        ImageProcessor imageProcessor = reader.read(key.getRegion());
+
+        // convert pieces the same way full images are converted
+        if ((! key.isMask()) && (imageProcessor.getBitDepth() == 8) && key.isConvertTo16Bit()) {
+            imageProcessor = imageProcessor.convertToShort(false);
+            imageProcessor.multiply(256.0);
+        }
+
+        if (key.getDownSampleLevels() > 0) {
+            imageProcessor = Downsampler.downsampleImageProcessor(imageProcessor, key.getDownSampleLevels());
+        }
+
+        return imageProcessor;
+    }
+
+    /**
+     * Key that combines an image's url with its down sample levels
+     * (and for region pieces, the full scale bounds of the piece).
      */
     private class CacheKey {
 
@@ -279,11 +670,20 @@ public class ImageProcessorCache {
         private final int downSampleLevels;
         private final boolean isMask;
         private final boolean convertTo16Bit;
+        private final Rectangle region;
 
         public CacheKey(final String url,
                         final int downSampleLevels,
                         final boolean isMask,
                         final boolean convertTo16Bit) {
+            this(url, downSampleLevels, isMask, convertTo16Bit, null);
+        }
+
+        public CacheKey(final String url,
+                        final int downSampleLevels,
+                        final boolean isMask,
+                        final boolean convertTo16Bit,
+                        final Rectangle region) {
 
             this.url = url;
 
@@ -295,6 +695,7 @@ public class ImageProcessorCache {
 
             this.isMask = isMask;
             this.convertTo16Bit = convertTo16Bit;
+            this.region = region;
         }
 
         public String getUri() {
@@ -311,9 +712,14 @@ public class ImageProcessorCache {
             return isMask;
         }
 
+        public Rectangle getRegion() {
+            return region;
+        }
+
         @Override
         public String toString() {
-            return "{url: '" + url + "', downSampleLevels: " + downSampleLevels + ", isMask: " + isMask + ", convertTo16Bit:" + convertTo16Bit +  '}';
+            return "{url: '" + url + "', downSampleLevels: " + downSampleLevels + ", isMask: " + isMask + ", convertTo16Bit:" + convertTo16Bit +
+                   (region == null ? "" : ", region: " + region) + '}';
         }
 
         @Override
@@ -324,7 +730,8 @@ public class ImageProcessorCache {
                     final CacheKey that = (CacheKey) o;
                     result = this.url.equals(that.url) &&
                              (this.downSampleLevels == that.downSampleLevels) &&
-                             (this.convertTo16Bit == that.convertTo16Bit);
+                             (this.convertTo16Bit == that.convertTo16Bit) &&
+                             Objects.equals(this.region, that.region);
                 } else {
                     result = false;
                 }
@@ -336,10 +743,29 @@ public class ImageProcessorCache {
         public int hashCode() {
             int result = url.hashCode();
             result = 31 * result + downSampleLevels;
+            result = 31 * result + Objects.hashCode(region);
             return result;
         }
     }
 
+    private static ExecutorService downSampleExecutorService = null;
+
+    /** Full scale width and height of cached region pieces. */
+    public static final int REGION_PIECE_SIZE = 1024;
+
+    /** Regions are loaded from the full image instead when pieces would be down sampled below 4x4 pixels. */
+    private static final int MAX_REGION_PIECE_LEVEL = 8;
+
+    /** Regions covering more than this fraction of an image are loaded from the full image instead. */
+    private static final double MAX_REGION_FRACTION = 0.5;
+
+    private static final int MAX_REGION_READERS = 10000;
+
+    /** Processors with fewer pixels are down sampled in a single thread. */
+    private static final long MIN_PARALLEL_DOWN_SAMPLE_PIXELS = 4096 * 4096;
+
+    private static final int MIN_PARALLEL_DOWN_SAMPLE_BAND_HEIGHT = 256;
+
     private static final Logger LOG = LoggerFactory.getLogger(ImageProcessorCache.class);
 
 }
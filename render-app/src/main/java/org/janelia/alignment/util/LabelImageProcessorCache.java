@@ -5,6 +5,7 @@ import ij.process.ImageProcessor;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -78,8 +79,9 @@ public class LabelImageProcessorCache extends ImageProcessorCache {
      *                                             otherwise stats are not maintained.
      *
      * @param  cacheOriginalsForDownSampledImages  if true, when down sampled images are requested their source
-     *                                             images will also be cached (presumably improving the speed
-     *                                             of future down sampling to a different level);
+     *                                             images (and any intermediate levels) will also be cached
+     *                                             so that future down sampling to a different level can start
+     *                                             from the closest cached level;
      *                                             otherwise only the down sampled result images are cached.
      *
      * @param  tileSpecs                           collection of all tileSpecs that may be loaded from this cache.
@@ -163,6 +165,21 @@ public class LabelImageProcessorCache extends ImageProcessorCache {
         return imageProcessor;
     }
 
+    /**
+     * Label images are generated rather than loaded, so regions are never loaded separately.
+     *
+     * @return null (regions should be derived from the full label image).
+     */
+    @Override
+    public ImageProcessor getRegion(final String url,
+                                    final int downSampleLevels,
+                                    final boolean isMask,
+                                    final boolean convertTo16Bit,
+                                    final Rectangle levelRegion)
+            throws IllegalArgumentException {
+        return null;
+    }
+
     private ImageProcessor loadLabelProcessor(final int width,
                                               final int height,
                                               final Color color)
@@ -0,0 +1,456 @@
+package org.janelia.alignment.util;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads rectangular regions of local, uncompressed, single channel TIFF images without decoding the rest
+ * of the image.  Both striped and tiled layouts are supported, but only the strips or tiles that
+ * intersect a region are read (and only the portion of each row that falls within the region).
+ *
+ * Only the first image in a file is read.  Supported images have 8-bit or 16-bit unsigned integer or
+ * 32-bit float grayscale (black is zero) pixels.  For any other image (or for truncated files),
+ * {@link #isRegionReadable} returns false and images should be decoded in full.
+ *
+ * The image layout is parsed when an instance is constructed, so instances can be reused to read
+ * many regions.  Instances are thread safe.
+ *
+ * @author Eric Trautman
+ */
+public class TiffRegionReader {
+
+    private final File file;
+
+    private boolean littleEndian;
+    private int width;
+    private int height;
+    private int bitsPerSample;
+    private int samplesPerPixel;
+    private int compression;
+    private int photometricInterpretation;
+    private int planarConfiguration;
+    private int sampleFormat;
+    private int rowsPerStrip;
+    private int tileWidth;
+    private int tileHeight;
+    private long[] blockOffsets;
+
+    private String unsupportedReason;
+
+    /**
+     * Parses the layout of the specified TIFF file.
+     *
+     * @param  file  TIFF file to read.
+     *
+     * @throws IOException
+     *   if the file cannot be read.
+     */
+    public TiffRegionReader(final File file)
+            throws IOException {
+
+        this.file = file;
+
+        // defaults from the TIFF 6.0 specification
+        this.bitsPerSample = 1;
+        this.samplesPerPixel = 1;
+        this.compression = 1;
+        this.photometricInterpretation = -1;
+        this.planarConfiguration = 1;
+        this.sampleFormat = 1;
+        this.rowsPerStrip = Integer.MAX_VALUE;
+        this.tileWidth = 0;
+        this.tileHeight = 0;
+
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            parseLayout(raf);
+        }
+    }
+
+    /**
+     * @param  url  image url (or path).
+     *
+     * @return the local file for the specified url if it identifies a TIFF file; otherwise null.
+     */
+    public static File getTiffFile(final String url) {
+
+        File file = null;
+
+        if (url != null) {
+            final String lowerCaseUrl = url.toLowerCase();
+            if (lowerCaseUrl.endsWith(".tif") || lowerCaseUrl.endsWith(".tiff")) {
+                if (lowerCaseUrl.startsWith("file:")) {
+                    try {
+                        file = new File(URI.create(url));
+                    } catch (final IllegalArgumentException e) {
+                        file = null;
+                    }
+                } else if (! lowerCaseUrl.matches("^[a-z][a-z0-9+.-]+:.*")) {
+                    file = new File(url);
+                }
+            }
+        }
+
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if regions of this image can be read; otherwise false.
+     */
+    public boolean isRegionReadable() {
+        return unsupportedReason == null;
+    }
+
+    /**
+     * @return the reason regions of this image cannot be read (or null if they can be read).
+     */
+    public String getUnsupportedReason() {
+        return unsupportedReason;
+    }
+
+    /**
+     * @param  region  region to read (must lie within the image).
+     *
+     * @return processor containing the pixels for the specified region.
+     *
+     * @throws IllegalArgumentException
+     *   if regions cannot be read from this image or the region does not lie within the image.
+     *
+     * @throws IOException
+     *   if the file cannot be read.
+     */
+    public ImageProcessor read(final Rectangle region)
+            throws IllegalArgumentException, IOException {
+
+        if (unsupportedReason != null) {
+            throw new IllegalArgumentException("cannot read regions from " + file + " because " + unsupportedReason);
+        }
+
+        if ((region.x < 0) || (region.y < 0) || (region.width < 1) || (region.height < 1) ||
+            (region.x + region.width > width) || (region.y + region.height > height)) {
+            throw new IllegalArgumentException("region " + region + " does not lie within " + width + "x" +
+                                               height + " image " + file);
+        }
+
+        final int bytesPerPixel = bitsPerSample / 8;
+        final byte[] regionBytes = new byte[region.width * region.height * bytesPerPixel];
+
+        final int blockWidth = isTiled() ? tileWidth : width;
+        final int blockHeight = isTiled() ? tileHeight : Math.min(rowsPerStrip, height);
+        final int blocksPerRow = (width + blockWidth - 1) / blockWidth;
+
+        final int firstBlockColumn = region.x / blockWidth;
+        final int lastBlockColumn = (region.x + region.width - 1) / blockWidth;
+        final int firstBlockRow = region.y / blockHeight;
+        final int lastBlockRow = (region.y + region.height - 1) / blockHeight;
+
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+
+            for (int blockRow = firstBlockRow; blockRow <= lastBlockRow; blockRow++) {
+
+                final int blockY = blockRow * blockHeight;
+                final int fromY = Math.max(region.y, blockY);
+                final int toY = Math.min(region.y + region.height, blockY + blockHeight);
+
+                for (int blockColumn = firstBlockColumn; blockColumn <= lastBlockColumn; blockColumn++) {
+
+                    final int blockX = blockColumn * blockWidth;
+                    final int fromX = Math.max(region.x, blockX);
+                    final int toX = Math.min(region.x + region.width, blockX + blockWidth);
+                    final int spanBytes = (toX - fromX) * bytesPerPixel;
+
+                    final long blockOffset = blockOffsets[(blockRow * blocksPerRow) + blockColumn];
+
+                    for (int y = fromY; y < toY; y++) {
+                        final long rowOffset = blockOffset +
+                                               ((((long) (y - blockY) * blockWidth) + (fromX - blockX)) *
+                                                bytesPerPixel);
+                        raf.seek(rowOffset);
+                        raf.readFully(regionBytes,
+                                      (((y - region.y) * region.width) + (fromX - region.x)) * bytesPerPixel,
+                                      spanBytes);
+                    }
+                }
+            }
+        }
+
+        return buildProcessor(region.width, region.height, regionBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "{file: " + file +
+               ", width: " + width +
+               ", height: " + height +
+               ", bitsPerSample: " + bitsPerSample +
+               ", tiled: " + isTiled() +
+               ", unsupportedReason: " + unsupportedReason +
+               '}';
+    }
+
+    private boolean isTiled() {
+        return tileWidth > 0;
+    }
+
+    private ImageProcessor buildProcessor(final int processorWidth,
+                                          final int processorHeight,
+                                          final byte[] bytes) {
+
+        final ImageProcessor processor;
+        final ByteBuffer buffer =
+                ByteBuffer.wrap(bytes).order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        if (bitsPerSample == 8) {
+            processor = new ByteProcessor(processorWidth, processorHeight, bytes);
+        } else if (bitsPerSample == 16) {
+            final short[] pixels = new short[processorWidth * processorHeight];
+            buffer.asShortBuffer().get(pixels);
+            processor = new ShortProcessor(processorWidth, processorHeight, pixels, null);
+        } else {
+            final float[] pixels = new float[processorWidth * processorHeight];
+            buffer.asFloatBuffer().get(pixels);
+            processor = new FloatProcessor(processorWidth, processorHeight, pixels, null);
+        }
+
+        return processor;
+    }
+
+    private void parseLayout(final RandomAccessFile raf)
+            throws IOException {
+
+        final int byteOrder = raf.readUnsignedShort();
+        if (byteOrder == 0x4949) {
+            littleEndian = true;
+        } else if (byteOrder == 0x4d4d) {
+            littleEndian = false;
+        } else {
+            unsupportedReason = "file does not have a TIFF header";
+            return;
+        }
+
+        final int magicNumber = readShort(raf);
+        if (magicNumber != 42) {
+            unsupportedReason = "file is not a classic TIFF (magic number is " + magicNumber + ")";
+            return;
+        }
+
+        final long ifdOffset = readInt(raf);
+        raf.seek(ifdOffset);
+
+        final int entryCount = readShort(raf);
+
+        long[] blockByteCounts = null;
+
+        for (int i = 0; i < entryCount; i++) {
+
+            final long entryOffset = ifdOffset + 2 + (i * 12L);
+            raf.seek(entryOffset);
+
+            final int tag = readShort(raf);
+            final int type = readShort(raf);
+            final long count = readInt(raf);
+
+            if (getValueSize(type) == 0) {
+                if (isLayoutTag(tag)) {
+                    unsupportedReason = "tag " + tag + " has unsupported type " + type;
+                    return;
+                }
+                continue;
+            }
+
+            switch (tag) {
+                case IMAGE_WIDTH:                width = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case IMAGE_LENGTH:               height = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case BITS_PER_SAMPLE:            bitsPerSample = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case COMPRESSION:                compression = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case PHOTOMETRIC_INTERPRETATION: photometricInterpretation = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case STRIP_OFFSETS:
+                case TILE_OFFSETS:               blockOffsets = readValues(raf, entryOffset, type, count); break;
+                case SAMPLES_PER_PIXEL:          samplesPerPixel = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case ROWS_PER_STRIP:             rowsPerStrip = (int) Math.min(Integer.MAX_VALUE, readValues(raf, entryOffset, type, count)[0]); break;
+                case STRIP_BYTE_COUNTS:
+                case TILE_BYTE_COUNTS:           blockByteCounts = readValues(raf, entryOffset, type, count); break;
+                case PLANAR_CONFIGURATION:       planarConfiguration = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case TILE_WIDTH:                 tileWidth = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case TILE_LENGTH:                tileHeight = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                case SAMPLE_FORMAT:              sampleFormat = (int) readValues(raf, entryOffset, type, count)[0]; break;
+                default:                         break;
+            }
+        }
+
+        if (compression != 1) {
+            unsupportedReason = "pixel data is compressed (compression " + compression + ")";
+        } else if ((samplesPerPixel != 1) || (planarConfiguration != 1)) {
+            unsupportedReason = "image has " + samplesPerPixel + " samples per pixel";
+        } else if (photometricInterpretation != 1) {
+            unsupportedReason = "photometric interpretation " + photometricInterpretation + " is not black is zero";
+        } else if (! (((bitsPerSample == 8) && (sampleFormat == 1)) ||
+                      ((bitsPerSample == 16) && (sampleFormat == 1)) ||
+                      ((bitsPerSample == 32) && (sampleFormat == 3)))) {
+            unsupportedReason = "sample format " + sampleFormat + " with " + bitsPerSample + " bits per sample";
+        } else if ((width < 1) || (height < 1)) {
+            unsupportedReason = "image size " + width + "x" + height + " is invalid";
+        } else if (isTiled() && (tileHeight < 1)) {
+            unsupportedReason = "tile length is missing";
+        } else if ((blockOffsets == null) || (blockByteCounts == null) ||
+                   (blockOffsets.length != blockByteCounts.length) ||
+                   (blockOffsets.length != getExpectedBlockCount())) {
+            unsupportedReason = "strip or tile offsets are missing or inconsistent";
+        } else if (isTruncated(raf.length())) {
+            unsupportedReason = "strip or tile data is truncated";
+        }
+    }
+
+    /**
+     * @return true if any strip or tile extends beyond the end of the file.
+     */
+    private boolean isTruncated(final long fileLength) {
+        final long bytesPerPixel = bitsPerSample / 8;
+        final int stripHeight = Math.min(rowsPerStrip, height);
+        for (int i = 0; i < blockOffsets.length; i++) {
+            final long blockBytes;
+            if (isTiled()) {
+                // tiles are always padded to full size
+                blockBytes = (long) tileWidth * tileHeight * bytesPerPixel;
+            } else {
+                // the last strip only contains the remaining rows
+                blockBytes = (long) Math.min(stripHeight, height - (i * stripHeight)) * width * bytesPerPixel;
+            }
+            if ((blockOffsets[i] + blockBytes) > fileLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getExpectedBlockCount() {
+        final int blockCount;
+        if (isTiled()) {
+            blockCount = ((width + tileWidth - 1) / tileWidth) * ((height + tileHeight - 1) / tileHeight);
+        } else {
+            final int stripHeight = Math.min(rowsPerStrip, height);
+            blockCount = (height + stripHeight - 1) / stripHeight;
+        }
+        return blockCount;
+    }
+
+    /**
+     * @return the (unsigned integer) values for the IFD entry at the specified offset.
+     */
+    private long[] readValues(final RandomAccessFile raf,
+                              final long entryOffset,
+                              final int type,
+                              final long count)
+            throws IOException {
+
+        final int valueSize = getValueSize(type);
+        final long[] values = new long[(int) count];
+
+        if ((valueSize * count) <= 4) {
+            raf.seek(entryOffset + 8);
+        } else {
+            raf.seek(entryOffset + 8);
+            raf.seek(readInt(raf));
+        }
+
+        for (int i = 0; i < count; i++) {
+            switch (valueSize) {
+                case 1:  values[i] = raf.readUnsignedByte(); break;
+                case 2:  values[i] = readShort(raf); break;
+                default: values[i] = readInt(raf); break;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @return the number of bytes for each value of the specified (unsigned integer) IFD entry type
+     *         or 0 if the type is not an unsigned integer type.
+     */
+    private static int getValueSize(final int type) {
+        final int valueSize;
+        switch (type) {
+            case BYTE_TYPE:  valueSize = 1; break;
+            case SHORT_TYPE: valueSize = 2; break;
+            case LONG_TYPE:  valueSize = 4; break;
+            default:         valueSize = 0; break;
+        }
+        return valueSize;
+    }
+
+    /**
+     * @return true if the specified tag is needed to parse the image layout.
+     */
+    private static boolean isLayoutTag(final int tag) {
+        switch (tag) {
+            case IMAGE_WIDTH:
+            case IMAGE_LENGTH:
+            case BITS_PER_SAMPLE:
+            case COMPRESSION:
+            case PHOTOMETRIC_INTERPRETATION:
+            case STRIP_OFFSETS:
+            case SAMPLES_PER_PIXEL:
+            case ROWS_PER_STRIP:
+            case STRIP_BYTE_COUNTS:
+            case PLANAR_CONFIGURATION:
+            case TILE_WIDTH:
+            case TILE_LENGTH:
+            case TILE_OFFSETS:
+            case TILE_BYTE_COUNTS:
+            case SAMPLE_FORMAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int readShort(final RandomAccessFile raf)
+            throws IOException {
+        final int value = raf.readUnsignedShort();
+        return littleEndian ? (((value & 0xff) << 8) | (value >> 8)) : value;
+    }
+
+    private long readInt(final RandomAccessFile raf)
+            throws IOException {
+        final int value = raf.readInt();
+        return (littleEndian ? Integer.reverseBytes(value) : value) & 0xffffffffL;
+    }
+
+    private static final int BYTE_TYPE = 1;
+    private static final int SHORT_TYPE = 3;
+    private static final int LONG_TYPE = 4;
+
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int BITS_PER_SAMPLE = 258;
+    private static final int COMPRESSION = 259;
+    private static final int PHOTOMETRIC_INTERPRETATION = 262;
+    private static final int STRIP_OFFSETS = 273;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int ROWS_PER_STRIP = 278;
+    private static final int STRIP_BYTE_COUNTS = 279;
+    private static final int PLANAR_CONFIGURATION = 284;
+    private static final int TILE_WIDTH = 322;
+    private static final int TILE_LENGTH = 323;
+    private static final int TILE_OFFSETS = 324;
+    private static final int TILE_BYTE_COUNTS = 325;
+    private static final int SAMPLE_FORMAT = 339;
+}
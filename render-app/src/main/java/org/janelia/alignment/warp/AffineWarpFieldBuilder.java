@@ -0,0 +1,292 @@
+package org.janelia.alignment.warp;
+
+import java.util.concurrent.Callable;
+
+import mpicbg.models.CoordinateTransform;
+import mpicbg.trakem2.transform.TranslationModel2D;
+
+import org.janelia.alignment.transform.AffineWarpField;
+import org.janelia.alignment.transform.AffineWarpFieldTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Approximates a (typically landmark based) warp transform with an {@link AffineWarpFieldTransform}.
+ *
+ * Thin plate spline and moving least squares transforms cost more to apply as the number of
+ * landmarks grows.  An affine warp field costs the same to apply regardless of how it was derived,
+ * so baking warps into fields keeps rendering and bounding box derivation fast for layers with
+ * thousands of control points.
+ *
+ * The field covers the specified world bounds with a uniform grid.  The affine for each grid cell is
+ * the local linearization of the warp at the cell center (derived from the warp's values at neighboring
+ * cell centers).  After building a field, the warp and the field are compared at the corners and edge midpoints
+ * of every cell (where interpolation error is largest).
+ * If the maximum sampled error exceeds the specified limit, cell sizes are halved and the field is rebuilt.
+ *
+ * Since warp fields are anchored at the origin, the built field works in coordinates relative
+ * to the bounds (see {@link #getWorldToFieldTransform} and {@link #getFieldToWorldTransform}).
+ *
+ * @author Eric Trautman
+ */
+public class AffineWarpFieldBuilder
+        implements Callable<AffineWarpFieldTransform> {
+
+    private final CoordinateTransform warpTransform;
+    private final double minX;
+    private final double minY;
+    private final double width;
+    private final double height;
+    private final double initialCellSize;
+    private final double minCellSize;
+    private final double maxError;
+
+    private double sampledError;
+
+    /**
+     * @param  warpTransform    transform to approximate.
+     * @param  minX             minimum world x coordinate to cover.
+     * @param  minY             minimum world y coordinate to cover.
+     * @param  width            world width to cover.
+     * @param  height           world height to cover.
+     * @param  initialCellSize  pixel size of grid cells for the first approximation.
+     * @param  minCellSize      smallest pixel size to use when refining grid cells.
+     * @param  maxError         maximum distance (in pixels) between any sampled warp location
+     *                          and its approximation.
+     *
+     * @throws IllegalArgumentException
+     *   if any of the sizes or the error limit are not positive.
+     */
+    public AffineWarpFieldBuilder(final CoordinateTransform warpTransform,
+                                  final double minX,
+                                  final double minY,
+                                  final double width,
+                                  final double height,
+                                  final double initialCellSize,
+                                  final double minCellSize,
+                                  final double maxError)
+            throws IllegalArgumentException {
+
+        if ((width <= 0) || (height <= 0)) {
+            throw new IllegalArgumentException("width and height must be positive");
+        }
+        if ((initialCellSize <= 0) || (minCellSize <= 0)) {
+            throw new IllegalArgumentException("cell sizes must be positive");
+        }
+        if (maxError <= 0) {
+            throw new IllegalArgumentException("max error must be positive");
+        }
+
+        this.warpTransform = warpTransform;
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+        this.initialCellSize = initialCellSize;
+        this.minCellSize = minCellSize;
+        this.maxError = maxError;
+        this.sampledError = Double.NaN;
+    }
+
+    /**
+     * @return maximum sampled error for the most recently built field (NaN if no field has been built).
+     */
+    public double getSampledError() {
+        return sampledError;
+    }
+
+    /**
+     * @return transform that maps world coordinates to field coordinates.
+     */
+    public TranslationModel2D getWorldToFieldTransform() {
+        final TranslationModel2D model = new TranslationModel2D();
+        model.set(-minX, -minY);
+        return model;
+    }
+
+    /**
+     * @return transform that maps field coordinates back to world coordinates.
+     */
+    public TranslationModel2D getFieldToWorldTransform() {
+        final TranslationModel2D model = new TranslationModel2D();
+        model.set(minX, minY);
+        return model;
+    }
+
+    /**
+     * @return a field transform (working in field coordinates) that approximates this builder's warp
+     *         within the maximum error.
+     *
+     * @throws IllegalStateException
+     *   if the maximum error cannot be met without reducing cells below the minimum cell size.
+     */
+    @Override
+    public AffineWarpFieldTransform call()
+            throws IllegalStateException {
+
+        LOG.info("call: entry");
+
+        double cellSize = initialCellSize;
+        AffineWarpField field;
+
+        while (true) {
+
+            final int rowCount = Math.max(1, (int) Math.ceil(height / cellSize));
+            final int columnCount = Math.max(1, (int) Math.ceil(width / cellSize));
+
+            field = buildField(rowCount, columnCount);
+            sampledError = deriveMaxError(new AffineWarpFieldTransform(field), rowCount, columnCount);
+
+            LOG.info("call: max sampled error for {}x{} field with {} pixel cells is {}",
+                     rowCount, columnCount, cellSize, sampledError);
+
+            if (sampledError <= maxError) {
+                break;
+            }
+
+            cellSize = cellSize / 2;
+
+            if (cellSize < minCellSize) {
+                throw new IllegalStateException(
+                        "max sampled error " + sampledError + " for " + rowCount + "x" + columnCount +
+                        " field exceeds limit " + maxError + " and cells cannot be smaller than " +
+                        minCellSize + " pixels");
+            }
+        }
+
+        LOG.info("call: exit");
+
+        return new AffineWarpFieldTransform(field);
+    }
+
+    private AffineWarpField buildField(final int rowCount,
+                                       final int columnCount) {
+
+        final AffineWarpField field = new AffineWarpField(width, height, rowCount, columnCount,
+                                                          AffineWarpField.getDefaultInterpolatorFactory());
+        final double xScale = field.getXScale();
+        final double yScale = field.getYScale();
+
+        // warp locations (in field coordinates) for each cell center
+        final double[][] centerX = new double[rowCount][columnCount];
+        final double[][] centerY = new double[rowCount][columnCount];
+        final double[] location = new double[2];
+        for (int row = 0; row < rowCount; row++) {
+            for (int column = 0; column < columnCount; column++) {
+                location[0] = (column + 0.5) * xScale;
+                location[1] = (row + 0.5) * yScale;
+                applyInFieldCoordinates(location);
+                centerX[row][column] = location[0];
+                centerY[row][column] = location[1];
+            }
+        }
+
+        final double[] affine = new double[6];
+        final double[] xDerivative = new double[2];
+        final double[] yDerivative = new double[2];
+        for (int row = 0; row < rowCount; row++) {
+            for (int column = 0; column < columnCount; column++) {
+
+                final double x = (column + 0.5) * xScale;
+                final double y = (row + 0.5) * yScale;
+
+                if (columnCount > 1) {
+                    final int left = Math.max(0, column - 1);
+                    final int right = Math.min(columnCount - 1, column + 1);
+                    final double dx = (right - left) * xScale;
+                    xDerivative[0] = (centerX[row][right] - centerX[row][left]) / dx;
+                    xDerivative[1] = (centerY[row][right] - centerY[row][left]) / dx;
+                } else {
+                    deriveDerivative(x, y, xScale / 2, 0, xDerivative);
+                }
+
+                if (rowCount > 1) {
+                    final int top = Math.max(0, row - 1);
+                    final int bottom = Math.min(rowCount - 1, row + 1);
+                    final double dy = (bottom - top) * yScale;
+                    yDerivative[0] = (centerX[bottom][column] - centerX[top][column]) / dy;
+                    yDerivative[1] = (centerY[bottom][column] - centerY[top][column]) / dy;
+                } else {
+                    deriveDerivative(x, y, 0, yScale / 2, yDerivative);
+                }
+
+                // 'java' order: m00, m10, m01, m11, m02, m12
+                affine[0] = xDerivative[0];
+                affine[1] = xDerivative[1];
+                affine[2] = yDerivative[0];
+                affine[3] = yDerivative[1];
+                affine[4] = centerX[row][column] - (affine[0] * x) - (affine[2] * y);
+                affine[5] = centerY[row][column] - (affine[1] * x) - (affine[3] * y);
+
+                field.set(row, column, affine);
+            }
+        }
+
+        return field;
+    }
+
+    /**
+     * Derives the central difference of the warp at the specified location in the specified direction.
+     */
+    private void deriveDerivative(final double x,
+                                  final double y,
+                                  final double xStep,
+                                  final double yStep,
+                                  final double[] derivative) {
+        final double[] before = { x - xStep, y - yStep };
+        final double[] after = { x + xStep, y + yStep };
+        applyInFieldCoordinates(before);
+        applyInFieldCoordinates(after);
+        final double distance = 2 * (xStep + yStep);
+        derivative[0] = (after[0] - before[0]) / distance;
+        derivative[1] = (after[1] - before[1]) / distance;
+    }
+
+    /**
+     * @return maximum distance between the warp and the specified field transform
+     *         at the corners and edge midpoints of every cell.
+     */
+    private double deriveMaxError(final AffineWarpFieldTransform fieldTransform,
+                                  final int rowCount,
+                                  final int columnCount) {
+
+        // Walk the field in half cell steps, one row of samples at a time.
+        // Cell centers reproduce the warp exactly, so rows through cell centers only need
+        // the vertical edge midpoints while rows along cell edges need every corner and edge midpoint.
+        final int xStepCount = 2 * columnCount;
+        final int yStepCount = 2 * rowCount;
+        final double xStep = width / xStepCount;
+        final double yStep = height / yStepCount;
+
+        final double[] exact = new double[2];
+        final double[] approximate = new double[2];
+        double maxSquaredError = 0;
+
+        for (int i = 0; i <= yStepCount; i++) {
+            final int jIncrement = (i % 2) == 1 ? 2 : 1;
+            for (int j = 0; j <= xStepCount; j += jIncrement) {
+                exact[0] = j * xStep;
+                exact[1] = i * yStep;
+                approximate[0] = exact[0];
+                approximate[1] = exact[1];
+                applyInFieldCoordinates(exact);
+                fieldTransform.applyInPlace(approximate);
+                final double dx = exact[0] - approximate[0];
+                final double dy = exact[1] - approximate[1];
+                maxSquaredError = Math.max(maxSquaredError, (dx * dx) + (dy * dy));
+            }
+        }
+
+        return Math.sqrt(maxSquaredError);
+    }
+
+    private void applyInFieldCoordinates(final double[] location) {
+        location[0] += minX;
+        location[1] += minY;
+        warpTransform.applyInPlace(location);
+        location[0] -= minX;
+        location[1] -= minY;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AffineWarpFieldBuilder.class);
+}
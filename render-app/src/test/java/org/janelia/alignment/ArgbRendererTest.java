@@ -18,6 +18,9 @@ package org.janelia.alignment;
 
 import com.google.common.cache.CacheStats;
 
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
@@ -26,6 +29,8 @@ import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
 import org.janelia.alignment.spec.ChannelSpec;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.util.ImageProcessorCache;
@@ -198,6 +203,40 @@ public class ArgbRendererTest {
                             expectedDigestString, actualDigestString);
     }
 
+    @Test
+    public void testStitchingWithByteTarget() throws Exception {
+
+        final String[] args = {
+                "--tile_spec_url", "src/test/resources/stitch-test/test_4_tiles_level_1.json",
+                "--out", outputFile.getAbsolutePath(),
+                "--width", "4576",
+                "--height", "4173",
+                "--scale", "0.05",
+                "--target_type", "BYTE"
+        };
+
+        final RenderParameters byteParameters = RenderParameters.parseCommandLineArgs(args);
+        Assert.assertEquals("invalid target type", RenderTargetType.BYTE, byteParameters.getTargetType());
+
+        final ImageProcessorWithMasks byteTarget =
+                new Renderer(byteParameters, ImageProcessorCache.DISABLED_CACHE).renderImageProcessorWithMasks();
+
+        Assert.assertTrue("byte target not rendered to byte processor",
+                          byteTarget.ip instanceof ByteProcessor);
+
+        final RenderParameters floatParameters = RenderParameters.parseCommandLineArgs(args);
+        floatParameters.setTargetType(RenderTargetType.FLOAT);
+
+        final ImageProcessorWithMasks floatTarget =
+                new Renderer(floatParameters, ImageProcessorCache.DISABLED_CACHE).renderImageProcessorWithMasks();
+
+        final double meanDifference =
+                getMeanAbsoluteDifference(floatTarget.ip.convertToByteProcessor(), byteTarget.ip);
+
+        Assert.assertTrue("byte target differs too much (" + meanDifference + ") from float target",
+                          meanDifference < 2.55);
+    }
+
     @Test
     public void testMaskMipmap() throws Exception {
 
@@ -411,6 +450,18 @@ public class ArgbRendererTest {
         return sb.toString();
     }
 
+    public static double getMeanAbsoluteDifference(final ImageProcessor expected,
+                                                   final ImageProcessor actual) {
+        Assert.assertEquals("invalid width", expected.getWidth(), actual.getWidth());
+        Assert.assertEquals("invalid height", expected.getHeight(), actual.getHeight());
+        final int pixelCount = expected.getPixelCount();
+        double differenceSum = 0;
+        for (int i = 0; i < pixelCount; i++) {
+            differenceSum += Math.abs(expected.getf(i) - actual.getf(i));
+        }
+        return differenceSum / pixelCount;
+    }
+
     public static void deleteTestFile(final File file) {
         if ((file != null) && file.exists()) {
             if (file.delete()) {
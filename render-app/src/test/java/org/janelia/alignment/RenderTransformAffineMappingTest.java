@@ -0,0 +1,213 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.geom.AffineTransform;
+import java.util.Random;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformList;
+import mpicbg.models.HomographyModel2D;
+import mpicbg.models.TranslationModel2D;
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.mapper.PixelMapper;
+import org.janelia.alignment.mapper.SingleChannelMapper;
+import org.janelia.alignment.mapper.SingleChannelWithAlphaMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RenderTransformAffineMapping} class by comparing its results with
+ * results from the {@link RenderTransformMeshMappingWithMasks mesh mapping} it replaces.
+ *
+ * @author Eric Trautman
+ */
+public class RenderTransformAffineMappingTest {
+
+    private static final int SOURCE_WIDTH = 301;
+    private static final int SOURCE_HEIGHT = 217;
+    private static final int TARGET_SIZE = 400;
+
+    private FloatProcessor sourceIp;
+    private ByteProcessor sourceMask;
+    private CoordinateTransformList<CoordinateTransform> transformList;
+
+    @Before
+    public void setup() throws Exception {
+
+        final Random random = new Random(11);
+
+        sourceIp = new FloatProcessor(SOURCE_WIDTH, SOURCE_HEIGHT);
+        sourceMask = new ByteProcessor(SOURCE_WIDTH, SOURCE_HEIGHT);
+        for (int y = 0; y < SOURCE_HEIGHT; y++) {
+            for (int x = 0; x < SOURCE_WIDTH; x++) {
+                // keep all source values positive so that mapped target pixels are never zero
+                sourceIp.setf(x, y, 1 + random.nextInt(255));
+                sourceMask.set(x, y, 1 + ((x + y) % 255));
+            }
+        }
+
+        final double angle = 0.3;
+        final double scale = 0.87;
+        final AffineModel2D rotateAndScale = new AffineModel2D();
+        rotateAndScale.set(scale * Math.cos(angle), scale * Math.sin(angle),
+                           -scale * Math.sin(angle), scale * Math.cos(angle),
+                           0, 0);
+
+        final TranslationModel2D translate = new TranslationModel2D();
+        translate.set(113.37, 21.19);
+
+        final CoordinateTransformList<CoordinateTransform> nestedList = new CoordinateTransformList<>();
+        nestedList.add(translate);
+
+        transformList = new CoordinateTransformList<>();
+        transformList.add(rotateAndScale);
+        transformList.add(nestedList);
+        transformList.add(Utils.createScaleLevelTransform(0));
+    }
+
+    @Test
+    public void testGetConcatenatedAffine() throws Exception {
+
+        final TranslationModel2D translate = new TranslationModel2D();
+        translate.set(10, 0);
+        final AffineModel2D scale = new AffineModel2D();
+        scale.set(2, 0, 0, 2, 0, 0);
+
+        final CoordinateTransformList<CoordinateTransform> list = new CoordinateTransformList<>();
+        list.add(translate);
+        list.add(scale);
+
+        final AffineTransform affine = RenderTransformAffineMapping.getConcatenatedAffine(list);
+        Assert.assertNotNull("affine should be derived for affine list", affine);
+
+        final double[] point = { 1, 1 };
+        affine.transform(point, 0, point, 0, 1);
+        Assert.assertEquals("invalid x, transforms should be applied in list order", 22.0, point[0], 0.0000001);
+        Assert.assertEquals("invalid y, transforms should be applied in list order", 2.0, point[1], 0.0000001);
+
+        list.add(new HomographyModel2D());
+        Assert.assertNull("affine should not be derived for list with non-affine transform",
+                          RenderTransformAffineMapping.getConcatenatedAffine(list));
+        Assert.assertNull("mapping should not be built for list with non-affine transform",
+                          RenderTransformAffineMapping.build(list, SOURCE_WIDTH, SOURCE_HEIGHT));
+    }
+
+    @Test
+    public void testInterpolatedMapping() throws Exception {
+        validateMappingMatchesMesh("interpolated", false, true);
+    }
+
+    @Test
+    public void testNonInterpolatedMapping() throws Exception {
+        validateMappingMatchesMesh("non-interpolated", false, false);
+    }
+
+    @Test
+    public void testInterpolatedAlphaMapping() throws Exception {
+        validateMappingMatchesMesh("interpolated alpha", true, true);
+    }
+
+    private void validateMappingMatchesMesh(final String context,
+                                            final boolean withAlpha,
+                                            final boolean interpolate) {
+
+        final ImageProcessorWithMasks meshTarget = buildTarget(withAlpha);
+
+        final RenderTransformMesh mesh = new RenderTransformMesh(transformList,
+                                                                 (int) (SOURCE_WIDTH / 64.0 + 0.5),
+                                                                 SOURCE_WIDTH,
+                                                                 SOURCE_HEIGHT);
+        mesh.updateAffines();
+        new RenderTransformMeshMappingWithMasks(mesh).map(buildMapper(meshTarget, withAlpha, interpolate), 1);
+
+        final RenderTransformAffineMapping affineMapping =
+                RenderTransformAffineMapping.build(transformList, SOURCE_WIDTH, SOURCE_HEIGHT);
+        Assert.assertNotNull(context + ": mapping should be built for affine list", affineMapping);
+
+        for (final int numberOfThreads : new int[] { 1, 4 }) {
+
+            final ImageProcessorWithMasks affineTarget = buildTarget(withAlpha);
+            affineMapping.map(buildMapper(affineTarget, withAlpha, interpolate), numberOfThreads);
+
+            final String threadContext = context + " with " + numberOfThreads + " thread(s)";
+            validateEquivalence(threadContext, meshTarget.ip, affineTarget.ip);
+            if (withAlpha) {
+                validateEquivalence(threadContext + " mask", meshTarget.mask, affineTarget.mask);
+            }
+        }
+    }
+
+    private ImageProcessorWithMasks buildTarget(final boolean withMask) {
+        final ByteProcessor mask = withMask ? new ByteProcessor(TARGET_SIZE, TARGET_SIZE) : null;
+        return new ImageProcessorWithMasks(new FloatProcessor(TARGET_SIZE, TARGET_SIZE), mask, null);
+    }
+
+    private PixelMapper buildMapper(final ImageProcessorWithMasks target,
+                                    final boolean withAlpha,
+                                    final boolean interpolate) {
+        final PixelMapper mapper;
+        if (withAlpha) {
+            final ImageProcessorWithMasks source =
+                    new ImageProcessorWithMasks(sourceIp.duplicate(), sourceMask.duplicate(), null);
+            mapper = new SingleChannelWithAlphaMapper(source, target, interpolate);
+        } else {
+            final ImageProcessorWithMasks source = new ImageProcessorWithMasks(sourceIp.duplicate(), null, null);
+            mapper = new SingleChannelMapper(source, target, interpolate);
+        }
+        return mapper;
+    }
+
+    /**
+     * Every pixel mapped by both methods must have the same value.
+     * Only pixels that lie (within rounding error) on the edge of the transformed source
+     * may be mapped by one method and not the other.
+     */
+    private static void validateEquivalence(final String context,
+                                            final ImageProcessor meshResult,
+                                            final ImageProcessor affineResult) {
+
+        int mappedCount = 0;
+        int edgeMismatchCount = 0;
+        for (int y = 0; y < TARGET_SIZE; y++) {
+            for (int x = 0; x < TARGET_SIZE; x++) {
+                final float meshValue = meshResult.getf(x, y);
+                final float affineValue = affineResult.getf(x, y);
+                if ((meshValue != 0) && (affineValue != 0)) {
+                    Assert.assertEquals(context + ": invalid value for pixel (" + x + ", " + y + ")",
+                                        meshValue, affineValue, 0.001);
+                    mappedCount++;
+                } else if (meshValue != affineValue) {
+                    edgeMismatchCount++;
+                }
+            }
+        }
+
+        Assert.assertTrue(context + ": too few pixels mapped (" + mappedCount + ")",
+                          mappedCount > (SOURCE_WIDTH * SOURCE_HEIGHT / 2));
+        Assert.assertTrue(context + ": " + edgeMismatchCount + " pixels were only mapped by one method",
+                          edgeMismatchCount <= (mappedCount / 1000));
+    }
+
+}
@@ -16,10 +16,15 @@
  */
 package org.janelia.alignment;
 
+import ij.process.ShortProcessor;
+
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.util.ImageProcessorCache;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -72,4 +77,35 @@ public class ShortRendererTest {
         Assert.assertEquals("stitched file MD5 hash differs from expected result",
                             expectedDigestString, actualDigestString);
     }
+
+    @Test
+    public void testStitchingWithShortTarget() throws Exception {
+
+        final String[] args = {
+                "--tile_spec_url", "src/test/resources/stitch-test/test_4_tiles.json",
+                "--out", outputFile.getAbsolutePath(),
+                "--width", "4576",
+                "--height", "4173",
+                "--scale", "0.05"
+        };
+
+        final ImageProcessorWithMasks floatTarget =
+                new Renderer(RenderParameters.parseCommandLineArgs(args),
+                             ImageProcessorCache.DISABLED_CACHE).renderImageProcessorWithMasks();
+
+        final RenderParameters shortParameters = RenderParameters.parseCommandLineArgs(args);
+        shortParameters.setTargetType(RenderTargetType.SHORT);
+
+        final ImageProcessorWithMasks shortTarget =
+                new Renderer(shortParameters, ImageProcessorCache.DISABLED_CACHE).renderImageProcessorWithMasks();
+
+        Assert.assertTrue("short target not rendered to short processor",
+                          shortTarget.ip instanceof ShortProcessor);
+
+        final double meanDifference =
+                ArgbRendererTest.getMeanAbsoluteDifference(floatTarget.ip.convertToShortProcessor(), shortTarget.ip);
+
+        Assert.assertTrue("short target differs too much (" + meanDifference + ") from float target",
+                          meanDifference < 655.35);
+    }
 }
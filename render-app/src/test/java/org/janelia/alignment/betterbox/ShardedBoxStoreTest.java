@@ -0,0 +1,229 @@
+package org.janelia.alignment.betterbox;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.janelia.alignment.Utils;
+import org.janelia.alignment.util.FileUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ShardedBoxStore} class.
+ *
+ * @author Eric Trautman
+ */
+public class ShardedBoxStoreTest {
+
+    private File baseBoxDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        baseBoxDirectory = Files.createTempDirectory("test-sharded-box-store").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.deleteRecursive(baseBoxDirectory);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+
+        final ShardedBoxStore store = new ShardedBoxStore(baseBoxDirectory.getAbsolutePath(), Utils.PNG_FORMAT, 4);
+
+        final BoxData box = new BoxData(7.0, 1, 5, 6);
+        final BoxData sameShardBox = new BoxData(7.0, 1, 4, 7);
+        final BoxData otherShardBox = new BoxData(7.0, 1, 8, 6);
+
+        Assert.assertFalse("box should not exist before it is written", store.hasBox(box));
+        Assert.assertNull("missing box should not be mapped", store.mapBox(1, 7, 5, 6));
+
+        store.writeImage(box, buildImage(0xff202020), false);
+        store.writeImage(sameShardBox, buildImage(0xff505050), false);
+        store.writeImage(otherShardBox, buildImage(0xff808080), false);
+
+        Assert.assertEquals("boxes in same super-block should share a shard",
+                            store.getShardFile(1, 7, 5, 6), store.getShardFile(1, 7, 4, 7));
+        Assert.assertNotEquals("boxes in different super-blocks should not share a shard",
+                               store.getShardFile(1, 7, 5, 6), store.getShardFile(1, 7, 8, 6));
+
+        final File indexFile = store.getIndexFile(1, 7, 5, 6);
+        Assert.assertFalse("index should not be published before store is flushed", indexFile.exists());
+
+        // pending boxes should be readable by the writer
+        validateBox(store, box, 0xff202020);
+
+        store.flush();
+
+        Assert.assertTrue("index should be published", indexFile.exists());
+        Assert.assertFalse("temporary index should be renamed",
+                           new File(indexFile.getAbsolutePath() + ".tmp").exists());
+
+        final ShardedBoxStore readerStore = new ShardedBoxStore(baseBoxDirectory.getAbsolutePath(),
+                                                                Utils.PNG_FORMAT,
+                                                                4);
+        validateBox(readerStore, box, 0xff202020);
+        validateBox(readerStore, sameShardBox, 0xff505050);
+        validateBox(readerStore, otherShardBox, 0xff808080);
+
+        validateBox(store, box, 0xff202020);
+        validateBox(store, sameShardBox, 0xff505050);
+        validateBox(store, otherShardBox, 0xff808080);
+
+        Assert.assertFalse("unwritten box in existing shard should not exist",
+                           store.hasBox(new BoxData(7.0, 1, 5, 5)));
+
+        // rewrite box and make sure new data replaces old data
+        store.writeImage(box, buildImage(0xffb0b0b0), false);
+        validateBox(store, box, 0xffb0b0b0);
+        validateBox(store, sameShardBox, 0xff505050);
+        validateBox(readerStore, box, 0xff202020);
+
+        store.flush();
+        validateBox(readerStore, box, 0xffb0b0b0);
+
+        final ByteBuffer mappedBox = store.mapBox(1, 7, 5, 6);
+        Assert.assertNotNull("written box should be mapped", mappedBox);
+        Assert.assertTrue("mapped box should have data", mappedBox.remaining() > 0);
+    }
+
+    @Test
+    public void testCompleteSuperBlockIsPublishedWithoutFlush() throws Exception {
+
+        final ShardedBoxStore store = new ShardedBoxStore(baseBoxDirectory.getAbsolutePath(), Utils.PNG_FORMAT, 2);
+        final File indexFile = store.getIndexFile(0, 3, 0, 0);
+
+        store.writeImage(new BoxData(3.0, 0, 0, 0), buildImage(0xff101010), false);
+        store.writeImage(new BoxData(3.0, 0, 0, 1), buildImage(0xff303030), false);
+        store.writeImage(new BoxData(3.0, 0, 1, 0), buildImage(0xff505050), false);
+        Assert.assertFalse("index should not be published before super-block is complete", indexFile.exists());
+
+        store.writeImage(new BoxData(3.0, 0, 1, 1), buildImage(0xff707070), false);
+        Assert.assertTrue("index should be published once super-block is complete", indexFile.exists());
+
+        final ShardedBoxStore readerStore = new ShardedBoxStore(baseBoxDirectory.getAbsolutePath(),
+                                                                Utils.PNG_FORMAT,
+                                                                2);
+        validateBox(readerStore, new BoxData(3.0, 0, 1, 1), 0xff707070);
+    }
+
+    @Test
+    public void testCompactShards() throws Exception {
+
+        final ShardedBoxStore store = new ShardedBoxStore(baseBoxDirectory.getAbsolutePath(), Utils.PNG_FORMAT, 4);
+
+        final BoxData box = new BoxData(2.0, 0, 1, 1);
+        final BoxData otherBox = new BoxData(2.0, 0, 2, 3);
+
+        store.writeImage(box, buildImage(0xff202020), false);
+        store.writeImage(otherBox, buildImage(0xff404040), false);
+        store.flush();
+
+        // regenerate box a few times to leave unreferenced data in the shard
+        for (int i = 0; i < 3; i++) {
+            store.writeImage(box, buildImage(0xff606060 + (i * 0x101010)), false);
+            store.flush();
+        }
+
+        final File shardFile = store.getShardFile(0, 2, 1, 1);
+        final long uncompactedLength = shardFile.length();
+
+        final long removedByteCount = store.compactShards(0, 2);
+        Assert.assertTrue("unreferenced data should be removed", removedByteCount > 0);
+        Assert.assertFalse("prior data file should be removed", shardFile.exists());
+
+        final File compactedShardFile = new File(shardFile.getParentFile(), "0_0.1.shard");
+        Assert.assertTrue("compacted data file should exist", compactedShardFile.exists());
+        Assert.assertEquals("invalid compacted length",
+                            uncompactedLength - removedByteCount, compactedShardFile.length());
+
+        final ShardedBoxStore readerStore = new ShardedBoxStore(baseBoxDirectory.getAbsolutePath(),
+                                                                Utils.PNG_FORMAT,
+                                                                4);
+        validateBox(readerStore, box, 0xff808080);
+        validateBox(readerStore, otherBox, 0xff404040);
+
+        Assert.assertEquals("compacted shard should not be compacted again", 0, store.compactShards(0, 2));
+
+        // boxes written after compaction should be appended to the compacted data file
+        store.writeImage(otherBox, buildImage(0xffa0a0a0), false);
+        store.flush();
+        validateBox(readerStore, otherBox, 0xffa0a0a0);
+        Assert.assertFalse("initial data file should not be recreated", shardFile.exists());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+
+        final String baseBoxPath = baseBoxDirectory.getAbsolutePath();
+
+        Assert.assertNull("store should not be loaded before attributes are saved",
+                          ShardedBoxStore.load(baseBoxPath));
+
+        final ShardedBoxStore store = new ShardedBoxStore(baseBoxPath, Utils.JPEG_FORMAT, 16);
+        store.saveAttributes();
+
+        final ShardedBoxStore loadedStore = ShardedBoxStore.load(baseBoxPath);
+        Assert.assertNotNull("store should be loaded after attributes are saved", loadedStore);
+        Assert.assertEquals("invalid format loaded", Utils.JPEG_FORMAT, loadedStore.getFormat());
+        Assert.assertEquals("invalid shard size loaded", 16, loadedStore.getShardSize());
+        Assert.assertTrue("loaded store should be current", loadedStore.isCurrent());
+
+        // simulate a subsequent run that regenerates the boxes with different attributes
+        new ShardedBoxStore(baseBoxPath, Utils.PNG_FORMAT, 8).saveAttributes();
+        final File attributesFile = new File(baseBoxPath, ShardedBoxStore.ATTRIBUTES_FILE_NAME);
+        Assert.assertTrue("failed to change attributes modification time",
+                          attributesFile.setLastModified(attributesFile.lastModified() + 2000));
+
+        Assert.assertFalse("store should not be current after attributes are replaced", loadedStore.isCurrent());
+        Assert.assertEquals("invalid shard size reloaded", 8, ShardedBoxStore.load(baseBoxPath).getShardSize());
+    }
+
+    @Test(expected = IOException.class)
+    public void testShardSizeMismatch() throws Exception {
+
+        final String baseBoxPath = baseBoxDirectory.getAbsolutePath();
+        final BoxData box = new BoxData(1.0, 0, 0, 0);
+
+        final ShardedBoxStore store = new ShardedBoxStore(baseBoxPath, Utils.PNG_FORMAT, 4);
+        store.writeImage(box, buildImage(0xff000000), false);
+        store.flush();
+        new ShardedBoxStore(baseBoxPath, Utils.PNG_FORMAT, 8).hasBox(box);
+    }
+
+    private static BufferedImage buildImage(final int argb) {
+        final BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+
+    private static void validateBox(final ShardedBoxStore store,
+                                    final BoxData boxData,
+                                    final int expectedArgb) throws IOException {
+
+        Assert.assertTrue("box " + boxData + " should exist", store.hasBox(boxData));
+
+        final BufferedImage image = store.readImage(boxData);
+        Assert.assertNotNull("box " + boxData + " should be read", image);
+        Assert.assertEquals("invalid width for box " + boxData, 10, image.getWidth());
+
+        // non-label boxes are stored as gray, so only compare gray values
+        final int expectedGray = getGray(expectedArgb);
+        Assert.assertEquals("invalid pixel for box " + boxData, expectedGray, getGray(image.getRGB(5, 5)), 2);
+    }
+
+    private static int getGray(final int argb) {
+        return (((argb >> 16) & 0xff) + ((argb >> 8) & 0xff) + (argb & 0xff)) / 3;
+    }
+
+}
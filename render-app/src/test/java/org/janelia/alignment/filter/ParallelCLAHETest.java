@@ -0,0 +1,189 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.filter;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Random;
+
+import mpicbg.ij.clahe.Flat;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ParallelCLAHE} class.
+ *
+ * @author Eric Trautman
+ */
+public class ParallelCLAHETest {
+
+    private ByteProcessor sourceIp;
+
+    @Before
+    public void setup() throws Exception {
+        sourceIp = buildTestImage(157, 131);
+    }
+
+    @Test
+    public void testExactMatchesSingleThreadedFilter() throws Exception {
+
+        final ImageProcessor expectedIp = sourceIp.duplicate();
+        new CLAHE(false, 12, 256, 2.5f).process(expectedIp, 1.0);
+
+        for (final int numberOfThreads : new int[] { 1, 4 }) {
+            final ParallelCLAHE filter = new ParallelCLAHE(false, 12, 256, 2.5f);
+            filter.setNumberOfThreads(numberOfThreads);
+            final ImageProcessor ip = filter.process(sourceIp.duplicate(), 1.0);
+            validateMaxDifference("exact with " + numberOfThreads + " thread(s)", expectedIp, ip, 1);
+        }
+    }
+
+    @Test
+    public void testFastResultsAreIndependentOfThreadCount() throws Exception {
+
+        final ParallelCLAHE singleThreadFilter = new ParallelCLAHE(true, 12, 256, 2.5f);
+        singleThreadFilter.setNumberOfThreads(1);
+        final ImageProcessor expectedIp = singleThreadFilter.process(sourceIp.duplicate(), 1.0);
+
+        final ParallelCLAHE filter = new ParallelCLAHE(true, 12, 256, 2.5f);
+        filter.setNumberOfThreads(4);
+        final ImageProcessor ip = filter.process(sourceIp.duplicate(), 1.0);
+
+        validateMaxDifference("fast", expectedIp, ip, 0);
+    }
+
+    @Test
+    public void testFastMatchesOriginalFastFilter() throws Exception {
+
+        final ByteProcessor largerSourceIp = buildTestImage(389, 311);
+
+        for (final int blockRadius : new int[] { 12, 40 }) {
+
+            final ImageProcessor expectedIp = largerSourceIp.duplicate();
+            Flat.getFastInstance().run(new ImagePlus("", expectedIp), blockRadius, 256, 2.5f, null, false);
+
+            final ImageProcessor ip =
+                    new ParallelCLAHE(true, blockRadius, 256, 2.5f).process(largerSourceIp.duplicate(), 1.0);
+
+            // grid placement differs from the ImageJ implementation,
+            // so only require results to match within a few intensity levels
+            validateDifferences("fast with block radius " + blockRadius, expectedIp, ip,
+                                FAST_MAX_MEAN_DIFFERENCE, FAST_MAX_DIFFERENCE, FAST_MIN_FRACTION_WITHIN_MAX);
+        }
+    }
+
+    @Test
+    public void testFastEnhancesContrast() throws Exception {
+
+        // uniform low contrast image with a dim square
+        final ByteProcessor lowContrastIp = new ByteProcessor(120, 120);
+        lowContrastIp.setValue(100);
+        lowContrastIp.fill();
+        lowContrastIp.setValue(110);
+        lowContrastIp.setRoi(40, 40, 40, 40);
+        lowContrastIp.fill();
+        lowContrastIp.resetRoi();
+
+        final ImageProcessor ip = new ParallelCLAHE(true, 30, 256, 20.0f).process(lowContrastIp.duplicate(), 1.0);
+
+        final int originalDifference = lowContrastIp.get(45, 45) - lowContrastIp.get(35, 35);
+        final int difference = ip.get(45, 45) - ip.get(35, 35);
+        Assert.assertTrue("contrast should be enhanced (difference " + difference +
+                          " should exceed original difference " + originalDifference + ")",
+                          difference > originalDifference);
+    }
+
+    @Test
+    public void testGetBlockCenters() throws Exception {
+
+        Assert.assertArrayEquals("invalid centers for small image",
+                                 new int[] { 10 }, ParallelCLAHE.getBlockCenters(20, 12));
+
+        final int[] centers = ParallelCLAHE.getBlockCenters(100, 10);
+        Assert.assertEquals("invalid first center", 10, centers[0]);
+        Assert.assertEquals("invalid last center", 89, centers[centers.length - 1]);
+        for (int i = 1; i < centers.length; i++) {
+            Assert.assertTrue("centers " + (i - 1) + " and " + i + " are more than one block apart",
+                              centers[i] - centers[i - 1] <= 21);
+        }
+    }
+
+    private static void validateMaxDifference(final String context,
+                                              final ImageProcessor expectedIp,
+                                              final ImageProcessor actualIp,
+                                              final int maxDifference) {
+        for (int i = 0; i < expectedIp.getPixelCount(); i++) {
+            final int difference = Math.abs(expectedIp.get(i) - actualIp.get(i));
+            Assert.assertTrue(context + ": pixel " + i + " differs by " + difference,
+                              difference <= maxDifference);
+        }
+    }
+
+    /**
+     * Validates that the mean absolute difference between the expected and actual results does not exceed
+     * maxMeanDifference and that at least minFractionWithinMax of the pixels differ by no more than maxDifference.
+     */
+    static void validateDifferences(final String context,
+                                    final ImageProcessor expectedIp,
+                                    final ImageProcessor actualIp,
+                                    final double maxMeanDifference,
+                                    final int maxDifference,
+                                    final double minFractionWithinMax) {
+        final int pixelCount = expectedIp.getPixelCount();
+        long differenceSum = 0;
+        int withinMaxCount = 0;
+        for (int i = 0; i < pixelCount; i++) {
+            final int difference = Math.abs(expectedIp.get(i) - actualIp.get(i));
+            differenceSum += difference;
+            if (difference <= maxDifference) {
+                withinMaxCount++;
+            }
+        }
+
+        final double meanDifference = (double) differenceSum / pixelCount;
+        Assert.assertTrue(context + ": mean difference " + meanDifference + " exceeds " + maxMeanDifference,
+                          meanDifference <= maxMeanDifference);
+
+        final double fractionWithinMax = (double) withinMaxCount / pixelCount;
+        Assert.assertTrue(context + ": only " + fractionWithinMax + " of pixels are within " + maxDifference +
+                          " intensity levels of the original result",
+                          fractionWithinMax >= minFractionWithinMax);
+    }
+
+    static ByteProcessor buildTestImage(final int width,
+                                        final int height) {
+        final Random random = new Random(19);
+        final ByteProcessor ip = new ByteProcessor(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // smooth gradient with noise, so that blocks have different histograms
+                ip.set(x, y, Math.min(255, (x + y) / 2 + random.nextInt(40)));
+            }
+        }
+        return ip;
+    }
+
+    // documented tolerances for fast results (see ParallelCLAHE)
+    private static final double FAST_MAX_MEAN_DIFFERENCE = 2.0;
+    private static final int FAST_MAX_DIFFERENCE = 5;
+    private static final double FAST_MIN_FRACTION_WITHIN_MAX = 0.95;
+
+}
@@ -0,0 +1,169 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.filter;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ParallelNormalizeLocalContrast} class.
+ *
+ * @author Eric Trautman
+ */
+public class ParallelNormalizeLocalContrastTest {
+
+    @Test
+    public void testByteResultsMatchBruteForce() throws Exception {
+        final ImageProcessor sourceIp = ParallelCLAHETest.buildTestImage(157, 131);
+        validateResultsMatchBruteForce("byte", sourceIp, 11, 7, 1);
+    }
+
+    @Test
+    public void testFloatResultsMatchBruteForce() throws Exception {
+        final ImageProcessor sourceIp = ParallelCLAHETest.buildTestImage(101, 93).convertToFloat();
+        sourceIp.setMinAndMax(0, 255);
+        validateResultsMatchBruteForce("float", sourceIp, 9, 13, 0.001);
+    }
+
+    @Test
+    public void testByteResultsMatchOriginalFilter() throws Exception {
+
+        final ImageProcessor sourceIp = ParallelCLAHETest.buildTestImage(389, 311);
+
+        for (final int blockRadius : new int[] { 7, 31 }) {
+            for (final boolean center : new boolean[] { true, false }) {
+                for (final boolean stretch : new boolean[] { true, false }) {
+
+                    final ImageProcessor expectedIp = sourceIp.duplicate();
+                    mpicbg.ij.plugin.NormalizeLocalContrast.run(expectedIp, blockRadius, blockRadius, 3,
+                                                                center, stretch);
+
+                    final ImageProcessor ip =
+                            new ParallelNormalizeLocalContrast(blockRadius, blockRadius, 3, center, stretch)
+                                    .process(sourceIp.duplicate(), 1.0);
+
+                    ParallelCLAHETest.validateDifferences("block radius " + blockRadius + " (center " + center +
+                                                          ", stretch " + stretch + ")",
+                                                          expectedIp, ip,
+                                                          MAX_MEAN_DIFFERENCE,
+                                                          MAX_DIFFERENCE,
+                                                          MIN_FRACTION_WITHIN_MAX);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResultsAreIndependentOfThreadCount() throws Exception {
+
+        final ImageProcessor sourceIp = ParallelCLAHETest.buildTestImage(157, 517);
+
+        final ParallelNormalizeLocalContrast singleThreadFilter =
+                new ParallelNormalizeLocalContrast(11, 7, 3, true, true);
+        singleThreadFilter.setNumberOfThreads(1);
+        final ImageProcessor expectedIp = singleThreadFilter.process(sourceIp.duplicate(), 1.0);
+
+        final ParallelNormalizeLocalContrast filter = new ParallelNormalizeLocalContrast(11, 7, 3, true, true);
+        filter.setNumberOfThreads(4);
+        final ImageProcessor ip = filter.process(sourceIp.duplicate(), 1.0);
+
+        for (int i = 0; i < expectedIp.getPixelCount(); i++) {
+            Assert.assertEquals("pixel " + i + " differs", expectedIp.get(i), ip.get(i));
+        }
+    }
+
+    @Test
+    public void testNormalize() throws Exception {
+
+        final ParallelNormalizeLocalContrast centerAndStretch =
+                new ParallelNormalizeLocalContrast(1, 1, 2, true, true);
+        Assert.assertEquals("mean should map to middle of range",
+                            127.5, centerAndStretch.normalize(60, 60, 5, 0, 255), 0.0001);
+        Assert.assertEquals("mean + stds * std should map to max",
+                            255, centerAndStretch.normalize(70, 60, 5, 0, 255), 0.0001);
+        Assert.assertEquals("mean - stds * std should map to min",
+                            0, centerAndStretch.normalize(50, 60, 5, 0, 255), 0.0001);
+
+        final ParallelNormalizeLocalContrast stretchOnly = new ParallelNormalizeLocalContrast(1, 1, 2, false, true);
+        Assert.assertEquals("mean should keep its value",
+                            60, stretchOnly.normalize(60, 60, 5, 0, 255), 0.0001);
+
+        final ParallelNormalizeLocalContrast centerOnly =
+                new ParallelNormalizeLocalContrast(1, 1, 2, true, false);
+        Assert.assertEquals("pixel should be shifted by difference between mean and middle of range",
+                            137.5, centerOnly.normalize(70, 60, 5, 0, 255), 0.0001);
+    }
+
+    private void validateResultsMatchBruteForce(final String context,
+                                                final ImageProcessor sourceIp,
+                                                final int blockRadiusX,
+                                                final int blockRadiusY,
+                                                final double delta) {
+
+        for (final boolean center : new boolean[] { true, false }) {
+            for (final boolean stretch : new boolean[] { true, false }) {
+
+                final ParallelNormalizeLocalContrast filter =
+                        new ParallelNormalizeLocalContrast(blockRadiusX, blockRadiusY, 3, center, stretch);
+                filter.setNumberOfThreads(4);
+                final ImageProcessor ip = filter.process(sourceIp.duplicate(), 1.0);
+
+                final String testContext = context + " (center " + center + ", stretch " + stretch + ")";
+                final boolean isInteger = ! (sourceIp instanceof FloatProcessor);
+
+                for (int y = 0; y < sourceIp.getHeight(); y += 3) {
+                    for (int x = 0; x < sourceIp.getWidth(); x += 5) {
+
+                        double sum = 0;
+                        double squareSum = 0;
+                        int n = 0;
+                        for (int by = Math.max(0, y - blockRadiusY);
+                             by <= Math.min(sourceIp.getHeight() - 1, y + blockRadiusY); by++) {
+                            for (int bx = Math.max(0, x - blockRadiusX);
+                                 bx <= Math.min(sourceIp.getWidth() - 1, x + blockRadiusX); bx++) {
+                                final double value = sourceIp.getf(bx, by);
+                                sum += value;
+                                squareSum += value * value;
+                                n++;
+                            }
+                        }
+                        final double mean = sum / n;
+                        final double std = Math.sqrt(Math.max(0, (squareSum / n) - (mean * mean)));
+
+                        double expected = filter.normalize(sourceIp.getf(x, y), mean, std,
+                                                           sourceIp.getMin(), sourceIp.getMax());
+                        if (isInteger) {
+                            expected = Math.round(Math.max(sourceIp.getMin(), Math.min(sourceIp.getMax(), expected)));
+                        }
+
+                        Assert.assertEquals(testContext + ": invalid value for pixel (" + x + ", " + y + ")",
+                                            expected, ip.getf(x, y), delta);
+                    }
+                }
+            }
+        }
+    }
+
+    // documented tolerances for integer results (see ParallelNormalizeLocalContrast)
+    private static final double MAX_MEAN_DIFFERENCE = 1.0;
+    private static final int MAX_DIFFERENCE = 2;
+    private static final double MIN_FRACTION_WITHIN_MAX = 0.99;
+
+}
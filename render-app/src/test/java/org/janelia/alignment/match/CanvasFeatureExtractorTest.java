@@ -0,0 +1,108 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.match;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.imagefeatures.FloatArray2DSIFT;
+
+import org.janelia.alignment.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the {@link CanvasFeatureExtractor} class.
+ *
+ * @author Eric Trautman
+ */
+public class CanvasFeatureExtractorTest {
+
+    @Test
+    public void testParallelExtraction() throws Exception {
+
+        final BufferedImage image = Utils.openImage("src/test/resources/match-test/col0066_row0102_cam3.png");
+
+        final FloatArray2DSIFT.Param coreSiftParameters = new FloatArray2DSIFT.Param();
+        coreSiftParameters.fdSize = 8;
+        coreSiftParameters.steps = 3;
+
+        final double minScale = 0.05;
+        final double maxScale = 0.25;
+
+        final CanvasFeatureExtractor singleThreadExtractor =
+                new CanvasFeatureExtractor(coreSiftParameters, minScale, maxScale, false, 1);
+        final CanvasFeatureExtractor parallelExtractor =
+                new CanvasFeatureExtractor(coreSiftParameters, minScale, maxScale, false, 4);
+
+        final List<Feature> singleThreadFeatures = singleThreadExtractor.extractFeaturesFromImage(image);
+        final List<Feature> parallelFeatures = parallelExtractor.extractFeaturesFromImage(image);
+
+        Assert.assertTrue("no features extracted by single thread", singleThreadFeatures.size() > 0);
+
+        final double countRatio = parallelFeatures.size() / (double) singleThreadFeatures.size();
+        Assert.assertEquals("parallel feature count " + parallelFeatures.size() +
+                            " differs too much from single thread count " + singleThreadFeatures.size(),
+                            1.0, countRatio, MAX_COUNT_RATIO_DIFFERENCE);
+
+        int matchedCount = 0;
+        for (final Feature feature : singleThreadFeatures) {
+            if (hasNearbyFeature(feature, parallelFeatures)) {
+                matchedCount++;
+            }
+        }
+
+        final double matchedRatio = matchedCount / (double) singleThreadFeatures.size();
+
+        LOG.info("testParallelExtraction: {} of {} single thread features ({}) found in {} parallel features",
+                 matchedCount, singleThreadFeatures.size(), matchedRatio, parallelFeatures.size());
+
+        Assert.assertTrue("only " + matchedCount + " of " + singleThreadFeatures.size() +
+                          " single thread features were found in parallel feature set",
+                          matchedRatio >= MIN_MATCHED_RATIO);
+    }
+
+    private static boolean hasNearbyFeature(final Feature feature,
+                                            final List<Feature> featureList) {
+        for (final Feature candidate : featureList) {
+            final double dx = candidate.location[0] - feature.location[0];
+            final double dy = candidate.location[1] - feature.location[1];
+            if ((Math.sqrt(dx * dx + dy * dy) <= MAX_LOCATION_DISTANCE) &&
+                (Math.abs(candidate.scale - feature.scale) <= MAX_RELATIVE_SCALE_DIFFERENCE * feature.scale)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Maximum distance (in full scale pixels) between locations of equivalent features. */
+    private static final double MAX_LOCATION_DISTANCE = 8.0;
+
+    /** Maximum relative difference between scales of equivalent features. */
+    private static final double MAX_RELATIVE_SCALE_DIFFERENCE = 0.1;
+
+    /** Allowed relative difference between the number of single thread and parallel features. */
+    private static final double MAX_COUNT_RATIO_DIFFERENCE = 0.2;
+
+    /** Minimum ratio of single thread features that must have an equivalent parallel feature. */
+    private static final double MIN_MATCHED_RATIO = 0.8;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CanvasFeatureExtractorTest.class);
+}
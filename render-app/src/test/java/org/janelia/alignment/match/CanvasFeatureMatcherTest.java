@@ -18,9 +18,11 @@ package org.janelia.alignment.match;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import mpicbg.models.AffineModel2D;
 import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Point;
 import mpicbg.models.PointMatch;
 
 import org.junit.Assert;
@@ -43,6 +45,62 @@ public class CanvasFeatureMatcherTest {
 //        testRANSACFilterWithMinValue(candidates, 8, 0);
     }
 
+    @Test
+    public void testParallelRANSACFilter() throws Exception {
+
+        final Random random = new Random(123);
+        final List<PointMatch> candidates = new ArrayList<>();
+        final int inlierCount = 120;
+        final int outlierCount = 80;
+
+        // inliers: rotate by ~5 degrees, scale by 1.02, translate by (30, -12) with some noise
+        final double cos = Math.cos(0.087) * 1.02;
+        final double sin = Math.sin(0.087) * 1.02;
+        for (int i = 0; i < inlierCount; i++) {
+            final double x = random.nextDouble() * 1000;
+            final double y = random.nextDouble() * 1000;
+            final double qx = cos * x - sin * y + 30 + random.nextGaussian();
+            final double qy = sin * x + cos * y - 12 + random.nextGaussian();
+            candidates.add(new PointMatch(new Point(new double[] {x, y}), new Point(new double[] {qx, qy})));
+        }
+        for (int i = 0; i < outlierCount; i++) {
+            candidates.add(new PointMatch(new Point(new double[] {random.nextDouble() * 1000,
+                                                                  random.nextDouble() * 1000}),
+                                          new Point(new double[] {random.nextDouble() * 1000,
+                                                                  random.nextDouble() * 1000})));
+        }
+
+        final List<PointMatch> serialInliers = new ArrayList<>();
+        final AffineModel2D serialModel = new AffineModel2D();
+        serialModel.filterRansac(candidates, serialInliers, 1000, 20.0, 0.0, 10, 3.0);
+
+        final List<PointMatch> parallelInliers = new ArrayList<>();
+        final AffineModel2D parallelModel = new AffineModel2D();
+        final boolean modelFound = new ParallelRansac(4).filterRansac(parallelModel,
+                                                                      candidates,
+                                                                      parallelInliers,
+                                                                      1000,
+                                                                      20.0,
+                                                                      0.0,
+                                                                      10,
+                                                                      3.0);
+
+        Assert.assertTrue("parallel filter should find model", modelFound);
+        Assert.assertEquals("parallel and serial filters should find same number of inliers",
+                            serialInliers.size(), parallelInliers.size(), 2);
+
+        final double[] serialData = new double[6];
+        serialModel.toArray(serialData);
+        final double[] parallelData = new double[6];
+        parallelModel.toArray(parallelData);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("invalid model coefficient " + i, serialData[i], parallelData[i], 0.01);
+        }
+        for (int i = 4; i < 6; i++) {
+            Assert.assertEquals("invalid model translation " + i, serialData[i], parallelData[i], 1.0);
+        }
+    }
+
     private void testRANSACFilterWithMinValue(final List<PointMatch> candidates,
                                               final int minNumInliers,
                                               final int expectedInliersSizeAfterFilter)
@@ -0,0 +1,210 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.match;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.ij.FeatureTransform;
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FeatureDescriptorIndex} class.
+ *
+ * @author Eric Trautman
+ */
+public class FeatureDescriptorIndexTest {
+
+    private List<Feature> canvas1Features;
+    private List<Feature> canvas2Features;
+
+    @Before
+    public void setup() throws Exception {
+
+        final Random random = new Random(42);
+
+        canvas1Features = new ArrayList<>();
+        canvas2Features = new ArrayList<>();
+
+        for (int i = 0; i < 400; i++) {
+            final float[] descriptor = randomDescriptor(random);
+            final double x = random.nextDouble() * 1000;
+            final double y = random.nextDouble() * 1000;
+            canvas1Features.add(new Feature(1.0, 0.0, new double[] {x, y}, descriptor));
+
+            // canvas 2 contains noisy, offset copies of half of the canvas 1 features plus unrelated features
+            if (i % 2 == 0) {
+                final float[] noisyDescriptor = new float[descriptor.length];
+                for (int d = 0; d < descriptor.length; d++) {
+                    noisyDescriptor[d] = descriptor[d] + (float) (random.nextGaussian() * 0.02);
+                }
+                canvas2Features.add(new Feature(1.0, 0.0, new double[] {x - OFFSET, y}, noisyDescriptor));
+            } else {
+                canvas2Features.add(new Feature(1.0, 0.0,
+                                                new double[] {random.nextDouble() * 1000,
+                                                              random.nextDouble() * 1000},
+                                                randomDescriptor(random)));
+            }
+        }
+    }
+
+    @Test
+    public void testExactSearchMatchesBruteForce() throws Exception {
+
+        final List<PointMatch> bruteForceCandidates = new ArrayList<>();
+        FeatureTransform.matchFeatures(canvas1Features, canvas2Features, bruteForceCandidates, ROD);
+
+        final FeatureDescriptorIndex index = new FeatureDescriptorIndex(canvas2Features);
+        final List<PointMatch> indexCandidates = index.matchFeatures(canvas1Features, ROD, 0, null);
+
+        Assert.assertTrue("brute force should find candidates", bruteForceCandidates.size() > 0);
+        Assert.assertEquals("invalid number of candidates", bruteForceCandidates.size(), indexCandidates.size());
+
+        for (int i = 0; i < bruteForceCandidates.size(); i++) {
+            assertSameMatch(i, bruteForceCandidates.get(i), indexCandidates.get(i));
+        }
+    }
+
+    @Test
+    public void testApproximateSearch() throws Exception {
+
+        final List<PointMatch> bruteForceCandidates = new ArrayList<>();
+        FeatureTransform.matchFeatures(canvas1Features, canvas2Features, bruteForceCandidates, ROD);
+
+        final FeatureDescriptorIndex index = new FeatureDescriptorIndex(canvas2Features);
+        final List<PointMatch> indexCandidates = index.matchFeatures(canvas1Features, ROD, 64, null);
+
+        Assert.assertTrue("approximate search found only " + indexCandidates.size() + " of " +
+                          bruteForceCandidates.size() + " candidates",
+                          indexCandidates.size() >= bruteForceCandidates.size() * 0.8);
+    }
+
+    @Test
+    public void testSpatialWindow() throws Exception {
+
+        final FeatureDescriptorIndex index = new FeatureDescriptorIndex(canvas2Features);
+
+        final FeatureDescriptorIndex.SpatialWindow window = new FeatureDescriptorIndex.SpatialWindow(-OFFSET, 0, 5);
+        final List<PointMatch> windowCandidates = index.matchFeatures(canvas1Features, ROD, 0, window);
+
+        Assert.assertTrue("window search should find candidates", windowCandidates.size() > 0);
+
+        for (final PointMatch pointMatch : windowCandidates) {
+            final double[] p = pointMatch.getP1().getL();
+            final double[] q = pointMatch.getP2().getL();
+            Assert.assertEquals("invalid x for match outside window", p[0] - OFFSET, q[0], 5.0);
+            Assert.assertEquals("invalid y for match outside window", p[1], q[1], 5.0);
+        }
+
+        final FeatureDescriptorIndex.SpatialWindow wrongWindow =
+                new FeatureDescriptorIndex.SpatialWindow(OFFSET * 50, 0, 5);
+        Assert.assertEquals("no candidates should be found outside of canvas",
+                            0, index.matchFeatures(canvas1Features, ROD, 0, wrongWindow).size());
+    }
+
+    @Test
+    public void testSpatialWindowMatchesBruteForce() throws Exception {
+
+        final FeatureDescriptorIndex index = new FeatureDescriptorIndex(canvas2Features);
+
+        // window excludes most features and (for some source features) one of the two location cells
+        final double maxDistance = 300;
+        final FeatureDescriptorIndex.SpatialWindow window =
+                new FeatureDescriptorIndex.SpatialWindow(-OFFSET, 0, maxDistance);
+
+        final List<PointMatch> bruteForceCandidates = new ArrayList<>();
+        for (final Feature feature : canvas1Features) {
+            double bestDistance = Double.MAX_VALUE;
+            double secondBestDistance = Double.MAX_VALUE;
+            Feature best = null;
+            for (final Feature candidate : canvas2Features) {
+                final double dx = candidate.location[0] - (feature.location[0] - OFFSET);
+                final double dy = candidate.location[1] - feature.location[1];
+                if (Math.sqrt(dx * dx + dy * dy) <= maxDistance) {
+                    final double distance = feature.descriptorDistance(candidate);
+                    if (distance < bestDistance) {
+                        secondBestDistance = bestDistance;
+                        bestDistance = distance;
+                        best = candidate;
+                    } else if (distance < secondBestDistance) {
+                        secondBestDistance = distance;
+                    }
+                }
+            }
+            if ((best != null) && (bestDistance / secondBestDistance < ROD)) {
+                bruteForceCandidates.add(new PointMatch(new Point(feature.location.clone()),
+                                                        new Point(best.location.clone())));
+            }
+        }
+
+        // like FeatureTransform.matchFeatures, remove candidates that share an indexed feature
+        final List<PointMatch> unambiguousCandidates = new ArrayList<>();
+        for (final PointMatch candidate : bruteForceCandidates) {
+            int count = 0;
+            for (final PointMatch other : bruteForceCandidates) {
+                if ((candidate.getP2().getL()[0] == other.getP2().getL()[0]) &&
+                    (candidate.getP2().getL()[1] == other.getP2().getL()[1])) {
+                    count++;
+                }
+            }
+            if (count == 1) {
+                unambiguousCandidates.add(candidate);
+            }
+        }
+
+        final List<PointMatch> windowCandidates = index.matchFeatures(canvas1Features, ROD, 0, window);
+
+        Assert.assertTrue("brute force should find candidates", unambiguousCandidates.size() > 0);
+        Assert.assertEquals("invalid number of candidates", unambiguousCandidates.size(), windowCandidates.size());
+
+        for (int i = 0; i < unambiguousCandidates.size(); i++) {
+            assertSameMatch(i, unambiguousCandidates.get(i), windowCandidates.get(i));
+        }
+    }
+
+    private static void assertSameMatch(final int index,
+                                        final PointMatch expected,
+                                        final PointMatch actual) {
+        final double[] expectedP = expected.getP1().getL();
+        final double[] expectedQ = expected.getP2().getL();
+        final double[] actualP = actual.getP1().getL();
+        final double[] actualQ = actual.getP2().getL();
+        for (int d = 0; d < 2; d++) {
+            Assert.assertEquals("invalid p[" + d + "] for match " + index, expectedP[d], actualP[d], 0.0);
+            Assert.assertEquals("invalid q[" + d + "] for match " + index, expectedQ[d], actualQ[d], 0.0);
+        }
+    }
+
+    private static float[] randomDescriptor(final Random random) {
+        final float[] descriptor = new float[DESCRIPTOR_SIZE];
+        for (int d = 0; d < descriptor.length; d++) {
+            descriptor[d] = random.nextFloat();
+        }
+        return descriptor;
+    }
+
+    private static final int DESCRIPTOR_SIZE = 32;
+    private static final float ROD = 0.92f;
+    private static final double OFFSET = 10.0;
+}
@@ -16,6 +16,8 @@
  */
 package org.janelia.alignment.mipmap;
 
+import ij.process.ByteProcessor;
+
 import java.awt.image.BufferedImage;
 
 import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
@@ -75,6 +77,49 @@ public class AveragedChannelMipmapSourceTest {
         Assert.assertNotNull("averaged image not rendered", image);
     }
 
+    @Test
+    public void testByteChannelsAreRoundedInsteadOfTruncated() throws Exception {
+
+        final ByteProcessor firstIp = new ByteProcessor(2, 2);
+        firstIp.set(0, 101);
+        final ByteProcessor secondIp = new ByteProcessor(2, 2);
+        secondIp.set(0, 100);
+
+        final ChannelMap channelMap = new ChannelMap(firstChannelName,
+                                                     new ImageProcessorWithMasks(firstIp, null, null));
+        channelMap.put(secondChannelName, new ImageProcessorWithMasks(secondIp, null, null));
+
+        final MipmapSource source = new MipmapSource() {
+            @Override
+            public String getSourceName() {
+                return "byteChannels";
+            }
+
+            @Override
+            public int getFullScaleWidth() {
+                return 2;
+            }
+
+            @Override
+            public int getFullScaleHeight() {
+                return 2;
+            }
+
+            @Override
+            public ChannelMap getChannels(final int mipmapLevel) {
+                return channelMap;
+            }
+        };
+
+        final ImageProcessorWithMasks averagedChannel = getAveragedChannel("averaged", source, 0.5, 0.5);
+
+        Assert.assertTrue("averaged channel should keep byte type", averagedChannel.ip instanceof ByteProcessor);
+
+        // 50.5 + 50.0 would be truncated to 100 if each channel was accumulated in the byte target
+        Assert.assertEquals("invalid averaged intensity", 101, averagedChannel.ip.get(0));
+        Assert.assertEquals("invalid averaged alpha", 255, averagedChannel.mask.get(0));
+    }
+
     private ImageProcessorWithMasks getAveragedChannel(final String convertedChannelName,
                                                        final MipmapSource source,
                                                        final double firstChannelWeight,
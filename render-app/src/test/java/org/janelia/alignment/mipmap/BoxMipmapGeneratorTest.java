@@ -151,6 +151,75 @@ public class BoxMipmapGeneratorTest {
 
     }
 
+    @Test
+    public void testInMemoryMipmapGenerator() throws Exception {
+
+        final BoxImageCache boxCache = new BoxImageCache(10);
+
+        BoxMipmapGenerator boxMipmapGenerator = new BoxMipmapGenerator(z,
+                                                                       false,
+                                                                       Utils.PNG_FORMAT,
+                                                                       boxWidth,
+                                                                       boxHeight,
+                                                                       boxDirectory,
+                                                                       0,
+                                                                       0,
+                                                                       lastRow,
+                                                                       0,
+                                                                       lastColumn,
+                                                                       false,
+                                                                       boxCache);
+
+        // level 0 source images are only cached (never saved) to verify that they are not reloaded from disk
+        for (int row = 1; row < 3; row++) {
+            for (int column = 2; column < 4; column++) {
+                boxMipmapGenerator.addSource(row,
+                                             column,
+                                             new File(boxDirectory, "0/"+z+"/"+row+"/"+column+".png"),
+                                             buildImage(boxWidth, boxHeight, 0xff404040));
+            }
+        }
+
+        Assert.assertEquals("invalid number of cached level 0 images", 4, boxCache.size());
+
+        boxMipmapGenerator = validateNextLevel(boxMipmapGenerator, new int[][] {{0,1}, {1,1}});
+
+        Assert.assertEquals("level 0 images should be replaced by level 1 images", 2, boxCache.size());
+
+        boxMipmapGenerator = validateNextLevel(boxMipmapGenerator, new int[][] {{0,0}});
+
+        Assert.assertEquals("level 1 images should be replaced by level 2 image", 1, boxCache.size());
+
+        final File overviewFile = Paths.get(boxDirectory.getAbsolutePath(), "small", z + ".png").toFile();
+        Assert.assertTrue("overview should have been generated",
+                          boxMipmapGenerator.generateOverview(maxOverviewWidthAndHeight, stackBounds, overviewFile));
+    }
+
+    @Test
+    public void testReduceFourBoxes() throws Exception {
+
+        final BufferedImage upperLeft = buildImage(4, 4, 0xff102030);
+        upperLeft.setRGB(0, 0, 0xff506070);
+        final BufferedImage lowerRight = buildImage(4, 4, 0xff000000);
+
+        final BufferedImage reducedImage =
+                BoxMipmapGenerator.reduceFourBoxes(upperLeft, null, null, lowerRight, 4, 4, false);
+
+        Assert.assertEquals("invalid reduced width", 4, reducedImage.getWidth());
+        Assert.assertEquals("invalid reduced height", 4, reducedImage.getHeight());
+
+        // (0x50 + 3 * 0x10) / 4 = 0x20, (0x60 + 3 * 0x20) / 4 = 0x30, (0x70 + 3 * 0x30) / 4 = 0x40
+        Assert.assertEquals("invalid averaged pixel", 0xff203040, reducedImage.getRGB(0, 0));
+        Assert.assertEquals("invalid upper left pixel", 0xff102030, reducedImage.getRGB(1, 1));
+        Assert.assertEquals("missing child should be transparent", 0, reducedImage.getRGB(3, 0));
+        Assert.assertEquals("invalid lower right pixel", 0xff000000, reducedImage.getRGB(3, 3));
+
+        final BufferedImage reducedLabelImage =
+                BoxMipmapGenerator.reduceFourBoxes(upperLeft, null, null, lowerRight, 4, 4, true);
+
+        Assert.assertEquals("label pixels should not be averaged", 0xff506070, reducedLabelImage.getRGB(0, 0));
+    }
+
     @Test
     public void testSaveLabelImage() throws Exception {
 
@@ -190,6 +259,18 @@ public class BoxMipmapGeneratorTest {
 
     }
 
+    private static BufferedImage buildImage(final int width,
+                                            final int height,
+                                            final int argb) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+
     private BoxMipmapGenerator validateNextLevel(final BoxMipmapGenerator boxMipmapGenerator,
                                                  final int[][] expectedRowAndColumnPairs) throws Exception {
 
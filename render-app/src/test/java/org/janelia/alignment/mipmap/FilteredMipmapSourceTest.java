@@ -0,0 +1,174 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.mipmap;
+
+import com.google.common.cache.CacheStats;
+
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.alignment.ChannelMap;
+import org.janelia.alignment.ImageAndMask;
+import org.janelia.alignment.filter.Filter;
+import org.janelia.alignment.filter.NormalizeLocalContrast;
+import org.janelia.alignment.filter.ValueToNoise;
+import org.janelia.alignment.spec.ChannelSpec;
+import org.janelia.alignment.util.FilteredChannelMapCache;
+import org.janelia.alignment.util.ImageProcessorCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FilteredMipmapSource} class.
+ *
+ * @author Eric Trautman
+ */
+public class FilteredMipmapSourceTest {
+
+    private ImageProcessorCache imageProcessorCache;
+    private UrlMipmapSource urlSource;
+    private String imageUrl;
+
+    @Before
+    public void setup() throws Exception {
+
+        imageProcessorCache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS, true, false);
+        imageProcessorCache.enableFilteredChannelMapCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS);
+
+        final File imageFile = new File("src/test/resources/stitch-test/col0075_row0021_cam1.png_level_1_mipmap.png");
+        final ChannelSpec channelSpec = new ChannelSpec();
+        channelSpec.putMipmap(0, new ImageAndMask(imageFile, null));
+        imageUrl = channelSpec.getFirstMipmapEntry().getValue().getImageUrl();
+
+        urlSource = new UrlMipmapSource("test",
+                                        -1,
+                                        -1,
+                                        Collections.singletonList(channelSpec),
+                                        null,
+                                        null,
+                                        false,
+                                        imageProcessorCache);
+    }
+
+    @Test
+    public void testCachedFiltering() throws Exception {
+
+        final CountingFilter countingFilter = new CountingFilter();
+        final FilteredMipmapSource filteredSource =
+                new FilteredMipmapSource("filtered",
+                                         urlSource,
+                                         Collections.singletonList(countingFilter),
+                                         imageProcessorCache.getFilteredChannelMapCache());
+
+        final ImageProcessor sourceIp = imageProcessorCache.get(imageUrl, 0, false, false);
+        final float expectedFilteredValue = Math.min(255, sourceIp.getf(10, 10) + 1); // 8-bit add is clamped
+
+        final ImageProcessor firstIp = filteredSource.getChannels(0).getFirstChannel().ip;
+        Assert.assertEquals("filter should be applied for first request", 1, countingFilter.count.get());
+        Assert.assertEquals("invalid filtered pixel", expectedFilteredValue, firstIp.getf(10, 10), 0.001);
+
+        // change returned pixels to make sure the cached pixels are not affected
+        firstIp.setf(10, 10, 0);
+
+        final ImageProcessor secondIp = filteredSource.getChannels(0).getFirstChannel().ip;
+        Assert.assertEquals("filter should not be applied for second request", 1, countingFilter.count.get());
+        Assert.assertEquals("cached filtered pixels were modified", expectedFilteredValue, secondIp.getf(10, 10), 0.001);
+
+        final ImageProcessor unfilteredIp = imageProcessorCache.get(imageUrl, 0, false, false);
+        Assert.assertEquals("source cache pixels were modified by filtering",
+                            sourceIp.getf(10, 10), unfilteredIp.getf(10, 10), 0.001);
+
+        filteredSource.getChannels(1);
+        Assert.assertEquals("filter should be applied for different level", 2, countingFilter.count.get());
+
+        final CacheStats stats = imageProcessorCache.getFilteredChannelMapCache().getStats();
+        Assert.assertEquals("invalid hit count", 1, stats.hitCount());
+        Assert.assertEquals("invalid miss count", 2, stats.missCount());
+    }
+
+    @Test
+    public void testUncachedFiltering() throws Exception {
+
+        final CountingFilter countingFilter = new CountingFilter();
+        final FilteredMipmapSource filteredSource =
+                new FilteredMipmapSource("filtered", urlSource, Collections.singletonList(countingFilter));
+
+        filteredSource.getChannels(0);
+        filteredSource.getChannels(0);
+        Assert.assertEquals("filter should be applied for each request when caching is disabled",
+                            2, countingFilter.count.get());
+    }
+
+    @Test
+    public void testGetFilterChainKey() throws Exception {
+
+        final List<Filter> filters = Arrays.asList(new ValueToNoise(0, 64, 191),
+                                                   new NormalizeLocalContrast(500, 500, 3, true, true));
+        final List<Filter> sameFilters = Arrays.asList(new ValueToNoise(0, 64, 191),
+                                                       new NormalizeLocalContrast(500, 500, 3, true, true));
+        final List<Filter> differentFilters = Arrays.asList(new ValueToNoise(0, 64, 191),
+                                                            new NormalizeLocalContrast(250, 500, 3, true, true));
+
+        final String key = FilteredMipmapSource.getFilterChainKey(filters);
+        Assert.assertEquals("keys for equivalent filters should match",
+                            key, FilteredMipmapSource.getFilterChainKey(sameFilters));
+        Assert.assertNotEquals("keys for different filters should not match",
+                               key, FilteredMipmapSource.getFilterChainKey(differentFilters));
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+
+        final ChannelMap channels = urlSource.getChannels(0);
+        final ChannelMap copy = FilteredChannelMapCache.copy(channels);
+
+        final ImageProcessor ip = channels.getFirstChannel().ip;
+        final ImageProcessor copyIp = copy.getFirstChannel().ip;
+        Assert.assertNotSame("pixels should be duplicated", ip, copyIp);
+        Assert.assertEquals("invalid min", ip.getMin(), copyIp.getMin(), 0.001);
+        Assert.assertEquals("invalid max", ip.getMax(), copyIp.getMax(), 0.001);
+        Assert.assertEquals("invalid first channel name", channels.getFirstChannelName(), copy.getFirstChannelName());
+    }
+
+    /**
+     * Adds one to every pixel and counts the number of times it is applied.
+     */
+    private static class CountingFilter implements Filter {
+
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public ImageProcessor process(final ImageProcessor ip,
+                                      final double scale) {
+            count.incrementAndGet();
+            ip.add(1);
+            return ip;
+        }
+
+        @Override
+        public String toString() {
+            return "CountingFilter";
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.solver;
+
+import java.util.Map;
+import java.util.Random;
+
+import mpicbg.models.AffineModel2D;
+
+import org.janelia.alignment.match.Matches;
+import org.janelia.alignment.match.ModelType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SparseAlignmentSolver} class.
+ *
+ * @author Eric Trautman
+ */
+public class SparseAlignmentSolverTest {
+
+    private static final int GRID_SIZE = 3;
+    private static final double TILE_SIZE = 1000.0;
+    private static final double TILE_STEP = 900.0;
+
+    @Test
+    public void testAffineSolve() throws Exception {
+        testSolve(ModelType.AFFINE, true, 1);
+        testSolve(ModelType.AFFINE, true, 4);
+    }
+
+    @Test
+    public void testSimilaritySolve() throws Exception {
+        testSolve(ModelType.SIMILARITY, true, 2);
+    }
+
+    @Test
+    public void testTranslationSolve() throws Exception {
+        testSolve(ModelType.TRANSLATION, false, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedModel() throws Exception {
+        new SparseAlignmentSolver(ModelType.RIGID, 0.01, 100, 1.0e-10, 1);
+    }
+
+    @Test
+    public void testInvert() throws Exception {
+        final double[] matrix = { 4, 1, 2, 1, 3, 0, 2, 0, 5 };
+        final double[] inverse = SparseAlignmentSolver.invert(matrix, 3);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double sum = 0;
+                for (int m = 0; m < 3; m++) {
+                    sum += matrix[i * 3 + m] * inverse[m * 3 + j];
+                }
+                Assert.assertEquals("invalid product for (" + i + ", " + j + ")", i == j ? 1.0 : 0.0, sum, 1.0e-12);
+            }
+        }
+    }
+
+    private void testSolve(final ModelType modelType,
+                           final boolean perturbRotation,
+                           final int numberOfThreads) {
+
+        final Random random = new Random(3);
+
+        final AffineModel2D[] trueModels = new AffineModel2D[GRID_SIZE * GRID_SIZE];
+        final SparseAlignmentSolver solver = new SparseAlignmentSolver(modelType, 1.0e-9, 1000, 1.0e-14, numberOfThreads);
+
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+
+                final int tileIndex = row * GRID_SIZE + column;
+                final double angle = perturbRotation ? 0.01 * (random.nextDouble() - 0.5) : 0.0;
+                final double scale = modelType == ModelType.AFFINE ? 1.0 + 0.01 * (random.nextDouble() - 0.5) : 1.0;
+
+                trueModels[tileIndex] = getModel(scale, angle, column * TILE_STEP, row * TILE_STEP);
+
+                final boolean fixed = tileIndex == 0;
+                final AffineModel2D initialModel;
+                if (fixed) {
+                    initialModel = trueModels[tileIndex];
+                } else {
+                    initialModel = getModel(1.0,
+                                            0.0,
+                                            column * TILE_STEP + 60 * (random.nextDouble() - 0.5),
+                                            row * TILE_STEP + 60 * (random.nextDouble() - 0.5));
+                }
+
+                solver.addTile(getTileId(tileIndex), initialModel, fixed);
+            }
+        }
+
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                final int tileIndex = row * GRID_SIZE + column;
+                if (column + 1 < GRID_SIZE) {
+                    addMatches(solver, trueModels, tileIndex, tileIndex + 1, random);
+                }
+                if (row + 1 < GRID_SIZE) {
+                    addMatches(solver, trueModels, tileIndex, tileIndex + GRID_SIZE, random);
+                }
+            }
+        }
+
+        final SparseAlignmentSolver.Solution solution = solver.solve();
+        final Map<String, AffineModel2D> tileIdToModel = solution.getTileIdToModel();
+
+        Assert.assertEquals("invalid number of solved tiles for " + modelType,
+                            trueModels.length, tileIdToModel.size());
+
+        Assert.assertTrue("initial distance " + solution.getInitialMeanMatchDistance() + " is too small for " +
+                          modelType + " test to be meaningful",
+                          solution.getInitialMeanMatchDistance() > 5.0);
+
+        Assert.assertEquals("invalid final distance for " + modelType,
+                            0.0, solution.getFinalMeanMatchDistance(), 0.01);
+
+        for (int tileIndex = 0; tileIndex < trueModels.length; tileIndex++) {
+            final AffineModel2D solvedModel = tileIdToModel.get(getTileId(tileIndex));
+            for (final double[] corner : new double[][] {{0, 0}, {TILE_SIZE, 0}, {0, TILE_SIZE}, {TILE_SIZE, TILE_SIZE}}) {
+                final double[] expected = trueModels[tileIndex].apply(corner);
+                final double[] actual = solvedModel.apply(corner);
+                final String context = modelType + " tile " + tileIndex + " corner (" + corner[0] + ", " + corner[1] + ")";
+                Assert.assertEquals("invalid x for " + context, expected[0], actual[0], 0.05);
+                Assert.assertEquals("invalid y for " + context, expected[1], actual[1], 0.05);
+            }
+        }
+    }
+
+    private static AffineModel2D getModel(final double scale,
+                                          final double angle,
+                                          final double tx,
+                                          final double ty) {
+        final double cos = scale * Math.cos(angle);
+        final double sin = scale * Math.sin(angle);
+        final AffineModel2D model = new AffineModel2D();
+        model.set(cos, sin, -sin, cos, tx, ty);
+        return model;
+    }
+
+    private static String getTileId(final int tileIndex) {
+        return "tile-" + tileIndex;
+    }
+
+    private static void addMatches(final SparseAlignmentSolver solver,
+                                   final AffineModel2D[] trueModels,
+                                   final int pTileIndex,
+                                   final int qTileIndex,
+                                   final Random random) {
+
+        final AffineModel2D pModel = trueModels[pTileIndex];
+        final AffineModel2D qModel = trueModels[qTileIndex];
+        final double[] pCenter = pModel.apply(new double[] { TILE_SIZE / 2, TILE_SIZE / 2 });
+        final double[] qCenter = qModel.apply(new double[] { TILE_SIZE / 2, TILE_SIZE / 2 });
+
+        // world points spread around the line between tile centers
+        final double dx = qCenter[0] - pCenter[0];
+        final double dy = qCenter[1] - pCenter[1];
+        final double length = Math.sqrt(dx * dx + dy * dy);
+        final int numberOfMatches = 20;
+        final double[][] ps = new double[2][numberOfMatches];
+        final double[][] qs = new double[2][numberOfMatches];
+        final double[] ws = new double[numberOfMatches];
+        for (int i = 0; i < numberOfMatches; i++) {
+            final double along = 0.3 + 0.4 * random.nextDouble();
+            final double across = 600 * (random.nextDouble() - 0.5);
+            final double[] world = {
+                    pCenter[0] + along * dx - across * dy / length,
+                    pCenter[1] + along * dy + across * dx / length
+            };
+            final double[] p = applyInverse(pModel, world);
+            final double[] q = applyInverse(qModel, world);
+            ps[0][i] = p[0];
+            ps[1][i] = p[1];
+            qs[0][i] = q[0];
+            qs[1][i] = q[1];
+            ws[i] = 1.0;
+        }
+
+        Assert.assertTrue("matches not added", solver.addMatches(getTileId(pTileIndex),
+                                                                 getTileId(qTileIndex),
+                                                                 new Matches(ps, qs, ws)));
+    }
+
+    private static double[] applyInverse(final AffineModel2D model,
+                                         final double[] world) {
+        final double[] m = new double[6];
+        model.toArray(m);
+        final double determinant = m[0] * m[3] - m[2] * m[1];
+        final double x = world[0] - m[4];
+        final double y = world[1] - m[5];
+        return new double[] {
+                ( m[3] * x - m[2] * y) / determinant,
+                (-m[1] * x + m[0] * y) / determinant
+        };
+    }
+
+}
@@ -27,6 +27,7 @@ import mpicbg.trakem2.transform.AffineModel2D;
 import org.janelia.alignment.ImageAndMask;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.spec.validator.TemTileSpecValidator;
+import org.janelia.alignment.spec.validator.TileSpecValidator;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -78,6 +79,119 @@ public class ResolvedTileSpecCollectionTest {
                             expectedTransformCountAfterFilter, collection.getTransformCount());
     }
 
+    @Test
+    public void testFilterInvalidSpecsWithUnexpectedFailure() throws Exception {
+
+        final List<TileSpec> tileSpecs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tileSpecs.add(getTileSpec("tile-" + i, (i == 1)));
+        }
+
+        final ResolvedTileSpecCollection collection =
+                new ResolvedTileSpecCollection(new ArrayList<>(), tileSpecs);
+        collection.setNumberOfThreads(2);
+        collection.setTileSpecValidator(new TileSpecValidator() {
+            @Override
+            public void init(final String dataString) {
+            }
+
+            @Override
+            public String toDataString() {
+                return null;
+            }
+
+            @Override
+            public void validate(final TileSpec tileSpec) throws IllegalArgumentException {
+                if ("tile-4".equals(tileSpec.getTileId())) {
+                    throw new IllegalStateException("validator is broken");
+                }
+                validator.validate(tileSpec);
+            }
+        });
+
+        try {
+            collection.filterInvalidSpecs();
+            Assert.fail("unexpected validation failure should be thrown");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals("invalid failure thrown", "validator is broken", e.getMessage());
+        }
+
+        Assert.assertEquals("tiles should not be removed when validation fails unexpectedly",
+                            tileSpecs.size(), collection.getTileCount());
+    }
+
+    @Test
+    public void testParallelBoundingBoxDerivation() throws Exception {
+
+        final ResolvedTileSpecCollection serialCollection = buildCollectionForBoundingBoxTests(1);
+        final ResolvedTileSpecCollection parallelCollection = buildCollectionForBoundingBoxTests(4);
+
+        serialCollection.addReferenceTransformToAllTiles("shared-offset", false);
+        parallelCollection.addReferenceTransformToAllTiles("shared-offset", false);
+
+        for (final TileSpec serialTileSpec : serialCollection.getTileSpecs()) {
+            final TileSpec parallelTileSpec = parallelCollection.getTileSpec(serialTileSpec.getTileId());
+            final String tileId = serialTileSpec.getTileId();
+            Assert.assertEquals("minX differs for tile " + tileId,
+                                serialTileSpec.getMinX(), parallelTileSpec.getMinX(), 0.0);
+            Assert.assertEquals("minY differs for tile " + tileId,
+                                serialTileSpec.getMinY(), parallelTileSpec.getMinY(), 0.0);
+            Assert.assertEquals("maxX differs for tile " + tileId,
+                                serialTileSpec.getMaxX(), parallelTileSpec.getMaxX(), 0.0);
+            Assert.assertEquals("maxY differs for tile " + tileId,
+                                serialTileSpec.getMaxY(), parallelTileSpec.getMaxY(), 0.0);
+        }
+
+        final TileSpec lastTileSpec = parallelCollection.getTileSpec("tile-19");
+        Assert.assertEquals("invalid minX for last tile", 1810.0, lastTileSpec.getMinX(), 0.0);
+        Assert.assertEquals("invalid maxX for last tile", 1910.0, lastTileSpec.getMaxX(), 0.0);
+    }
+
+    @Test
+    public void testParallelBoundingBoxDerivationFailure() throws Exception {
+
+        final ResolvedTileSpecCollection collection = buildCollectionForBoundingBoxTests(4);
+
+        final TileSpec tileSpecWithoutSize = new TileSpec();
+        tileSpecWithoutSize.setTileId("missing-size");
+        collection.addTileSpecToCollection(tileSpecWithoutSize);
+
+        try {
+            collection.recalculateBoundingBoxes();
+            Assert.fail("tile without width and height should cause exception");
+        } catch (final IllegalStateException e) {
+            Assert.assertTrue("bounding boxes for other tiles should have been derived",
+                              collection.getTileSpec("tile-19").isBoundingBoxDefined(
+                                      RenderParameters.DEFAULT_MESH_CELL_SIZE));
+        }
+    }
+
+    private ResolvedTileSpecCollection buildCollectionForBoundingBoxTests(final int numberOfThreads) {
+
+        final List<TransformSpec> transformSpecs = new ArrayList<>();
+        transformSpecs.add(new LeafTransformSpec("shared-offset",
+                                                 null,
+                                                 AffineModel2D.class.getName(),
+                                                 "1 0 0 1 100 0"));
+
+        final List<TileSpec> tileSpecs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final TileSpec tileSpec = new TileSpec();
+            tileSpec.setTileId("tile-" + i);
+            tileSpec.setZ(99.0);
+            tileSpec.setWidth(100.0);
+            tileSpec.setHeight(100.0);
+            final TransformSpec transformSpec = new LeafTransformSpec(AffineModel2D.class.getName(),
+                                                                      "1 0 0 1 " + (i * 90) + " 0");
+            tileSpec.addTransformSpecs(Collections.singletonList(transformSpec));
+            tileSpecs.add(tileSpec);
+        }
+
+        final ResolvedTileSpecCollection collection = new ResolvedTileSpecCollection(transformSpecs, tileSpecs);
+        collection.setNumberOfThreads(numberOfThreads);
+        return collection;
+    }
+
     private TransformSpec getTransformSpec(final String transformId) {
         return new LeafTransformSpec(transformId,
                                      null,
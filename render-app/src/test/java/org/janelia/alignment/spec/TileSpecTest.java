@@ -18,10 +18,19 @@ package org.janelia.alignment.spec;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import mpicbg.models.CoordinateTransform;
+
 import org.janelia.alignment.ImageAndMask;
+import org.janelia.alignment.Utils;
+import org.janelia.alignment.transform.AffineWarpField;
+import org.janelia.alignment.transform.AffineWarpFieldTransform;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -171,15 +180,191 @@ public class TileSpecTest {
         Assert.assertEquals("incorrect maxX", maxX, tileSpec.getMaxX(), MAX_DOUBLE_DELTA);
         Assert.assertEquals("incorrect maxY", maxY, tileSpec.getMaxY(), MAX_DOUBLE_DELTA);
 
+        // affine only tiles skip sampling, so compare sampling methods with a non-linear tile
+        final TileSpec warpedTileSpec = buildWarpedTileSpec();
         final int iterations = 100;
-        final long sloppyTime = getDerivationTime(tileSpec, true, iterations);
-        final long meshTime = getDerivationTime(tileSpec, false, iterations);
+        final long sloppyTime = getDerivationTime(warpedTileSpec, true, iterations);
+        final long meshTime = getDerivationTime(warpedTileSpec, false, iterations);
         Assert.assertTrue("sloppy derivation is not faster than mesh derivation", (sloppyTime < meshTime));
 
         LOG.info("testDeriveBoundingBox: {} iterations, sloppy time: {}ms, mesh time: {}ms",
                  iterations, sloppyTime, meshTime);
     }
 
+    @Test
+    public void testDeriveBoundingBoxForNonLinearTransform() throws Exception {
+
+        final TileSpec tileSpec = buildWarpedTileSpec();
+        final CoordinateTransform transform = tileSpec.getTransformList();
+        final double width = tileSpec.getWidth();
+        final double height = tileSpec.getHeight();
+
+        // sample every border pixel to find "true" bounds
+        double xMin = Double.MAX_VALUE;
+        double yMin = Double.MAX_VALUE;
+        double xMax = -Double.MAX_VALUE;
+        double yMax = -Double.MAX_VALUE;
+        final List<double[]> borderPoints = new ArrayList<>();
+        for (double x = 0; x <= width; x++) {
+            borderPoints.add(new double[] { x, 0 });
+            borderPoints.add(new double[] { x, height });
+        }
+        for (double y = 0; y <= height; y++) {
+            borderPoints.add(new double[] { 0, y });
+            borderPoints.add(new double[] { width, y });
+        }
+        for (final double[] point : borderPoints) {
+            transform.applyInPlace(point);
+            xMin = Math.min(xMin, point[0]);
+            yMin = Math.min(yMin, point[1]);
+            xMax = Math.max(xMax, point[0]);
+            yMax = Math.max(yMax, point[1]);
+        }
+
+        tileSpec.deriveBoundingBox(64, true, true);
+
+        Assert.assertEquals("incorrect minX", Math.floor(xMin), tileSpec.getMinX(), 1.0);
+        Assert.assertEquals("incorrect minY", Math.floor(yMin), tileSpec.getMinY(), 1.0);
+        Assert.assertEquals("incorrect maxX", Math.ceil(xMax), tileSpec.getMaxX(), 1.0);
+        Assert.assertEquals("incorrect maxY", Math.ceil(yMax), tileSpec.getMaxY(), 1.0);
+
+        // bounds should be derived with fewer samples than a fixed 64 pixel border sampling would need
+        final TransformedBorderSampler sampler = new TransformedBorderSampler(transform, 64);
+        sampler.sampleBounds(width, height);
+        final int fixedSampleCount = 2 * ((int) (width / 64) + 1) + 2 * ((int) Math.ceil(height / 64));
+        Assert.assertTrue("adaptive sampling used " + sampler.getSampleCount() +
+                          " samples but fixed sampling only needs " + fixedSampleCount,
+                          sampler.getSampleCount() < fixedSampleCount);
+    }
+
+    @Test
+    public void testGetAverageScale() throws Exception {
+        final byte[] jsonBytes = Files.readAllBytes(Paths.get("src/test/resources/tile-test/tile_with_only_affine_transforms.json"));
+        final TileSpec tileSpec = TileSpec.fromJson(new String(jsonBytes));
+
+        final double sampledScale = Utils.sampleAverageScale(tileSpec.getTransformList(),
+                                                             tileSpec.getWidth(),
+                                                             tileSpec.getHeight(),
+                                                             tileSpec.getMeshCellSize());
+
+        tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+
+        final TileSpec reloadedTileSpec = TileSpec.fromJson(tileSpec.toJson());
+        Assert.assertEquals("incorrect derived average scale",
+                            sampledScale, reloadedTileSpec.getAverageScale(), 0.000001);
+
+        reloadedTileSpec.addTransformSpecs(
+                Collections.singletonList(
+                        new LeafTransformSpec("mpicbg.trakem2.transform.AffineModel2D", "0.5 0 0 0.5 10 20")));
+
+        Assert.assertEquals("average scale should be updated after transforms are changed",
+                            sampledScale * 0.5, reloadedTileSpec.getAverageScale(), 0.000001);
+    }
+
+    @Test
+    public void testGetStoredAverageScale() throws Exception {
+        final byte[] jsonBytes = Files.readAllBytes(Paths.get("src/test/resources/tile-test/tile_with_only_affine_transforms.json"));
+        final TileSpec tileSpec = TileSpec.fromJson(new String(jsonBytes));
+
+        Assert.assertNull("average scale should not be derived before bounding box",
+                          tileSpec.getStoredAverageScale());
+
+        final TileSpec tileSpecWithoutSize = new TileSpec();
+        Assert.assertNull("average scale should not be derived for tile without width and height",
+                          tileSpecWithoutSize.getStoredAverageScale());
+
+        tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+        Assert.assertNotNull("average scale should be stored after bounding box is derived",
+                             tileSpec.getStoredAverageScale());
+
+        // simulate a stored tile that references a (shared) transform
+        final String referenceId = "test-reference";
+        final TileSpec referencingTileSpec = TileSpec.fromJson(tileSpec.toJson());
+        referencingTileSpec.getTransforms().addSpec(new ReferenceTransformSpec(referenceId));
+
+        Assert.assertNotNull("average scale should be stored with referencing tile",
+                             referencingTileSpec.getStoredAverageScale());
+
+        final Map<String, TransformSpec> idToSpecMap = new HashMap<>();
+        idToSpecMap.put(referenceId,
+                        new LeafTransformSpec(referenceId, null,
+                                              "mpicbg.trakem2.transform.AffineModel2D", "0.5 0 0 0.5 10 20"));
+        referencingTileSpec.resolveTransformReferences(idToSpecMap);
+
+        Assert.assertNull("average scale should be cleared after references are resolved",
+                          referencingTileSpec.getStoredAverageScale());
+    }
+
+    @Test
+    public void testStoredAverageScaleIsKeptForUnchangedReferences() throws Exception {
+        final byte[] jsonBytes = Files.readAllBytes(Paths.get("src/test/resources/tile-test/tile_with_only_affine_transforms.json"));
+        final TileSpec tileSpec = TileSpec.fromJson(new String(jsonBytes));
+
+        final String referenceId = "test-reference";
+        final String lensDataString = "0.5 0 0 0.5 10 20";
+        tileSpec.getTransforms().addSpec(new ReferenceTransformSpec(referenceId));
+        tileSpec.resolveTransformReferences(buildReferenceMap(referenceId, lensDataString));
+        tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+
+        final Double derivedScale = tileSpec.getStoredAverageScale();
+        Assert.assertNotNull("average scale should be stored after bounding box is derived", derivedScale);
+
+        final TileSpec unchangedTileSpec = TileSpec.fromJson(tileSpec.toJson());
+        unchangedTileSpec.resolveTransformReferences(buildReferenceMap(referenceId, lensDataString));
+        Assert.assertEquals("average scale should be kept when referenced transforms are unchanged",
+                            derivedScale, unchangedTileSpec.getStoredAverageScale());
+
+        final TileSpec changedTileSpec = TileSpec.fromJson(tileSpec.toJson());
+        changedTileSpec.resolveTransformReferences(buildReferenceMap(referenceId, "0.6 0 0 0.6 10 20"));
+        Assert.assertNull("average scale should be cleared when a referenced transform has changed",
+                          changedTileSpec.getStoredAverageScale());
+
+        final TileSpec previouslySavedTileSpec = TileSpec.fromJson(new String(jsonBytes));
+        previouslySavedTileSpec.deriveBoundingBox(previouslySavedTileSpec.getMeshCellSize(), true);
+        previouslySavedTileSpec.setTransforms(previouslySavedTileSpec.getTransforms()); // clears stored scale
+        previouslySavedTileSpec.deriveBoundingBox(previouslySavedTileSpec.getMeshCellSize(), false);
+        Assert.assertNotNull("average scale should be derived for tiles with existing bounding boxes",
+                             previouslySavedTileSpec.getStoredAverageScale());
+    }
+
+    private static Map<String, TransformSpec> buildReferenceMap(final String referenceId,
+                                                                final String dataString) {
+        final Map<String, TransformSpec> idToSpecMap = new HashMap<>();
+        idToSpecMap.put(referenceId,
+                        new LeafTransformSpec(referenceId, null, "mpicbg.trakem2.transform.AffineModel2D", dataString));
+        return idToSpecMap;
+    }
+
+    private TileSpec buildWarpedTileSpec() {
+
+        final double width = 2560.0;
+        final double height = 2160.0;
+
+        final AffineWarpField affineWarpField =
+                new AffineWarpField(width, height, 3, 3, AffineWarpField.getDefaultInterpolatorFactory());
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                final double theta = 0.02 * (row - column);
+                final double scale = 1 + (0.01 * (row + column));
+                affineWarpField.set(row, column, new double[] {
+                        scale * Math.cos(theta), scale * Math.sin(theta),
+                        -scale * Math.sin(theta), scale * Math.cos(theta),
+                        50 * row, -30 * column
+                });
+            }
+        }
+        final AffineWarpFieldTransform warpFieldTransform = new AffineWarpFieldTransform(affineWarpField);
+
+        final TileSpec tileSpec = new TileSpec();
+        tileSpec.setTileId("warped");
+        tileSpec.setWidth(width);
+        tileSpec.setHeight(height);
+        tileSpec.addTransformSpecs(Collections.singletonList(
+                new LeafTransformSpec(AffineWarpFieldTransform.class.getName(), warpFieldTransform.toDataString())));
+
+        return tileSpec;
+    }
+
     private long getDerivationTime(final TileSpec tileSpec,
                                    final boolean sloppy,
                                    final int iterations) {
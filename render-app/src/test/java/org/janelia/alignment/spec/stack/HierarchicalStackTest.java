@@ -89,6 +89,11 @@ public class HierarchicalStackTest {
         tier2Stack.setAlignmentQuality(quality);
         Assert.assertEquals("invalid quality", quality, tier2Stack.getAlignmentQuality(), DOUBLE_DELTA);
 
+        final Double meanMatchDistance = 1.5;
+        tier2Stack.setAlignmentMeanMatchDistance(meanMatchDistance);
+        Assert.assertEquals("invalid mean match distance",
+                            meanMatchDistance, tier2Stack.getAlignmentMeanMatchDistance(), DOUBLE_DELTA);
+
         Assert.assertNotNull("invalid box path", tier2Stack.getBoxPathForZ(1.0));
         Assert.assertNotNull("invalid model", tier2Stack.getRelativeModel(new AffineModel2D(), 0.0, 0.0));
     }
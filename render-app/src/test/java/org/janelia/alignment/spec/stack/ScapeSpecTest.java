@@ -0,0 +1,150 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.alignment.spec.stack;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.janelia.alignment.spec.Bounds;
+import org.janelia.alignment.spec.TileSpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ScapeSpec} class.
+ *
+ * @author Eric Trautman
+ */
+public class ScapeSpecTest {
+
+    @Test
+    public void testGetFile() throws Exception {
+
+        final ScapeSpec scapeSpec =
+                new ScapeSpec(0.02, "/scapes/sections_at_0.02/{thousands}/{hundreds}/{z}.png", null, null, null);
+
+        Assert.assertEquals("invalid path for z 1234",
+                            new File("/scapes/sections_at_0.02/001/2/1234.0.png").getAbsoluteFile(),
+                            scapeSpec.getFile(1234.0));
+
+        Assert.assertEquals("invalid path for z 56",
+                            new File("/scapes/sections_at_0.02/000/0/56.0.png").getAbsoluteFile(),
+                            scapeSpec.getFile(56.0));
+
+        final ScapeSpec intSpec = new ScapeSpec(0.1, "/scapes/{zInt}.jpg", null, null, null);
+
+        Assert.assertEquals("invalid path for integral z",
+                            new File("/scapes/7.jpg").getAbsoluteFile(),
+                            intSpec.getFile(7.0));
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+
+        new ScapeSpec(0.02, "/scapes/{z}.png", null, null, null).validate();
+
+        final ScapeSpec[] invalidSpecs = {
+                new ScapeSpec(null, "/scapes/{z}.png", null, null, null),
+                new ScapeSpec(0.0, "/scapes/{z}.png", null, null, null),
+                new ScapeSpec(1.5, "/scapes/{z}.png", null, null, null),
+                new ScapeSpec(0.02, "/scapes/missing-z.png", null, null, null),
+                new ScapeSpec(0.02, null, null, null, null)
+        };
+
+        for (final ScapeSpec invalidSpec : invalidSpecs) {
+            try {
+                invalidSpec.validate();
+                Assert.fail("invalid spec " + invalidSpec + " should fail validation");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFindBestScape() throws Exception {
+
+        final ScapeSpec scape02 = new ScapeSpec(0.02, "/scapes/0.02/{z}.png", null, null, null);
+        final ScapeSpec scape05 = new ScapeSpec(0.05, "/scapes/0.05/{z}.png", null, null, null);
+        final ScapeSpec scape10 = new ScapeSpec(0.1, "/scapes/0.1/{z}.png", null, null, null);
+        final List<ScapeSpec> scapes = Arrays.asList(scape10, scape02, scape05);
+
+        Assert.assertEquals("invalid scape for scale 0.01", scape02, ScapeSpec.findBestScape(scapes, 0.01));
+        Assert.assertEquals("invalid scape for scale 0.02", scape02, ScapeSpec.findBestScape(scapes, 0.02));
+        Assert.assertEquals("invalid scape for scale 0.03", scape05, ScapeSpec.findBestScape(scapes, 0.03));
+        Assert.assertEquals("invalid scape for scale 0.1", scape10, ScapeSpec.findBestScape(scapes, 0.1));
+        Assert.assertNull("scape should not be found for scale 0.2", ScapeSpec.findBestScape(scapes, 0.2));
+        Assert.assertNull("scape should not be found without scapes", ScapeSpec.findBestScape(null, 0.01));
+    }
+
+    @Test
+    public void testFindClosestScape() throws Exception {
+
+        final ScapeSpec scape02 = new ScapeSpec(0.02, "/scapes/0.02/{z}.png", null, null, null);
+        final ScapeSpec scape10 = new ScapeSpec(0.1, "/scapes/0.1/{z}.png", null, null, null);
+        final List<ScapeSpec> scapes = Arrays.asList(scape10, scape02);
+
+        Assert.assertEquals("invalid scape for scale 0.03", scape10, ScapeSpec.findClosestScape(scapes, 0.03));
+        Assert.assertEquals("invalid scape for scale 0.2", scape10, ScapeSpec.findClosestScape(scapes, 0.2));
+        Assert.assertNull("scape should not be found without scapes", ScapeSpec.findClosestScape(null, 0.2));
+    }
+
+    @Test
+    public void testJsonProcessing() throws Exception {
+
+        final ScapeSpec scapeSpec = new ScapeSpec(0.02, "/scapes/{z}.png", true, 10.0, 20.0);
+
+        final ScapeSpec parsedSpec = ScapeSpec.fromJson(scapeSpec.toJson());
+
+        Assert.assertEquals("invalid scale parsed", scapeSpec.getScale(), parsedSpec.getScale());
+        Assert.assertEquals("invalid pathPattern parsed", scapeSpec.getPathPattern(), parsedSpec.getPathPattern());
+        Assert.assertTrue("useLayerBounds not parsed", parsedSpec.isUseLayerBounds());
+    }
+
+    @Test
+    public void testBuildTileSpec() throws Exception {
+
+        final File scapeFile = File.createTempFile("test-scape-", ".png");
+        scapeFile.deleteOnExit();
+        ImageIO.write(new BufferedImage(40, 20, BufferedImage.TYPE_BYTE_GRAY), "png", scapeFile);
+
+        final String pathPattern = scapeFile.getAbsolutePath().replace(".png", "{zInt}.png");
+        final File renamedFile = new File(pathPattern.replace("{zInt}", "3"));
+        Assert.assertTrue("failed to rename " + scapeFile, scapeFile.renameTo(renamedFile));
+        renamedFile.deleteOnExit();
+
+        final ScapeSpec scapeSpec = new ScapeSpec(0.1, pathPattern, null, null, null);
+        final Bounds layerBounds = new Bounds(150.0, 250.0, 3.0, 400.0, 450.0, 3.0);
+        final Bounds stackBounds = new Bounds(100.0, 200.0, 1.0, 500.0, 400.0, 9.0);
+
+        final TileSpec tileSpec = scapeSpec.buildTileSpec(3.0, layerBounds, stackBounds);
+
+        Assert.assertNotNull("tile spec should be built for existing scape", tileSpec);
+        Assert.assertEquals("invalid minX", 100.0, tileSpec.getMinX(), 0.1);
+        Assert.assertEquals("invalid minY", 200.0, tileSpec.getMinY(), 0.1);
+        Assert.assertEquals("invalid maxX", 500.0, tileSpec.getMaxX(), 0.1);
+        Assert.assertEquals("invalid maxY", 400.0, tileSpec.getMaxY(), 0.1);
+
+        Assert.assertNull("tile spec should not be built for missing scape",
+                          scapeSpec.buildTileSpec(4.0, layerBounds, stackBounds));
+    }
+
+}
@@ -18,11 +18,19 @@ package org.janelia.alignment.transform;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.Random;
 
 import mpicbg.models.CoordinateTransform;
 import mpicbg.models.CoordinateTransformList;
 import mpicbg.trakem2.transform.TranslationModel2D;
 
+import net.imglib2.RandomAccessible;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.composite.RealComposite;
+
 import org.janelia.alignment.ArgbRenderer;
 import org.janelia.alignment.spec.LeafTransformSpec;
 import org.janelia.alignment.spec.TileSpec;
@@ -114,6 +122,145 @@ public class AffineWarpFieldTransformTest {
         System.out.println();
     }
 
+    @Test
+    public void testApplyMatchesAccessorEvaluation() throws Exception {
+
+        final AffineWarpField affineWarpField = buildRandomField(AffineWarpField.getDefaultInterpolatorFactory());
+        final AffineWarpFieldTransform transform = new AffineWarpFieldTransform(affineWarpField);
+
+        final double[][] locations = buildTestLocations(affineWarpField);
+        for (final double[] location : locations) {
+            final double[] expected = applyWithAccessor(affineWarpField, location);
+            final double[] actual = transform.apply(location);
+            Assert.assertEquals("invalid x for (" + location[0] + ", " + location[1] + ")",
+                                expected[0], actual[0], 1e-9);
+            Assert.assertEquals("invalid y for (" + location[0] + ", " + location[1] + ")",
+                                expected[1], actual[1], 1e-9);
+        }
+    }
+
+    @Test
+    public void testApplyWithNonDefaultInterpolator() throws Exception {
+
+        final AffineWarpField affineWarpField = buildRandomField(new NearestNeighborInterpolatorFactory<>());
+        final AffineWarpFieldTransform transform = new AffineWarpFieldTransform(affineWarpField);
+
+        final double[][] locations = buildTestLocations(affineWarpField);
+        for (final double[] location : locations) {
+            final double[] expected = applyWithAccessor(affineWarpField, location);
+            final double[] actual = transform.apply(location);
+            Assert.assertEquals("invalid x", expected[0], actual[0], 0.0);
+            Assert.assertEquals("invalid y", expected[1], actual[1], 0.0);
+        }
+
+        assertBatchMatchesSingleLocationResults(transform, locations);
+    }
+
+    @Test
+    public void testBatchApply() throws Exception {
+
+        final AffineWarpField affineWarpField = buildRandomField(AffineWarpField.getDefaultInterpolatorFactory());
+        final AffineWarpFieldTransform transform = new AffineWarpFieldTransform(affineWarpField);
+
+        assertBatchMatchesSingleLocationResults(transform, buildTestLocations(affineWarpField));
+
+        try {
+            transform.applyInPlace(new double[3], new double[2]);
+            Assert.fail("mismatched coordinate arrays should cause exception");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static AffineWarpField buildRandomField(
+            final InterpolatorFactory<RealComposite<DoubleType>, RandomAccessible<RealComposite<DoubleType>>>
+                    interpolatorFactory) {
+
+        final AffineWarpField affineWarpField = new AffineWarpField(1000, 600, 3, 4, interpolatorFactory);
+        final Random random = new Random(11);
+        for (int row = 0; row < affineWarpField.getRowCount(); row++) {
+            for (int column = 0; column < affineWarpField.getColumnCount(); column++) {
+                affineWarpField.set(row, column, new double[] {
+                        0.9 + (0.2 * random.nextDouble()),
+                        0.1 * (random.nextDouble() - 0.5),
+                        0.1 * (random.nextDouble() - 0.5),
+                        0.9 + (0.2 * random.nextDouble()),
+                        100 * (random.nextDouble() - 0.5),
+                        100 * (random.nextDouble() - 0.5)
+                });
+            }
+        }
+        return affineWarpField;
+    }
+
+    /**
+     * @return random locations within and around the specified field along with cell center and edge locations.
+     */
+    private static double[][] buildTestLocations(final AffineWarpField affineWarpField) {
+
+        final double width = affineWarpField.getWidth();
+        final double height = affineWarpField.getHeight();
+        final Random random = new Random(13);
+
+        final double[][] locations = new double[1000][];
+        int i = 0;
+        locations[i++] = new double[] { 0, 0 };
+        locations[i++] = new double[] { width, height };
+        locations[i++] = new double[] { affineWarpField.getXScale() / 2, affineWarpField.getYScale() / 2 };
+        locations[i++] = new double[] { affineWarpField.getXScale(), affineWarpField.getYScale() };
+        locations[i++] = new double[] { -5 * width, 3 * height };
+        for (; i < locations.length; i++) {
+            locations[i] = new double[] {
+                    (1.5 * width * random.nextDouble()) - (0.25 * width),
+                    (1.5 * height * random.nextDouble()) - (0.25 * height)
+            };
+        }
+        return locations;
+    }
+
+    /**
+     * Applies the specified field to the specified location with an ImgLib2 accessor
+     * (the way {@link AffineWarpFieldTransform} originally did).
+     */
+    private static double[] applyWithAccessor(final AffineWarpField affineWarpField,
+                                              final double[] location) {
+
+        final RealRandomAccess<RealComposite<DoubleType>> accessor = affineWarpField.getAccessor();
+        accessor.setPosition(location);
+        final RealComposite<DoubleType> coefficients = accessor.get();
+
+        final double m00 = coefficients.get(0).getRealDouble();
+        final double m10 = coefficients.get(1).getRealDouble();
+        final double m01 = coefficients.get(2).getRealDouble();
+        final double m11 = coefficients.get(3).getRealDouble();
+        final double m02 = coefficients.get(4).getRealDouble();
+        final double m12 = coefficients.get(5).getRealDouble();
+
+        return new double[] {
+                location[0] * m00 + location[1] * m01 + m02,
+                location[0] * m10 + location[1] * m11 + m12
+        };
+    }
+
+    private static void assertBatchMatchesSingleLocationResults(final AffineWarpFieldTransform transform,
+                                                                final double[][] locations) {
+
+        final double[] xs = new double[locations.length];
+        final double[] ys = new double[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            xs[i] = locations[i][0];
+            ys[i] = locations[i][1];
+        }
+
+        transform.applyInPlace(xs, ys);
+
+        for (int i = 0; i < locations.length; i++) {
+            final double[] expected = transform.apply(locations[i]);
+            Assert.assertEquals("invalid batch x for location " + i, expected[0], xs[i], 0.0);
+            Assert.assertEquals("invalid batch y for location " + i, expected[1], ys[i], 0.0);
+        }
+    }
+
     public static void main(final String[] args)
             throws Exception {
 
@@ -0,0 +1,247 @@
+package org.janelia.alignment.util;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import mpicbg.trakem2.util.Downsampler;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ImageProcessorCache} class.
+ *
+ * @author Eric Trautman
+ */
+public class ImageProcessorCacheTest {
+
+    private File testDirectory;
+    private String stripedUrl;
+
+    @Before
+    public void setup() throws Exception {
+        final SimpleDateFormat TIMESTAMP = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+        final String timestamp = TIMESTAMP.format(new Date());
+        testDirectory = new File("test-cache-" + timestamp).getCanonicalFile();
+        if (! testDirectory.mkdirs()) {
+            throw new IllegalStateException("failed to create " + testDirectory.getAbsolutePath());
+        }
+
+        final File stripedFile = new File(testDirectory, "striped.tif");
+        SyntheticTiffWriter.write(stripedFile, 3000, 2500, 16, false, 0, 16);
+        stripedUrl = stripedFile.toURI().toString();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.deleteRecursive(testDirectory);
+    }
+
+    @Test
+    public void testGetRegionMatchesFullImage() throws Exception {
+        validateRegionsMatchFullImage(true);
+        validateRegionsMatchFullImage(false);
+    }
+
+    private void validateRegionsMatchFullImage(final boolean cacheOriginalsForDownSampledImages) {
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  cacheOriginalsForDownSampledImages);
+
+        for (int downSampleLevels = 0; downSampleLevels < 3; downSampleLevels++) {
+
+            final ImageProcessor fullImage = ImageProcessorCache.getNonCachedImage(stripedUrl,
+                                                                                   downSampleLevels,
+                                                                                   false,
+                                                                                   false);
+
+            final int levelWidth = fullImage.getWidth();
+            final int levelHeight = fullImage.getHeight();
+
+            final Rectangle[] levelRegions = {
+                    new Rectangle(1100 >> downSampleLevels, 900 >> downSampleLevels, 700 >> downSampleLevels, 500 >> downSampleLevels),
+                    new Rectangle(-20, -30, 600 >> downSampleLevels, 400 >> downSampleLevels),
+                    new Rectangle(levelWidth - (300 >> downSampleLevels), levelHeight - (200 >> downSampleLevels), 1000, 1000)
+            };
+
+            for (final Rectangle levelRegion : levelRegions) {
+
+                final ImageProcessor regionImage = cache.getRegion(stripedUrl,
+                                                                   downSampleLevels,
+                                                                   false,
+                                                                   false,
+                                                                   levelRegion);
+
+                final String context = "level " + downSampleLevels + " region " + levelRegion +
+                                       " (cacheOriginals " + cacheOriginalsForDownSampledImages + ")";
+                Assert.assertNotNull("region not loaded for " + context, regionImage);
+
+                final Rectangle expectedRegion = levelRegion.intersection(new Rectangle(0, 0, levelWidth, levelHeight));
+                Assert.assertEquals("invalid width for " + context, expectedRegion.width, regionImage.getWidth());
+                Assert.assertEquals("invalid height for " + context, expectedRegion.height, regionImage.getHeight());
+
+                for (int y = 0; y < expectedRegion.height; y++) {
+                    for (int x = 0; x < expectedRegion.width; x++) {
+                        Assert.assertEquals("invalid pixel (" + x + "," + y + ") for " + context,
+                                            fullImage.getf(expectedRegion.x + x, expectedRegion.y + y),
+                                            regionImage.getf(x, y),
+                                            0.0001);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOverlappingRegionsReusePieces() throws Exception {
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  true);
+
+        // region spans two pieces: (1024,0) and (1024,1024)
+        cache.getRegion(stripedUrl, 0, false, false, new Rectangle(1100, 900, 700, 500));
+        Assert.assertEquals("invalid number of pieces loaded for first region", 2, cache.getStats().loadCount());
+
+        // overlapping region within the same pieces should not load anything
+        final ImageProcessor overlappingImage =
+                cache.getRegion(stripedUrl, 0, false, false, new Rectangle(1500, 1000, 500, 600));
+        Assert.assertNotNull("overlapping region not loaded", overlappingImage);
+        Assert.assertEquals("pieces should have been reused for overlapping region",
+                            2, cache.getStats().loadCount());
+        Assert.assertEquals("invalid number of cached pieces", 2, cache.size());
+
+        // down sampled regions should also reuse full scale pieces
+        cache.getRegion(stripedUrl, 1, false, false, new Rectangle(600, 500, 100, 100));
+        Assert.assertEquals("pieces should have been reused for down sampled region",
+                            2, cache.getStats().loadCount());
+    }
+
+    @Test
+    public void testDownSampledPiecesWithoutOriginals() throws Exception {
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  false);
+
+        // region spans two full scale pieces: (1024,0) and (1024,1024)
+        final ImageProcessor regionImage =
+                cache.getRegion(stripedUrl, 1, false, false, new Rectangle(600, 500, 100, 100));
+        Assert.assertNotNull("down sampled region not loaded", regionImage);
+        Assert.assertEquals("invalid number of pieces loaded", 2, cache.getStats().loadCount());
+
+        // pieces are cached at the requested level (instead of full scale), so full scale regions need new pieces
+        cache.getRegion(stripedUrl, 0, false, false, new Rectangle(1200, 1000, 200, 200));
+        Assert.assertEquals("full scale pieces should have been loaded for full scale region",
+                            4, cache.getStats().loadCount());
+    }
+
+    @Test
+    public void testGetRegionFallsBackToFullImageWhenFileIsTruncated() throws Exception {
+
+        final File truncatedFile = new File(testDirectory, "truncated.tif");
+        SyntheticTiffWriter.write(truncatedFile, 3000, 2500, 16, false, 0, 16);
+        final String truncatedUrl = truncatedFile.toURI().toString();
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  false);
+
+        // parse the layout before the file is truncated
+        Assert.assertNotNull("region not loaded before truncation",
+                             cache.getRegion(truncatedUrl, 0, false, false, new Rectangle(0, 0, 10, 10)));
+
+        try (final RandomAccessFile raf = new RandomAccessFile(truncatedFile, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        Assert.assertNull("regions should be loaded from the full image once strips are missing",
+                          cache.getRegion(truncatedUrl, 0, false, false, new Rectangle(2500, 2000, 10, 10)));
+    }
+
+    @Test
+    public void testGetRegionFallsBackToFullImage() throws Exception {
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  false);
+
+        Assert.assertNull("large regions should be loaded from the full image",
+                          cache.getRegion(stripedUrl, 0, false, false, new Rectangle(0, 0, 2900, 2400)));
+
+        Assert.assertNull("regions outside of the image should not be loaded",
+                          cache.getRegion(stripedUrl, 0, false, false, new Rectangle(4000, 4000, 10, 10)));
+
+        Assert.assertNull("regions should not be loaded for non-TIFF images",
+                          cache.getRegion("file:/missing.png", 0, false, false, new Rectangle(0, 0, 10, 10)));
+
+        cache.get(stripedUrl, 0, false, false);
+
+        Assert.assertNull("regions should not be loaded once the full image is cached",
+                          cache.getRegion(stripedUrl, 0, false, false, new Rectangle(0, 0, 10, 10)));
+    }
+
+    @Test
+    public void testDownSampleFromClosestCachedLevel() throws Exception {
+
+        final ImageProcessorCache cache = new ImageProcessorCache(ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS,
+                                                                  true,
+                                                                  true);
+
+        cache.get(stripedUrl, 2, false, false);
+        Assert.assertEquals("source and intermediate levels should be cached", 3, cache.size());
+
+        cache.get(stripedUrl, 1, false, false);
+        Assert.assertEquals("intermediate level should have been retrieved without loading",
+                            1, cache.getStats().loadCount());
+
+        final ImageProcessor level4 = cache.get(stripedUrl, 4, false, false);
+        Assert.assertEquals("level 3 should have been cached when deriving level 4", 5, cache.size());
+
+        final ImageProcessor expectedLevel4 = ImageProcessorCache.getNonCachedImage(stripedUrl, 4, false, false);
+        assertSamePixels("level 4", expectedLevel4, level4);
+    }
+
+    @Test
+    public void testParallelDownSample() throws Exception {
+
+        // odd dimensions ensure the last band and column are handled like a single threaded down sample
+        final int width = 4501;
+        final int height = 4099;
+        final short[] pixels = new short[width * height];
+        final Random random = new Random(13);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (short) random.nextInt(65536);
+        }
+        final ShortProcessor source = new ShortProcessor(width, height, pixels, null);
+
+        final ImageProcessor expected = Downsampler.downsampleImageProcessor(source, 1);
+        final ImageProcessor actual = ImageProcessorCache.downsampleOneLevel(source);
+
+        assertSamePixels("parallel down sample", expected, actual);
+    }
+
+    private void assertSamePixels(final String context,
+                                  final ImageProcessor expected,
+                                  final ImageProcessor actual) {
+        Assert.assertEquals("invalid width for " + context, expected.getWidth(), actual.getWidth());
+        Assert.assertEquals("invalid height for " + context, expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assert.assertEquals("invalid pixel (" + x + "," + y + ") for " + context,
+                                    expected.getf(x, y), actual.getf(x, y), 0.0001);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package org.janelia.alignment.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes uncompressed single channel TIFF files with predictable pixel values for region loading tests.
+ *
+ * @author Eric Trautman
+ */
+class SyntheticTiffWriter {
+
+    /**
+     * @return the synthetic value for the specified pixel.
+     */
+    static double getPixelValue(final int bitsPerSample,
+                                final int x,
+                                final int y) {
+        final double value;
+        if (bitsPerSample == 8) {
+            value = ((x * 7) + (y * 13)) % 251;
+        } else if (bitsPerSample == 16) {
+            value = ((x * 31) + (y * 17)) % 65000;
+        } else {
+            value = (x * 0.5) + (y * 0.25);
+        }
+        return value;
+    }
+
+    /**
+     * Writes a synthetic image to the specified file.
+     *
+     * @param  file           file to write.
+     * @param  width          image width.
+     * @param  height         image height.
+     * @param  bitsPerSample  8 or 16 for unsigned integer pixels, 32 for float pixels.
+     * @param  littleEndian   byte order for the file.
+     * @param  tileSize       width and height of tiles (or 0 to write strips).
+     * @param  rowsPerStrip   number of rows in each strip (ignored for tiled images).
+     */
+    static void write(final File file,
+                      final int width,
+                      final int height,
+                      final int bitsPerSample,
+                      final boolean littleEndian,
+                      final int tileSize,
+                      final int rowsPerStrip)
+            throws IOException {
+        write(file, width, height, bitsPerSample, littleEndian, tileSize, rowsPerStrip, SHORT_TYPE);
+    }
+
+    /**
+     * Writes a synthetic image to the specified file with small valued tags
+     * (bits per sample, compression, photometric interpretation, samples per pixel, and sample format)
+     * of the specified type.
+     *
+     * @param  smallValueType  TIFF type for small valued tags (1 for BYTE or 3 for SHORT).
+     */
+    static void write(final File file,
+                      final int width,
+                      final int height,
+                      final int bitsPerSample,
+                      final boolean littleEndian,
+                      final int tileSize,
+                      final int rowsPerStrip,
+                      final int smallValueType)
+            throws IOException {
+
+        final boolean tiled = tileSize > 0;
+        final int blockWidth = tiled ? tileSize : width;
+        final int blockHeight = tiled ? tileSize : rowsPerStrip;
+        final int blocksPerRow = (width + blockWidth - 1) / blockWidth;
+        final int blocksPerColumn = (height + blockHeight - 1) / blockHeight;
+        final int blockCount = blocksPerRow * blocksPerColumn;
+        final int bytesPerPixel = bitsPerSample / 8;
+
+        // tiles always have full size, but the last strip only contains the remaining rows
+        final long[] blockOffsets = new long[blockCount];
+        final long[] blockByteCounts = new long[blockCount];
+        long offset = HEADER_SIZE;
+        for (int block = 0; block < blockCount; block++) {
+            final int blockRows = tiled ? blockHeight : Math.min(blockHeight, height - (block * blockHeight));
+            blockOffsets[block] = offset;
+            blockByteCounts[block] = (long) blockWidth * blockRows * bytesPerPixel;
+            offset += blockByteCounts[block];
+        }
+
+        final List<long[]> entries = new ArrayList<>();
+        entries.add(new long[] { 256, LONG_TYPE, width });
+        entries.add(new long[] { 257, LONG_TYPE, height });
+        entries.add(new long[] { 258, smallValueType, bitsPerSample });
+        entries.add(new long[] { 259, smallValueType, 1 });
+        entries.add(new long[] { 262, smallValueType, 1 });
+        if (tiled) {
+            entries.add(new long[] { 277, smallValueType, 1 });
+            entries.add(new long[] { 322, LONG_TYPE, tileSize });
+            entries.add(new long[] { 323, LONG_TYPE, tileSize });
+            entries.add(prepend(324, blockOffsets));
+            entries.add(prepend(325, blockByteCounts));
+        } else {
+            entries.add(prepend(273, blockOffsets));
+            entries.add(new long[] { 277, smallValueType, 1 });
+            entries.add(new long[] { 278, LONG_TYPE, rowsPerStrip });
+            entries.add(prepend(279, blockByteCounts));
+        }
+        entries.add(new long[] { 339, smallValueType, bitsPerSample == 32 ? 3 : 1 });
+
+        final long ifdOffset = offset;
+        final long ifdSize = 2 + (entries.size() * 12) + 4;
+        long externalOffset = ifdOffset + ifdSize;
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (externalOffset + (2 * 4 * blockCount)));
+        buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        buffer.put((byte) (littleEndian ? 'I' : 'M'));
+        buffer.put((byte) (littleEndian ? 'I' : 'M'));
+        buffer.putShort((short) 42);
+        buffer.putInt((int) ifdOffset);
+
+        for (int block = 0; block < blockCount; block++) {
+            final int blockX = (block % blocksPerRow) * blockWidth;
+            final int blockY = (block / blocksPerRow) * blockHeight;
+            final int blockRows = (int) (blockByteCounts[block] / (blockWidth * bytesPerPixel));
+            for (int y = blockY; y < blockY + blockRows; y++) {
+                for (int x = blockX; x < blockX + blockWidth; x++) {
+                    // tile padding beyond the image is filled with zeros
+                    final double value = ((x < width) && (y < height)) ? getPixelValue(bitsPerSample, x, y) : 0;
+                    if (bitsPerSample == 8) {
+                        buffer.put((byte) value);
+                    } else if (bitsPerSample == 16) {
+                        buffer.putShort((short) value);
+                    } else {
+                        buffer.putFloat((float) value);
+                    }
+                }
+            }
+        }
+
+        buffer.putShort((short) entries.size());
+        final List<long[]> externalValues = new ArrayList<>();
+        for (final long[] entry : entries) {
+            final int count = entry.length - 2;
+            buffer.putShort((short) entry[0]);
+            buffer.putShort((short) entry[1]);
+            buffer.putInt(count);
+            if (count == 1) {
+                if (entry[1] == BYTE_TYPE) {
+                    buffer.put((byte) entry[2]);
+                    buffer.put(new byte[3]);
+                } else if (entry[1] == SHORT_TYPE) {
+                    buffer.putShort((short) entry[2]);
+                    buffer.putShort((short) 0);
+                } else {
+                    buffer.putInt((int) entry[2]);
+                }
+            } else {
+                buffer.putInt((int) externalOffset);
+                externalOffset += 4 * count;
+                externalValues.add(entry);
+            }
+        }
+        buffer.putInt(0); // no more IFDs
+
+        for (final long[] entry : externalValues) {
+            for (int i = 2; i < entry.length; i++) {
+                buffer.putInt((int) entry[i]);
+            }
+        }
+
+        try (final FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    private static long[] prepend(final int tag,
+                                  final long[] values) {
+        final long[] entry = new long[values.length + 2];
+        entry[0] = tag;
+        entry[1] = LONG_TYPE;
+        System.arraycopy(values, 0, entry, 2, values.length);
+        return entry;
+    }
+
+    private static final int HEADER_SIZE = 8;
+    static final int BYTE_TYPE = 1;
+    static final int SHORT_TYPE = 3;
+    private static final int LONG_TYPE = 4;
+}
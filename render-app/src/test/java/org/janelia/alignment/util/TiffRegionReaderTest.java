@@ -0,0 +1,159 @@
+package org.janelia.alignment.util;
+
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link TiffRegionReader} class.
+ *
+ * @author Eric Trautman
+ */
+public class TiffRegionReaderTest {
+
+    private File testDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        final SimpleDateFormat TIMESTAMP = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+        final String timestamp = TIMESTAMP.format(new Date());
+        testDirectory = new File("test-tiff-region-" + timestamp).getCanonicalFile();
+        if (! testDirectory.mkdirs()) {
+            throw new IllegalStateException("failed to create " + testDirectory.getAbsolutePath());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.deleteRecursive(testDirectory);
+    }
+
+    @Test
+    public void testReadStripedRegions() throws Exception {
+        validateRegions(8, true, 0, 7);
+        validateRegions(16, false, 0, 16);
+        validateRegions(32, true, 0, 1);
+    }
+
+    @Test
+    public void testReadTiledRegions() throws Exception {
+        validateRegions(8, false, 64, 0);
+        validateRegions(16, true, 48, 0);
+        validateRegions(32, false, 32, 0);
+    }
+
+    @Test
+    public void testByteTypedTags() throws Exception {
+
+        final File file = new File(testDirectory, "byte-typed-tags.tif");
+        // big endian byte values are misread if they are read as shorts or ints
+        SyntheticTiffWriter.write(file, 301, 257, 8, false, 0, 7, SyntheticTiffWriter.BYTE_TYPE);
+
+        final TiffRegionReader reader = new TiffRegionReader(file);
+        Assert.assertTrue("regions should be readable from " + reader + " but " + reader.getUnsupportedReason(),
+                          reader.isRegionReadable());
+
+        final ImageProcessor ip = reader.read(new Rectangle(37, 41, 100, 90));
+        Assert.assertEquals("invalid bit depth", 8, ip.getBitDepth());
+        Assert.assertEquals("invalid pixel",
+                            SyntheticTiffWriter.getPixelValue(8, 37 + 5, 41 + 3), ip.getf(5, 3), 0.0001);
+    }
+
+    @Test
+    public void testUnsupportedFiles() throws Exception {
+
+        final File notTiffFile = new File(testDirectory, "not-a-tiff.tif");
+        try (final FileOutputStream outputStream = new FileOutputStream(notTiffFile)) {
+            outputStream.write("this is not a TIFF file".getBytes());
+        }
+
+        final TiffRegionReader reader = new TiffRegionReader(notTiffFile);
+        Assert.assertFalse("regions should not be readable from " + notTiffFile, reader.isRegionReadable());
+
+        try {
+            reader.read(new Rectangle(0, 0, 1, 1));
+            Assert.fail("read should have failed for " + notTiffFile);
+        } catch (final IllegalArgumentException e) {
+            Assert.assertTrue("invalid exception message: " + e.getMessage(),
+                              e.getMessage().contains(reader.getUnsupportedReason()));
+        }
+    }
+
+    @Test
+    public void testGetTiffFile() throws Exception {
+
+        final File file = new File(testDirectory, "test.tif");
+
+        Assert.assertEquals("invalid file for uri", file, TiffRegionReader.getTiffFile(file.toURI().toString()));
+        Assert.assertEquals("invalid file for path", file, TiffRegionReader.getTiffFile(file.getAbsolutePath()));
+        Assert.assertNull("non-TIFF files should be ignored", TiffRegionReader.getTiffFile("file:/test.png"));
+        Assert.assertNull("remote files should be ignored", TiffRegionReader.getTiffFile("http://host/test.tif"));
+        Assert.assertNull("s3 files should be ignored", TiffRegionReader.getTiffFile("s3://bucket/test.tif"));
+    }
+
+    private void validateRegions(final int bitsPerSample,
+                                 final boolean littleEndian,
+                                 final int tileSize,
+                                 final int rowsPerStrip)
+            throws IOException {
+
+        final int width = 301;
+        final int height = 257;
+        final File file = new File(testDirectory,
+                                   "test-" + bitsPerSample + "-" + littleEndian + "-" + tileSize + ".tif");
+
+        SyntheticTiffWriter.write(file, width, height, bitsPerSample, littleEndian, tileSize, rowsPerStrip);
+
+        final TiffRegionReader reader = new TiffRegionReader(file);
+        Assert.assertTrue("regions should be readable from " + reader + " but " + reader.getUnsupportedReason(),
+                          reader.isRegionReadable());
+        Assert.assertEquals("invalid width", width, reader.getWidth());
+        Assert.assertEquals("invalid height", height, reader.getHeight());
+
+        final Rectangle[] regions = {
+                new Rectangle(0, 0, width, height),
+                new Rectangle(0, 0, 1, 1),
+                new Rectangle(width - 1, height - 1, 1, 1),
+                new Rectangle(37, 41, 100, 90),
+                new Rectangle(250, 200, 51, 57)
+        };
+
+        for (final Rectangle region : regions) {
+
+            final ImageProcessor ip = reader.read(region);
+
+            final String context = reader + " region " + region;
+            Assert.assertEquals("invalid bit depth for " + context, bitsPerSample, ip.getBitDepth());
+            Assert.assertEquals("invalid width for " + context, region.width, ip.getWidth());
+            Assert.assertEquals("invalid height for " + context, region.height, ip.getHeight());
+
+            for (int y = 0; y < region.height; y++) {
+                for (int x = 0; x < region.width; x++) {
+                    final double expected = SyntheticTiffWriter.getPixelValue(bitsPerSample,
+                                                                              region.x + x,
+                                                                              region.y + y);
+                    Assert.assertEquals("invalid pixel (" + x + "," + y + ") for " + context,
+                                        expected, ip.getf(x, y), 0.0001);
+                }
+            }
+        }
+
+        try {
+            reader.read(new Rectangle(width - 10, 0, 11, 1));
+            Assert.fail("read should have failed for region outside of " + reader);
+        } catch (final IllegalArgumentException e) {
+            Assert.assertTrue(true); // test passed
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.janelia.alignment.warp;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformList;
+import mpicbg.trakem2.transform.ThinPlateSplineTransform;
+
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.transform.AffineWarpFieldTransform;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AffineWarpFieldBuilder} class.
+ *
+ * @author Eric Trautman
+ */
+public class AffineWarpFieldBuilderTest {
+
+    private ThinPlateSplineTransform tpsTransform;
+    private double minX;
+    private double minY;
+    private double width;
+    private double height;
+
+    @Before
+    public void setup() throws Exception {
+
+        final List<TileSpec> montageTiles = getTiles("small_montage.json");
+        final List<TileSpec> alignTiles = getTiles("small_align.json");
+
+        tpsTransform = new ThinPlateSplineBuilder(montageTiles, alignTiles).call();
+
+        minX = Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (final TileSpec tileSpec : montageTiles) {
+            minX = Math.min(minX, tileSpec.getMinX());
+            minY = Math.min(minY, tileSpec.getMinY());
+            maxX = Math.max(maxX, tileSpec.getMaxX());
+            maxY = Math.max(maxY, tileSpec.getMaxY());
+        }
+        width = maxX - minX;
+        height = maxY - minY;
+    }
+
+    @Test
+    public void testApproximation() throws Exception {
+
+        final double maxError = 0.5;
+        final AffineWarpFieldBuilder builder =
+                new AffineWarpFieldBuilder(tpsTransform, minX, minY, width, height, 4096, 8, maxError);
+
+        final AffineWarpFieldTransform fieldTransform = builder.call();
+
+        Assert.assertTrue("sampled error " + builder.getSampledError() + " exceeds limit",
+                          builder.getSampledError() <= maxError);
+
+        final CoordinateTransformList<CoordinateTransform> worldTransform = new CoordinateTransformList<>();
+        worldTransform.add(builder.getWorldToFieldTransform());
+        worldTransform.add(fieldTransform);
+        worldTransform.add(builder.getFieldToWorldTransform());
+
+        // compare random (unsampled) world locations, allowing a little slack since they were not checked by builder
+        final double acceptableError = 2 * maxError;
+        final Random random = new Random(31);
+        for (int i = 0; i < 1000; i++) {
+            final double[] expected = { minX + random.nextDouble() * width, minY + random.nextDouble() * height };
+            final double[] actual = expected.clone();
+            tpsTransform.applyInPlace(expected);
+            worldTransform.applyInPlace(actual);
+            Assert.assertEquals("invalid x for location " + i, expected[0], actual[0], acceptableError);
+            Assert.assertEquals("invalid y for location " + i, expected[1], actual[1], acceptableError);
+        }
+    }
+
+    @Test
+    public void testSerializedApproximation() throws Exception {
+
+        final AffineWarpFieldBuilder builder =
+                new AffineWarpFieldBuilder(tpsTransform, minX, minY, width, height, 1024, 8, 1.0);
+
+        final AffineWarpFieldTransform fieldTransform = builder.call();
+        final AffineWarpFieldTransform restoredTransform = new AffineWarpFieldTransform();
+        restoredTransform.init(fieldTransform.toDataString());
+
+        final double[] location = { width / 3, height / 5 };
+        final double[] restoredLocation = location.clone();
+        fieldTransform.applyInPlace(location);
+        restoredTransform.applyInPlace(restoredLocation);
+
+        Assert.assertArrayEquals("restored transform should produce same result",
+                                 location, restoredLocation, 0.0000001);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnreachableError() throws Exception {
+        new AffineWarpFieldBuilder(tpsTransform, minX, minY, width, height, 4096, 2048, 0.0000001).call();
+    }
+
+    private List<TileSpec> getTiles(final String jsonFileName) throws IOException {
+        final File jsonFile = new File("src/test/resources/warp-test/" + jsonFileName);
+        try (Reader reader = new FileReader(jsonFile)) {
+            return TileSpec.fromJsonArray(reader);
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package org.janelia.perf;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformList;
+import mpicbg.trakem2.transform.AffineModel2D;
+import mpicbg.trakem2.transform.TransformMeshMappingWithMasks.ImageProcessorWithMasks;
+
+import org.janelia.alignment.RenderTransformAffineMapping;
+import org.janelia.alignment.RenderTransformMesh;
+import org.janelia.alignment.RenderTransformMeshMappingWithMasks;
+import org.janelia.alignment.mapper.PixelMapper;
+import org.janelia.alignment.mapper.SingleChannelWithAlphaMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the time needed to map a montage of affine-only tiles through a
+ * {@link RenderTransformMesh mesh} with the time needed to map the same tiles
+ * with a {@link RenderTransformAffineMapping direct affine mapping}.
+ * Sorted average times are printed to standard out.
+ *
+ * <p>
+ * Tiles are synthetic 2650x2260 float images with masks (the size of typical FAFB tiles)
+ * mapped with interpolation and alpha blending, so that only mapping time is measured
+ * (source image loading is excluded).
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class AffineMappingPerformanceTest {
+
+    private static final int TILE_WIDTH = 2650;
+    private static final int TILE_HEIGHT = 2260;
+    private static final int TILES_PER_ROW = 2;
+    private static final double MESH_CELL_SIZE = 64.0;
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+
+    private FloatProcessor sourceIp;
+    private ByteProcessor sourceMask;
+    private List<CoordinateTransformList<CoordinateTransform>> tileTransformLists;
+
+    private PerformanceTestData.TestResults<TestData> testResults;
+    private List<TestData> testDataList;
+
+    public static void main(final String[] args) {
+        final AffineMappingPerformanceTest test = new AffineMappingPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 3;
+
+        final Random random = new Random(7);
+        sourceIp = new FloatProcessor(TILE_WIDTH, TILE_HEIGHT);
+        sourceMask = new ByteProcessor(TILE_WIDTH, TILE_HEIGHT);
+        for (int y = 0; y < TILE_HEIGHT; y++) {
+            for (int x = 0; x < TILE_WIDTH; x++) {
+                sourceIp.setf(x, y, random.nextInt(256));
+                sourceMask.set(x, y, 255);
+            }
+        }
+
+        // slightly rotated montage with ten percent overlap (like a typical montage-only stack)
+        tileTransformLists = new ArrayList<>();
+        for (int row = 0; row < TILES_PER_ROW; row++) {
+            for (int column = 0; column < TILES_PER_ROW; column++) {
+                final AffineModel2D tileAffine = new AffineModel2D();
+                tileAffine.init("0.9998 0.0175 -0.0175 0.9998 " +
+                                (column * TILE_WIDTH * 0.9) + " " + (row * TILE_HEIGHT * 0.9));
+                final CoordinateTransformList<CoordinateTransform> transformList = new CoordinateTransformList<>();
+                transformList.add(tileAffine);
+                tileTransformLists.add(transformList);
+            }
+        }
+
+        createAndOrderTests();
+    }
+
+    @Test
+    public void runTests() throws Exception {
+        if (enableTests) {
+            for (final TestData testData : testDataList) {
+                runTest(testData);
+            }
+            testResults.collateAndPrintTimes(testDataList);
+        }
+    }
+
+    private void runTest(final TestData testData) {
+
+        final int targetWidth = (int) (TILE_WIDTH * (TILES_PER_ROW * 0.9 + 0.2));
+        final int targetHeight = (int) (TILE_HEIGHT * (TILES_PER_ROW * 0.9 + 0.2));
+        final ImageProcessorWithMasks target =
+                new ImageProcessorWithMasks(new FloatProcessor(targetWidth, targetHeight),
+                                            new ByteProcessor(targetWidth, targetHeight),
+                                            null);
+        final ImageProcessorWithMasks source = new ImageProcessorWithMasks(sourceIp, sourceMask, null);
+
+        // *** Start Clock ***
+        testData.setStartTime();
+
+        for (final CoordinateTransformList<CoordinateTransform> transformList : tileTransformLists) {
+
+            final PixelMapper pixelMapper = new SingleChannelWithAlphaMapper(source, target, true);
+
+            if (testData.useMesh) {
+                final RenderTransformMesh mesh = new RenderTransformMesh(transformList,
+                                                                         (int) (TILE_WIDTH / MESH_CELL_SIZE + 0.5),
+                                                                         TILE_WIDTH,
+                                                                         TILE_HEIGHT);
+                mesh.updateAffines();
+                new RenderTransformMeshMappingWithMasks(mesh).map(pixelMapper, testData.threads);
+            } else {
+                final RenderTransformAffineMapping mapping =
+                        RenderTransformAffineMapping.build(transformList, TILE_WIDTH, TILE_HEIGHT);
+                if (mapping == null) {
+                    throw new IllegalStateException("failed to build affine mapping for " + transformList);
+                }
+                mapping.map(pixelMapper, testData.threads);
+            }
+        }
+
+        // *** Stop Clock ***
+        testData.calculateElapsedTime();
+    }
+
+    private void createAndOrderTests() {
+
+        testDataList = new ArrayList<>();
+
+        final int availableProcessors = Runtime.getRuntime().availableProcessors();
+
+        for (int testNumber = 0; testNumber < numberOfTimesToRepeatEachTest; testNumber++) {
+            for (int threadCount = 1; threadCount <= 4; threadCount = threadCount * 2) {
+                if (threadCount <= availableProcessors) {
+                    for (final boolean useMesh : new boolean[] { true, false }) {
+                        testDataList.add(new TestData(useMesh, threadCount, String.valueOf(testNumber)));
+                    }
+                }
+            }
+        }
+
+        testResults = new PerformanceTestData.TestResults<TestData>() {
+
+            @Override
+            public TestData getAverageInstance(final TestData groupInstance,
+                                               final long averageElapsedTime,
+                                               final int numberOfTests) {
+
+                final TestData averageInstance = new TestData(groupInstance.useMesh,
+                                                              groupInstance.threads,
+                                                              "avg(" + numberOfTests + ")");
+                averageInstance.setElapsedTime(averageElapsedTime);
+                return averageInstance;
+            }
+
+            @Override
+            public String getReportHeader(final String reportName) {
+                final String headerFormat = "%7s  %6s  %-7s  %11s";
+                return String.format(headerFormat, "threads", "method", "test   ", "elapsedTime") + "\n" +
+                       String.format(headerFormat, "-------", "------", "-------", "-----------");
+            }
+
+            @Override
+            public String formatTestResult(final TestData result) {
+                return String.format("%7d  %6s  %-7s  %11d",
+                                     result.threads, result.getMethod(), result.test, result.getElapsedTime());
+            }
+
+            @Override
+            public Map<String, Comparator<TestData>> getReportNameToComparatorMap() {
+                final Map<String, Comparator<TestData>> map = new LinkedHashMap<>();
+                map.put("Threads::Method Results", threadsComparator);
+                return map;
+            }
+
+            private final Comparator<TestData> threadsComparator =
+                    new Comparator<TestData>() {
+                        @Override
+                        public int compare(final TestData o1,
+                                           final TestData o2) {
+                            int result = o1.threads - o2.threads;
+                            if (result == 0) {
+                                result = (int) (o1.getElapsedTime() - o2.getElapsedTime());
+                                if (result == 0) {
+                                    result = o1.test.compareTo(o2.test);
+                                }
+                            }
+                            return result;
+                        }
+                    };
+        };
+    }
+
+    public class TestData extends PerformanceTestData {
+
+        private final boolean useMesh;
+        private final int threads;
+        private final String test;
+
+        public TestData(final boolean useMesh,
+                        final int threads,
+                        final String test) {
+            this.useMesh = useMesh;
+            this.threads = threads;
+            this.test = test;
+        }
+
+        public String getMethod() {
+            return useMesh ? "mesh" : "affine";
+        }
+
+        @Override
+        public String getAverageGroup() {
+            return getMethod() + "::" + threads;
+        }
+
+        @Override
+        public String getReportGroup() {
+            return String.valueOf(threads);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.janelia.perf;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.imglib2.RealRandomAccess;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.composite.RealComposite;
+
+import org.janelia.alignment.transform.AffineWarpField;
+import org.janelia.alignment.transform.AffineWarpFieldTransform;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the time needed to evaluate an {@link AffineWarpFieldTransform} with an ImgLib2 accessor
+ * (the original implementation) with the time needed for direct single location and batch evaluation.
+ * Sorted average times are printed to standard out.
+ *
+ * <p>
+ * Locations are spread across a 64x64 field covering 40,000x40,000 pixels, roughly the number of
+ * mesh vertices needed to render a large section at full resolution.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class AffineWarpFieldTransformPerformanceTest {
+
+    private static final int FIELD_SIZE = 40000;
+    private static final int FIELD_CELLS_PER_AXIS = 64;
+    private static final int NUMBER_OF_LOCATIONS = 4000000;
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+
+    private AffineWarpField affineWarpField;
+    private double[] sourceXs;
+    private double[] sourceYs;
+
+    private PerformanceTestData.TestResults<TestData> testResults;
+    private List<TestData> testDataList;
+
+    public static void main(final String[] args) {
+        final AffineWarpFieldTransformPerformanceTest test = new AffineWarpFieldTransformPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 5;
+
+        final Random random = new Random(17);
+
+        affineWarpField = new AffineWarpField(FIELD_SIZE, FIELD_SIZE, FIELD_CELLS_PER_AXIS, FIELD_CELLS_PER_AXIS,
+                                              AffineWarpField.getDefaultInterpolatorFactory());
+        for (int row = 0; row < FIELD_CELLS_PER_AXIS; row++) {
+            for (int column = 0; column < FIELD_CELLS_PER_AXIS; column++) {
+                affineWarpField.set(row, column, new double[] {
+                        0.95 + (0.1 * random.nextDouble()), 0.01 * random.nextDouble(),
+                        0.01 * random.nextDouble(), 0.95 + (0.1 * random.nextDouble()),
+                        50 * random.nextDouble(), 50 * random.nextDouble()
+                });
+            }
+        }
+
+        sourceXs = new double[NUMBER_OF_LOCATIONS];
+        sourceYs = new double[NUMBER_OF_LOCATIONS];
+        for (int i = 0; i < NUMBER_OF_LOCATIONS; i++) {
+            sourceXs[i] = FIELD_SIZE * random.nextDouble();
+            sourceYs[i] = FIELD_SIZE * random.nextDouble();
+        }
+
+        createAndOrderTests();
+    }
+
+    @Test
+    public void runTests() throws Exception {
+        if (enableTests) {
+            for (final TestData testData : testDataList) {
+                runTest(testData);
+            }
+            testResults.collateAndPrintTimes(testDataList);
+        }
+    }
+
+    private void runTest(final TestData testData) {
+
+        final AffineWarpFieldTransform transform = new AffineWarpFieldTransform(affineWarpField);
+        final double[] xs = sourceXs.clone();
+        final double[] ys = sourceYs.clone();
+
+        // *** Start Clock ***
+        testData.setStartTime();
+
+        switch (testData.method) {
+            case ACCESSOR:
+                applyWithAccessor(xs, ys);
+                break;
+            case SINGLE:
+                final double[] location = new double[2];
+                for (int i = 0; i < xs.length; i++) {
+                    location[0] = xs[i];
+                    location[1] = ys[i];
+                    transform.applyInPlace(location);
+                    xs[i] = location[0];
+                    ys[i] = location[1];
+                }
+                break;
+            case BATCH:
+                transform.applyInPlace(xs, ys);
+                break;
+        }
+
+        // *** Stop Clock ***
+        testData.calculateElapsedTime();
+
+        testData.checksum = 0;
+        for (int i = 0; i < xs.length; i++) {
+            testData.checksum += xs[i] + ys[i];
+        }
+    }
+
+    private void applyWithAccessor(final double[] xs,
+                                   final double[] ys) {
+
+        final RealRandomAccess<RealComposite<DoubleType>> accessor = affineWarpField.getAccessor();
+        final double[] location = new double[2];
+
+        for (int i = 0; i < xs.length; i++) {
+            location[0] = xs[i];
+            location[1] = ys[i];
+            accessor.setPosition(location);
+            final RealComposite<DoubleType> coefficients = accessor.get();
+
+            final double m00 = coefficients.get(0).getRealDouble();
+            final double m10 = coefficients.get(1).getRealDouble();
+            final double m01 = coefficients.get(2).getRealDouble();
+            final double m11 = coefficients.get(3).getRealDouble();
+            final double m02 = coefficients.get(4).getRealDouble();
+            final double m12 = coefficients.get(5).getRealDouble();
+
+            xs[i] = location[0] * m00 + location[1] * m01 + m02;
+            ys[i] = location[0] * m10 + location[1] * m11 + m12;
+        }
+    }
+
+    private void createAndOrderTests() {
+
+        testDataList = new ArrayList<>();
+
+        for (int testNumber = 0; testNumber < numberOfTimesToRepeatEachTest; testNumber++) {
+            for (final Method method : Method.values()) {
+                testDataList.add(new TestData(method, String.valueOf(testNumber)));
+            }
+        }
+
+        testResults = new PerformanceTestData.TestResults<TestData>() {
+
+            @Override
+            public TestData getAverageInstance(final TestData groupInstance,
+                                               final long averageElapsedTime,
+                                               final int numberOfTests) {
+
+                final TestData averageInstance = new TestData(groupInstance.method,
+                                                              "avg(" + numberOfTests + ")");
+                averageInstance.setElapsedTime(averageElapsedTime);
+                averageInstance.checksum = groupInstance.checksum;
+                return averageInstance;
+            }
+
+            @Override
+            public String getReportHeader(final String reportName) {
+                final String headerFormat = "%-8s  %-7s  %11s  %20s";
+                return String.format(headerFormat, "method", "test   ", "elapsedTime", "checksum") + "\n" +
+                       String.format(headerFormat, "--------", "-------", "-----------", "--------------------");
+            }
+
+            @Override
+            public String formatTestResult(final TestData result) {
+                return String.format("%-8s  %-7s  %11d  %20.6f",
+                                     result.method, result.test, result.getElapsedTime(), result.checksum);
+            }
+
+            @Override
+            public Map<String, Comparator<TestData>> getReportNameToComparatorMap() {
+                final Map<String, Comparator<TestData>> map = new LinkedHashMap<>();
+                map.put("Method Results", elapsedTimeComparator);
+                return map;
+            }
+
+            private final Comparator<TestData> elapsedTimeComparator =
+                    new Comparator<TestData>() {
+                        @Override
+                        public int compare(final TestData o1,
+                                           final TestData o2) {
+                            int result = (int) (o1.getElapsedTime() - o2.getElapsedTime());
+                            if (result == 0) {
+                                result = o1.test.compareTo(o2.test);
+                            }
+                            return result;
+                        }
+                    };
+        };
+    }
+
+    private enum Method { ACCESSOR, SINGLE, BATCH }
+
+    public class TestData extends PerformanceTestData {
+
+        private final Method method;
+        private final String test;
+        private double checksum;
+
+        public TestData(final Method method,
+                        final String test) {
+            this.method = method;
+            this.test = test;
+            this.checksum = 0;
+        }
+
+        @Override
+        public String getAverageGroup() {
+            return method.name();
+        }
+
+        @Override
+        public String getReportGroup() {
+            return "all";
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.janelia.perf;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.janelia.alignment.filter.CLAHE;
+import org.janelia.alignment.filter.Filter;
+import org.janelia.alignment.filter.NormalizeLocalContrast;
+import org.janelia.alignment.filter.ParallelCLAHE;
+import org.janelia.alignment.filter.ParallelNormalizeLocalContrast;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the time needed to apply the single-threaded {@link CLAHE} and {@link NormalizeLocalContrast}
+ * filters with the time needed to apply their {@link ParallelCLAHE} and {@link ParallelNormalizeLocalContrast}
+ * counterparts over representative block radii.  Sorted average times are printed to standard out along with
+ * the maximum and mean pixel differences between the results of each parallel filter and its counterpart.
+ *
+ * <p>
+ * Tiles are synthetic 8-bit images with a smooth gradient and noise.  The default 4096x4096 size keeps
+ * single-threaded runs tolerable - increase TILE_SIZE to 8192 to measure full resolution camera tiles.
+ * </p>
+ *
+ * @author Eric Trautman
+ */
+public class LocalContrastFilterPerformanceTest {
+
+    private static final int TILE_SIZE = 4096;
+    private static final int[] BLOCK_RADII = { 50, 250, 500 };
+
+    private boolean enableTests;
+    private int numberOfTimesToRepeatEachTest;
+
+    private ByteProcessor sourceIp;
+    private Map<String, ImageProcessor> filterToResult;
+
+    private PerformanceTestData.TestResults<TestData> testResults;
+    private List<TestData> testDataList;
+
+    public static void main(final String[] args) {
+        final LocalContrastFilterPerformanceTest test = new LocalContrastFilterPerformanceTest();
+        try {
+            test.setup();
+            test.enableTests = true;
+            test.runTests();
+        } catch (final Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        enableTests = false; // set this to true to enable tests - normally, there is no need to run them
+        numberOfTimesToRepeatEachTest = 3;
+
+        final Random random = new Random(23);
+        sourceIp = new ByteProcessor(TILE_SIZE, TILE_SIZE);
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                sourceIp.set(x, y, ((x + y) * 192 / (2 * TILE_SIZE)) + random.nextInt(64));
+            }
+        }
+
+        filterToResult = new HashMap<>();
+
+        createAndOrderTests();
+    }
+
+    @Test
+    public void runTests() throws Exception {
+        if (enableTests) {
+            for (final TestData testData : testDataList) {
+                runTest(testData);
+            }
+            for (final TestData testData : testDataList) {
+                testData.setDifferences(filterToResult.get(testData.getFilterKey()),
+                                        filterToResult.get(testData.getCounterpartFilterKey()));
+            }
+            testResults.collateAndPrintTimes(testDataList);
+        }
+    }
+
+    private void runTest(final TestData testData) {
+
+        final ImageProcessor ip = sourceIp.duplicate();
+
+        // *** Start Clock ***
+        testData.setStartTime();
+
+        testData.filter.process(ip, 1.0);
+
+        // *** Stop Clock ***
+        testData.calculateElapsedTime();
+
+        filterToResult.put(testData.getFilterKey(), ip);
+    }
+
+    private void createAndOrderTests() {
+
+        testDataList = new ArrayList<>();
+
+        for (int testNumber = 0; testNumber < numberOfTimesToRepeatEachTest; testNumber++) {
+            for (final int blockRadius : BLOCK_RADII) {
+                final String test = String.valueOf(testNumber);
+                testDataList.add(new TestData("CLAHE", false,
+                                              new CLAHE(true, blockRadius, 256, 2.5f),
+                                              blockRadius, test));
+                testDataList.add(new TestData("CLAHE", true,
+                                              new ParallelCLAHE(true, blockRadius, 256, 2.5f),
+                                              blockRadius, test));
+                testDataList.add(new TestData("NLC", false,
+                                              new NormalizeLocalContrast(blockRadius, blockRadius, 3, true, true),
+                                              blockRadius, test));
+                testDataList.add(new TestData("NLC", true,
+                                              new ParallelNormalizeLocalContrast(blockRadius, blockRadius, 3,
+                                                                                 true, true),
+                                              blockRadius, test));
+            }
+        }
+
+        testResults = new PerformanceTestData.TestResults<TestData>() {
+
+            @Override
+            public TestData getAverageInstance(final TestData groupInstance,
+                                               final long averageElapsedTime,
+                                               final int numberOfTests) {
+
+                final TestData averageInstance = new TestData(groupInstance.filterName,
+                                                              groupInstance.isParallel,
+                                                              groupInstance.filter,
+                                                              groupInstance.blockRadius,
+                                                              "avg(" + numberOfTests + ")");
+                averageInstance.setElapsedTime(averageElapsedTime);
+                averageInstance.maxDifference = groupInstance.maxDifference;
+                averageInstance.meanDifference = groupInstance.meanDifference;
+                return averageInstance;
+            }
+
+            @Override
+            public String getReportHeader(final String reportName) {
+                final String headerFormat = "%-6s  %8s  %6s  %-7s  %11s  %7s  %8s";
+                return String.format(headerFormat,
+                                     "filter", "method", "radius", "test   ", "elapsedTime",
+                                     "maxDiff", "meanDiff") + "\n" +
+                       String.format(headerFormat,
+                                     "------", "--------", "------", "-------", "-----------",
+                                     "-------", "--------");
+            }
+
+            @Override
+            public String formatTestResult(final TestData result) {
+                return String.format("%-6s  %8s  %6d  %-7s  %11d  %7d  %8.4f",
+                                     result.filterName, result.getMethod(), result.blockRadius, result.test,
+                                     result.getElapsedTime(), result.maxDifference, result.meanDifference);
+            }
+
+            @Override
+            public Map<String, Comparator<TestData>> getReportNameToComparatorMap() {
+                final Map<String, Comparator<TestData>> map = new LinkedHashMap<>();
+                map.put("Filter::Radius Results", filterComparator);
+                return map;
+            }
+
+            private final Comparator<TestData> filterComparator =
+                    new Comparator<TestData>() {
+                        @Override
+                        public int compare(final TestData o1,
+                                           final TestData o2) {
+                            int result = o1.filterName.compareTo(o2.filterName);
+                            if (result == 0) {
+                                result = o1.blockRadius - o2.blockRadius;
+                                if (result == 0) {
+                                    result = (int) (o1.getElapsedTime() - o2.getElapsedTime());
+                                    if (result == 0) {
+                                        result = o1.test.compareTo(o2.test);
+                                    }
+                                }
+                            }
+                            return result;
+                        }
+                    };
+        };
+    }
+
+    public class TestData extends PerformanceTestData {
+
+        private final String filterName;
+        private final boolean isParallel;
+        private final Filter filter;
+        private final int blockRadius;
+        private final String test;
+        private int maxDifference;
+        private double meanDifference;
+
+        public TestData(final String filterName,
+                        final boolean isParallel,
+                        final Filter filter,
+                        final int blockRadius,
+                        final String test) {
+            this.filterName = filterName;
+            this.isParallel = isParallel;
+            this.filter = filter;
+            this.blockRadius = blockRadius;
+            this.test = test;
+            this.maxDifference = 0;
+            this.meanDifference = 0;
+        }
+
+        public String getMethod() {
+            return isParallel ? "parallel" : "single";
+        }
+
+        public String getFilterKey() {
+            return filterName + "::" + getMethod() + "::" + blockRadius;
+        }
+
+        public String getCounterpartFilterKey() {
+            return filterName + "::" + (isParallel ? "single" : "parallel") + "::" + blockRadius;
+        }
+
+        public void setDifferences(final ImageProcessor result,
+                                   final ImageProcessor counterpartResult) {
+            if ((result != null) && (counterpartResult != null)) {
+                long differenceSum = 0;
+                for (int i = 0; i < result.getPixelCount(); i++) {
+                    final int difference = Math.abs(result.get(i) - counterpartResult.get(i));
+                    maxDifference = Math.max(maxDifference, difference);
+                    differenceSum += difference;
+                }
+                meanDifference = (double) differenceSum / result.getPixelCount();
+            }
+        }
+
+        @Override
+        public String getAverageGroup() {
+            return getFilterKey();
+        }
+
+        @Override
+        public String getReportGroup() {
+            return filterName;
+        }
+    }
+}
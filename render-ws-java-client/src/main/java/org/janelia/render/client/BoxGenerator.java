@@ -18,6 +18,8 @@ import java.util.Set;
 import org.janelia.alignment.ArgbRenderer;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.Utils;
+import org.janelia.alignment.betterbox.MaterializedBoxAttributes;
+import org.janelia.alignment.mipmap.BoxImageCache;
 import org.janelia.alignment.mipmap.BoxMipmapGenerator;
 import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
@@ -74,6 +76,10 @@ public class BoxGenerator implements Serializable {
         this.renderWebParameters = renderWebParameters;
         this.boxParameters = boxParameters;
 
+        if (boxParameters.isSharded()) {
+            throw new IllegalArgumentException("sharded boxes are only supported by the betterbox generator");
+        }
+
         this.stack = boxParameters.stack;
         this.format = boxParameters.format;
         this.boxWidth = boxParameters.width;
@@ -155,6 +161,11 @@ public class BoxGenerator implements Serializable {
     public void createEmptyImageFile()
             throws IOException {
 
+        // record render options so that the web service only serves these boxes for matching requests
+        new MaterializedBoxAttributes(format,
+                                      boxParameters.binaryMask,
+                                      boxParameters.skipInterpolation).save(boxDirectory.getAbsolutePath());
+
         if (emptyImageFile.exists()) {
 
             LOG.debug("skipping creation of {} because it already exists", emptyImageFile.getAbsolutePath());
@@ -228,6 +239,9 @@ public class BoxGenerator implements Serializable {
         LOG.info("generateBoxesForZ: {}, layerBounds={}, boxBounds={}, tileCount={}",
                  z, layerBounds, boxBounds, tileCount);
 
+        final BoxImageCache boxCache =
+                boxParameters.isPyramidCacheEnabled() ? new BoxImageCache(boxParameters.pyramidCacheSize) : null;
+
         BoxMipmapGenerator boxMipmapGenerator = new BoxMipmapGenerator(z.intValue(),
                                                                        boxParameters.label,
                                                                        format,
@@ -239,7 +253,8 @@ public class BoxGenerator implements Serializable {
                                                                        boxBounds.getLastRow(),
                                                                        boxBounds.getFirstColumn(),
                                                                        boxBounds.getLastColumn(),
-                                                                       boxParameters.forceGeneration);
+                                                                       boxParameters.forceGeneration,
+                                                                       boxCache);
         final IGridPaths iGridPaths;
         if (boxParameters.createIGrid) {
             iGridPaths = new IGridPaths(boxBounds.getNumberOfRows(), boxBounds.getNumberOfColumns());
@@ -395,12 +410,8 @@ public class BoxGenerator implements Serializable {
                                                   final int column)
             throws IOException {
 
-        final String boxParametersUrl =
-                getRenderDataClient().getRenderParametersUrlString(stack, x, y, z, boxWidth, boxHeight, 1.0);
-
-        LOG.info("generateLevelZeroBox: loading {}", boxParametersUrl);
-
-        final RenderParameters renderParameters = RenderParameters.loadFromUrl(boxParametersUrl);
+        final RenderParameters renderParameters =
+                getRenderDataClient().getRenderParameters(stack, x, y, z, boxWidth, boxHeight, 1.0);
         renderParameters.setSkipInterpolation(boxParameters.skipInterpolation);
         renderParameters.setBinaryMask(boxParameters.binaryMask);
         renderParameters.setBackgroundRGBColor(backgroundRGBColor);
@@ -416,7 +427,7 @@ public class BoxGenerator implements Serializable {
                                          boxParameters.label,
                                          format);
 
-            boxMipmapGenerator.addSource(row, column, levelZeroFile);
+            boxMipmapGenerator.addSource(row, column, levelZeroFile, levelZeroImage);
 
             if (iGridPaths != null) {
                 iGridPaths.addImage(levelZeroFile, row, column);
@@ -22,6 +22,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -490,16 +491,22 @@ public class CoordinateClient {
 
             final int maxTileIdsPerRequest = 50000;
 
+            // request batches concurrently (the shared client pools connections to the server)
+            final List<CompletableFuture<List<TileSpec>>> batchFutures = new ArrayList<>();
             for (final String tileId : tileIdSet) {
                 if (tileIdList.size() == maxTileIdsPerRequest) {
-                    tileSpecList.addAll(renderDataClient.getTileSpecsWithIds(tileIdList, stack));
+                    batchFutures.add(renderDataClient.getTileSpecsWithIdsAsync(tileIdList, stack));
                     tileIdList.clear();
                 }
                 tileIdList.add(tileId);
             }
 
             if (tileIdList.size() > 0) {
-                tileSpecList.addAll(renderDataClient.getTileSpecsWithIds(tileIdList, stack));
+                batchFutures.add(renderDataClient.getTileSpecsWithIdsAsync(tileIdList, stack));
+            }
+
+            for (final CompletableFuture<List<TileSpec>> batchFuture : batchFutures) {
+                tileSpecList.addAll(RenderDataClient.getAsyncResult(batchFuture));
             }
 
         } catch (final Throwable t) {
@@ -50,6 +50,12 @@ public class ImportJsonClient {
                 required = false)
         public String transformFile;
 
+        @Parameter(
+                names = "--threads",
+                description = "Number of threads to use for deriving bounding boxes and validating tiles",
+                required = false)
+        public int numberOfThreads = 1;
+
         @Parameter(
                 description = "list of tile spec files (.json, .gz, or .zip)",
                 required = true)
@@ -103,26 +109,16 @@ public class ImportJsonClient {
         if (tileSpecs.size() > 0) {
 
             final ProcessTimer timer = new ProcessTimer();
-            int tileSpecCount = 0;
 
             final ResolvedTileSpecCollection resolvedTiles =
                     new ResolvedTileSpecCollection(transformSpecs,
                                                    tileSpecs);
+            resolvedTiles.setNumberOfThreads(parameters.numberOfThreads);
 
-            for (final TileSpec tileSpec : resolvedTiles.getTileSpecs()) {
-
-                tileSpecCount++;
-
-                tileSpec.deriveBoundingBox(tileSpec.getMeshCellSize(), true);
+            // TODO: generate mipmaps?
+            resolvedTiles.recalculateBoundingBoxes();
 
-                if (timer.hasIntervalPassed()) {
-                    LOG.info("importStackData: derived bounding box for {} out of {} tiles",
-                             tileSpecCount, tileSpecs.size());
-                }
-
-                // TODO: generate mipmaps?
-
-            }
+            final int tileSpecCount = resolvedTiles.getTileCount();
 
             if ((tileSpecValidator != null) && (tileSpecCount > 0)) {
 
@@ -78,6 +78,12 @@ public class ImportTransformChangesClient {
                 required = false)
         public ChangeMode changeMode = ChangeMode.REPLACE_LAST;
 
+        @Parameter(
+                names = "--threads",
+                description = "Number of threads to use for deriving bounding boxes and validating tiles",
+                required = false)
+        public int numberOfThreads = 1;
+
         public String getTargetOwner() {
             if (targetOwner == null) {
                 targetOwner = renderWeb.owner;
@@ -249,6 +255,7 @@ public class ImportTransformChangesClient {
             if (tileSpecValidator != null) {
                 tileSpecs.setTileSpecValidator(tileSpecValidator);
             }
+            tileSpecs.setNumberOfThreads(parameters.numberOfThreads);
 
             if (! tileSpecs.hasTileSpecs()) {
                 throw new IllegalArgumentException(tileSpecs + " does not have any tiles");
@@ -292,7 +299,8 @@ public class ImportTransformChangesClient {
                     tileSpec.setTransforms(new ListTransformSpec());
                 }
 
-                tileSpecs.addTransformSpecToTile(tileId, tileTransform.getTransform(), replaceLastTransform);
+                // bounding boxes are derived (in parallel) after all transforms have been added
+                tileSpecs.addTransformSpecToTile(tileId, tileTransform.getTransform(), replaceLastTransform, false);
                 tileSpecCount++;
 
                 if (timer.hasIntervalPassed()) {
@@ -301,6 +309,7 @@ public class ImportTransformChangesClient {
                 }
             }
 
+            tileSpecs.recalculateBoundingBoxes();
             tileSpecs.filterInvalidSpecs();
 
             final int removedTiles = tileSpecCount - tileSpecs.getTileCount();
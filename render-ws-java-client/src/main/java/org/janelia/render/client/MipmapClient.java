@@ -11,9 +11,17 @@ import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import mpicbg.trakem2.util.Downsampler;
 
@@ -170,14 +178,23 @@ public class MipmapClient {
         final int startTile = (parameters.renderGroup - 1) * tilesPerGroup;
         final int stopTile = startTile + tilesPerGroup - 1;
 
+        final List<TileSpec> groupTileSpecs = new ArrayList<>(tilesPerGroup);
         int count = 0;
         for (final TileSpec tileSpec : tiles.getTileSpecs()) {
             if ((count >= startTile) && (count < stopTile)) {
-                generateMissingMipmapFiles(tileSpec);
+                groupTileSpecs.add(tileSpec);
             }
             count++;
         }
 
+        if (parameters.isParallelGenerationEnabled()) {
+            generateMissingMipmapFilesInParallel(groupTileSpecs);
+        } else {
+            for (final TileSpec tileSpec : groupTileSpecs) {
+                generateMissingMipmapFiles(tileSpec);
+            }
+        }
+
         LOG.info("generateMipmapsForZ: exit, generated mipmaps for {} tiles with z {}", count, z);
 
         return count;
@@ -187,76 +204,97 @@ public class MipmapClient {
             throws IllegalArgumentException, IOException {
 
         for (final ChannelSpec channelSpec : tileSpec.getAllChannels()) {
-
-            final String channelName = channelSpec.getName();
-            final String context;
-            if (channelName == null) {
-                context = "tile '" + tileSpec.getTileId() + "'";
-            } else {
-                context = "channel '" + channelName + "' in tile '" + tileSpec.getTileId() + "'";
-            }
-
-            final Map.Entry<Integer, ImageAndMask> firstEntry = channelSpec.getFirstMipmapEntry();
-            if (firstEntry == null) {
-                throw new IllegalArgumentException("first entry mipmap is missing from " + context);
-            }
-
-            final ImageAndMask sourceImageAndMask = firstEntry.getValue();
-
-            if ((sourceImageAndMask == null) || (!sourceImageAndMask.hasImage())) {
-                throw new IllegalArgumentException("first entry mipmap image is missing from " + context);
+            final ChannelMipmapTask channelTask = new ChannelMipmapTask(tileSpec, channelSpec);
+            if (channelTask.loadSourceIfMipmapsAreMissing()) {
+                try {
+                    for (final MipmapFileTask fileTask : channelTask.deriveMipmaps()) {
+                        fileTask.save();
+                    }
+                } catch (final UncheckedIOException e) {
+                    throw e.getCause();
+                }
             }
+        }
+    }
 
-            if (parameters.forceGeneration || isMissingMipmaps(channelSpec, firstEntry, sourceImageAndMask.hasMask())) {
+    /**
+     * Generates missing mipmap files for the specified tiles using separate thread pools for
+     * loading source images, downsampling, and encoding/writing mipmap files so that
+     * several tiles can be in flight at once.
+     *
+     * Memory is bounded by only allowing {@link MipmapParameters#getMaxTilesInFlight()} tile channels
+     * to be loaded (or awaiting writes) at any one time.
+     *
+     * @param  tileSpecs  tiles to process.
+     *
+     * @throws IllegalArgumentException
+     *   if any tile is missing a source image.
+     *
+     * @throws IOException
+     *   if any mipmap cannot be generated.
+     */
+    public void generateMissingMipmapFilesInParallel(final List<TileSpec> tileSpecs)
+            throws IllegalArgumentException, IOException {
 
-                ImageProcessor sourceImageProcessor = loadImageProcessor(sourceImageAndMask.getImageUrl());
+        LOG.info("generateMissingMipmapFilesInParallel: entry, processing {} tiles with {} read, {} downsample, " +
+                 "and {} write threads and at most {} tiles in flight",
+                 tileSpecs.size(), parameters.readThreads, parameters.downsampleThreads, parameters.writeThreads,
+                 parameters.getMaxTilesInFlight());
 
-                ImageProcessor sourceMaskProcessor = null;
-                if (sourceImageAndMask.hasMask()) {
-                    sourceMaskProcessor = loadImageProcessor(sourceImageAndMask.getMaskUrl());
-                }
+        final ExecutorService readService = Executors.newFixedThreadPool(parameters.readThreads);
+        final ExecutorService downsampleService = Executors.newFixedThreadPool(parameters.downsampleThreads);
+        final ExecutorService writeService = Executors.newFixedThreadPool(parameters.writeThreads);
+        final Semaphore inFlightPermits = new Semaphore(parameters.getMaxTilesInFlight());
 
-                Map.Entry<Integer, ImageAndMask> derivedEntry;
-                ImageAndMask derivedImageAndMask;
-                File imageMipmapFile;
-                File maskMipmapFile;
-                for (int mipmapLevel = 1; mipmapLevel <= mipmapPathBuilder.getNumberOfLevels(); mipmapLevel++) {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
 
-                    derivedEntry = mipmapPathBuilder.deriveImageAndMask(mipmapLevel, firstEntry, false);
-                    derivedImageAndMask = derivedEntry.getValue();
+        try {
 
-                    if (! channelSpec.hasMipmap(mipmapLevel)) {
+            for (final TileSpec tileSpec : tileSpecs) {
+                for (final ChannelSpec channelSpec : tileSpec.getAllChannels()) {
 
-                        final boolean isMipmapLevelInRange = mipmapLevel >= parameters.minLevel;
+                    // validate source on this thread so that bad specs fail fast
+                    final ChannelMipmapTask channelTask = new ChannelMipmapTask(tileSpec, channelSpec);
 
-                        if (isMipmapLevelInRange) {
-                            createMissingDirectories(derivedImageAndMask.getImageUrl());
-                        }
+                    inFlightPermits.acquire();
 
-                        imageMipmapFile = getFileForUrlString(derivedImageAndMask.getImageUrl());
-                        sourceImageProcessor = generateMipmapFile(sourceImageProcessor, imageMipmapFile, 1,
-                                                                  channelSpec.getMinIntensity(),
-                                                                  channelSpec.getMaxIntensity(),
-                                                                  isMipmapLevelInRange);
-
-                        if (sourceImageAndMask.hasMask()) {
-                            if (isMipmapLevelInRange) {
-                                createMissingDirectories(derivedImageAndMask.getMaskUrl());
-                            }
-                            maskMipmapFile = getFileForUrlString(derivedImageAndMask.getMaskUrl());
-                            sourceMaskProcessor = generateMipmapFile(sourceMaskProcessor, maskMipmapFile, 1,
-                                                                     channelSpec.getMinIntensity(),
-                                                                     channelSpec.getMaxIntensity(),
-                                                                     isMipmapLevelInRange);
-                        }
+                    final CompletableFuture<Void> future =
+                            CompletableFuture
+                                    .supplyAsync(channelTask::loadSourceIfMipmapsAreMissing, readService)
+                                    .thenApplyAsync(isLoaded -> isLoaded ? channelTask.deriveMipmaps() :
+                                                                           Collections.<MipmapFileTask>emptyList(),
+                                                    downsampleService)
+                                    .thenCompose(fileTasks -> CompletableFuture.allOf(
+                                            fileTasks.stream()
+                                                    .map(fileTask -> CompletableFuture.runAsync(fileTask::save,
+                                                                                                writeService))
+                                                    .toArray(CompletableFuture[]::new)))
+                                    .whenComplete((result, throwable) -> inFlightPermits.release());
 
-                    }
+                    futures.add(future);
                 }
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
 
+        } catch (final InterruptedException e) {
+            throw new IOException("interrupted while generating mipmaps", e);
+        } catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) cause;
             } else {
-                LOG.info("generateMissingMipmapFiles: all mipmap files exist for ", context);
+                throw new IOException("failed to generate mipmaps", cause);
             }
+        } finally {
+            readService.shutdownNow();
+            downsampleService.shutdownNow();
+            writeService.shutdownNow();
         }
+
+        LOG.info("generateMissingMipmapFilesInParallel: exit, processed {} tile channels", futures.size());
     }
 
     private boolean isMissingMipmaps(final ChannelSpec channelSpec,
@@ -315,26 +353,155 @@ public class MipmapClient {
         return new File(uri);
     }
 
-    private ImageProcessor generateMipmapFile(final ImageProcessor sourceProcessor,
-                                              final File targetMipmapFile,
-                                              final int mipmapLevelDelta,
-                                              final double minIntensity,
-                                              final double maxIntensity,
-                                              final boolean isMipmapLevelInRange)
-            throws IOException {
+    /**
+     * Source image (and mask) for one tile channel along with the logic to derive its mipmaps.
+     * Each instance is used by only one thread at a time.
+     */
+    private class ChannelMipmapTask {
+
+        private final String context;
+        private final ChannelSpec channelSpec;
+        private final Map.Entry<Integer, ImageAndMask> firstEntry;
+        private final ImageAndMask sourceImageAndMask;
+
+        private ImageProcessor sourceImageProcessor;
+        private ImageProcessor sourceMaskProcessor;
 
-        final ImageProcessor downSampledProcessor = Downsampler.downsampleImageProcessor(sourceProcessor,
-                                                                                         mipmapLevelDelta);
-        if (isMipmapLevelInRange && (parameters.forceGeneration || (! targetMipmapFile.exists()))) {
-            final BufferedImage image = getGrayBufferedImage(downSampledProcessor, minIntensity, maxIntensity);
-            Utils.saveImage(image,
-                            targetMipmapFile.getAbsolutePath(),
-                            parameters.format,
-                            false,
-                            0.85f);
+        private ChannelMipmapTask(final TileSpec tileSpec,
+                                  final ChannelSpec channelSpec)
+                throws IllegalArgumentException {
+
+            final String channelName = channelSpec.getName();
+            if (channelName == null) {
+                this.context = "tile '" + tileSpec.getTileId() + "'";
+            } else {
+                this.context = "channel '" + channelName + "' in tile '" + tileSpec.getTileId() + "'";
+            }
+
+            this.channelSpec = channelSpec;
+            this.firstEntry = channelSpec.getFirstMipmapEntry();
+            if (firstEntry == null) {
+                throw new IllegalArgumentException("first entry mipmap is missing from " + context);
+            }
+
+            this.sourceImageAndMask = firstEntry.getValue();
+
+            if ((sourceImageAndMask == null) || (!sourceImageAndMask.hasImage())) {
+                throw new IllegalArgumentException("first entry mipmap image is missing from " + context);
+            }
         }
 
-        return downSampledProcessor;
+        /**
+         * @return true if mipmaps need to be generated (and source processors were loaded); otherwise false.
+         */
+        private boolean loadSourceIfMipmapsAreMissing()
+                throws IllegalArgumentException {
+
+            final boolean isGenerationNeeded =
+                    parameters.forceGeneration ||
+                    isMissingMipmaps(channelSpec, firstEntry, sourceImageAndMask.hasMask());
+
+            if (isGenerationNeeded) {
+                sourceImageProcessor = loadImageProcessor(sourceImageAndMask.getImageUrl());
+                if (sourceImageAndMask.hasMask()) {
+                    sourceMaskProcessor = loadImageProcessor(sourceImageAndMask.getMaskUrl());
+                }
+            } else {
+                LOG.info("generateMissingMipmapFiles: all mipmap files exist for {}", context);
+            }
+
+            return isGenerationNeeded;
+        }
+
+        /**
+         * Downsamples the loaded source processors for each missing level.
+         * Source processors are released once all levels have been derived.
+         *
+         * @return list of mipmap files that may need to be saved.
+         */
+        private List<MipmapFileTask> deriveMipmaps() {
+
+            final List<MipmapFileTask> fileTasks = new ArrayList<>();
+
+            Map.Entry<Integer, ImageAndMask> derivedEntry;
+            ImageAndMask derivedImageAndMask;
+            for (int mipmapLevel = 1; mipmapLevel <= mipmapPathBuilder.getNumberOfLevels(); mipmapLevel++) {
+
+                derivedEntry = mipmapPathBuilder.deriveImageAndMask(mipmapLevel, firstEntry, false);
+                derivedImageAndMask = derivedEntry.getValue();
+
+                if (! channelSpec.hasMipmap(mipmapLevel)) {
+
+                    final boolean isMipmapLevelInRange = mipmapLevel >= parameters.minLevel;
+
+                    sourceImageProcessor = Downsampler.downsampleImageProcessor(sourceImageProcessor, 1);
+                    if (isMipmapLevelInRange) {
+                        fileTasks.add(new MipmapFileTask(sourceImageProcessor,
+                                                         derivedImageAndMask.getImageUrl(),
+                                                         channelSpec));
+                    }
+
+                    if (sourceImageAndMask.hasMask()) {
+                        sourceMaskProcessor = Downsampler.downsampleImageProcessor(sourceMaskProcessor, 1);
+                        if (isMipmapLevelInRange) {
+                            fileTasks.add(new MipmapFileTask(sourceMaskProcessor,
+                                                             derivedImageAndMask.getMaskUrl(),
+                                                             channelSpec));
+                        }
+                    }
+
+                }
+            }
+
+            sourceImageProcessor = null;
+            sourceMaskProcessor = null;
+
+            return fileTasks;
+        }
+    }
+
+    /**
+     * A downsampled processor that needs to be encoded and saved to a specific mipmap file.
+     */
+    private class MipmapFileTask {
+
+        private final ImageProcessor processor;
+        private final String fileUrl;
+        private final double minIntensity;
+        private final double maxIntensity;
+
+        private MipmapFileTask(final ImageProcessor processor,
+                               final String fileUrl,
+                               final ChannelSpec channelSpec) {
+            this.processor = processor;
+            this.fileUrl = fileUrl;
+            this.minIntensity = channelSpec.getMinIntensity();
+            this.maxIntensity = channelSpec.getMaxIntensity();
+        }
+
+        /**
+         * Saves the mipmap file if it is missing (or if generation is forced).
+         *
+         * @throws UncheckedIOException
+         *   if the file cannot be saved.
+         */
+        private void save()
+                throws UncheckedIOException {
+            try {
+                createMissingDirectories(fileUrl);
+                final File targetMipmapFile = getFileForUrlString(fileUrl);
+                if (parameters.forceGeneration || (! targetMipmapFile.exists())) {
+                    final BufferedImage image = getGrayBufferedImage(processor, minIntensity, maxIntensity);
+                    Utils.saveImage(image,
+                                    targetMipmapFile.getAbsolutePath(),
+                                    parameters.format,
+                                    false,
+                                    0.85f);
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException("failed to save mipmap " + fileUrl, e);
+            }
+        }
     }
 
     public static BufferedImage getGrayBufferedImage(final ImageProcessor downSampledProcessor,
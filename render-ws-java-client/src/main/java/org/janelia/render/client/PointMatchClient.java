@@ -24,6 +24,7 @@ import org.janelia.alignment.match.CanvasFeatureMatchResult;
 import org.janelia.alignment.match.CanvasFeatureMatcher;
 import org.janelia.alignment.match.CanvasId;
 import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.match.FeatureDescriptorIndex;
 import org.janelia.alignment.match.MontageRelativePosition;
 import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.LayoutData;
@@ -389,7 +390,9 @@ public class PointMatchClient {
                                                                       parameters.match.matchMinNumInliers,
                                                                       parameters.match.matchMaxTrust,
                                                                       parameters.match.matchMaxNumInliers,
-                                                                      true);
+                                                                      true,
+                                                                      parameters.match.matchIndexMaxChecks,
+                                                                      parameters.match.matchRansacThreads);
 
         String pUrlString;
         String qUrlString;
@@ -398,7 +401,8 @@ public class PointMatchClient {
             qUrlString = parameters.renderParameterUrls.get(i);
             matcherList.add(new CanvasFeatureMatcherThread(canvasUrlToDataMap.get(pUrlString),
                                                            canvasUrlToDataMap.get(qUrlString),
-                                                           matcher));
+                                                           matcher,
+                                                           parameters.match.matchMaxSpatialDistance));
         }
 
 
@@ -493,6 +497,7 @@ public class PointMatchClient {
         private final double renderScale;
         private final CanvasId canvasId;
         private List<Feature> featureList;
+        private FeatureDescriptorIndex descriptorIndex;
 
         public CanvasData(final String canvasUrl,
                           final double renderScale,
@@ -507,6 +512,7 @@ public class PointMatchClient {
             final String id = clientParameters.getCanvasId(this.renderParameters, canvasName);
             this.canvasId = new CanvasId(groupId, id);
             this.featureList = null;
+            this.descriptorIndex = null;
         }
 
         public Bounds getBounds() {
@@ -525,6 +531,33 @@ public class PointMatchClient {
 
         public void setFeatureList(final List<Feature> featureList) {
             this.featureList = featureList;
+            this.descriptorIndex = null;
+        }
+
+        /**
+         * @return descriptor index for this canvas' features (built on first request and then retained).
+         */
+        public synchronized FeatureDescriptorIndex getDescriptorIndex() {
+            if (descriptorIndex == null) {
+                descriptorIndex = new FeatureDescriptorIndex(featureList);
+            }
+            return descriptorIndex;
+        }
+
+        /**
+         * @param  otherCanvasData  data for another canvas rendered at the same scale.
+         * @param  maxDistance      maximum distance (in rendered pixels) from expected location.
+         *
+         * @return window for locations in the other canvas that correspond to locations in this canvas
+         *         based upon the world bounds of both canvases.
+         */
+        public FeatureDescriptorIndex.SpatialWindow getSpatialWindow(final CanvasData otherCanvasData,
+                                                                     final double maxDistance) {
+            final double scale = renderParameters.getScale();
+            return new FeatureDescriptorIndex.SpatialWindow(
+                    (renderParameters.x - otherCanvasData.renderParameters.x) * scale,
+                    (renderParameters.y - otherCanvasData.renderParameters.y) * scale,
+                    maxDistance);
         }
 
         public CanvasId getCanvasId() {
@@ -563,7 +596,8 @@ public class PointMatchClient {
             this.extractor = new CanvasFeatureExtractor(siftParameters,
                                                         clientParameters.match.minScale,
                                                         clientParameters.match.maxScale,
-                                                        clientParameters.fillWithNoise);
+                                                        clientParameters.fillWithNoise,
+                                                        clientParameters.match.extractionThreads);
         }
 
         @Override
@@ -588,20 +622,32 @@ public class PointMatchClient {
         private final CanvasData qCanvasData;
 
         private final CanvasFeatureMatcher matcher;
+        private final Double maxSpatialDistance;
 
         private CanvasFeatureMatchResult matchResult;
 
         public CanvasFeatureMatcherThread(final CanvasData pCanvasData,
                                           final CanvasData qCanvasData,
-                                          final CanvasFeatureMatcher matcher) {
+                                          final CanvasFeatureMatcher matcher,
+                                          final Double maxSpatialDistance) {
             this.pCanvasData = pCanvasData;
             this.qCanvasData = qCanvasData;
             this.matcher = matcher;
+            this.maxSpatialDistance = maxSpatialDistance;
         }
 
         @Override
         public void run() {
-            matchResult = matcher.deriveMatchResult(pCanvasData.featureList, qCanvasData.featureList);
+            if (matcher.isIndexedMatching()) {
+                final FeatureDescriptorIndex.SpatialWindow spatialWindow =
+                        maxSpatialDistance == null ? null : pCanvasData.getSpatialWindow(qCanvasData,
+                                                                                         maxSpatialDistance);
+                matchResult = matcher.deriveMatchResult(pCanvasData.featureList,
+                                                        qCanvasData.getDescriptorIndex(),
+                                                        spatialWindow);
+            } else {
+                matchResult = matcher.deriveMatchResult(pCanvasData.featureList, qCanvasData.featureList);
+            }
         }
 
         public CanvasMatches getMatches() {
@@ -233,7 +233,8 @@ public class PointMatchOptimizerClient {
         final CanvasFeatureExtractor extractor = new CanvasFeatureExtractor(siftParameters,
                                                                             renderScale - 0.02,
                                                                             renderScale + 0.02,
-                                                                            true);
+                                                                            true,
+                                                                            parameters.match.extractionThreads);
 
         final RenderParameters pRenderParameters = loadRenderParameters(pRenderParametersUrl, renderScale);
 
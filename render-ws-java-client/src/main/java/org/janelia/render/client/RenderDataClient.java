@@ -3,12 +3,15 @@ package org.janelia.render.client;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import org.apache.http.client.methods.HttpDelete;
@@ -19,7 +22,7 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.json.JsonUtils;
 import org.janelia.alignment.match.CanvasMatches;
 import org.janelia.alignment.match.MatchCollectionMetaData;
@@ -35,7 +38,7 @@ import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.alignment.spec.stack.StackMetaData;
 import org.janelia.alignment.spec.stack.StackVersion;
 import org.janelia.alignment.util.ZFilter;
-import org.janelia.render.client.request.WaitingRetryHandler;
+import org.janelia.render.client.request.SharedHttpClient;
 import org.janelia.render.client.response.EmptyResponseHandler;
 import org.janelia.render.client.response.JsonResponseHandler;
 import org.janelia.render.client.response.ResourceCreatedResponseHandler;
@@ -58,6 +61,7 @@ public class RenderDataClient {
 
     /**
      * Creates a new client for the specified owner and project.
+     * All clients share the same pooled HTTP connections (see {@link SharedHttpClient}).
      *
      * @param  baseDataUrl  the base URL string for all requests (e.g. 'http://tem-services:8080/render-ws/v1')
      * @param  owner        the owner name for all requests.
@@ -68,7 +72,7 @@ public class RenderDataClient {
                             final String project) {
         this.project = project;
         this.urls = new RenderWebServiceUrls(baseDataUrl, owner, project);
-        this.httpClient = HttpClientBuilder.create().setRetryHandler(new WaitingRetryHandler()).build();
+        this.httpClient = SharedHttpClient.getInstance();
     }
 
     @Override
@@ -1087,6 +1091,23 @@ public class RenderDataClient {
         return httpClient.execute(httpPut, responseHandler);
     }
 
+    /**
+     * Asynchronously retrieves tile specs with the specified ids using the shared request thread pool.
+     *
+     * @return future list of tile specs with the specified ids.
+     */
+    public CompletableFuture<List<TileSpec>> getTileSpecsWithIdsAsync(final List<String> tileIdList,
+                                                                      final String stack) {
+        final List<String> tileIdListCopy = new ArrayList<>(tileIdList);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getTileSpecsWithIds(tileIdListCopy, stack);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, SharedHttpClient.getAsyncExecutor());
+    }
+
     /**
      * Sends the specified world coordinates to the server to be mapped to tiles.
      * Because tiles overlap, each coordinate can potentially be mapped to multiple tiles.
@@ -1148,6 +1169,215 @@ public class RenderDataClient {
         return urls.getRenderParametersUrlString(stack, x, y, z, width, height, scale);
     }
 
+    /**
+     * @return render parameters for the specified box.
+     *
+     * @throws IOException
+     *   if the request fails for any reason.
+     */
+    public RenderParameters getRenderParameters(final String stack,
+                                                final double x,
+                                                final double y,
+                                                final double z,
+                                                final int width,
+                                                final int height,
+                                                final double scale)
+            throws IOException {
+        return loadRenderParameters(getRenderParametersUrlString(stack, x, y, z, width, height, scale));
+    }
+
+    /**
+     * @return future render parameters for the specified box.
+     */
+    public CompletableFuture<RenderParameters> getRenderParametersAsync(final String stack,
+                                                                        final double x,
+                                                                        final double y,
+                                                                        final double z,
+                                                                        final int width,
+                                                                        final int height,
+                                                                        final double scale) {
+        return loadRenderParametersAsync(getRenderParametersUrlString(stack, x, y, z, width, height, scale));
+    }
+
+    /**
+     * Retrieves render parameters for many boxes in a layer with one request.
+     * The server finds and resolves tiles for all of the boxes at once,
+     * so this is much faster than requesting parameters for each box separately.
+     *
+     * @param  stack  name of stack.
+     * @param  z      z value for layer.
+     * @param  boxes  world bounds for each box (maxX and maxY should be minX + width and minY + height).
+     * @param  scale  render scale for all boxes.
+     *
+     * @return list of render parameters in the same order as the specified boxes.
+     *
+     * @throws IOException
+     *   if the request fails for any reason.
+     */
+    public List<RenderParameters> getRenderParametersForBoxes(final String stack,
+                                                              final Double z,
+                                                              final List<Bounds> boxes,
+                                                              final Double scale)
+            throws IOException {
+
+        final String boxesJson = JsonUtils.MAPPER.writeValueAsString(boxes);
+        final StringEntity stringEntity = new StringEntity(boxesJson, ContentType.APPLICATION_JSON);
+        final URIBuilder uriBuilder = new URIBuilder(getUri(urls.getZUrlString(stack, z) +
+                                                            "/render-parameters-for-boxes"));
+        if (scale != null) {
+            uriBuilder.addParameter("scale", scale.toString());
+        }
+        final URI uri = getUri(uriBuilder);
+        final String requestContext = "PUT " + uri;
+
+        final HttpPut httpPut = new HttpPut(uri);
+        httpPut.setEntity(stringEntity);
+
+        final TypeReference<List<RenderParameters>> typeReference = new TypeReference<List<RenderParameters>>() {};
+        final JsonUtils.GenericHelper<List<RenderParameters>> helper = new JsonUtils.GenericHelper<>(typeReference);
+        final JsonResponseHandler<List<RenderParameters>> responseHandler =
+                new JsonResponseHandler<>(requestContext, helper);
+
+        LOG.info("getRenderParametersForBoxes: submitting {} for {} boxes", requestContext, boxes.size());
+
+        return httpClient.execute(httpPut, responseHandler);
+    }
+
+    /**
+     * @return future render parameters for many boxes in a layer (see {@link #getRenderParametersForBoxes}).
+     */
+    public CompletableFuture<List<RenderParameters>> getRenderParametersForBoxesAsync(final String stack,
+                                                                                      final Double z,
+                                                                                      final List<Bounds> boxes,
+                                                                                      final Double scale) {
+        final List<Bounds> boxesCopy = new ArrayList<>(boxes);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getRenderParametersForBoxes(stack, z, boxesCopy, scale);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, SharedHttpClient.getAsyncExecutor());
+    }
+
+    /**
+     * Loads render parameters from the specified URL using the shared pooled HTTP client.
+     * Non-HTTP (e.g. file) URLs are loaded with {@link RenderParameters#loadFromUrl}.
+     *
+     * @param  renderParametersUrl  URL for the parameters.
+     *
+     * @return the loaded parameters.
+     *
+     * @throws IOException
+     *   if the parameters cannot be loaded for any reason.
+     */
+    public static RenderParameters loadRenderParameters(final String renderParametersUrl)
+            throws IOException {
+
+        final RenderParameters renderParameters;
+
+        if (renderParametersUrl.startsWith("http://") || renderParametersUrl.startsWith("https://")) {
+
+            final URI uri;
+            try {
+                uri = new URI(renderParametersUrl);
+            } catch (final URISyntaxException e) {
+                throw new IOException("failed to create URI for '" + renderParametersUrl + "'", e);
+            }
+
+            final HttpGet httpGet = new HttpGet(uri);
+            final String requestContext = "GET " + uri;
+            final JsonResponseHandler<RenderParameters> responseHandler =
+                    new JsonResponseHandler<>(requestContext, RENDER_PARAMETERS_HELPER);
+
+            LOG.info("loadRenderParameters: submitting {}", requestContext);
+
+            renderParameters = SharedHttpClient.getInstance().execute(httpGet, responseHandler);
+
+        } else {
+
+            try {
+                renderParameters = RenderParameters.loadFromUrl(renderParametersUrl);
+            } catch (final IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+
+        }
+
+        return renderParameters;
+    }
+
+    /**
+     * Asynchronously loads render parameters using the shared request thread pool.
+     * Use {@link #getAsyncResult} to retrieve the loaded parameters.
+     *
+     * @param  renderParametersUrl  URL for the parameters.
+     *
+     * @return future parameters.
+     */
+    public static CompletableFuture<RenderParameters> loadRenderParametersAsync(final String renderParametersUrl) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadRenderParameters(renderParametersUrl);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, SharedHttpClient.getAsyncExecutor());
+    }
+
+    /**
+     * Loads render parameters for multiple canvases concurrently.
+     *
+     * @param  renderParametersUrls  URLs for the parameters.
+     *
+     * @return list of loaded parameters in the same order as the specified URLs.
+     *
+     * @throws IOException
+     *   if any of the parameters cannot be loaded.
+     */
+    public static List<RenderParameters> loadRenderParameters(final List<String> renderParametersUrls)
+            throws IOException {
+
+        final List<CompletableFuture<RenderParameters>> futures = new ArrayList<>(renderParametersUrls.size());
+        for (final String url : renderParametersUrls) {
+            futures.add(loadRenderParametersAsync(url));
+        }
+
+        final List<RenderParameters> renderParametersList = new ArrayList<>(futures.size());
+        for (final CompletableFuture<RenderParameters> future : futures) {
+            renderParametersList.add(getAsyncResult(future));
+        }
+
+        return renderParametersList;
+    }
+
+    /**
+     * Waits for the specified asynchronous request to complete.
+     *
+     * @return the request result.
+     *
+     * @throws IOException
+     *   if the request failed or the wait was interrupted.
+     */
+    public static <T> T getAsyncResult(final CompletableFuture<T> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for request to complete", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else {
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+    }
+
     private URI getStackUri(final String stack)
             throws IOException {
         return getUri(urls.getStackUrlString(stack));
@@ -1195,5 +1425,8 @@ public class RenderDataClient {
         }
     }
 
+    private static final JsonUtils.Helper<RenderParameters> RENDER_PARAMETERS_HELPER =
+            new JsonUtils.Helper<>(RenderParameters.class);
+
     private static final Logger LOG = LoggerFactory.getLogger(RenderDataClient.class);
 }
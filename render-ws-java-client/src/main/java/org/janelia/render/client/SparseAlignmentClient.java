@@ -0,0 +1,251 @@
+package org.janelia.render.client;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import mpicbg.models.Affine2D;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.CoordinateTransform;
+
+import org.janelia.alignment.match.CanvasMatches;
+import org.janelia.alignment.solver.SparseAlignmentSolver;
+import org.janelia.alignment.spec.LayoutData;
+import org.janelia.alignment.spec.LeafTransformSpec;
+import org.janelia.alignment.spec.ResolvedTileSpecCollection;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TransformSpec;
+import org.janelia.alignment.spec.stack.StackMetaData;
+import org.janelia.render.client.parameter.CommandLineParameters;
+import org.janelia.render.client.parameter.RenderWebServiceParameters;
+import org.janelia.render.client.parameter.SparseSolverParameters;
+import org.janelia.render.client.parameter.ZRangeParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java client for aligning the tiles in a stack with the in-process {@link SparseAlignmentSolver}
+ * (an alternative to running the external EM_aligner tool).
+ *
+ * Tiles and matches are loaded from the render web service, the last transform of each tile is replaced
+ * with its solved affine transform, and the results are saved to a target stack.
+ *
+ * @author Eric Trautman
+ */
+public class SparseAlignmentClient {
+
+    public static class Parameters extends CommandLineParameters {
+
+        @ParametersDelegate
+        public RenderWebServiceParameters renderWeb = new RenderWebServiceParameters();
+
+        @ParametersDelegate
+        public ZRangeParameters layerRange = new ZRangeParameters();
+
+        @ParametersDelegate
+        public SparseSolverParameters solver = new SparseSolverParameters();
+
+        @Parameter(
+                names = "--stack",
+                description = "Stack name",
+                required = true)
+        public String stack;
+
+        @Parameter(
+                names = "--matchOwner",
+                description = "Owner of match collection (default is to reuse stack owner)",
+                required = false)
+        public String matchOwner;
+
+        @Parameter(
+                names = "--matchCollection",
+                description = "Name of match collection",
+                required = true)
+        public String matchCollection;
+
+        @Parameter(
+                names = "--targetStack",
+                description = "Name of target stack that will contain aligned tiles",
+                required = true)
+        public String targetStack;
+
+        @Parameter(
+                names = "--fixedTileId",
+                description = "Identifies a tile whose transform should not be changed (omit to only regularize tiles)",
+                required = false)
+        public List<String> fixedTileIds = new ArrayList<>();
+
+        @Parameter(
+                names = "--completeTargetStack",
+                description = "Complete the target stack after saving aligned tiles",
+                required = false,
+                arity = 0)
+        public boolean completeTargetStack = false;
+
+        public String getMatchOwner() {
+            return matchOwner == null ? renderWeb.owner : matchOwner;
+        }
+    }
+
+    public static void main(final String[] args) {
+        final ClientRunner clientRunner = new ClientRunner(args) {
+            @Override
+            public void runClient(final String[] args) throws Exception {
+
+                final Parameters parameters = new Parameters();
+                parameters.parse(args);
+
+                LOG.info("runClient: entry, parameters={}", parameters);
+
+                final RenderDataClient renderDataClient = parameters.renderWeb.getDataClient();
+                final RenderDataClient matchDataClient = new RenderDataClient(parameters.renderWeb.baseDataUrl,
+                                                                              parameters.getMatchOwner(),
+                                                                              parameters.matchCollection);
+
+                final SparseAlignmentSolver.Solution solution =
+                        solveAndSave(parameters.solver,
+                                     renderDataClient,
+                                     parameters.stack,
+                                     parameters.layerRange.minZ,
+                                     parameters.layerRange.maxZ,
+                                     matchDataClient,
+                                     new HashSet<>(parameters.fixedTileIds),
+                                     renderDataClient,
+                                     parameters.targetStack);
+
+                if (parameters.completeTargetStack) {
+                    renderDataClient.setStackState(parameters.targetStack, StackMetaData.StackState.COMPLETE);
+                }
+
+                LOG.info("runClient: exit, solution is {}", solution);
+            }
+        };
+        clientRunner.run();
+    }
+
+    /**
+     * Loads tiles and matches, solves the system, and saves the aligned tiles.
+     *
+     * @param  solverParameters  parameters for the solver.
+     * @param  sourceDataClient  client for the source stack.
+     * @param  sourceStack       name of the source stack.
+     * @param  minZ              minimum z value for tiles to align (or null for no minimum).
+     * @param  maxZ              maximum z value for tiles to align (or null for no maximum).
+     * @param  matchDataClient   client for the match collection.
+     * @param  fixedTileIds      identifies tiles whose transforms should not be changed.
+     * @param  targetDataClient  client for the target stack.
+     * @param  targetStack       name of the target stack.
+     *
+     * @return the solution.
+     *
+     * @throws IOException
+     *   if data cannot be loaded or saved.
+     *
+     * @throws IllegalArgumentException
+     *   if any tile's last transform is not affine.
+     */
+    public static SparseAlignmentSolver.Solution solveAndSave(final SparseSolverParameters solverParameters,
+                                                              final RenderDataClient sourceDataClient,
+                                                              final String sourceStack,
+                                                              final Double minZ,
+                                                              final Double maxZ,
+                                                              final RenderDataClient matchDataClient,
+                                                              final Set<String> fixedTileIds,
+                                                              final RenderDataClient targetDataClient,
+                                                              final String targetStack)
+            throws IOException, IllegalArgumentException {
+
+        final ResolvedTileSpecCollection tiles =
+                sourceDataClient.getResolvedTiles(sourceStack, minZ, maxZ, null, null, null, null, null);
+
+        final SparseAlignmentSolver solver = solverParameters.buildSolver();
+
+        final Set<String> groupIds = new TreeSet<>();
+        for (final TileSpec tileSpec : tiles.getTileSpecs()) {
+            tileSpec.flattenTransforms();
+            solver.addTile(tileSpec.getTileId(),
+                           getLastAffineModel(tileSpec),
+                           fixedTileIds.contains(tileSpec.getTileId()));
+            final LayoutData layout = tileSpec.getLayout();
+            if ((layout != null) && (layout.getSectionId() != null)) {
+                groupIds.add(layout.getSectionId());
+            }
+        }
+
+        int pairCount = 0;
+        int skippedPairCount = 0;
+        for (final String pGroupId : groupIds) {
+            for (final CanvasMatches canvasMatches : matchDataClient.getMatchesWithPGroupId(pGroupId)) {
+                if (solver.addMatches(canvasMatches.getpId(), canvasMatches.getqId(), canvasMatches.getMatches())) {
+                    pairCount++;
+                } else {
+                    skippedPairCount++;
+                }
+            }
+        }
+
+        LOG.info("solveAndSave: loaded {} tiles and {} tile pairs from {} groups, skipped {} pairs with tiles outside of range",
+                 solver.getTileCount(), pairCount, groupIds.size(), skippedPairCount);
+
+        final SparseAlignmentSolver.Solution solution = solver.solve();
+
+        final Map<String, AffineModel2D> tileIdToModel = solution.getTileIdToModel();
+        final double[] affineData = new double[6];
+        for (final Map.Entry<String, AffineModel2D> entry : tileIdToModel.entrySet()) {
+            entry.getValue().toArray(affineData);
+            final String dataString = affineData[0] + " " + affineData[1] + " " + affineData[2] + " " +
+                                      affineData[3] + " " + affineData[4] + " " + affineData[5];
+            tiles.addTransformSpecToTile(entry.getKey(),
+                                         new LeafTransformSpec(mpicbg.trakem2.transform.AffineModel2D.class.getName(),
+                                                               dataString),
+                                         true);
+        }
+
+        // only keep tiles that were part of the solution
+        final int totalTileCount = tiles.getTileCount();
+        tiles.filterSpecs(tileIdToModel.keySet());
+        tiles.removeUnreferencedTransforms();
+
+        LOG.info("solveAndSave: removed {} tiles without matches", totalTileCount - tiles.getTileCount());
+
+        final StackMetaData sourceStackMetaData = sourceDataClient.getStackMetaData(sourceStack);
+        targetDataClient.setupDerivedStack(sourceStackMetaData, targetStack);
+        targetDataClient.saveResolvedTiles(tiles, targetStack, null);
+
+        return solution;
+    }
+
+    /**
+     * @return model for the specified tile's last transform.
+     *
+     * @throws IllegalArgumentException
+     *   if the tile's last transform is not affine.
+     */
+    private static AffineModel2D getLastAffineModel(final TileSpec tileSpec)
+            throws IllegalArgumentException {
+
+        final TransformSpec lastTransformSpec = tileSpec.getLastTransform();
+        final CoordinateTransform lastTransform = lastTransformSpec == null ? null : lastTransformSpec.getNewInstance();
+
+        if (! (lastTransform instanceof Affine2D)) {
+            throw new IllegalArgumentException("last transform for tile " + tileSpec.getTileId() +
+                                               " must be affine but is " + lastTransform);
+        }
+
+        final double[] affineData = new double[6];
+        ((Affine2D<?>) lastTransform).toArray(affineData);
+
+        final AffineModel2D model = new AffineModel2D();
+        model.set(affineData[0], affineData[1], affineData[2], affineData[3], affineData[4], affineData[5]);
+        return model;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SparseAlignmentClient.class);
+}
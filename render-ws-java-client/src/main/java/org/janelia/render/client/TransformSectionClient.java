@@ -75,6 +75,12 @@ public class TransformSectionClient {
                 arity = 0)
         public boolean replaceLast;
 
+        @Parameter(
+                names = "--threads",
+                description = "Number of threads to use for deriving bounding boxes and validating tiles",
+                required = false)
+        public int numberOfThreads = 1;
+
         @Parameter(
                 description = "Z values",
                 required = true)
@@ -155,6 +161,7 @@ public class TransformSectionClient {
 
         final ResolvedTileSpecCollection tiles = sourceRenderDataClient.getResolvedTiles(parameters.stack, z);
 
+        tiles.setNumberOfThreads(parameters.numberOfThreads);
         tiles.addTransformSpecToCollection(stackTransform);
         tiles.addReferenceTransformToAllTiles(stackTransform.getId(), parameters.replaceLast);
 
@@ -8,7 +8,6 @@ import java.util.List;
 
 import mpicbg.trakem2.transform.CoordinateTransform;
 
-import org.janelia.alignment.spec.LeafTransformSpec;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.TransformSpec;
@@ -20,6 +19,7 @@ import org.janelia.alignment.warp.ThinPlateSplineBuilder;
 import org.janelia.render.client.parameter.CommandLineParameters;
 import org.janelia.render.client.parameter.RenderWebServiceParameters;
 import org.janelia.render.client.parameter.TileSpecValidatorParameters;
+import org.janelia.render.client.parameter.WarpFieldApproximationParameters;
 import org.janelia.render.client.parameter.WarpStackParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +42,9 @@ public class WarpTransformClient {
         @ParametersDelegate
         public WarpStackParameters warp = new WarpStackParameters();
 
+        @ParametersDelegate
+        public WarpFieldApproximationParameters warpField = new WarpFieldApproximationParameters();
+
         @Parameter(
                 names = "--alpha",
                 description = "Alpha value for MLS transform",
@@ -168,10 +171,7 @@ public class WarpTransformClient {
 
         LOG.info("buildTransform: completed {} transform derivation", warpType);
 
-        return new LeafTransformSpec(transformId,
-                                     null,
-                                     transform.getClass().getName(),
-                                     transform.toDataString());
+        return parameters.warpField.buildTransformSpec(transformId, transform, montageTiles);
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(WarpTransformClient.class);
@@ -2,6 +2,7 @@ package org.janelia.render.client.betterbox;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -12,7 +13,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import mpicbg.trakem2.transform.AffineModel2D;
 
@@ -21,8 +25,11 @@ import org.janelia.alignment.ImageAndMask;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.Utils;
 import org.janelia.alignment.betterbox.BoxData;
+import org.janelia.alignment.betterbox.MaterializedBoxAttributes;
 import org.janelia.alignment.betterbox.RenderedBox;
 import org.janelia.alignment.betterbox.RenderedBoxParent;
+import org.janelia.alignment.betterbox.ShardedBoxStore;
+import org.janelia.alignment.mipmap.BoxImageCache;
 import org.janelia.alignment.mipmap.BoxMipmapGenerator;
 import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.ChannelSpec;
@@ -31,6 +38,7 @@ import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.util.FileUtil;
 import org.janelia.alignment.util.ImageProcessorCache;
 import org.janelia.alignment.util.ProcessTimer;
+import org.janelia.render.client.RenderDataClient;
 import org.janelia.render.client.RenderWebServiceUrls;
 import org.janelia.render.client.parameter.MaterializedBoxParameters;
 import org.janelia.render.client.parameter.RenderWebServiceParameters;
@@ -46,6 +54,12 @@ import org.slf4j.LoggerFactory;
  *         [root directory]/[tile width]x[tile height]/[level]/[z]/[row]/[col].[format]
  * </pre>
  *
+ * When a shard size is specified, boxes are instead packed into {@link ShardedBoxStore} container files
+ * to reduce the number of files created.
+ *
+ * When a pyramid cache size is specified, rendered boxes are kept in a {@link BoxImageCache} so that
+ * parent levels can be reduced from in-memory child pixels instead of rereading the children.
+ *
  * Details about the CATMAID LargeDataTileSource can be found at
  * <a href="https://github.com/catmaid/CATMAID/blob/master/django/applications/catmaid/static/js/tile-source.js">
  *     https://github.com/catmaid/CATMAID/blob/master/django/applications/catmaid/static/js/tile-source.js
@@ -56,6 +70,7 @@ import org.slf4j.LoggerFactory;
 public class BoxGenerator
         implements Serializable {
 
+    private final RenderWebServiceParameters renderWebParameters;
     private final RenderWebServiceUrls webServiceUrls;
     private final MaterializedBoxParameters boxParameters;
     private final Bounds stackBounds;
@@ -68,6 +83,13 @@ public class BoxGenerator
     private final String boxPathSuffix;
     private final Integer backgroundRGBColor;
     private final File emptyImageFile;
+    private final ShardedBoxStore shardedBoxStore;
+
+    // created lazily by each worker since cached pixels are not serializable
+    private transient BoxImageCache boxCache;
+
+    // created lazily by each worker since HTTP clients are not serializable
+    private transient RenderDataClient renderDataClient;
 
     /**
      * Constructs a generator with the specified parameters.
@@ -80,6 +102,7 @@ public class BoxGenerator
                         final MaterializedBoxParameters boxParameters,
                         final Bounds stackBounds) {
 
+        this.renderWebParameters = renderWebParameters;
         this.webServiceUrls = new RenderWebServiceUrls(renderWebParameters.baseDataUrl,
                                                        renderWebParameters.owner,
                                                        renderWebParameters.project);
@@ -110,6 +133,15 @@ public class BoxGenerator
 
         this.emptyImageFile = new File(boxDirectory.getAbsolutePath(),
                                        "empty." + format.toLowerCase());
+
+        if (boxParameters.isSharded()) {
+            if (boxParameters.createIGrid) {
+                throw new IllegalArgumentException("IGrid files cannot be created for sharded boxes");
+            }
+            this.shardedBoxStore = new ShardedBoxStore(baseBoxPath, format, boxParameters.shardSize);
+        } else {
+            this.shardedBoxStore = null;
+        }
     }
 
     /**
@@ -135,7 +167,15 @@ public class BoxGenerator
     }
 
     /**
-     * Creates mipmap level subdirectories for all boxes along with an empty box file that can be shared.
+     * @return true if boxes are packed into shard container files; otherwise false.
+     */
+    public boolean isSharded() {
+        return (shardedBoxStore != null);
+    }
+
+    /**
+     * Creates mipmap level subdirectories for all boxes along with an empty box file that can be shared
+     * and saves the {@link MaterializedBoxAttributes} for the boxes.
      *
      * @throws IOException
      *   if any of the directories or files cannot be created.
@@ -155,6 +195,15 @@ public class BoxGenerator
             FileUtil.ensureWritableDirectory(overviewDirectory);
         }
 
+        if (shardedBoxStore != null) {
+            shardedBoxStore.saveAttributes();
+        }
+
+        // record render options so that the web service only serves these boxes for matching requests
+        new MaterializedBoxAttributes(format,
+                                      boxParameters.binaryMask,
+                                      boxParameters.skipInterpolation).save(baseBoxPath);
+
         if (boxParameters.createIGrid) {
 
             if (emptyImageFile.exists()) {
@@ -210,14 +259,32 @@ public class BoxGenerator
             throws IOException {
 
         final Progress progress = new Progress(z, level, boxList.size(), 300);
+
+        final BoxImageCache levelBoxCache = getBoxCache();
+        if ((levelBoxCache != null) && (level > 0)) {
+            // only keep cached children for this level's boxes
+            final File childLevelDirectory =
+                    new BoxData(z, level - 1, 0, 0).getAbsoluteLevelFile(baseBoxPath, boxPathSuffix)
+                            .getParentFile().getParentFile();
+            levelBoxCache.retainOnly(childLevelDirectory);
+        }
         final List<BoxData> renderedBoxList = new ArrayList<>(boxList.size());
 
+        // level zero box parameters are requested in batches (one request per batch)
+        // and the next batch is requested while the boxes in the current batch are rendered
+        final boolean prefetchParameters = (level == 0) && (! skipRendering);
+        Map<BoxData, RenderParameters> batchParameters = Collections.emptyMap();
+        CompletableFuture<Map<BoxData, RenderParameters>> nextBatchFuture =
+                prefetchParameters ? loadParametersBatchAsync(z, boxList, 0) : null;
+
         int renderedLevelBoxCount = 0;
         RenderedBoxParent cachedParent = null;
         BoxData siblingParentBox = null;
         boolean renderCachedParent = false;
         BoxData parentBox;
-        for (final BoxData boxData : boxList) {
+        for (int i = 0; i < boxList.size(); i++) {
+
+            final BoxData boxData = boxList.get(i);
 
             if (boxData.getLevel() < boxParameters.maxLevel) {
 
@@ -242,7 +309,11 @@ public class BoxGenerator
             }
 
             if (! skipRendering) {
-                renderBox(boxData, imageProcessorCache, cachedParent);
+                if (prefetchParameters && ((i % PARAMETERS_BATCH_SIZE) == 0)) {
+                    batchParameters = RenderDataClient.getAsyncResult(nextBatchFuture);
+                    nextBatchFuture = loadParametersBatchAsync(z, boxList, i + PARAMETERS_BATCH_SIZE);
+                }
+                renderBox(boxData, imageProcessorCache, cachedParent, batchParameters.get(boxData));
                 renderedLevelBoxCount++;
             }
             renderedBoxList.add(boxData);
@@ -250,11 +321,17 @@ public class BoxGenerator
             if (renderCachedParent) {
 
                 if (! skipRendering) {
-                    final BufferedImage parentImage = cachedParent.buildImage(boxWidth, boxHeight);
-                    BoxMipmapGenerator.saveImage(parentImage,
-                                                 cachedParent.getBoxFile(),
-                                                 boxParameters.label,
-                                                 format);
+                    final BufferedImage parentImage;
+                    if (levelBoxCache == null) {
+                        parentImage = cachedParent.buildImage(boxWidth, boxHeight);
+                    } else {
+                        parentImage = cachedParent.buildReducedImage(boxWidth, boxHeight, boxParameters.label);
+                        // siblings are no longer needed since their parent has been built
+                        for (final BoxData sibling : siblingParentBox.getChildren()) {
+                            levelBoxCache.remove(sibling.getAbsoluteLevelFile(baseBoxPath, boxPathSuffix));
+                        }
+                    }
+                    saveBoxImage(siblingParentBox, parentImage);
                 }
 
                 renderedBoxList.add(siblingParentBox);
@@ -263,9 +340,44 @@ public class BoxGenerator
             progress.markProcessedBox(renderedLevelBoxCount, imageProcessorCache);
         }
 
+        if (levelBoxCache != null) {
+            LOG.info("renderBoxesForLevel: layer {} level {} boxCache={}", z, level, levelBoxCache.getStats());
+        }
+
+        if (shardedBoxStore != null) {
+            // publish shard index updates so that this level's boxes can be read when rendering the next level
+            shardedBoxStore.flush();
+        }
+
         return renderedBoxList;
     }
 
+    /**
+     * Reclaims unreferenced data (e.g. from regenerated boxes or failed runs) in the shards for all levels
+     * of the specified layer.  This must not be called while boxes for the layer are being rendered.
+     *
+     * @param  z  z value for layer.
+     *
+     * @return number of unreferenced bytes removed (always 0 if boxes are not sharded).
+     *
+     * @throws IOException
+     *   if any shards cannot be compacted.
+     */
+    public long compactShards(final int z)
+            throws IOException {
+
+        long removedByteCount = 0;
+
+        if (shardedBoxStore != null) {
+            for (int level = 0; level <= boxParameters.maxLevel; level++) {
+                removedByteCount += shardedBoxStore.compactShards(level, z);
+            }
+            LOG.info("compactShards: removed {} unreferenced bytes for z {}", removedByteCount, z);
+        }
+
+        return removedByteCount;
+    }
+
     /**
      * Renders a CATMAID overview image for the specified layer.
      *
@@ -306,6 +418,26 @@ public class BoxGenerator
             overviewScale = (double) boxParameters.maxOverviewWidthAndHeight / scaledStackMaxY;
         }
 
+        if (shardedBoxStore == null) {
+            renderFileOverview(z, sourceBoxLevel, levelScale, scaledStackMaxX, scaledStackMaxY, overviewScale);
+        } else {
+            renderShardedOverview(z, sourceBoxLevel, scaledStackMaxX, scaledStackMaxY, overviewScale);
+        }
+
+        LOG.info("renderOverview: exit, z={}", z);
+    }
+
+    /**
+     * Renders a CATMAID overview image for the specified layer from tile specs that reference box image files.
+     */
+    private void renderFileOverview(final int z,
+                                    final int sourceBoxLevel,
+                                    final double levelScale,
+                                    final double scaledStackMaxX,
+                                    final double scaledStackMaxY,
+                                    final double overviewScale)
+            throws IOException {
+
         // build tile specs that reference box images rendered at the "best available" source level
         final RenderParameters overviewParameters =
                 new RenderParameters(null,
@@ -374,30 +506,179 @@ public class BoxGenerator
                      "specify a higher maxLevel to reduce the number of boxes needed for overview images");
 
         }
+    }
+
+    /**
+     * Renders a CATMAID overview image for the specified layer by drawing scaled sharded boxes
+     * (since sharded boxes cannot be referenced as tile spec image URLs).
+     */
+    private void renderShardedOverview(final int z,
+                                       final int sourceBoxLevel,
+                                       final double scaledStackMaxX,
+                                       final double scaledStackMaxY,
+                                       final double overviewScale)
+            throws IOException {
+
+        final int overviewWidth = (int) Math.ceil(scaledStackMaxX * overviewScale);
+        final int overviewHeight = (int) Math.ceil(scaledStackMaxY * overviewScale);
+        final BufferedImage overviewImage = new BufferedImage(overviewWidth, overviewHeight,
+                                                              BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D overviewGraphics = overviewImage.createGraphics();
+        overviewGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        if (backgroundRGBColor != null) {
+            overviewGraphics.setBackground(new Color(backgroundRGBColor));
+            overviewGraphics.clearRect(0, 0, overviewWidth, overviewHeight);
+        }
 
-        LOG.info("renderOverview: exit, z={}", z);
+        final int numberOfRows = (int) (scaledStackMaxY / boxParameters.height) + 1;
+        final int numberOfColumns = (int) (scaledStackMaxX / boxParameters.width) + 1;
+
+        LOG.info("renderShardedOverview: z={}, sourceBoxLevel={}, numberOfRows={}, numberOfColumns={}, overviewScale={}",
+                 z, sourceBoxLevel, numberOfRows, numberOfColumns, overviewScale);
+
+        BufferedImage boxImage;
+        int x;
+        int y;
+        for (int row = 0; row < numberOfRows; row++) {
+            y = (int) Math.floor(row * boxParameters.height * overviewScale);
+            final int nextY = (int) Math.floor((row + 1) * boxParameters.height * overviewScale);
+            for (int column = 0; column < numberOfColumns; column++) {
+                boxImage = shardedBoxStore.readImage(new BoxData(z, sourceBoxLevel, row, column));
+                if (boxImage != null) {
+                    x = (int) Math.floor(column * boxParameters.width * overviewScale);
+                    final int nextX = (int) Math.floor((column + 1) * boxParameters.width * overviewScale);
+                    overviewGraphics.drawImage(boxImage, x, y, nextX - x, nextY - y, null);
+                }
+            }
+        }
+
+        overviewGraphics.dispose();
+
+        final File overviewFile = Paths.get(baseBoxPath, "small", z + boxPathSuffix).toFile();
+        BoxMipmapGenerator.saveImage(overviewImage,
+                                     overviewFile,
+                                     boxParameters.label,
+                                     format);
+    }
+
+    /**
+     * @return this worker's cache of rendered boxes or null if boxes should not be cached.
+     */
+    private BoxImageCache getBoxCache() {
+        if ((boxCache == null) && boxParameters.isPyramidCacheEnabled()) {
+            boxCache = new BoxImageCache(boxParameters.pyramidCacheSize);
+        }
+        return boxCache;
+    }
+
+    private boolean isBoxRendered(final BoxData boxData,
+                                  final File boxFile)
+            throws IOException {
+        return shardedBoxStore == null ? boxFile.exists() : shardedBoxStore.hasBox(boxData);
+    }
+
+    private void saveBoxImage(final BoxData boxData,
+                              final BufferedImage boxImage)
+            throws IOException {
+        if (shardedBoxStore == null) {
+            BoxMipmapGenerator.saveImage(boxImage,
+                                         boxData.getAbsoluteLevelFile(baseBoxPath, boxPathSuffix),
+                                         boxParameters.label,
+                                         format);
+        } else {
+            shardedBoxStore.writeImage(boxData, boxImage, boxParameters.label);
+        }
+
+        // cache all boxes that will be needed to build the next level
+        final BoxImageCache cache = getBoxCache();
+        if ((cache != null) && (boxData.getLevel() < boxParameters.maxLevel)) {
+            cache.put(boxData.getAbsoluteLevelFile(baseBoxPath, boxPathSuffix), boxImage);
+        }
     }
 
+    private RenderDataClient getRenderDataClient() {
+        if (renderDataClient == null) {
+            renderDataClient = renderWebParameters.getDataClient();
+        }
+        return renderDataClient;
+    }
+
+    /**
+     * @return future map of render parameters for the level zero boxes in the specified batch
+     *         that have not already been rendered (the map is empty if all boxes have been rendered).
+     */
+    private CompletableFuture<Map<BoxData, RenderParameters>> loadParametersBatchAsync(final double z,
+                                                                                       final List<BoxData> boxList,
+                                                                                       final int fromIndex)
+            throws IOException {
+
+        final List<BoxData> batchBoxes = new ArrayList<>(PARAMETERS_BATCH_SIZE);
+        final List<Bounds> batchBounds = new ArrayList<>(PARAMETERS_BATCH_SIZE);
+
+        final int toIndex = Math.min(fromIndex + PARAMETERS_BATCH_SIZE, boxList.size());
+        for (int i = fromIndex; i < toIndex; i++) {
+            final BoxData boxData = boxList.get(i);
+            final File boxFile = boxData.getAbsoluteLevelFile(baseBoxPath, boxPathSuffix);
+            if (boxParameters.forceGeneration || (! isBoxRendered(boxData, boxFile))) {
+                // same full scale bounds used for single box requests (see BoxData.getServicePath)
+                final double x = boxData.getColumn() * boxWidth;
+                final double y = boxData.getRow() * boxHeight;
+                batchBoxes.add(boxData);
+                batchBounds.add(new Bounds(x, y, x + boxWidth, y + boxHeight));
+            }
+        }
+
+        final CompletableFuture<Map<BoxData, RenderParameters>> batchFuture;
+        if (batchBoxes.size() == 0) {
+            batchFuture = CompletableFuture.completedFuture(Collections.emptyMap());
+        } else {
+            batchFuture = getRenderDataClient()
+                    .getRenderParametersForBoxesAsync(stack, z, batchBounds, 1.0)
+                    .thenApply(parametersList -> {
+                        final Map<BoxData, RenderParameters> boxToParameters = new HashMap<>();
+                        for (int i = 0; i < batchBoxes.size(); i++) {
+                            boxToParameters.put(batchBoxes.get(i), parametersList.get(i));
+                        }
+                        return boxToParameters;
+                    });
+        }
+
+        return batchFuture;
+    }
+
+    private String getLevelZeroParametersUrl(final BoxData boxData) {
+        return webServiceUrls.getStackUrlString(stack) +
+               boxData.getServicePath(boxWidth, boxHeight) +
+               "/render-parameters";
+    }
+
+    /**
+     * Renders the specified box.
+     *
+     * @param  levelZeroParameters  previously requested render parameters for level zero boxes
+     *                              (or null if they have not been requested).
+     */
     private void renderBox(final BoxData boxData,
                            final ImageProcessorCache imageProcessorCache,
-                           final RenderedBoxParent cachedParent)
+                           final RenderedBoxParent cachedParent,
+                           final RenderParameters levelZeroParameters)
             throws IOException {
 
         final File boxFile = boxData.getAbsoluteLevelFile(baseBoxPath, boxPathSuffix);
 
-        if (boxParameters.forceGeneration || (! boxFile.exists())) {
+        if (boxParameters.forceGeneration || (! isBoxRendered(boxData, boxFile))) {
 
             BufferedImage boxImage = null;
 
             if (boxData.getLevel() == 0) {
 
-                final String boxParametersUrl = webServiceUrls.getStackUrlString(stack) +
-                                                boxData.getServicePath(boxWidth, boxHeight) +
-                                                "/render-parameters";
-
-                LOG.info("renderBoxFile: loading {}", boxParametersUrl);
-
-                final RenderParameters renderParameters = RenderParameters.loadFromUrl(boxParametersUrl);
+                final RenderParameters renderParameters;
+                if (levelZeroParameters == null) {
+                    renderParameters = RenderDataClient.loadRenderParameters(getLevelZeroParametersUrl(boxData));
+                } else {
+                    renderParameters = levelZeroParameters;
+                }
                 renderParameters.setSkipInterpolation(boxParameters.skipInterpolation);
                 renderParameters.setBinaryMask(boxParameters.binaryMask);
                 renderParameters.setBackgroundRGBColor(backgroundRGBColor);
@@ -423,9 +704,20 @@ public class BoxGenerator
                 final RenderedBoxParent renderedBoxParent = new RenderedBoxParent(boxData,
                                                                                   baseBoxPath,
                                                                                   boxPathSuffix);
-                renderedBoxParent.loadChildren();
+                final BoxImageCache cache = getBoxCache();
+                if (cache != null) {
+                    renderedBoxParent.loadChildren(cache, shardedBoxStore);
+                } else if (shardedBoxStore == null) {
+                    renderedBoxParent.loadChildren();
+                } else {
+                    renderedBoxParent.loadChildren(shardedBoxStore);
+                }
                 if (renderedBoxParent.hasChildren()) {
-                    boxImage = renderedBoxParent.buildImage(boxWidth, boxHeight);
+                    if (cache == null) {
+                        boxImage = renderedBoxParent.buildImage(boxWidth, boxHeight);
+                    } else {
+                        boxImage = renderedBoxParent.buildReducedImage(boxWidth, boxHeight, boxParameters.label);
+                    }
                 } else {
                     LOG.warn("renderBoxFile: box {} is empty (no rendered children)", boxData);
                 }
@@ -434,10 +726,7 @@ public class BoxGenerator
 
             if (boxImage != null) {
 
-                BoxMipmapGenerator.saveImage(boxImage,
-                                             boxFile,
-                                             boxParameters.label,
-                                             format);
+                saveBoxImage(boxData, boxImage);
 
                 if (cachedParent != null) {
                     final RenderedBox renderedChild = new RenderedBox(boxFile, boxImage);
@@ -450,7 +739,9 @@ public class BoxGenerator
             LOG.info("renderBoxFile: {} already generated", boxFile.getAbsolutePath());
 
             if (cachedParent != null)  {
-                final RenderedBox renderedChild = new RenderedBox(boxFile);
+                final RenderedBox renderedChild = shardedBoxStore == null ?
+                                                  new RenderedBox(boxFile) :
+                                                  new RenderedBox(boxFile, shardedBoxStore.readImage(boxData));
                 cachedParent.setChild(renderedChild, boxData.getParentIndex());
             }
 
@@ -509,5 +800,8 @@ public class BoxGenerator
 
     }
 
+    /** Number of level zero boxes whose render parameters are requested together. */
+    private static final int PARAMETERS_BATCH_SIZE = 64;
+
     private static final Logger LOG = LoggerFactory.getLogger(BoxGenerator.class);
 }
@@ -37,12 +37,34 @@ public class MatchDerivationParameters implements Serializable {
             required = false)
     public Integer steps = 3;
 
+    @Parameter(
+            names = "--SIFTextractionThreads",
+            description = "Number of threads to use when extracting SIFT features from a single canvas",
+            required = false)
+    public Integer extractionThreads = 1;
+
     @Parameter(
             names = "--matchRod",
             description = "Ratio of distances for matches",
             required = false)
     public Float matchRod = 0.92f;
 
+    @Parameter(
+            names = "--matchIndexMaxChecks",
+            description = "Match features using a k-d tree descriptor index that compares at most this many " +
+                          "descriptors for each feature (0 for an exact index search).  " +
+                          "Omit to compare all descriptor pairs.",
+            required = false)
+    public Integer matchIndexMaxChecks;
+
+    @Parameter(
+            names = "--matchMaxSpatialDistance",
+            description = "When matching with a descriptor index (see --matchIndexMaxChecks), " +
+                          "only consider second canvas features within this many rendered pixels of the " +
+                          "location expected from the canvas bounds (omit to consider all features)",
+            required = false)
+    public Double matchMaxSpatialDistance;
+
     @Parameter(
             names = "--matchModelType",
             description = "Type of model for match filtering",
@@ -61,6 +83,12 @@ public class MatchDerivationParameters implements Serializable {
             required = false)
     public Float matchMaxEpsilon = 20.0f;
 
+    @Parameter(
+            names = "--matchRansacThreads",
+            description = "Number of threads to use for evaluating match filter (RANSAC) hypotheses",
+            required = false)
+    public Integer matchRansacThreads = 1;
+
     @Parameter(
             names = "--matchMinInlierRatio",
             description = "Minimal ratio of inliers to candidates for match filtering",
@@ -91,4 +119,18 @@ public class MatchDerivationParameters implements Serializable {
             required = false)
     public Integer maxCacheGb = 2;
 
+    @Parameter(
+            names = "--maxSourceCacheGb",
+            description = "Maximum number of gigabytes of source tile data to cache on each executor " +
+                          "when rendering canvases (0 to disable)",
+            required = false)
+    public Double maxSourceCacheGb = 0.0;
+
+    @Parameter(
+            names = "--filteredSourceCachePercent",
+            description = "Percentage of the source cache reserved for filtered source tile data " +
+                          "(0 to disable filtered caching)",
+            required = false)
+    public Integer filteredSourceCachePercent = 0;
+
 }
@@ -90,6 +90,20 @@ public class MaterializedBoxParameters implements Serializable {
             arity = 0)
     public boolean forceGeneration = false;
 
+    @Parameter(
+            names = "--shardSize",
+            description = "Pack boxes into shard container files that each hold up to shardSize x shardSize boxes " +
+                          "for a level and layer (omit to save each box in its own file)",
+            required = false)
+    public Integer shardSize;
+
+    @Parameter(
+            names = "--pyramidCacheSize",
+            description = "Build mipmap levels in memory by keeping up to this many rendered boxes (per worker) " +
+                          "cached until their parent box is reduced (omit to reload child boxes from disk)",
+            required = false)
+    public Integer pyramidCacheSize;
+
     @Parameter(
             names = "--renderGroup",
             description = "Index (1-n) that identifies portion of layer to render (omit if only one job is being used)",
@@ -102,6 +116,14 @@ public class MaterializedBoxParameters implements Serializable {
             required = false)
     public Integer numberOfRenderGroups;
 
+    public boolean isSharded() {
+        return ((shardSize != null) && (shardSize > 0));
+    }
+
+    public boolean isPyramidCacheEnabled() {
+        return ((pyramidCacheSize != null) && (pyramidCacheSize > 0));
+    }
+
     public boolean isOverviewNeeded() {
         return ((maxOverviewWidthAndHeight != null) && (maxOverviewWidthAndHeight > 0));
     }
@@ -122,6 +144,8 @@ public class MaterializedBoxParameters implements Serializable {
         p.label = this.label;
         p.createIGrid = this.createIGrid;
         p.forceGeneration = this.forceGeneration;
+        p.shardSize = this.shardSize;
+        p.pyramidCacheSize = this.pyramidCacheSize;
 
         p.renderGroup = group;
         p.numberOfRenderGroups = numberOfGroups;
@@ -65,6 +65,40 @@ public class MipmapParameters implements Serializable {
             required = false)
     public Integer numberOfRenderGroups = 1;
 
+    @Parameter(
+            names = "--readThreads",
+            description = "Number of threads to use for loading source images within a layer " +
+                          "(any thread count greater than 1 enables parallel generation)",
+            required = false)
+    public Integer readThreads = 1;
+
+    @Parameter(
+            names = "--downsampleThreads",
+            description = "Number of threads to use for downsampling source images within a layer",
+            required = false)
+    public Integer downsampleThreads = 1;
+
+    @Parameter(
+            names = "--writeThreads",
+            description = "Number of threads to use for encoding and writing mipmap files within a layer",
+            required = false)
+    public Integer writeThreads = 1;
+
+    @Parameter(
+            names = "--maxTilesInFlight",
+            description = "Maximum number of tile channels held in memory at once during parallel generation " +
+                          "(default is twice the total number of threads)",
+            required = false)
+    public Integer maxTilesInFlight;
+
+    public boolean isParallelGenerationEnabled() {
+        return (readThreads > 1) || (downsampleThreads > 1) || (writeThreads > 1);
+    }
+
+    public int getMaxTilesInFlight() {
+        return maxTilesInFlight == null ? 2 * (readThreads + downsampleThreads + writeThreads) : maxTilesInFlight;
+    }
+
     public MipmapPathBuilder getMipmapPathBuilder()
             throws IOException {
 
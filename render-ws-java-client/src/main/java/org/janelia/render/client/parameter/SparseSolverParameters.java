@@ -0,0 +1,51 @@
+package org.janelia.render.client.parameter;
+
+import com.beust.jcommander.Parameter;
+
+import java.io.Serializable;
+
+import org.janelia.alignment.match.ModelType;
+import org.janelia.alignment.solver.SparseAlignmentSolver;
+
+/**
+ * Parameters for the in-process sparse alignment solver.
+ *
+ * @author Eric Trautman
+ */
+public class SparseSolverParameters implements Serializable {
+
+    @Parameter(
+            names = "--solverModelType",
+            description = "Type of model to solve for each tile (TRANSLATION, SIMILARITY, or AFFINE)",
+            required = false)
+    public ModelType modelType = ModelType.AFFINE;
+
+    @Parameter(
+            names = "--solverRegularization",
+            description = "Weight (relative to each tile's match weight) pulling tile models toward their initial values",
+            required = false)
+    public Double regularization = 0.01;
+
+    @Parameter(
+            names = "--solverMaxIterations",
+            description = "Maximum number of conjugate gradient iterations",
+            required = false)
+    public Integer maxIterations = 2000;
+
+    @Parameter(
+            names = "--solverTolerance",
+            description = "Stop iterating when the residual norm falls below this fraction of the right hand side norm",
+            required = false)
+    public Double tolerance = 1.0e-10;
+
+    @Parameter(
+            names = "--solverThreads",
+            description = "Number of threads to use for solving",
+            required = false)
+    public Integer numberOfThreads = 1;
+
+    public SparseAlignmentSolver buildSolver() {
+        return new SparseAlignmentSolver(modelType, regularization, maxIterations, tolerance, numberOfThreads);
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.janelia.render.client.parameter;
+
+import com.beust.jcommander.Parameter;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import mpicbg.trakem2.transform.CoordinateTransform;
+
+import org.janelia.alignment.spec.LeafTransformSpec;
+import org.janelia.alignment.spec.ListTransformSpec;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.TransformSpec;
+import org.janelia.alignment.transform.AffineWarpFieldTransform;
+import org.janelia.alignment.warp.AffineWarpFieldBuilder;
+
+/**
+ * Parameters for approximating derived warp transforms with affine warp fields.
+ *
+ * @author Eric Trautman
+ */
+public class WarpFieldApproximationParameters implements Serializable {
+
+    @Parameter(
+            names = "--warpFieldMaxError",
+            description = "If specified, approximate each derived warp with an affine warp field " +
+                          "whose sampled error (in pixels) does not exceed this value " +
+                          "(so that rendering cost no longer depends upon the number of landmarks)",
+            required = false)
+    public Double maxError;
+
+    @Parameter(
+            names = "--warpFieldCellSize",
+            description = "Pixel size of warp field cells for the first approximation (halved until max error is met)",
+            required = false)
+    public Double initialCellSize = 4096.0;
+
+    @Parameter(
+            names = "--warpFieldMinCellSize",
+            description = "Smallest pixel size for warp field cells (approximation fails if max error is not met)",
+            required = false)
+    public Double minCellSize = 32.0;
+
+    public boolean isDefined() {
+        return maxError != null;
+    }
+
+    /**
+     * @param  transformId    identifier for the returned spec.
+     * @param  warpTransform  warp transform derived for the specified tiles.
+     * @param  montageTiles   tiles (before warping) that will reference the returned spec.
+     *
+     * @return spec for the specified warp transform or (when an error limit is defined)
+     *         for a warp field approximation of the transform that covers all of the specified tiles.
+     *
+     * @throws IllegalStateException
+     *   if the warp cannot be approximated within the error limit.
+     */
+    public TransformSpec buildTransformSpec(final String transformId,
+                                            final CoordinateTransform warpTransform,
+                                            final Collection<TileSpec> montageTiles)
+            throws IllegalStateException {
+
+        final TransformSpec transformSpec;
+
+        if (isDefined()) {
+
+            double minX = Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            for (final TileSpec tileSpec : montageTiles) {
+                minX = Math.min(minX, tileSpec.getMinX());
+                minY = Math.min(minY, tileSpec.getMinY());
+                maxX = Math.max(maxX, tileSpec.getMaxX());
+                maxY = Math.max(maxY, tileSpec.getMaxY());
+            }
+
+            final AffineWarpFieldBuilder builder = new AffineWarpFieldBuilder(warpTransform,
+                                                                              minX,
+                                                                              minY,
+                                                                              maxX - minX,
+                                                                              maxY - minY,
+                                                                              initialCellSize,
+                                                                              minCellSize,
+                                                                              maxError);
+            final AffineWarpFieldTransform fieldTransform = builder.call();
+
+            final ListTransformSpec listSpec = new ListTransformSpec(transformId, null);
+            listSpec.addSpec(buildLeafSpec(builder.getWorldToFieldTransform()));
+            listSpec.addSpec(buildLeafSpec(fieldTransform));
+            listSpec.addSpec(buildLeafSpec(builder.getFieldToWorldTransform()));
+            transformSpec = listSpec;
+
+        } else {
+
+            transformSpec = new LeafTransformSpec(transformId,
+                                                  null,
+                                                  warpTransform.getClass().getName(),
+                                                  warpTransform.toDataString());
+        }
+
+        return transformSpec;
+    }
+
+    private static LeafTransformSpec buildLeafSpec(final CoordinateTransform transform) {
+        return new LeafTransformSpec(transform.getClass().getName(), transform.toDataString());
+    }
+
+}
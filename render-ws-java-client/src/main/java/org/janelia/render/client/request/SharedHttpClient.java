@@ -0,0 +1,115 @@
+package org.janelia.render.client.request;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides a single pooled HTTP client (and a thread pool for asynchronous requests) that is shared by
+ * all web service clients in a JVM so that connections are reused across clients and requests.
+ *
+ * Pool limits can be configured with the following system properties:
+ * <pre>
+ *     render.client.maxConnections          - maximum number of pooled connections (default 100)
+ *     render.client.maxConnectionsPerRoute  - maximum number of pooled connections per host (default 20)
+ *     render.client.keepAliveSeconds        - keep-alive time for connections when the server does not
+ *                                             specify one (default 30)
+ * </pre>
+ *
+ * The client requests gzip/deflate encoded responses and transparently decodes them.
+ *
+ * @author Eric Trautman
+ */
+public class SharedHttpClient {
+
+    public static final String MAX_CONNECTIONS_PROPERTY = "render.client.maxConnections";
+    public static final String MAX_CONNECTIONS_PER_ROUTE_PROPERTY = "render.client.maxConnectionsPerRoute";
+    public static final String KEEP_ALIVE_SECONDS_PROPERTY = "render.client.keepAliveSeconds";
+
+    private static CloseableHttpClient sharedClient = null;
+    private static ExecutorService sharedExecutor = null;
+
+    /**
+     * @return the shared pooled client (created on first use).
+     */
+    public static synchronized CloseableHttpClient getInstance() {
+        if (sharedClient == null) {
+            sharedClient = buildPooledClient(Integer.getInteger(MAX_CONNECTIONS_PROPERTY, 100),
+                                             getMaxConnectionsPerRoute(),
+                                             Integer.getInteger(KEEP_ALIVE_SECONDS_PROPERTY, 30));
+        }
+        return sharedClient;
+    }
+
+    /**
+     * @return the shared executor for asynchronous requests (created on first use).
+     *         The executor has one daemon thread for each connection allowed per route.
+     */
+    public static synchronized ExecutorService getAsyncExecutor() {
+        if (sharedExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            sharedExecutor = Executors.newFixedThreadPool(getMaxConnectionsPerRoute(), runnable -> {
+                final Thread thread = new Thread(runnable, "render-client-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * @param  maxConnections          maximum number of pooled connections.
+     * @param  maxConnectionsPerRoute  maximum number of pooled connections per host.
+     * @param  keepAliveSeconds        keep-alive time for connections when the server does not specify one.
+     *
+     * @return a new pooled client with the specified limits.
+     */
+    public static CloseableHttpClient buildPooledClient(final int maxConnections,
+                                                        final int maxConnectionsPerRoute,
+                                                        final int keepAliveSeconds) {
+
+        final long keepAliveMilliseconds = keepAliveSeconds * 1000L;
+
+        final PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(keepAliveMilliseconds, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        final ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(final HttpResponse response,
+                                             final HttpContext context) {
+                final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response,
+                                                                                                       context);
+                return duration > 0 ? duration : keepAliveMilliseconds;
+            }
+        };
+
+        LOG.info("buildPooledClient: maxConnections={}, maxConnectionsPerRoute={}, keepAliveSeconds={}",
+                 maxConnections, maxConnectionsPerRoute, keepAliveSeconds);
+
+        // content compression (gzip and deflate) is enabled by default
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setRetryHandler(new WaitingRetryHandler())
+                .build();
+    }
+
+    private static int getMaxConnectionsPerRoute() {
+        return Integer.getInteger(MAX_CONNECTIONS_PER_ROUTE_PROPERTY, 20);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedHttpClient.class);
+}
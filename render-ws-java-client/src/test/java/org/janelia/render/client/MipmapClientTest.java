@@ -20,8 +20,12 @@ import ij.process.ImageProcessor;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.janelia.alignment.ImageAndMask;
@@ -154,6 +158,54 @@ public class MipmapClientTest {
 
     }
 
+    @Test
+    public void testGenerateMissingMipmapFilesInParallel() throws Exception {
+
+        final MipmapClient.Parameters parameters = new MipmapClient.Parameters();
+        parameters.mipmap.rootDirectory = mipmapRootDirectory.getAbsolutePath();
+        parameters.mipmap.maxLevel = 3;
+        parameters.mipmap.readThreads = 2;
+        parameters.mipmap.downsampleThreads = 2;
+        parameters.mipmap.writeThreads = 3;
+        parameters.mipmap.maxTilesInFlight = 2;
+
+        Assert.assertTrue("parallel generation should be enabled", parameters.mipmap.isParallelGenerationEnabled());
+
+        final MipmapClient mipmapClient = new MipmapClient(parameters.renderWeb, parameters.mipmap);
+
+        final List<TileSpec> tileSpecs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            // copy source so that each tile has its own mipmap files
+            final File sourceFile = new File(mipmapRootDirectory, "source_" + i + ".tif");
+            Files.copy(Paths.get("src/test/resources/col0060_row0140_cam0.tif"), sourceFile.toPath());
+
+            final TileSpec tileSpec = new TileSpec();
+            tileSpec.setTileId("test-parallel-mipmap-tile-" + i);
+            final ChannelSpec channelSpec = new ChannelSpec();
+            channelSpec.putMipmap(0, new ImageAndMask(sourceFile.getAbsolutePath(), "src/test/resources/mask.tif"));
+            tileSpec.addChannel(channelSpec);
+            tileSpec.setMipmapPathBuilder(mipmapClient.getMipmapPathBuilder());
+            tileSpecs.add(tileSpec);
+        }
+
+        mipmapClient.generateMissingMipmapFilesInParallel(tileSpecs);
+
+        for (final TileSpec tileSpec : tileSpecs) {
+            final ChannelSpec channelSpec = tileSpec.getAllChannels().get(0);
+            ImageProcessor imageProcessor =
+                    MipmapClient.loadImageProcessor(channelSpec.getFirstMipmapEntry().getValue().getImageUrl());
+            for (int level = 1; level <= 3; level++) {
+                final ImageAndMask imageAndMask = channelSpec.getFloorMipmapEntry(level).getValue();
+                final int expectedWidth = imageProcessor.getWidth() / 2;
+                imageProcessor = MipmapClient.loadImageProcessor(imageAndMask.getImageUrl());
+                Assert.assertEquals("invalid width for level " + level + " image " + imageAndMask.getImageUrl(),
+                                    expectedWidth, imageProcessor.getWidth());
+                Assert.assertTrue("missing level " + level + " mask " + imageAndMask.getMaskUrl(),
+                                  new File(imageAndMask.getMaskFilePath()).exists());
+            }
+        }
+    }
+
     public static File createTestDirectory(final String baseName)
             throws IOException {
         final SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmssSSS");
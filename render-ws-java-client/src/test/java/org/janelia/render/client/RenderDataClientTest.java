@@ -1,7 +1,10 @@
 package org.janelia.render.client;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.TileBounds;
 import org.janelia.alignment.spec.stack.StackId;
@@ -84,4 +87,28 @@ public class RenderDataClientTest {
         Assert.assertTrue("not enough tiles", resolvedTiles.getTileCount() > 100);
     }
 
+    @Test
+    public void testGetRenderParameters()
+            throws Exception {
+
+        final RenderParameters renderParameters =
+                renderDataClient.getRenderParameters(stack, 150000, 80000, z, 2048, 2048, 0.5);
+        Assert.assertNotNull("null renderParameters", renderParameters);
+        Assert.assertTrue("missing tile specs", renderParameters.hasTileSpecs());
+
+        final CompletableFuture<RenderParameters> future =
+                renderDataClient.getRenderParametersAsync(stack, 150000, 80000, z, 2048, 2048, 0.5);
+        final RenderParameters asyncRenderParameters = RenderDataClient.getAsyncResult(future);
+        Assert.assertEquals("async request returned different number of tile specs",
+                            renderParameters.numberOfTileSpecs(), asyncRenderParameters.numberOfTileSpecs());
+
+        final List<String> urls = Arrays.asList(
+                renderDataClient.getRenderParametersUrlString(stack, 150000, 80000, z, 2048, 2048, 0.5),
+                renderDataClient.getRenderParametersUrlString(stack, 152048, 80000, z, 2048, 2048, 0.5));
+        final List<RenderParameters> batchRenderParameters = RenderDataClient.loadRenderParameters(urls);
+        Assert.assertEquals("invalid number of batch results", urls.size(), batchRenderParameters.size());
+        Assert.assertEquals("batch results are out of order",
+                            152048, batchRenderParameters.get(1).getX(), 0.01);
+    }
+
 }
@@ -0,0 +1,18 @@
+package org.janelia.render.client;
+
+import org.janelia.render.client.parameter.CommandLineParameters;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SparseAlignmentClient} class.
+ *
+ * @author Eric Trautman
+ */
+public class SparseAlignmentClientTest {
+
+    @Test
+    public void testParameterParsing() throws Exception {
+        CommandLineParameters.parseHelp(new SparseAlignmentClient.Parameters());
+    }
+
+}
@@ -164,6 +164,9 @@ public class DMeshPointMatchClient
                         parameters.matchRender.fillWithNoise,
                         parameters.format,
                         new File(parameters.imageCacheParentDirectory));
+        fileLoader.setSourceCacheMaxPixels(
+                RenderableCanvasIdPairsUtilities.getSourceCacheMaxPixels(parameters.match.maxSourceCacheGb));
+        fileLoader.setFilteredSourceCachePercent(parameters.match.filteredSourceCachePercent);
 
         final DMeshTool dMeshTool = new DMeshTool(new File(parameters.dMeshScript),
                                                   new File(parameters.dMeshParameters),
@@ -190,7 +193,8 @@ public class DMeshPointMatchClient
 
 
         final JavaRDD<OrderedCanvasIdPair> rddCanvasIdPairs =
-                sparkContext.parallelize(renderableCanvasIdPairs.getNeighborPairs());
+                RenderableCanvasIdPairsUtilities.parallelizeForCanvasLocality(sparkContext,
+                                                                              renderableCanvasIdPairs.getNeighborPairs());
 
         final JavaRDD<CanvasMatches> rddMatches =
                 rddCanvasIdPairs.mapPartitionsWithIndex(
@@ -212,6 +216,9 @@ public class DMeshPointMatchClient
                     final List<CanvasMatches> matchList = new ArrayList<>();
                     int pairCount = 0;
 
+                    final Iterator<OrderedCanvasIdPair> orderedPairIterator =
+                            RenderableCanvasIdPairsUtilities.orderForCanvasReuse(pairIterator).iterator();
+
                     OrderedCanvasIdPair pair;
                     CanvasId p;
                     CanvasId q;
@@ -221,9 +228,9 @@ public class DMeshPointMatchClient
                     RenderParameters qRenderParameters;
                     CanvasMatches pairMatches;
                     Matches inlierMatches;
-                    while (pairIterator.hasNext()) {
+                    while (orderedPairIterator.hasNext()) {
 
-                        pair = pairIterator.next();
+                        pair = orderedPairIterator.next();
                         pairCount++;
 
                         p = pair.getP();
@@ -261,8 +268,9 @@ public class DMeshPointMatchClient
                         }
                     }
 
-                    log.info("rddMatches: derived matches for {} out of {} pairs, cache stats are {}",
-                             matchList.size(), pairCount, dataCache.stats());
+                    log.info("rddMatches: derived matches for {} out of {} pairs, cache stats are {}, source cache stats are {}",
+                             matchList.size(), pairCount, dataCache.stats(),
+                             fileLoader1.getSourceCache().getStats());
 
                     return matchList.iterator();
                 },
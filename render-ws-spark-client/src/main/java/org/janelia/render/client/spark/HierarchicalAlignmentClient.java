@@ -39,6 +39,7 @@ import org.janelia.render.client.parameter.MatchDerivationParameters;
 import org.janelia.render.client.parameter.MatchRenderParameters;
 import org.janelia.render.client.parameter.MatchWebServiceParameters;
 import org.janelia.render.client.parameter.RenderWebServiceParameters;
+import org.janelia.render.client.parameter.SparseSolverParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +55,10 @@ public class HierarchicalAlignmentClient
         SPLIT, MATCH, ALIGN, WARP
     }
 
+    public enum SolverType {
+        EM_ALIGNER, SPARSE
+    }
+
     public static class Parameters extends CommandLineParameters {
 
         @ParametersDelegate
@@ -130,6 +135,15 @@ public class HierarchicalAlignmentClient
         @ParametersDelegate
         public MatchDerivationParameters match = new MatchDerivationParameters();
 
+        @Parameter(
+                names = "--solverType",
+                description = "Solver to use for aligning split stacks (external EM_aligner tool or in-process sparse solver)",
+                required = false)
+        public SolverType solverType = SolverType.EM_ALIGNER;
+
+        @ParametersDelegate
+        public SparseSolverParameters sparseSolver = new SparseSolverParameters();
+
         @Parameter(
                 names = "--solverScript",
                 description = "Full path for solver",
@@ -138,8 +152,8 @@ public class HierarchicalAlignmentClient
 
         @Parameter(
                 names = "--solverParametersTemplate",
-                description = "Full path for solver parameters json file to be used as template for all solver runs",
-                required = true)
+                description = "Full path for solver parameters json file to be used as template for all EM_aligner solver runs",
+                required = false)
         public String solverParametersTemplate;
 
         @Parameter(
@@ -443,14 +457,29 @@ public class HierarchicalAlignmentClient
 
         LOG.info("alignTier: entry");
 
-        // broadcast EM_aligner tool to ensure that solver is run serially on each node
-        final EMAlignerTool solver = new EMAlignerTool(new File(parameters.solverScript),
-                                                       new File(parameters.solverParametersTemplate));
-        final Broadcast<EMAlignerTool> broadcastEMAlignerTool = sparkContext.broadcast(solver);
+        final HierarchicalTierSolveFunction solveStacksFunction;
+        if (SolverType.SPARSE.equals(parameters.solverType)) {
+
+            // in-process solver runs within each task, so there is no need to serialize runs on a node
+            // (tier stacks are created through the render web base data URL, so read and write them there)
+            solveStacksFunction = new HierarchicalTierSolveFunction(parameters.renderWeb.baseDataUrl,
+                                                                    parameters.sparseSolver);
+
+        } else {
+
+            if (parameters.solverParametersTemplate == null) {
+                throw new IllegalArgumentException("--solverParametersTemplate must be specified for " +
+                                                   SolverType.EM_ALIGNER + " solver runs");
+            }
+
+            // broadcast EM_aligner tool to ensure that solver is run serially on each node
+            final EMAlignerTool solver = new EMAlignerTool(new File(parameters.solverScript),
+                                                           new File(parameters.solverParametersTemplate));
+            final Broadcast<EMAlignerTool> broadcastEMAlignerTool = sparkContext.broadcast(solver);
 
-        final HierarchicalTierSolveFunction solveStacksFunction =
-                new HierarchicalTierSolveFunction(parameters.boxBaseDataUrl,
-                                                  broadcastEMAlignerTool);
+            solveStacksFunction = new HierarchicalTierSolveFunction(parameters.boxBaseDataUrl,
+                                                                    broadcastEMAlignerTool);
+        }
 
         final List<HierarchicalStack> stacksWithMatches =
                 tierStacks.stream().
@@ -489,8 +518,8 @@ public class HierarchicalAlignmentClient
 
             for (final HierarchicalStack splitStack : alignedStackList) {
                 final String splitStackName = splitStack.getSplitStackId().getStack();
-                LOG.info("alignTier: stack {} has alignment quality {}",
-                         splitStackName, splitStack.getAlignmentQuality());
+                LOG.info("alignTier: stack {} has alignment quality {} and mean match distance {}",
+                         splitStackName, splitStack.getAlignmentQuality(), splitStack.getAlignmentMeanMatchDistance());
 
                 driverTierRender.setHierarchicalData(splitStackName, splitStack);
             }
@@ -1,14 +1,20 @@
 package org.janelia.render.client.spark;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
 
 import org.apache.spark.api.java.function.Function;
 import org.apache.spark.broadcast.Broadcast;
 import org.janelia.alignment.match.MatchCollectionId;
+import org.janelia.alignment.solver.SparseAlignmentSolver;
 import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.stack.HierarchicalStack;
 import org.janelia.alignment.spec.stack.StackId;
+import org.janelia.alignment.spec.stack.StackMetaData;
+import org.janelia.render.client.RenderDataClient;
+import org.janelia.render.client.SparseAlignmentClient;
+import org.janelia.render.client.parameter.SparseSolverParameters;
 
 /**
  * Spark function for creating all stacks in a hierarchical tier.
@@ -20,11 +26,26 @@ public class HierarchicalTierSolveFunction
 
     private final String baseDataUrl;
     private final Broadcast<EMAlignerTool> broadcastEMAlignerTool;
+    private final SparseSolverParameters sparseSolverParameters;
 
+    /**
+     * Constructs a function that solves each split stack with the external EM_aligner tool.
+     */
     public HierarchicalTierSolveFunction(final String baseDataUrl,
                                          final Broadcast<EMAlignerTool> broadcastEMAlignerTool) {
         this.baseDataUrl = baseDataUrl;
         this.broadcastEMAlignerTool = broadcastEMAlignerTool;
+        this.sparseSolverParameters = null;
+    }
+
+    /**
+     * Constructs a function that solves each split stack in-process with the {@link SparseAlignmentSolver}.
+     */
+    public HierarchicalTierSolveFunction(final String baseDataUrl,
+                                         final SparseSolverParameters sparseSolverParameters) {
+        this.baseDataUrl = baseDataUrl;
+        this.broadcastEMAlignerTool = null;
+        this.sparseSolverParameters = sparseSolverParameters;
     }
 
     @Override
@@ -35,6 +56,10 @@ public class HierarchicalTierSolveFunction
 
         LogUtilities.setupExecutorLog4j(splitStackId.getStack());
 
+        if (sparseSolverParameters != null) {
+            return solveInProcess(splitStack);
+        }
+
         final Bounds bounds = splitStack.getFullScaleBounds();
         final EMAlignerTool nodeSolver = broadcastEMAlignerTool.getValue();
 
@@ -62,4 +87,42 @@ public class HierarchicalTierSolveFunction
 
         return splitStack;
     }
+
+    private HierarchicalStack solveInProcess(final HierarchicalStack splitStack)
+            throws Exception {
+
+        final StackId splitStackId = splitStack.getSplitStackId();
+        final StackId alignedStackId = splitStack.getAlignedStackId();
+        final MatchCollectionId matchCollectionId = splitStack.getMatchCollectionId();
+        final Bounds bounds = splitStack.getFullScaleBounds();
+
+        final RenderDataClient splitDataClient = new RenderDataClient(baseDataUrl,
+                                                                      splitStackId.getOwner(),
+                                                                      splitStackId.getProject());
+        final RenderDataClient matchDataClient = new RenderDataClient(baseDataUrl,
+                                                                      matchCollectionId.getOwner(),
+                                                                      matchCollectionId.getName());
+        final RenderDataClient alignedDataClient = new RenderDataClient(baseDataUrl,
+                                                                        alignedStackId.getOwner(),
+                                                                        alignedStackId.getProject());
+
+        final SparseAlignmentSolver.Solution solution =
+                SparseAlignmentClient.solveAndSave(sparseSolverParameters,
+                                                   splitDataClient,
+                                                   splitStackId.getStack(),
+                                                   bounds.getMinZ(),
+                                                   bounds.getMaxZ(),
+                                                   matchDataClient,
+                                                   Collections.emptySet(),
+                                                   alignedDataClient,
+                                                   alignedStackId.getStack());
+
+        alignedDataClient.setStackState(alignedStackId.getStack(), StackMetaData.StackState.COMPLETE);
+
+        // like the EM_aligner path, alignment quality holds the (successful) return code
+        splitStack.setAlignmentQuality(0.0);
+        splitStack.setAlignmentMeanMatchDistance(solution.getFinalMeanMatchDistance());
+
+        return splitStack;
+    }
 }
@@ -1,11 +1,23 @@
 package org.janelia.render.client.spark;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.Nonnull;
 
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.janelia.alignment.match.CanvasId;
+import org.janelia.alignment.match.OrderedCanvasIdPair;
 import org.janelia.alignment.match.RenderableCanvasIdPairs;
 import org.janelia.render.client.spark.cache.CachedCanvasData;
 import org.janelia.render.client.spark.cache.CanvasDataLoader;
@@ -104,6 +116,130 @@ public class RenderableCanvasIdPairsUtilities {
 
     }
 
+    /**
+     * Orders pairs so that pairs sharing a canvas are processed near each other.
+     * Starting with the lowest canvas id, all remaining pairs for the current canvas are emitted together
+     * and the next canvas is the lowest id among the not yet visited neighbors of visited canvases.
+     * This keeps the working set of canvas data (and the source tiles used to render it) small enough
+     * to be served from executor caches.
+     *
+     * @param  pairIterator  pairs to order (e.g. the pairs for one partition).
+     *
+     * @return list of the same pairs ordered to maximize canvas reuse.
+     */
+    public static List<OrderedCanvasIdPair> orderForCanvasReuse(final Iterator<OrderedCanvasIdPair> pairIterator) {
+
+        final Map<CanvasId, List<OrderedCanvasIdPair>> canvasToPairs = new HashMap<>();
+        final TreeSet<CanvasId> unvisitedCanvasIds = new TreeSet<>(CANVAS_ID_COMPARATOR);
+
+        OrderedCanvasIdPair pair;
+        int pairCount = 0;
+        while (pairIterator.hasNext()) {
+            pair = pairIterator.next();
+            pairCount++;
+            for (final CanvasId canvasId : new CanvasId[] { pair.getP(), pair.getQ() }) {
+                canvasToPairs.computeIfAbsent(canvasId, k -> new ArrayList<>()).add(pair);
+                unvisitedCanvasIds.add(canvasId);
+            }
+        }
+
+        final List<OrderedCanvasIdPair> orderedPairs = new ArrayList<>(pairCount);
+        final Set<OrderedCanvasIdPair> emittedPairs = new HashSet<>(pairCount * 2);
+        final TreeSet<CanvasId> frontierCanvasIds = new TreeSet<>(CANVAS_ID_COMPARATOR);
+
+        CanvasId canvasId;
+        CanvasId otherCanvasId;
+        while (! unvisitedCanvasIds.isEmpty()) {
+
+            frontierCanvasIds.add(unvisitedCanvasIds.pollFirst());
+
+            while (! frontierCanvasIds.isEmpty()) {
+                canvasId = frontierCanvasIds.pollFirst();
+                for (final OrderedCanvasIdPair canvasPair : canvasToPairs.get(canvasId)) {
+                    if (emittedPairs.add(canvasPair)) {
+                        orderedPairs.add(canvasPair);
+                        otherCanvasId = canvasId.equals(canvasPair.getP()) ? canvasPair.getQ() : canvasPair.getP();
+                        if (unvisitedCanvasIds.remove(otherCanvasId)) {
+                            frontierCanvasIds.add(otherCanvasId);
+                        }
+                    }
+                }
+            }
+        }
+
+        return orderedPairs;
+    }
+
+    /**
+     * Orders the specified pairs for canvas locality and then distributes them across the specified
+     * number of partitions so that each canvas's data (e.g. features) is derived on as few executors as possible.
+     *
+     * @param  sparkContext  context for the current run.
+     * @param  pairs         pairs to distribute.
+     *
+     * @return RDD of pairs partitioned for canvas locality.
+     */
+    public static JavaRDD<OrderedCanvasIdPair> parallelizeForCanvasLocality(final JavaSparkContext sparkContext,
+                                                                            final List<OrderedCanvasIdPair> pairs) {
+
+        final int numberOfPartitions = sparkContext.defaultParallelism();
+        final List<OrderedCanvasIdPair> orderedPairs = orderForCanvasReuse(pairs.iterator());
+
+        LOG.info("parallelizeForCanvasLocality: {} pairs with {} distinct canvases will be distributed across {} partitions, " +
+                 "expected canvas data derivation count is {} (instead of {} for unordered pairs)",
+                 pairs.size(),
+                 getExpectedCanvasDerivationCount(pairs, 1),
+                 numberOfPartitions,
+                 getExpectedCanvasDerivationCount(orderedPairs, numberOfPartitions),
+                 getExpectedCanvasDerivationCount(pairs, numberOfPartitions));
+
+        // parallelize slices lists into contiguous partitions, so locality of the ordered pairs is preserved
+        return sparkContext.parallelize(orderedPairs, numberOfPartitions);
+    }
+
+    /**
+     * @param  pairs               pairs to distribute.
+     * @param  numberOfPartitions  number of (contiguous and evenly sized) partitions for the pairs.
+     *
+     * @return number of times canvas data will need to be derived if each partition is processed
+     *         by a different executor (the sum of the number of distinct canvases in each partition).
+     */
+    public static long getExpectedCanvasDerivationCount(final List<OrderedCanvasIdPair> pairs,
+                                                        final int numberOfPartitions) {
+        long count = 0;
+        final Set<CanvasId> partitionCanvasIds = new HashSet<>();
+        final long numberOfPairs = pairs.size();
+        for (int i = 0; i < numberOfPartitions; i++) {
+            // same slice bounds as ParallelCollectionRDD
+            final int start = (int) ((i * numberOfPairs) / numberOfPartitions);
+            final int end = (int) (((i + 1) * numberOfPairs) / numberOfPartitions);
+            partitionCanvasIds.clear();
+            for (final OrderedCanvasIdPair pair : pairs.subList(start, end)) {
+                partitionCanvasIds.add(pair.getP());
+                partitionCanvasIds.add(pair.getQ());
+            }
+            count += partitionCanvasIds.size();
+        }
+        return count;
+    }
+
+    /**
+     * @param  maxSourceCacheGb  requested source cache size (null or 0 to disable source caching).
+     *
+     * @return maximum number of source pixels to cache on each executor.
+     */
+    public static long getSourceCacheMaxPixels(final Double maxSourceCacheGb) {
+        final long maxPixels = maxSourceCacheGb == null ? 0 : (long) (maxSourceCacheGb * 1_000_000_000L);
+        LOG.info("getSourceCacheMaxPixels: returning {}", maxPixels);
+        return maxPixels;
+    }
+
+    /** Null safe canvas id ordering (pairs loaded from JSON may not have group ids). */
+    private static final Comparator<CanvasId> CANVAS_ID_COMPARATOR =
+            Comparator.comparing(CanvasId::getGroupId, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                    .thenComparing(CanvasId::getId, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                    .thenComparing((CanvasId canvasId) -> String.valueOf(canvasId.getRelativePosition()));
+
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(RenderableCanvasIdPairsUtilities.class);
 
 }
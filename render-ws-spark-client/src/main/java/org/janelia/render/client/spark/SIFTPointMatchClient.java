@@ -152,6 +152,9 @@ public class SIFTPointMatchClient
                         getCanvasFeatureExtractor(matchParameters, matchRenderParameters));
 
         featureLoader.setClipInfo(clipParameters.clipWidth, clipParameters.clipHeight);
+        featureLoader.setSourceCacheMaxPixels(
+                RenderableCanvasIdPairsUtilities.getSourceCacheMaxPixels(matchParameters.maxSourceCacheGb));
+        featureLoader.setFilteredSourceCachePercent(matchParameters.filteredSourceCachePercent);
 
         final double renderScale = matchRenderParameters.renderScale;
 
@@ -160,9 +163,11 @@ public class SIFTPointMatchClient
         final Broadcast<CanvasFeatureListLoader> broadcastFeatureLoader = sparkContext.broadcast(featureLoader);
         final Broadcast<CanvasFeatureMatcher> broadcastFeatureMatcher =
                 sparkContext.broadcast(getCanvasFeatureMatcher(matchParameters));
+        final Double maxSpatialDistance = matchParameters.matchMaxSpatialDistance;
 
         final JavaRDD<OrderedCanvasIdPair> rddCanvasIdPairs =
-                sparkContext.parallelize(renderableCanvasIdPairs.getNeighborPairs());
+                RenderableCanvasIdPairsUtilities.parallelizeForCanvasLocality(sparkContext,
+                                                                              renderableCanvasIdPairs.getNeighborPairs());
 
         final JavaRDD<CanvasMatches> rddMatches = rddCanvasIdPairs.mapPartitionsWithIndex(
                 (Function2<Integer, Iterator<OrderedCanvasIdPair>, Iterator<CanvasMatches>>) (partitionIndex, pairIterator) -> {
@@ -179,6 +184,9 @@ public class SIFTPointMatchClient
                     final List<CanvasMatches> matchList = new ArrayList<>();
                     int pairCount = 0;
 
+                    final Iterator<OrderedCanvasIdPair> orderedPairIterator =
+                            RenderableCanvasIdPairsUtilities.orderForCanvasReuse(pairIterator).iterator();
+
                     OrderedCanvasIdPair pair;
                     CanvasId p;
                     CanvasId q;
@@ -186,9 +194,9 @@ public class SIFTPointMatchClient
                     CachedCanvasFeatures qFeatures;
                     CanvasFeatureMatchResult matchResult;
                     Matches inlierMatches;
-                    while (pairIterator.hasNext()) {
+                    while (orderedPairIterator.hasNext()) {
 
-                        pair = pairIterator.next();
+                        pair = orderedPairIterator.next();
                         pairCount++;
 
                         p = pair.getP();
@@ -199,8 +207,16 @@ public class SIFTPointMatchClient
 
                         log.info("derive matches between {} and {}", p, q);
 
-                        matchResult = featureMatcher.deriveMatchResult(pFeatures.getFeatureList(),
-                                                                       qFeatures.getFeatureList());
+                        if (featureMatcher.isIndexedMatching()) {
+                            matchResult = featureMatcher.deriveMatchResult(
+                                    pFeatures.getFeatureList(),
+                                    qFeatures.getDescriptorIndex(),
+                                    maxSpatialDistance == null ? null : pFeatures.getSpatialWindow(qFeatures,
+                                                                                                   maxSpatialDistance));
+                        } else {
+                            matchResult = featureMatcher.deriveMatchResult(pFeatures.getFeatureList(),
+                                                                           qFeatures.getFeatureList());
+                        }
 
                         // TODO: remove offset debug logging when no longer needed
                         final double[] pClipOffsets = pFeatures.getClipOffsets();
@@ -217,8 +233,9 @@ public class SIFTPointMatchClient
                         }
                     }
 
-                    log.info("derived matches for {} out of {} pairs, cache stats are {}",
-                             matchList.size(), pairCount, dataCache.stats());
+                    log.info("derived matches for {} out of {} pairs, cache stats are {}, source cache stats are {}",
+                             matchList.size(), pairCount, dataCache.stats(),
+                             broadcastFeatureLoader.getValue().getSourceCache().getStats());
 
                     return matchList.iterator();
                 },
@@ -265,7 +282,8 @@ public class SIFTPointMatchClient
         return new CanvasFeatureExtractor(siftParameters,
                                           matchParameters.minScale,
                                           matchParameters.maxScale,
-                                          matchRenderParameters.fillWithNoise);
+                                          matchRenderParameters.fillWithNoise,
+                                          matchParameters.extractionThreads);
     }
 
     private static CanvasFeatureMatcher getCanvasFeatureMatcher(final MatchDerivationParameters matchParameters) {
@@ -277,7 +295,9 @@ public class SIFTPointMatchClient
                                         matchParameters.matchMinNumInliers,
                                         matchParameters.matchMaxTrust,
                                         matchParameters.matchMaxNumInliers,
-                                        true);
+                                        true,
+                                        matchParameters.matchIndexMaxChecks,
+                                        matchParameters.matchRansacThreads);
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(SIFTPointMatchClient.class);
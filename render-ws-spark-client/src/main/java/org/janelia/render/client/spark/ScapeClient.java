@@ -120,32 +120,32 @@ public class ScapeClient
 
         @Parameter(
                 names = "--useLayerBounds",
-                description = "Base each scape on layer bounds instead of on stack bounds (e.g. for unaligned data)",
+                description = "Base each scape on layer bounds (like RenderSectionClient) instead of on stack bounds",
                 required = false,
                 arity = 1)
-        public boolean useLayerBounds = false;
+        public boolean useLayerBounds = true;
 
         @Parameter(
                 names = "--minX",
-                description = "Left most pixel coordinate in world coordinates.  Default is minX of stack (or layer when --useLayerBounds true)",
+                description = "Left most pixel coordinate in world coordinates.  Default is minX of layer (or stack when --useLayerBounds false)",
                 required = false)
         public Double minX;
 
         @Parameter(
                 names = "--minY",
-                description = "Top most pixel coordinate in world coordinates.  Default is minY of stack (or layer when --useLayerBounds true)",
+                description = "Top most pixel coordinate in world coordinates.  Default is minY of layer (or stack when --useLayerBounds false)",
                 required = false)
         public Double minY;
 
         @Parameter(
                 names = "--width",
-                description = "Width in world coordinates.  Default is maxX - minX of stack (or layer when --useLayerBounds true)",
+                description = "Width in world coordinates.  Default is maxX - minX of layer (or stack when --useLayerBounds false)",
                 required = false)
         public Double width;
 
         @Parameter(
                 names = "--height",
-                description = "Height in world coordinates.  Default is maxY - minY of stack (or layer when --useLayerBounds true)",
+                description = "Height in world coordinates.  Default is maxY - minY of layer (or stack when --useLayerBounds false)",
                 required = false)
         public Double height;
 
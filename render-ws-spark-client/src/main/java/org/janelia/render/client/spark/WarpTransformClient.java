@@ -18,7 +18,6 @@ import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.Function;
-import org.janelia.alignment.spec.LeafTransformSpec;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
 import org.janelia.alignment.spec.SectionData;
 import org.janelia.alignment.spec.TileSpec;
@@ -32,6 +31,7 @@ import org.janelia.render.client.RenderDataClient;
 import org.janelia.render.client.parameter.CommandLineParameters;
 import org.janelia.render.client.parameter.RenderWebServiceParameters;
 import org.janelia.render.client.parameter.TileSpecValidatorParameters;
+import org.janelia.render.client.parameter.WarpFieldApproximationParameters;
 import org.janelia.render.client.parameter.WarpStackParameters;
 import org.janelia.render.client.parameter.ZRangeParameters;
 import org.slf4j.Logger;
@@ -56,6 +56,9 @@ public class WarpTransformClient
         @ParametersDelegate
         public WarpStackParameters warp = new WarpStackParameters();
 
+        @ParametersDelegate
+        public WarpFieldApproximationParameters warpField = new WarpFieldApproximationParameters();
+
         @ParametersDelegate
         public ZRangeParameters layerRange = new ZRangeParameters();
 
@@ -157,7 +160,8 @@ public class WarpTransformClient
 
                 final TransformSpec warpTransformSpec = buildTransform(montageTiles.getTileSpecs(),
                                                                        alignTiles.getTileSpecs(),
-                                                                       z);
+                                                                       z,
+                                                                       parameters.warpField);
 
                 LOG.info("warpFunction: derived warp transform for {}", z);
 
@@ -204,7 +208,8 @@ public class WarpTransformClient
 
     private static TransformSpec buildTransform(final Collection<TileSpec> montageTiles,
                                                 final Collection<TileSpec> alignTiles,
-                                                final Double z)
+                                                final Double z,
+                                                final WarpFieldApproximationParameters warpField)
             throws Exception {
 
         final String warpType = "TPS";
@@ -220,10 +225,7 @@ public class WarpTransformClient
 
         LOG.info("buildTransform: completed {} transform derivation", warpType);
 
-        return new LeafTransformSpec(transformId,
-                                     null,
-                                     transform.getClass().getName(),
-                                     transform.toDataString());
+        return warpField.buildTransformSpec(transformId, transform, montageTiles);
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(WarpTransformClient.class);
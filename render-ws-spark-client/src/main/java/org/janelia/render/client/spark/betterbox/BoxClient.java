@@ -86,7 +86,9 @@ public class BoxClient
                 description = "Indicates that you are rerunning a job that previously failed.  " +
                               "If set, the last boxes rendered for each prior partition will be removed " +
                               "because they are potentially corrupt.  All other previously rendered boxes " +
-                              "will be excluded from this run and kept.",
+                              "will be excluded from this run and kept.  " +
+                              "For sharded boxes, unreferenced data left by prior runs is instead removed " +
+                              "by compacting shards after rendering.",
                 required = false,
                 arity = 0)
         public boolean cleanUpPriorRun = false;
@@ -153,7 +155,9 @@ public class BoxClient
         setupForRun();
 
         boolean foundBoxesRenderedForPriorRun = false;
-        if (parameters.cleanUpPriorRun) {
+        if (parameters.cleanUpPriorRun && (! boxGenerator.isSharded())) {
+            // shard index entries are only published after box data, so prior runs cannot leave partial boxes
+            // (unpublished and replaced box data is reclaimed by compacting shards after rendering)
             foundBoxesRenderedForPriorRun = cleanUpPriorRun(sparkContext);
         }
 
@@ -170,6 +174,11 @@ public class BoxClient
                                  broadcastBoxGenerator);
         }
 
+        if (boxGenerator.isSharded() && (! parameters.explainPlan) &&
+            (parameters.cleanUpPriorRun || parameters.box.forceGeneration)) {
+            compactShards(sparkContext, broadcastBoxGenerator);
+        }
+
         LogUtilities.logSparkClusterInfo(sparkContext); // log cluster info again here to add run stats to driver log
 
         sparkContext.stop();
@@ -641,6 +650,32 @@ public class BoxClient
         LOG.info("run: rendered {} overview images", renderedOverviewCount);
     }
 
+    /**
+     * On workers (in parallel), reclaim unreferenced data left in shards by regenerated boxes or failed runs.
+     *
+     * @param  sparkContext           context for current run.
+     * @param  broadcastBoxGenerator  box generator broadcast to all worker nodes.
+     */
+    private void compactShards(final JavaSparkContext sparkContext,
+                               final Broadcast<BoxGenerator> broadcastBoxGenerator) {
+
+        final JavaRDD<Double> zValuesRdd = sparkContext.parallelize(zValues);
+
+        final JavaRDD<Long> removedByteCountRdd = zValuesRdd.map((Function<Double, Long>) z -> {
+
+            final BoxGenerator localBoxGenerator = broadcastBoxGenerator.getValue();
+            return localBoxGenerator.compactShards(z.intValue());
+        });
+
+        long totalRemovedByteCount = 0;
+        for (final Long removedByteCount : removedByteCountRdd.collect()) {
+            totalRemovedByteCount += removedByteCount;
+        }
+
+        LOG.info(""); // empty statement adds newline to lengthy unterminated stage progress lines in log
+        LOG.info("run: removed {} unreferenced bytes from shards", totalRemovedByteCount);
+    }
+
     /**
      * Aggregates the collection of boxes given to a Spark task into lists mapped by z value.
      *
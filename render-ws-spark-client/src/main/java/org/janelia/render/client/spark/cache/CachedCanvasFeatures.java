@@ -4,6 +4,8 @@ import java.util.List;
 
 import mpicbg.imagefeatures.Feature;
 
+import org.janelia.alignment.match.FeatureDescriptorIndex;
+
 /**
  * Cache container for a canvas' list of features.
  *
@@ -13,11 +15,25 @@ public class CachedCanvasFeatures implements CachedCanvasData {
 
     private final List<Feature> featureList;
     private final double[] clipOffsets;
+    private final double[] renderOrigin;
+    private final double renderScale;
+    private FeatureDescriptorIndex descriptorIndex;
 
+    /**
+     * @param  featureList   features extracted from the rendered canvas.
+     * @param  clipOffsets   full scale clip offsets for the canvas.
+     * @param  renderOrigin  world x[0] and y[1] location of the (clipped) rendered canvas.
+     * @param  renderScale   scale of the rendered canvas.
+     */
     public CachedCanvasFeatures(final List<Feature> featureList,
-                                final double[] clipOffsets) {
+                                final double[] clipOffsets,
+                                final double[] renderOrigin,
+                                final double renderScale) {
         this.featureList = featureList;
         this.clipOffsets = clipOffsets;
+        this.renderOrigin = renderOrigin;
+        this.renderScale = renderScale;
+        this.descriptorIndex = null;
     }
 
     public List<Feature> getFeatureList() {
@@ -28,6 +44,31 @@ public class CachedCanvasFeatures implements CachedCanvasData {
         return clipOffsets;
     }
 
+    /**
+     * @return descriptor index for this canvas' features (built on first request and then retained).
+     */
+    public synchronized FeatureDescriptorIndex getDescriptorIndex() {
+        if (descriptorIndex == null) {
+            descriptorIndex = new FeatureDescriptorIndex(featureList);
+        }
+        return descriptorIndex;
+    }
+
+    /**
+     * @param  otherCanvasFeatures  features for another canvas rendered at the same scale.
+     * @param  maxDistance          maximum distance (in rendered pixels) from expected location.
+     *
+     * @return window for locations in the other canvas that correspond to locations in this canvas
+     *         based upon the world locations of both rendered canvases.
+     */
+    public FeatureDescriptorIndex.SpatialWindow getSpatialWindow(final CachedCanvasFeatures otherCanvasFeatures,
+                                                                 final double maxDistance) {
+        return new FeatureDescriptorIndex.SpatialWindow(
+                (renderOrigin[0] - otherCanvasFeatures.renderOrigin[0]) * renderScale,
+                (renderOrigin[1] - otherCanvasFeatures.renderOrigin[1]) * renderScale,
+                maxDistance);
+    }
+
     public long getKilobytes() {
         return (long) (featureList.size() * AVERAGE_KILOBYTES_PER_FEATURE) + 1;
     }
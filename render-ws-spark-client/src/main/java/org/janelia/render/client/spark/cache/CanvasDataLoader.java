@@ -2,12 +2,17 @@ package org.janelia.render.client.spark.cache;
 
 import com.google.common.cache.CacheLoader;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.match.CanvasId;
+import org.janelia.alignment.util.ImageProcessorCache;
+import org.janelia.render.client.RenderDataClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static org.janelia.alignment.match.RenderableCanvasIdPairs.TEMPLATE_GROUP_ID_TOKEN;
 import static org.janelia.alignment.match.RenderableCanvasIdPairs.TEMPLATE_ID_TOKEN;
@@ -26,6 +31,8 @@ public abstract class CanvasDataLoader
     private final String renderParametersUrlTemplate;
     private Integer clipWidth;
     private Integer clipHeight;
+    private long sourceCacheMaxPixels;
+    private int filteredSourceCachePercent;
     private final Class dataClass;
 
     private final boolean templateContainsIdReference;
@@ -44,6 +51,8 @@ public abstract class CanvasDataLoader
 
         this.clipWidth = null;
         this.clipHeight = null;
+        this.sourceCacheMaxPixels = 0;
+        this.filteredSourceCachePercent = 0;
 
         this.dataClass = dataClass;
     }
@@ -67,6 +76,40 @@ public abstract class CanvasDataLoader
         this.clipHeight = clipHeight;
     }
 
+    /**
+     * Enable caching of source tile data (shared by all loaders in the current JVM)
+     * so that canvases rendered from the same source tiles do not need to reload them.
+     *
+     * @param  sourceCacheMaxPixels  maximum number of source pixels (bytes) to cache or 0 to disable caching.
+     */
+    public void setSourceCacheMaxPixels(final long sourceCacheMaxPixels) {
+        this.sourceCacheMaxPixels = sourceCacheMaxPixels;
+    }
+
+    /**
+     * Reserve part of the source cache for filtered (e.g. contrast normalized) source tiles
+     * so that neighboring canvases do not need to re-filter the tiles they share.
+     *
+     * @param  filteredSourceCachePercent  percentage (0 - 100) of the source cache reserved for filtered tiles
+     *                                     or 0 to disable filtered caching.
+     */
+    public void setFilteredSourceCachePercent(final int filteredSourceCachePercent) {
+        this.filteredSourceCachePercent = filteredSourceCachePercent;
+    }
+
+    /**
+     * @return cache of source tile data for rendering canvases.
+     */
+    public ImageProcessorCache getSourceCache() {
+        final ImageProcessorCache sourceCache;
+        if (sourceCacheMaxPixels > 0) {
+            sourceCache = getSharedSourceCache(sourceCacheMaxPixels, filteredSourceCachePercent);
+        } else {
+            sourceCache = ImageProcessorCache.DISABLED_CACHE;
+        }
+        return sourceCache;
+    }
+
     /**
      * @return the render parameters URL for the specified canvas.
      */
@@ -101,7 +144,14 @@ public abstract class CanvasDataLoader
     public RenderParameters getRenderParameters(final CanvasId canvasId)
             throws IllegalArgumentException {
 
-        final RenderParameters renderParameters = RenderParameters.loadFromUrl(getRenderParametersUrl(canvasId));
+        final String renderParametersUrl = getRenderParametersUrl(canvasId);
+        final RenderParameters renderParameters;
+        try {
+            // use the shared pooled client so that connections are reused across canvases
+            renderParameters = RenderDataClient.loadRenderParameters(renderParametersUrl);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("failed to load render parameters from " + renderParametersUrl, e);
+        }
 
         if ((clipWidth != null) || (clipHeight != null)) {
             // TODO: setting the canvas offsets here is hack-y, probably want a cleaner way
@@ -112,6 +162,34 @@ public abstract class CanvasDataLoader
         return renderParameters;
     }
 
+    /**
+     * @return the source cache shared by all loaders in the current JVM, rebuilding it if it was created
+     *         for a different size (previously returned caches remain usable by the loaders holding them).
+     */
+    private static synchronized ImageProcessorCache getSharedSourceCache(final long maxPixels,
+                                                                         final int filteredPercent) {
+        if (sharedSourceCache == null) {
+            sharedSourceCache = buildSharedSourceCache(maxPixels, filteredPercent);
+            LOG.info("getSharedSourceCache: created {}", sharedSourceCache);
+        } else if ((maxPixels != sharedSourceCacheMaxPixels) ||
+                   (filteredPercent != sharedSourceCacheFilteredPercent)) {
+            LOG.warn("getSharedSourceCache: rebuilding cache for maxPixels {} and filteredPercent {}, " +
+                     "existing cache was built for maxPixels {} and filteredPercent {}",
+                     maxPixels, filteredPercent, sharedSourceCacheMaxPixels, sharedSourceCacheFilteredPercent);
+            sharedSourceCache = buildSharedSourceCache(maxPixels, filteredPercent);
+            LOG.info("getSharedSourceCache: created {}", sharedSourceCache);
+        }
+        return sharedSourceCache;
+    }
+
+    private static ImageProcessorCache buildSharedSourceCache(final long maxPixels,
+                                                              final int filteredPercent) {
+        sharedSourceCacheMaxPixels = maxPixels;
+        sharedSourceCacheFilteredPercent = filteredPercent;
+        // source cache weights are measured in bytes, so max pixels is also the max number of cached bytes
+        return ImageProcessorCache.withFilteredChannelMapCache(maxPixels, filteredPercent, true, false);
+    }
+
     private static Pattern buildTokenPattern(final String token) {
         return Pattern.compile("\\" + token.substring(0, token.length() - 1) + "\\}");
     }
@@ -120,4 +198,11 @@ public abstract class CanvasDataLoader
     private static final Pattern GROUP_ID_TOKEN_PATTERN = buildTokenPattern(TEMPLATE_GROUP_ID_TOKEN);
     private static final Pattern BOX_ID_PATTERN = Pattern.compile("z_.*_box_(.*)");
 
+    /** Source tile cache shared by all loaders in the current JVM (e.g. Spark executor). */
+    private static ImageProcessorCache sharedSourceCache = null;
+    private static long sharedSourceCacheMaxPixels = 0;
+    private static int sharedSourceCacheFilteredPercent = 0;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CanvasDataLoader.class);
+
 }
@@ -40,11 +40,14 @@ public class CanvasFeatureListLoader
 
         LOG.info("load: extracting features for {} with offsets ({}, {})", canvasId, offsets[0], offsets[1]);
 
-        final List<Feature> featureList = featureExtractor.extractFeatures(renderParameters, null);
+        final List<Feature> featureList = featureExtractor.extractFeatures(renderParameters, null, getSourceCache());
 
         LOG.info("load: exit");
 
-        return new CachedCanvasFeatures(featureList, offsets);
+        return new CachedCanvasFeatures(featureList,
+                                        offsets,
+                                        new double[] { renderParameters.getX(), renderParameters.getY() },
+                                        renderParameters.getScale());
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(CanvasFeatureListLoader.class);
@@ -54,7 +54,9 @@ public class CanvasFileLoader
 
         final RenderParameters renderParameters = getRenderParameters(canvasId);
 
-        final BufferedImage bufferedImage = ArgbRenderer.renderWithNoise(renderParameters, fillWithNoise);
+        final BufferedImage bufferedImage = ArgbRenderer.renderWithNoise(renderParameters,
+                                                                         fillWithNoise,
+                                                                         getSourceCache());
 
         Utils.saveImage(bufferedImage,
                         renderFile,
@@ -1,5 +1,14 @@
 package org.janelia.render.client.spark;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.janelia.alignment.match.CanvasId;
+import org.janelia.alignment.match.OrderedCanvasIdPair;
 import org.janelia.alignment.match.RenderableCanvasIdPairs;
 import org.junit.Assert;
 import org.junit.Test;
@@ -49,4 +58,79 @@ public class RenderableCanvasIdPairsUtilitiesTest {
                             templateForRun);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testOrderForCanvasReuse() throws Exception {
+
+        final RenderableCanvasIdPairs renderableCanvasIdPairs =
+                RenderableCanvasIdPairs.load("src/test/resources/tile_pairs_v12_acquire_merged_1_5.json");
+
+        // shuffle pairs to simulate an arbitrary partition order
+        final List<OrderedCanvasIdPair> pairs = new ArrayList<>(renderableCanvasIdPairs.getNeighborPairs());
+        Collections.shuffle(pairs, new Random(1));
+
+        final List<OrderedCanvasIdPair> orderedPairs =
+                RenderableCanvasIdPairsUtilities.orderForCanvasReuse(pairs.iterator());
+
+        Assert.assertEquals("incorrect number of ordered pairs", pairs.size(), orderedPairs.size());
+        Assert.assertEquals("ordered pairs differ from original pairs",
+                            new HashSet<>(pairs), new HashSet<>(orderedPairs));
+
+        // with a small LRU window, the ordered pairs should need far fewer canvas loads than the shuffled pairs
+        final int windowSize = 16;
+        final int shuffledLoads = countCanvasLoads(pairs, windowSize);
+        final int orderedLoads = countCanvasLoads(orderedPairs, windowSize);
+
+        Assert.assertTrue("ordered pairs need " + orderedLoads + " canvas loads but shuffled pairs need " +
+                          shuffledLoads, orderedLoads < (shuffledLoads / 2));
+    }
+
+    @Test
+    public void testGetExpectedCanvasDerivationCount() throws Exception {
+
+        final RenderableCanvasIdPairs renderableCanvasIdPairs =
+                RenderableCanvasIdPairs.load("src/test/resources/tile_pairs_v12_acquire_merged_1_5.json");
+
+        final List<OrderedCanvasIdPair> pairs = new ArrayList<>(renderableCanvasIdPairs.getNeighborPairs());
+        Collections.shuffle(pairs, new Random(1));
+
+        final long distinctCanvasCount = RenderableCanvasIdPairsUtilities.getExpectedCanvasDerivationCount(pairs, 1);
+        Assert.assertEquals("invalid distinct canvas count", 521, distinctCanvasCount);
+
+        final List<OrderedCanvasIdPair> orderedPairs =
+                RenderableCanvasIdPairsUtilities.orderForCanvasReuse(pairs.iterator());
+
+        final int numberOfPartitions = 8;
+        final long shuffledCount =
+                RenderableCanvasIdPairsUtilities.getExpectedCanvasDerivationCount(pairs, numberOfPartitions);
+        final long orderedCount =
+                RenderableCanvasIdPairsUtilities.getExpectedCanvasDerivationCount(orderedPairs, numberOfPartitions);
+
+        Assert.assertTrue("ordered count " + orderedCount + " should be less than half of shuffled count " +
+                          shuffledCount, orderedCount < (shuffledCount / 2));
+        Assert.assertTrue("ordered count " + orderedCount + " should be close to distinct canvas count " +
+                          distinctCanvasCount, orderedCount < (distinctCanvasCount * 1.5));
+    }
+
+    private static int countCanvasLoads(final List<OrderedCanvasIdPair> pairs,
+                                        final int windowSize) {
+        final List<CanvasId> window = new ArrayList<>();
+        final Set<CanvasId> windowSet = new HashSet<>();
+        int loads = 0;
+        for (final OrderedCanvasIdPair pair : pairs) {
+            for (final CanvasId canvasId : new CanvasId[] { pair.getP(), pair.getQ() }) {
+                if (windowSet.contains(canvasId)) {
+                    window.remove(canvasId);
+                } else {
+                    loads++;
+                    windowSet.add(canvasId);
+                    if (window.size() == windowSize) {
+                        windowSet.remove(window.remove(0));
+                    }
+                }
+                window.add(canvasId);
+            }
+        }
+        return loads;
+    }
+
+}
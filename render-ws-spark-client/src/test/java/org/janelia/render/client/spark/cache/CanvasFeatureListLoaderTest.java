@@ -4,6 +4,7 @@ import mpicbg.imagefeatures.FloatArray2DSIFT;
 
 import org.janelia.alignment.match.CanvasFeatureExtractor;
 import org.janelia.alignment.match.CanvasId;
+import org.janelia.alignment.util.ImageProcessorCache;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -34,6 +35,30 @@ public class CanvasFeatureListLoaderTest {
                      "http://render:8080/render-ws/v1/z/99.0/box/12769,7558,13654,18227,0.1/render-parameters");
     }
 
+    @Test
+    public void testSharedSourceCacheSize() throws Exception {
+
+        final CanvasFeatureExtractor extractor =
+                new CanvasFeatureExtractor(new FloatArray2DSIFT.Param(), 0.0, 0.0, true);
+        final String template = "http://render:8080/render-ws/v1/tile/{id}/render-parameters";
+
+        final CanvasFeatureListLoader loader = new CanvasFeatureListLoader(template, extractor);
+        loader.setSourceCacheMaxPixels(1000);
+
+        final ImageProcessorCache sourceCache = loader.getSourceCache();
+        Assert.assertSame("cache should be reused for same size", sourceCache, loader.getSourceCache());
+
+        final CanvasFeatureListLoader largerLoader = new CanvasFeatureListLoader(template, extractor);
+        largerLoader.setSourceCacheMaxPixels(2000);
+
+        final ImageProcessorCache largerSourceCache = largerLoader.getSourceCache();
+        Assert.assertNotSame("cache should be rebuilt for different size", sourceCache, largerSourceCache);
+
+        largerLoader.setFilteredSourceCachePercent(10);
+        Assert.assertNotSame("cache should be rebuilt for different filtered percent",
+                             largerSourceCache, largerLoader.getSourceCache());
+    }
+
     private void testTemplate(final String template,
                               final String expectedResult) {
 
@@ -1,5 +1,7 @@
 package org.janelia.render.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -25,6 +27,8 @@ import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.RenderTargetType;
+import org.janelia.alignment.json.JsonUtils;
 import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.LastTileTransform;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
@@ -33,8 +37,10 @@ import org.janelia.alignment.spec.TileBounds;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.TransformSpec;
 import org.janelia.alignment.spec.stack.MipmapPathBuilder;
+import org.janelia.alignment.spec.stack.ScapeSpec;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.alignment.spec.stack.StackMetaData;
+import org.janelia.alignment.spec.stack.StackStats;
 import org.janelia.alignment.util.ProcessTimer;
 import org.janelia.render.service.dao.RenderDao;
 import org.janelia.render.service.dao.TileSpecLayout;
@@ -814,7 +820,8 @@ public class RenderDataService {
 
         List<TileSpec> tileSpecList = null;
         try {
-            final RenderParameters parameters = getRenderParametersForZ(owner, project, stack, z, 1.0, false, null);
+            final RenderParameters parameters =
+                    getRenderParametersForZ(owner, project, stack, z, 1.0, false, null, null);
             tileSpecList = parameters.getTileSpecs();
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
@@ -846,7 +853,8 @@ public class RenderDataService {
 
         List<LastTileTransform> lastTileTransformList = null;
         try {
-            final RenderParameters parameters = getRenderParametersForZ(owner, project, stack, z, 1.0, false, null);
+            final RenderParameters parameters =
+                    getRenderParametersForZ(owner, project, stack, z, 1.0, false, null, null);
             final List<TileSpec> tileSpecList = parameters.getTileSpecs();
             lastTileTransformList = new ArrayList<>(tileSpecList.size());
             for (final TileSpec tileSpec : tileSpecList) {
@@ -881,7 +889,8 @@ public class RenderDataService {
                                                     @PathParam("z") final Double z,
                                                     @QueryParam("scale") final Double scale,
                                                     @QueryParam("filter") final Boolean filter,
-                                                    @QueryParam("channels") final String channels) {
+                                                    @QueryParam("channels") final String channels,
+                                                    @QueryParam("targetType") final RenderTargetType targetType) {
 
         LOG.info("getRenderParametersForZ: entry, owner={}, project={}, stack={}, z={}, scale={}",
                  owner, project, stack, z, scale);
@@ -894,6 +903,7 @@ public class RenderDataService {
             parameters = renderDao.getParameters(stackId, z, scale);
             parameters.setDoFilter(filter);
             parameters.setChannels(channels);
+            parameters.setTargetType(targetType);
 
             final MipmapPathBuilder mipmapPathBuilder = stackMetaData.getCurrentMipmapPathBuilder();
             if (mipmapPathBuilder != null) {
@@ -907,6 +917,71 @@ public class RenderDataService {
         return parameters;
     }
 
+    /**
+     * @return render parameters for the specified layer derived from the stack's best precomputed scape
+     *         if one exists for the requested scale; otherwise render parameters for all tiles in the layer.
+     */
+    public RenderParameters getScapeOrTileRenderParametersForZ(final String owner,
+                                                               final String project,
+                                                               final String stack,
+                                                               final Double z,
+                                                               final Double scale,
+                                                               final Boolean filter,
+                                                               final String channels,
+                                                               final RenderTargetType targetType) {
+
+        RenderParameters parameters = null;
+
+        // scapes only contain default channel data
+        if ((scale != null) && (channels == null)) {
+            try {
+                final StackId stackId = new StackId(owner, project, stack);
+                parameters = getScapeRenderParametersForZ(stackId, getStackMetaData(stackId), z, scale, filter);
+                if (parameters != null) {
+                    parameters.setTargetType(targetType);
+                }
+            } catch (final Throwable t) {
+                RenderServiceUtil.throwServiceException(t);
+            }
+        }
+
+        if (parameters == null) {
+            parameters = getRenderParametersForZ(owner, project, stack, z, scale, filter, channels, targetType);
+        }
+
+        return parameters;
+    }
+
+    /**
+     * @return tile spec for the stack's {@link ScapeSpec#findClosestScape closest} precomputed scape
+     *         for the specified layer and scale or null if the stack has no scape for the layer.
+     */
+    public TileSpec getClosestScapeTileSpec(final StackId stackId,
+                                            final StackMetaData stackMetaData,
+                                            final Double z,
+                                            final double scale) {
+
+        TileSpec scapeTileSpec = null;
+
+        final ScapeSpec scapeSpec = ScapeSpec.findClosestScape(stackMetaData.getCurrentScapes(), scale);
+
+        if (scapeSpec != null) {
+
+            final Bounds layerBounds = renderDao.getLayerBounds(stackId, z);
+            final StackStats stats = stackMetaData.getStats();
+            final Bounds stackBounds = stats == null ? null : stats.getStackBounds();
+
+            scapeTileSpec = scapeSpec.buildTileSpec(z, layerBounds, stackBounds);
+
+            if (scapeTileSpec != null) {
+                LOG.info("getClosestScapeTileSpec: using {} (scape scale is {}) for z {} at scale {}",
+                         scapeSpec.getFile(z), scapeSpec.getScale(), z, scale);
+            }
+        }
+
+        return scapeTileSpec;
+    }
+
     /**
      * @return render parameters for specified bounding box with flattened (and therefore resolved)
      *         transform specs suitable for external use.
@@ -933,10 +1008,11 @@ public class RenderDataService {
                                                         @QueryParam("filter") final Boolean filter,
                                                         @QueryParam("binaryMask") final Boolean binaryMask,
                                                         @QueryParam("convertToGray") final Boolean convertToGray,
-                                                        @QueryParam("channels") final String channels) {
+                                                        @QueryParam("channels") final String channels,
+                                                        @QueryParam("targetType") final RenderTargetType targetType) {
 
         return getExternalRenderParameters(owner, project, stack, null, x, y, z, width, height, scale, filter,
-                                           binaryMask, convertToGray, channels);
+                                           binaryMask, convertToGray, channels, targetType);
     }
 
     /**
@@ -965,9 +1041,10 @@ public class RenderDataService {
                                                                   @QueryParam("filter") final Boolean filter,
                                                                   @QueryParam("binaryMask") final Boolean binaryMask,
                                                                   @QueryParam("convertToGray") final Boolean convertToGray,
-                                                                  @QueryParam("channels") final String channels) {
+                                                                  @QueryParam("channels") final String channels,
+                                                                  @QueryParam("targetType") final RenderTargetType targetType) {
         return getExternalRenderParameters(owner, project, stack, null, x, y, z, width, height, scale, filter,
-                                           binaryMask, convertToGray, channels);
+                                           binaryMask, convertToGray, channels, targetType);
     }
 
     /**
@@ -997,7 +1074,8 @@ public class RenderDataService {
                                                         @QueryParam("filter") final Boolean filter,
                                                         @QueryParam("binaryMask") final Boolean binaryMask,
                                                         @QueryParam("convertToGray") final Boolean convertToGray,
-                                                        @QueryParam("channels") final String channels) {
+                                                        @QueryParam("channels") final String channels,
+                                                        @QueryParam("targetType") final RenderTargetType targetType) {
 
         LOG.info("getExternalRenderParameters: entry, owner={}, project={}, stack={}, groupId={}, x={}, y={}, z={}, width={}, height={}, scale={}, filter={}, binaryMask={}, convertToGray={}",
                  owner, project, stack, groupId, x, y, z, width, height, scale, filter, binaryMask, convertToGray);
@@ -1011,12 +1089,93 @@ public class RenderDataService {
             parameters.setBinaryMask(binaryMask);
             parameters.setConvertToGray(convertToGray);
             parameters.setChannels(channels);
+            parameters.setTargetType(targetType);
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
         }
         return parameters;
     }
 
+    /**
+     * @return streamed JSON array of render parameters (with flattened transform specs) for each specified box.
+     */
+    @Path("v1/owner/{owner}/project/{project}/stack/{stack}/z/{z}/render-parameters-for-boxes")
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Bounding Box Data APIs",
+            value = "Get parameters to render all tiles within each of the specified boxes",
+            notes = "Boxes are specified as a JSON array of bounds (minX, minY, maxX, maxY) and parameters are returned in the same order.  Tiles for all boxes are found with one spatial query (that only matches tiles intersecting at least one box) and their transforms are only resolved once, so this is much faster than requesting parameters for each box separately.  Requests are limited to " + MAX_BOXES_PER_REQUEST + " boxes intersecting at most " + MAX_TILES_FOR_BOXES + " tiles.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "no boxes specified, too many boxes specified, or boxes intersect too many tiles"),
+            @ApiResponse(code = 404, message = "stack not found")
+    })
+    public Response getExternalRenderParametersForBoxes(@PathParam("owner") final String owner,
+                                                        @PathParam("project") final String project,
+                                                        @PathParam("stack") final String stack,
+                                                        @PathParam("z") final Double z,
+                                                        @QueryParam("scale") final Double scale,
+                                                        @QueryParam("filter") final Boolean filter,
+                                                        @QueryParam("binaryMask") final Boolean binaryMask,
+                                                        @QueryParam("convertToGray") final Boolean convertToGray,
+                                                        @QueryParam("channels") final String channels,
+                                                        @QueryParam("targetType") final RenderTargetType targetType,
+                                                        final List<Bounds> boxes) {
+
+        LOG.info("getExternalRenderParametersForBoxes: entry, owner={}, project={}, stack={}, z={}, scale={}, boxCount={}",
+                 owner, project, stack, z, scale, (boxes == null ? 0 : boxes.size()));
+
+        Response response = null;
+        try {
+            if ((boxes == null) || (boxes.size() == 0)) {
+                throw new IllegalArgumentException("no boxes specified");
+            } else if (boxes.size() > MAX_BOXES_PER_REQUEST) {
+                throw new IllegalArgumentException(boxes.size() + " boxes specified but requests are limited to " +
+                                                   MAX_BOXES_PER_REQUEST + " boxes");
+            }
+
+            // use the same integral box dimensions for the query that are used for each box's parameters
+            final List<Bounds> renderBoxes = new ArrayList<>(boxes.size());
+            for (final Bounds box : boxes) {
+                if (! box.isBoundingBoxDefined()) {
+                    throw new IllegalArgumentException("box " + box + " is not fully defined");
+                }
+                renderBoxes.add(new Bounds(box.getMinX(),
+                                           box.getMinY(),
+                                           box.getMinX() + Math.round(box.getDeltaX()),
+                                           box.getMinY() + Math.round(box.getDeltaY())));
+            }
+
+            // find and resolve tiles for all boxes at once
+            final StackId stackId = new StackId(owner, project, stack);
+            final MipmapPathBuilder mipmapPathBuilder = getStackMetaData(stackId).getCurrentMipmapPathBuilder();
+            final RenderParameters allBoxesParameters =
+                    renderDao.getParametersForBoxes(stackId, z, renderBoxes, scale, MAX_TILES_FOR_BOXES);
+            allBoxesParameters.flattenTransforms();
+
+            final StreamingOutput responseOutput = output -> {
+                final JsonGenerator jsonGenerator = JsonUtils.MAPPER.getFactory().createGenerator(output);
+                jsonGenerator.writeStartArray();
+                for (final Bounds box : renderBoxes) {
+                    final RenderParameters boxParameters =
+                            getBoxParameters(allBoxesParameters, box, scale, mipmapPathBuilder,
+                                             filter, binaryMask, convertToGray, channels, targetType);
+                    jsonGenerator.writeObject(boxParameters);
+                }
+                jsonGenerator.writeEndArray();
+                jsonGenerator.flush();
+            };
+
+            response = Response.ok(responseOutput, MediaType.APPLICATION_JSON).build();
+
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return response;
+    }
+
     /**
      * @return render parameters for specified bounding box with flattened (and therefore resolved)
      *         transform specs suitable for external use.
@@ -1044,9 +1203,10 @@ public class RenderDataService {
                                                                   @QueryParam("filter") final Boolean filter,
                                                                   @QueryParam("binaryMask") final Boolean binaryMask,
                                                                   @QueryParam("convertToGray") final Boolean convertToGray,
-                                                                  @QueryParam("channels") final String channels) {
+                                                                  @QueryParam("channels") final String channels,
+                                                                  @QueryParam("targetType") final RenderTargetType targetType) {
         return getExternalRenderParameters(owner, project, stack, groupId, x, y, z, width, height, scale, filter,
-                                           binaryMask, convertToGray, channels);
+                                           binaryMask, convertToGray, channels, targetType);
     }
 
     /**
@@ -1073,6 +1233,91 @@ public class RenderDataService {
         return parameters;
     }
 
+    /**
+     * @return render parameters for the specified layer with the stack's best precomputed scape
+     *         as the only source or null if no scape exists for the requested scale and layer.
+     */
+    private RenderParameters getScapeRenderParametersForZ(final StackId stackId,
+                                                          final StackMetaData stackMetaData,
+                                                          final Double z,
+                                                          final Double scale,
+                                                          final Boolean filter) {
+
+        RenderParameters parameters = null;
+
+        final ScapeSpec scapeSpec = ScapeSpec.findBestScape(stackMetaData.getCurrentScapes(), scale);
+
+        if (scapeSpec != null) {
+
+            final Bounds layerBounds = renderDao.getLayerBounds(stackId, z);
+            final StackStats stats = stackMetaData.getStats();
+            final Bounds stackBounds = stats == null ? null : stats.getStackBounds();
+
+            final TileSpec scapeTileSpec = scapeSpec.buildTileSpec(z, layerBounds, stackBounds);
+
+            if (scapeTileSpec == null) {
+                LOG.info("getScapeRenderParametersForZ: scape {} is not available for z {}, rendering tiles instead",
+                         scapeSpec.getFile(z), z);
+            } else {
+                final Double x = layerBounds.getMinX();
+                final Double y = layerBounds.getMinY();
+                final Double width = layerBounds.getMaxX() - x;
+                final Double height = layerBounds.getMaxY() - y;
+
+                parameters = new RenderParameters(null, x, y, width.intValue(), height.intValue(), scale);
+                parameters.addTileSpec(scapeTileSpec);
+                parameters.setDoFilter(filter);
+
+                LOG.info("getScapeRenderParametersForZ: rendering z {} at scale {} from {} (scape scale is {})",
+                         z, scale, scapeSpec.getFile(z), scapeSpec.getScale());
+            }
+
+        }
+
+        return parameters;
+    }
+
+    /**
+     * @return render parameters for the specified box that include all tiles from the specified
+     *         parameters that intersect the box (using the same intersection logic as the box tile query).
+     */
+    private static RenderParameters getBoxParameters(final RenderParameters allBoxesParameters,
+                                                     final Bounds box,
+                                                     final Double scale,
+                                                     final MipmapPathBuilder mipmapPathBuilder,
+                                                     final Boolean filter,
+                                                     final Boolean binaryMask,
+                                                     final Boolean convertToGray,
+                                                     final String channels,
+                                                     final RenderTargetType targetType) {
+
+        final double x = box.getMinX();
+        final double y = box.getMinY();
+        final int width = (int) Math.round(box.getDeltaX());
+        final int height = (int) Math.round(box.getDeltaY());
+        final double lowerRightX = x + width;
+        final double lowerRightY = y + height;
+
+        final RenderParameters boxParameters = new RenderParameters(null, x, y, width, height, scale);
+        for (final TileSpec tileSpec : allBoxesParameters.getTileSpecs()) {
+            if ((tileSpec.getMinX() <= lowerRightX) && (tileSpec.getMinY() <= lowerRightY) &&
+                (tileSpec.getMaxX() >= x) && (tileSpec.getMaxY() >= y)) {
+                boxParameters.addTileSpec(tileSpec);
+            }
+        }
+
+        if (mipmapPathBuilder != null) {
+            boxParameters.setMipmapPathBuilder(mipmapPathBuilder);
+        }
+        boxParameters.setDoFilter(filter);
+        boxParameters.setBinaryMask(binaryMask);
+        boxParameters.setConvertToGray(convertToGray);
+        boxParameters.setChannels(channels);
+        boxParameters.setTargetType(targetType);
+
+        return boxParameters;
+    }
+
     public StackMetaData getStackMetaData(final StackId stackId)
             throws ObjectNotFoundException {
 
@@ -1086,4 +1331,7 @@ public class RenderDataService {
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(RenderDataService.class);
+
+    private static final int MAX_BOXES_PER_REQUEST = 1000;
+    private static final int MAX_TILES_FOR_BOXES = 10000;
 }
@@ -1,11 +1,16 @@
 package org.janelia.render.service;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -15,10 +20,15 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.RenderTargetType;
 import org.janelia.alignment.Utils;
+import org.janelia.alignment.betterbox.MaterializedBoxAttributes;
+import org.janelia.alignment.betterbox.ShardedBoxStore;
 import org.janelia.alignment.spec.Bounds;
+import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.alignment.spec.stack.StackMetaData;
 import org.janelia.alignment.spec.stack.StackStats;
@@ -29,6 +39,8 @@ import org.slf4j.LoggerFactory;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
 
 /**
  * APIs for rendering images server-side.
@@ -64,6 +76,7 @@ public class RenderImageService {
                                                    Utils.JPEG_FORMAT,
                                                    RenderServiceUtil.IMAGE_JPEG_MIME_TYPE,
                                                    null,
+                                                   null,
                                                    ResponseHelper.NO_CACHE_HELPER);
     }
 
@@ -81,6 +94,7 @@ public class RenderImageService {
                                                    Utils.PNG_FORMAT,
                                                    RenderServiceUtil.IMAGE_PNG_MIME_TYPE,
                                                    null,
+                                                   null,
                                                    ResponseHelper.NO_CACHE_HELPER);
     }
 
@@ -97,6 +111,7 @@ public class RenderImageService {
                                                    Utils.TIFF_FORMAT,
                                                    RenderServiceUtil.IMAGE_TIFF_MIME_TYPE,
                                                    null,
+                                                   null,
                                                    ResponseHelper.NO_CACHE_HELPER);
     }
 
@@ -113,7 +128,9 @@ public class RenderImageService {
                                         @QueryParam("scale") Double scale,
                                         @QueryParam("filter") final Boolean filter,
                                         @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                        @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                         @QueryParam("channels") final String channels,
+                                        @QueryParam("targetType") final RenderTargetType targetType,
                                         @Context final Request request) {
 
         LOG.info("renderJpegImageForZ: entry, owner={}, project={}, stack={}, z={}, scale={}, filter={}",
@@ -123,11 +140,16 @@ public class RenderImageService {
             scale = 0.01;
         }
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
-                    renderDataService.getRenderParametersForZ(owner, project, stack, z, scale, filter, channels);
-            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, responseHelper);
+                    renderDataService.getScapeOrTileRenderParametersForZ(owner, project, stack, z, scale, filter,
+                                                                         channels,
+                                                                         targetType);
+            useScapeForOverBudgetRender(stackMetaData, z, channels, maxTileSpecsToRender, renderParameters);
+            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                     responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -146,7 +168,9 @@ public class RenderImageService {
                                        @QueryParam("scale") Double scale,
                                        @QueryParam("filter") final Boolean filter,
                                        @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                       @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                        @QueryParam("channels") final String channels,
+                                       @QueryParam("targetType") final RenderTargetType targetType,
                                        @Context final Request request) {
 
         LOG.info("renderPngImageForZ: entry, owner={}, project={}, stack={}, z={}, scale={}, filter={}",
@@ -156,11 +180,16 @@ public class RenderImageService {
             scale = 0.01;
         }
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
-                    renderDataService.getRenderParametersForZ(owner, project, stack, z, scale, filter, channels);
-            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, responseHelper);
+                    renderDataService.getScapeOrTileRenderParametersForZ(owner, project, stack, z, scale, filter,
+                                                                         channels,
+                                                                         targetType);
+            useScapeForOverBudgetRender(stackMetaData, z, channels, maxTileSpecsToRender, renderParameters);
+            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                    responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -179,7 +208,9 @@ public class RenderImageService {
                                         @QueryParam("scale") Double scale,
                                         @QueryParam("filter") final Boolean filter,
                                         @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                        @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                         @QueryParam("channels") final String channels,
+                                        @QueryParam("targetType") final RenderTargetType targetType,
                                         @Context final Request request) {
 
         LOG.info("renderTiffImageForZ: entry, owner={}, project={}, stack={}, z={}, scale={}, filter={}",
@@ -189,11 +220,16 @@ public class RenderImageService {
             scale = 0.01;
         }
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
-                    renderDataService.getRenderParametersForZ(owner, project, stack, z, scale, filter, channels);
-            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, responseHelper);
+                    renderDataService.getScapeOrTileRenderParametersForZ(owner, project, stack, z, scale, filter,
+                                                                         channels,
+                                                                         targetType);
+            useScapeForOverBudgetRender(stackMetaData, z, channels, maxTileSpecsToRender, renderParameters);
+            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                     responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -217,20 +253,25 @@ public class RenderImageService {
                                           @QueryParam("filter") final Boolean filter,
                                           @QueryParam("binaryMask") final Boolean binaryMask,
                                           @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                          @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                           @QueryParam("minIntensity") final Double minIntensity,
                                           @QueryParam("maxIntensity") final Double maxIntensity,
                                           @QueryParam("channels") final String channels,
+                                          @QueryParam("targetType") final RenderTargetType targetType,
                                           @Context final Request request) {
 
         LOG.info("renderJpegImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale, filter, binaryMask,
-                                                   minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderMaterializedOrDynamicBox(owner, project, stack, stackMetaData,
+                                                  x, y, z, width, height, scale, filter, binaryMask,
+                                                  maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                  minIntensity, maxIntensity, channels,
+                                                  targetType,
+                                                  Utils.JPEG_FORMAT, RenderServiceUtil.IMAGE_JPEG_MIME_TYPE,
+                                                  responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -254,12 +295,15 @@ public class RenderImageService {
                                               @QueryParam("filter") final Boolean filter,
                                               @QueryParam("binaryMask") final Boolean binaryMask,
                                               @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                              @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                               @QueryParam("minIntensity") final Double minIntensity,
                                               @QueryParam("maxIntensity") final Double maxIntensity,
                                               @QueryParam("channels") final String channels,
+                                              @QueryParam("targetType") final RenderTargetType targetType,
                                               @Context final Request request) {
         return renderJpegImageForBox(owner, project, stack, x, y, z, width, height, scale, filter, binaryMask,
-                                     maxTileSpecsToRender, minIntensity, maxIntensity, channels, request);
+                                     maxTileSpecsToRender, renderTimeBudgetMillis,
+                                     minIntensity, maxIntensity, channels, targetType, request);
     }
 
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/z/{z}/box/{x},{y},{width},{height},{scale}/png-image")
@@ -280,20 +324,25 @@ public class RenderImageService {
                                          @QueryParam("filter") final Boolean filter,
                                          @QueryParam("binaryMask") final Boolean binaryMask,
                                          @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                         @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                          @QueryParam("minIntensity") final Double minIntensity,
                                          @QueryParam("maxIntensity") final Double maxIntensity,
                                          @QueryParam("channels") final String channels,
+                                         @QueryParam("targetType") final RenderTargetType targetType,
                                          @Context final Request request) {
 
         LOG.info("renderPngImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale, filter, binaryMask,
-                                                   minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderMaterializedOrDynamicBox(owner, project, stack, stackMetaData,
+                                                  x, y, z, width, height, scale, filter, binaryMask,
+                                                  maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                  minIntensity, maxIntensity, channels,
+                                                  targetType,
+                                                  Utils.PNG_FORMAT, RenderServiceUtil.IMAGE_PNG_MIME_TYPE,
+                                                  responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -317,12 +366,15 @@ public class RenderImageService {
                                              @QueryParam("filter") final Boolean filter,
                                              @QueryParam("binaryMask") final Boolean binaryMask,
                                              @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                             @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                              @QueryParam("minIntensity") final Double minIntensity,
                                              @QueryParam("maxIntensity") final Double maxIntensity,
                                              @QueryParam("channels") final String channels,
+                                             @QueryParam("targetType") final RenderTargetType targetType,
                                              @Context final Request request) {
         return renderPngImageForBox(owner, project, stack, x, y, z, width, height, scale, filter, binaryMask,
-                                    maxTileSpecsToRender, minIntensity, maxIntensity, channels, request);
+                                    maxTileSpecsToRender, renderTimeBudgetMillis,
+                                    minIntensity, maxIntensity, channels, targetType, request);
     }
 
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/z/{z}/box/{x},{y},{width},{height},{scale}/tiff-image")
@@ -343,20 +395,25 @@ public class RenderImageService {
                                           @QueryParam("filter") final Boolean filter,
                                           @QueryParam("binaryMask") final Boolean binaryMask,
                                           @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                          @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                           @QueryParam("minIntensity") final Double minIntensity,
                                           @QueryParam("maxIntensity") final Double maxIntensity,
                                           @QueryParam("channels") final String channels,
+                                          @QueryParam("targetType") final RenderTargetType targetType,
                                           @Context final Request request) {
 
         LOG.info("renderTiffImageForBox: entry");
 
-        final ResponseHelper responseHelper = new ResponseHelper(request, getStackMetaData(owner, project, stack));
+        final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+        final ResponseHelper responseHelper = new ResponseHelper(request, stackMetaData);
         if (responseHelper.isModified()) {
-            final RenderParameters renderParameters =
-                    getRenderParametersForGroupBox(owner, project, stack, null,
-                                                   x, y, z, width, height, scale, filter, binaryMask,
-                                                   minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, responseHelper);
+            return renderMaterializedOrDynamicBox(owner, project, stack, stackMetaData,
+                                                  x, y, z, width, height, scale, filter, binaryMask,
+                                                  maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                  minIntensity, maxIntensity, channels,
+                                                  targetType,
+                                                  Utils.TIFF_FORMAT, RenderServiceUtil.IMAGE_TIFF_MIME_TYPE,
+                                                  responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -380,12 +437,81 @@ public class RenderImageService {
                                               @QueryParam("filter") final Boolean filter,
                                               @QueryParam("binaryMask") final Boolean binaryMask,
                                               @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                              @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                               @QueryParam("minIntensity") final Double minIntensity,
                                               @QueryParam("maxIntensity") final Double maxIntensity,
                                               @QueryParam("channels") final String channels,
+                                              @QueryParam("targetType") final RenderTargetType targetType,
                                               @Context final Request request) {
         return renderTiffImageForBox(owner, project, stack, x, y, z, width, height, scale, filter, binaryMask,
-                                     maxTileSpecsToRender, minIntensity, maxIntensity, channels, request);
+                                     maxTileSpecsToRender, renderTimeBudgetMillis,
+                                     minIntensity, maxIntensity, channels, targetType, request);
+    }
+
+    @Path("v1/owner/{owner}/project/{project}/stack/{stack}/z/{z}/box/{x},{y},{width},{height},{scale}/materialized-image")
+    @POST
+    @ApiOperation(
+            tags = "Bounding Box Image APIs",
+            value = "Render and save the materialized image for the specified bounding box",
+            notes = "The box is rendered with the options recorded when the stack's boxes were materialized " +
+                    "and saved so that subsequent box image requests can be served from disk.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "materialized image successfully saved"),
+            @ApiResponse(code = 400, message = "stack boxes are not materialized or are sharded, " +
+                                               "or bounds do not align with a materialized box")
+    })
+    public Response saveMaterializedImageForBox(@PathParam("owner") final String owner,
+                                                @PathParam("project") final String project,
+                                                @PathParam("stack") final String stack,
+                                                @PathParam("x") final Double x,
+                                                @PathParam("y") final Double y,
+                                                @PathParam("z") final Double z,
+                                                @PathParam("width") final Integer width,
+                                                @PathParam("height") final Integer height,
+                                                @PathParam("scale") final Double scale,
+                                                @Context final UriInfo uriInfo) {
+
+        LOG.info("saveMaterializedImageForBox: entry, owner={}, project={}, stack={}, x={}, y={}, z={}, " +
+                 "width={}, height={}, scale={}", owner, project, stack, x, y, z, width, height, scale);
+
+        try {
+            final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+            final String rootPath = stackMetaData.getCurrentMaterializedBoxRootPath();
+            if (rootPath == null) {
+                throw new IllegalArgumentException("stack " + stack + " does not have materialized boxes");
+            }
+
+            final MaterializedBoxLocation location = MaterializedBoxLocation.build(x, y, z, width, height, scale);
+            if (location == null) {
+                throw new IllegalArgumentException("bounds and scale do not align with a materialized box");
+            }
+
+            final String baseBoxPath = location.getBaseBoxPath(rootPath);
+            final MaterializedBoxAttributes boxAttributes = getMaterializedBoxAttributes(baseBoxPath);
+            if (boxAttributes == null) {
+                throw new IllegalArgumentException("no materialized box attributes found in " + baseBoxPath);
+            }
+
+            // sharded boxes are only written by the box generator
+            if (getShardedBoxStore(baseBoxPath) != null) {
+                throw new IllegalArgumentException("boxes in " + baseBoxPath + " are sharded");
+            }
+
+            final RenderParameters renderParameters =
+                    getRenderParametersForGroupBox(owner, project, stack, null,
+                                                   x, y, z, width, height, scale, null,
+                                                   boxAttributes.isBinaryMask(), null, null, null);
+            renderParameters.setSkipInterpolation(boxAttributes.isSkipInterpolation());
+
+            RenderServiceUtil.renderAndSaveImage(renderParameters,
+                                                 boxAttributes.getFormat(),
+                                                 location.getFile(baseBoxPath, z, boxAttributes.getFormat()));
+
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return Response.created(uriInfo.getRequestUri()).build();
     }
 
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/group/{groupId}/z/{z}/box/{x},{y},{width},{height},{scale}/jpeg-image")
@@ -407,9 +533,11 @@ public class RenderImageService {
                                                @QueryParam("filter") final Boolean filter,
                                                @QueryParam("binaryMask") final Boolean binaryMask,
                                                @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                               @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                @QueryParam("minIntensity") final Double minIntensity,
                                                @QueryParam("maxIntensity") final Double maxIntensity,
                                                @QueryParam("channels") final String channels,
+                                               @QueryParam("targetType") final RenderTargetType targetType,
                                                @Context final Request request) {
 
         LOG.info("renderJpegImageForGroupBox: entry");
@@ -419,8 +547,9 @@ public class RenderImageService {
             final RenderParameters renderParameters =
                     getRenderParametersForGroupBox(owner, project, stack, groupId,
                                                    x, y, z, width, height, scale, filter, binaryMask,
-                                                   minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, responseHelper);
+                                                   minIntensity, maxIntensity, channels, targetType);
+            return RenderServiceUtil.renderJpegImage(renderParameters, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                     responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -445,12 +574,16 @@ public class RenderImageService {
                                                    @QueryParam("filter") final Boolean filter,
                                                    @QueryParam("binaryMask") final Boolean binaryMask,
                                                    @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                                   @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                    @QueryParam("minIntensity") final Double minIntensity,
                                                    @QueryParam("maxIntensity") final Double maxIntensity,
                                                    @QueryParam("channels") final String channels,
+                                                   @QueryParam("targetType") final RenderTargetType targetType,
                                                    @Context final Request request) {
         return renderJpegImageForGroupBox(owner, project, stack, groupId, x, y, z, width, height, scale, filter,
-                                          binaryMask, maxTileSpecsToRender, minIntensity, maxIntensity, channels,
+                                          binaryMask, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                          minIntensity, maxIntensity, channels,
+                                          targetType,
                                           request);
     }
 
@@ -473,9 +606,11 @@ public class RenderImageService {
                                               @QueryParam("filter") final Boolean filter,
                                               @QueryParam("binaryMask") final Boolean binaryMask,
                                               @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                              @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                               @QueryParam("minIntensity") final Double minIntensity,
                                               @QueryParam("maxIntensity") final Double maxIntensity,
                                               @QueryParam("channels") final String channels,
+                                              @QueryParam("targetType") final RenderTargetType targetType,
                                               @Context final Request request) {
 
         LOG.info("renderPngImageForGroupBox: entry");
@@ -485,8 +620,9 @@ public class RenderImageService {
             final RenderParameters renderParameters =
                     getRenderParametersForGroupBox(owner, project, stack, groupId,
                                                    x, y, z, width, height, scale, filter, binaryMask,
-                                                   minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, responseHelper);
+                                                   minIntensity, maxIntensity, channels, targetType);
+            return RenderServiceUtil.renderPngImage(renderParameters, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                    responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -511,12 +647,16 @@ public class RenderImageService {
                                                   @QueryParam("filter") final Boolean filter,
                                                   @QueryParam("binaryMask") final Boolean binaryMask,
                                                   @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                                  @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                   @QueryParam("minIntensity") final Double minIntensity,
                                                   @QueryParam("maxIntensity") final Double maxIntensity,
                                                   @QueryParam("channels") final String channels,
+                                                  @QueryParam("targetType") final RenderTargetType targetType,
                                                   @Context final Request request) {
         return renderPngImageForGroupBox(owner, project, stack, groupId, x, y, z, width, height, scale, filter,
-                                         binaryMask, maxTileSpecsToRender, minIntensity, maxIntensity, channels,
+                                         binaryMask, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                         minIntensity, maxIntensity, channels,
+                                         targetType,
                                          request);
     }
 
@@ -539,9 +679,11 @@ public class RenderImageService {
                                                @QueryParam("filter") final Boolean filter,
                                                @QueryParam("binaryMask") final Boolean binaryMask,
                                                @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                               @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                @QueryParam("minIntensity") final Double minIntensity,
                                                @QueryParam("maxIntensity") final Double maxIntensity,
                                                @QueryParam("channels") final String channels,
+                                               @QueryParam("targetType") final RenderTargetType targetType,
                                                @Context final Request request) {
 
         LOG.info("renderTiffImageForGroupBox: entry");
@@ -551,8 +693,9 @@ public class RenderImageService {
             final RenderParameters renderParameters =
                     getRenderParametersForGroupBox(owner, project, stack, groupId,
                                                    x, y, z, width, height, scale, filter, binaryMask,
-                                                   minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, responseHelper);
+                                                   minIntensity, maxIntensity, channels, targetType);
+            return RenderServiceUtil.renderTiffImage(renderParameters, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                                     responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -577,12 +720,16 @@ public class RenderImageService {
                                                    @QueryParam("filter") final Boolean filter,
                                                    @QueryParam("binaryMask") final Boolean binaryMask,
                                                    @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                                   @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                    @QueryParam("minIntensity") final Double minIntensity,
                                                    @QueryParam("maxIntensity") final Double maxIntensity,
                                                    @QueryParam("channels") final String channels,
+                                                   @QueryParam("targetType") final RenderTargetType targetType,
                                                    @Context final Request request) {
         return renderTiffImageForGroupBox(owner, project, stack, groupId, x, y, z, width, height, scale, filter,
-                                          binaryMask, maxTileSpecsToRender, minIntensity, maxIntensity, channels,
+                                          binaryMask, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                          minIntensity, maxIntensity, channels,
+                                          targetType,
                                           request);
     }
 
@@ -604,14 +751,18 @@ public class RenderImageService {
                                                   @QueryParam("filter") final Boolean filter,
                                                   @QueryParam("binaryMask") final Boolean binaryMask,
                                                   @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                                  @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                   @QueryParam("minIntensity") final Double minIntensity,
                                                   @QueryParam("maxIntensity") final Double maxIntensity,
                                                   @QueryParam("channels") final String channels,
+                                                  @QueryParam("targetType") final RenderTargetType targetType,
                                                   @Context final Request request) {
 
         return renderLargeDataTileSource(owner, project, stack, width, height, level, z, row, column,
                                          Utils.JPEG_FORMAT, RenderServiceUtil.IMAGE_JPEG_MIME_TYPE,
-                                         filter, binaryMask, maxTileSpecsToRender, minIntensity, maxIntensity, channels,
+                                         filter, binaryMask, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                         minIntensity, maxIntensity, channels,
+                                         targetType,
                                          request);
     }
 
@@ -632,16 +783,20 @@ public class RenderImageService {
                                                 @QueryParam("filter") final Boolean filter,
                                                 @QueryParam("binaryMask") final Boolean binaryMask,
                                                 @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                                @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                 @QueryParam("translateOrigin") final Boolean translateOrigin,
                                                 @QueryParam("minIntensity") final Double minIntensity,
                                                 @QueryParam("maxIntensity") final Double maxIntensity,
                                                 @QueryParam("channels") final String channels,
+                                                @QueryParam("targetType") final RenderTargetType targetType,
                                                 @Context final Request request) {
 
         return renderLargeDataOverview(owner, project, stack, width, height, z,
                                        Utils.JPEG_FORMAT, RenderServiceUtil.IMAGE_JPEG_MIME_TYPE,
-                                       maxOverviewWidthAndHeight, filter, binaryMask, maxTileSpecsToRender, translateOrigin,
-                                       minIntensity, maxIntensity, channels, request);
+                                       maxOverviewWidthAndHeight, filter, binaryMask,
+                                       maxTileSpecsToRender, renderTimeBudgetMillis,
+                                       translateOrigin,
+                                       minIntensity, maxIntensity, channels, targetType, request);
     }
 
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/largeDataTileSource/{width}/{height}/{level}/{z}/{row}/{column}.png")
@@ -662,14 +817,18 @@ public class RenderImageService {
                                                  @QueryParam("filter") final Boolean filter,
                                                  @QueryParam("binaryMask") final Boolean binaryMask,
                                                  @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                                 @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                  @QueryParam("minIntensity") final Double minIntensity,
                                                  @QueryParam("maxIntensity") final Double maxIntensity,
                                                  @QueryParam("channels") final String channels,
+                                                 @QueryParam("targetType") final RenderTargetType targetType,
                                                  @Context final Request request) {
 
         return renderLargeDataTileSource(owner, project, stack, width, height, level, z, row, column,
                                          Utils.PNG_FORMAT, RenderServiceUtil.IMAGE_PNG_MIME_TYPE,
-                                         filter, binaryMask, maxTileSpecsToRender, minIntensity, maxIntensity, channels,
+                                         filter, binaryMask, maxTileSpecsToRender, renderTimeBudgetMillis,
+                                         minIntensity, maxIntensity, channels,
+                                         targetType,
                                          request);
     }
 
@@ -689,16 +848,19 @@ public class RenderImageService {
                                                @QueryParam("filter") final Boolean filter,
                                                @QueryParam("binaryMask") final Boolean binaryMask,
                                                @QueryParam("maxTileSpecsToRender") final Integer maxTileSpecsToRender,
+                                               @QueryParam("renderTimeBudgetMillis") final Long renderTimeBudgetMillis,
                                                @QueryParam("translateOrigin") final Boolean translateOrigin,
                                                @QueryParam("minIntensity") final Double minIntensity,
                                                @QueryParam("maxIntensity") final Double maxIntensity,
                                                @QueryParam("channels") final String channels,
+                                               @QueryParam("targetType") final RenderTargetType targetType,
                                                @Context final Request request) {
 
         return renderLargeDataOverview(owner, project, stack, width, height, z,
                                        Utils.PNG_FORMAT, RenderServiceUtil.IMAGE_PNG_MIME_TYPE,
-                                       maxOverviewWidthAndHeight, filter, binaryMask, maxTileSpecsToRender,
-                                       translateOrigin, minIntensity, maxIntensity, channels,
+                                       maxOverviewWidthAndHeight, filter, binaryMask,
+                                       maxTileSpecsToRender, renderTimeBudgetMillis,
+                                       translateOrigin, minIntensity, maxIntensity, channels, targetType,
                                        request);
     }
 
@@ -716,9 +878,11 @@ public class RenderImageService {
                                                final Boolean filter,
                                                final Boolean binaryMask,
                                                Integer maxTileSpecsToRender,
+                                               final Long renderTimeBudgetMillis,
                                                final Double minIntensity,
                                                final Double maxIntensity,
                                                final String channels,
+                                               final RenderTargetType targetType,
                                                final Request request) {
 
         LOG.info("renderLargeDataTileSource: entry, stack={}, width={}, height={}, z={}, row={}, column={}",
@@ -735,7 +899,16 @@ public class RenderImageService {
                                                      row.toString(),
                                                      column + "." + format);
 
-            if (sourceFile == null) {
+            final ByteBuffer shardedBox = sourceFile == null ?
+                                          getShardedLargeDataBox(stackMetaData, width, height, level, z, row, column,
+                                                                 format) :
+                                          null;
+
+            if (shardedBox != null) {
+
+                return RenderServiceUtil.streamImageBytes(shardedBox, mimeType, responseHelper);
+
+            } else if (sourceFile == null) {
 
                 final double factor = 1 << level;
                 final double scaledWidth = width * factor;
@@ -747,16 +920,20 @@ public class RenderImageService {
                 final RenderParameters renderParameters =
                         getRenderParametersForGroupBox(owner, project, stack, null,
                                                        x, y, z, (int) scaledWidth, (int) scaledHeight, scale,
-                                                       filter, binaryMask, minIntensity, maxIntensity, channels);
+                                                       filter, binaryMask, minIntensity, maxIntensity, channels,
+                                                       targetType);
 
                 if (maxTileSpecsToRender == null) {
                     maxTileSpecsToRender = DEFAULT_MAX_TILE_SPECS_FOR_LARGE_DATA;
                 }
 
+                useScapeForOverBudgetRender(stackMetaData, z, channels, maxTileSpecsToRender, renderParameters);
+
                 return RenderServiceUtil.renderImageStream(renderParameters,
                                                            format,
                                                            mimeType,
                                                            maxTileSpecsToRender,
+                                                           renderTimeBudgetMillis,
                                                            responseHelper);
 
             }  else {
@@ -784,10 +961,12 @@ public class RenderImageService {
                                              final Boolean filter,
                                              final Boolean binaryMask,
                                              Integer maxTileSpecsToRender,
+                                             final Long renderTimeBudgetMillis,
                                              final Boolean translateOrigin,
                                              final Double minIntensity,
                                              final Double maxIntensity,
                                              final String channels,
+                                             final RenderTargetType targetType,
                                              final Request request) {
 
         LOG.info("renderLargeDataOverview: entry, stack={}, width={}, height={}, z={}",
@@ -850,16 +1029,20 @@ public class RenderImageService {
                 final RenderParameters renderParameters =
                         getRenderParametersForGroupBox(owner, project, stack, null,
                                                        stackMinX, stackMinY, z, stackWidth, stackHeight, scale,
-                                                       filter, binaryMask, minIntensity, maxIntensity, channels);
+                                                       filter, binaryMask, minIntensity, maxIntensity, channels,
+                                                       targetType);
 
                 if (maxTileSpecsToRender == null) {
                     maxTileSpecsToRender = DEFAULT_MAX_TILE_SPECS_FOR_LARGE_DATA;
                 }
 
+                useScapeForOverBudgetRender(stackMetaData, z, channels, maxTileSpecsToRender, renderParameters);
+
                 return RenderServiceUtil.renderImageStream(renderParameters,
                                                            format,
                                                            mimeType,
                                                            maxTileSpecsToRender,
+                                                           renderTimeBudgetMillis,
                                                            responseHelper);
 
             }  else {
@@ -875,6 +1058,118 @@ public class RenderImageService {
         }
     }
 
+    /**
+     * Streams the stack's materialized (pre-rendered) image for the specified box if one exists.
+     * Otherwise, dynamically renders the box.
+     *
+     * Materialized boxes are only used when the requested bounds and scale exactly match a materialized box
+     * and when the request's render options match the {@link MaterializedBoxAttributes} recorded for the boxes
+     * (filter, intensity range, channel, and target type overrides are never materialized).
+     */
+    private Response renderMaterializedOrDynamicBox(final String owner,
+                                                    final String project,
+                                                    final String stack,
+                                                    final StackMetaData stackMetaData,
+                                                    final Double x,
+                                                    final Double y,
+                                                    final Double z,
+                                                    final Integer width,
+                                                    final Integer height,
+                                                    final Double scale,
+                                                    final Boolean filter,
+                                                    final Boolean binaryMask,
+                                                    final Integer maxTileSpecsToRender,
+                                                    final Long renderTimeBudgetMillis,
+                                                    final Double minIntensity,
+                                                    final Double maxIntensity,
+                                                    final String channels,
+                                                    final RenderTargetType targetType,
+                                                    final String format,
+                                                    final String mimeType,
+                                                    final ResponseHelper responseHelper) {
+
+        final boolean hasDefaultRenderOptions = (filter == null) &&
+                                                (minIntensity == null) && (maxIntensity == null) &&
+                                                (channels == null) && (targetType == null);
+        final MaterializedBoxLocation location = hasDefaultRenderOptions ?
+                                                 MaterializedBoxLocation.build(x, y, z, width, height, scale) :
+                                                 null;
+
+        final String rootPath = stackMetaData.getCurrentMaterializedBoxRootPath();
+
+        if ((location != null) && (rootPath != null)) {
+
+            final String baseBoxPath = location.getBaseBoxPath(rootPath);
+
+            MaterializedBoxAttributes boxAttributes = null;
+            try {
+                boxAttributes = getMaterializedBoxAttributes(baseBoxPath);
+            } catch (final IOException e) {
+                LOG.warn("failed to load materialized box attributes from " + baseBoxPath, e);
+            }
+
+            if ((boxAttributes != null) && boxAttributes.matches(format, binaryMask)) {
+
+                final File materializedFile = location.getFile(baseBoxPath, z, format);
+                if (materializedFile.exists()) {
+                    return RenderServiceUtil.streamImageFile(materializedFile, mimeType, responseHelper);
+                }
+
+                final ByteBuffer shardedBox = getShardedLargeDataBox(stackMetaData,
+                                                                     location.boxWidth, location.boxHeight,
+                                                                     location.level, z, location.row, location.column,
+                                                                     format);
+                if (shardedBox != null) {
+                    return RenderServiceUtil.streamImageBytes(shardedBox, mimeType, responseHelper);
+                }
+            }
+        }
+
+        final RenderParameters renderParameters =
+                getRenderParametersForGroupBox(owner, project, stack, null,
+                                               x, y, z, width, height, scale, filter, binaryMask,
+                                               minIntensity, maxIntensity, channels, targetType);
+
+        useScapeForOverBudgetRender(stackMetaData, z, channels, maxTileSpecsToRender, renderParameters);
+
+        return RenderServiceUtil.renderImageStream(renderParameters,
+                                                   format,
+                                                   mimeType,
+                                                   maxTileSpecsToRender,
+                                                   renderTimeBudgetMillis,
+                                                   responseHelper);
+    }
+
+    /**
+     * Limited renders with too many tiles to fit within budget (even from the coarsest mipmaps)
+     * are rendered from the stack's closest registered scape when one exists for the layer.
+     * Scapes only contain default channel data, so renders for specific channels always use tiles.
+     */
+    private void useScapeForOverBudgetRender(final StackMetaData stackMetaData,
+                                             final Double z,
+                                             final String channels,
+                                             final Integer maxTileSpecsToRender,
+                                             final RenderParameters renderParameters) {
+
+        if ((channels == null) && RenderServiceUtil.isOverRenderBudget(renderParameters, maxTileSpecsToRender)) {
+
+            final TileSpec scapeTileSpec = renderDataService.getClosestScapeTileSpec(stackMetaData.getStackId(),
+                                                                                     stackMetaData,
+                                                                                     z,
+                                                                                     renderParameters.getScale());
+            if (scapeTileSpec != null) {
+
+                LOG.info("useScapeForOverBudgetRender: rendering scape instead of {} tiles (budget is {})",
+                         renderParameters.numberOfTileSpecs(), maxTileSpecsToRender);
+
+                // scape files are not organized like tile mipmaps, so drop any mipmap path builder
+                renderParameters.setMipmapPathBuilder(null);
+                renderParameters.getTileSpecs().clear();
+                renderParameters.addTileSpec(scapeTileSpec);
+            }
+        }
+    }
+
     private File getLargeDataFile(final StackMetaData stackMetaData,
                                   final Boolean filter,
                                   final Boolean binaryMask,
@@ -899,6 +1194,78 @@ public class RenderImageService {
         return file;
     }
 
+    /**
+     * @return memory mapped encoded image for the specified box if it exists in a
+     *         {@link ShardedBoxStore} for the stack; otherwise null.
+     */
+    private ByteBuffer getShardedLargeDataBox(final StackMetaData stackMetaData,
+                                              final Integer width,
+                                              final Integer height,
+                                              final Integer level,
+                                              final Double z,
+                                              final Integer row,
+                                              final Integer column,
+                                              final String format) {
+
+        ByteBuffer boxBytes = null;
+
+        final String rootPath = stackMetaData.getCurrentMaterializedBoxRootPath();
+        if (rootPath != null) {
+
+            final String baseBoxPath = Paths.get(rootPath, width + "x" + height).toString();
+
+            try {
+                final ShardedBoxStore store = getShardedBoxStore(baseBoxPath);
+                if ((store != null) && format.equalsIgnoreCase(store.getFormat())) {
+                    boxBytes = store.mapBox(level, z.intValue(), row, column);
+                }
+            } catch (final IOException e) {
+                // fall back to dynamic rendering
+                LOG.warn("failed to read sharded box for level " + level + ", z " + z + ", row " + row +
+                         ", column " + column + " from " + baseBoxPath, e);
+            }
+
+        }
+
+        return boxBytes;
+    }
+
+    /**
+     * @return the sharded store for the specified base box path or null if the boxes are not sharded.
+     *         Stores are reloaded whenever their attributes have been replaced (e.g. by re-materialization).
+     */
+    private ShardedBoxStore getShardedBoxStore(final String baseBoxPath)
+            throws IOException {
+        ShardedBoxStore store = SHARDED_BOX_STORES.get(baseBoxPath);
+        if ((store == null) || (! store.isCurrent())) {
+            store = ShardedBoxStore.load(baseBoxPath);
+            if (store == null) {
+                SHARDED_BOX_STORES.remove(baseBoxPath);
+            } else {
+                SHARDED_BOX_STORES.put(baseBoxPath, store);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return the attributes for the boxes in the specified base box path or null if none have been recorded.
+     *         Attributes are reloaded whenever they have been replaced (e.g. by re-materialization).
+     */
+    private MaterializedBoxAttributes getMaterializedBoxAttributes(final String baseBoxPath)
+            throws IOException {
+        MaterializedBoxAttributes boxAttributes = MATERIALIZED_BOX_ATTRIBUTES.get(baseBoxPath);
+        if ((boxAttributes == null) || (! boxAttributes.isCurrent(baseBoxPath))) {
+            boxAttributes = MaterializedBoxAttributes.load(baseBoxPath);
+            if (boxAttributes == null) {
+                MATERIALIZED_BOX_ATTRIBUTES.remove(baseBoxPath);
+            } else {
+                MATERIALIZED_BOX_ATTRIBUTES.put(baseBoxPath, boxAttributes);
+            }
+        }
+        return boxAttributes;
+    }
+
     private void queueLargeDataFileRequest(final File file,
                                            final Boolean filter,
                                            final Boolean binaryMask) {
@@ -921,7 +1288,8 @@ public class RenderImageService {
                                                             final Boolean binaryMask,
                                                             final Double minIntensity,
                                                             final Double maxIntensity,
-                                                            final String channels) {
+                                                            final String channels,
+                                                            final RenderTargetType targetType) {
 
         final StackId stackId = new StackId(owner, project, stack);
         final RenderParameters renderParameters = renderDataService.getInternalRenderParameters(stackId,
@@ -937,6 +1305,7 @@ public class RenderImageService {
         renderParameters.setMinIntensity(minIntensity);
         renderParameters.setMaxIntensity(maxIntensity);
         renderParameters.setChannels(channels);
+        renderParameters.setTargetType(targetType);
 
         return renderParameters;
     }
@@ -948,7 +1317,88 @@ public class RenderImageService {
         return renderDataService.getStackMetaData(stackId);
     }
 
+    /**
+     * Materialized (CATMAID LargeDataTileSource) box coordinates for a bounding box request.
+     */
+    private static class MaterializedBoxLocation {
+
+        private final int level;
+        private final int row;
+        private final int column;
+        private final int boxWidth;
+        private final int boxHeight;
+
+        private MaterializedBoxLocation(final int level,
+                                        final int row,
+                                        final int column,
+                                        final int boxWidth,
+                                        final int boxHeight) {
+            this.level = level;
+            this.row = row;
+            this.column = column;
+            this.boxWidth = boxWidth;
+            this.boxHeight = boxHeight;
+        }
+
+        private String getBaseBoxPath(final String rootPath) {
+            return Paths.get(rootPath, boxWidth + "x" + boxHeight).toString();
+        }
+
+        private File getFile(final String baseBoxPath,
+                             final Double z,
+                             final String format) {
+            return Paths.get(baseBoxPath,
+                             String.valueOf(level),
+                             String.valueOf(z.intValue()),
+                             String.valueOf(row),
+                             column + "." + format).toFile();
+        }
+
+        /**
+         * @return location of the materialized box with the specified full scale bounds or
+         *         null if the bounds and scale do not align with a materialized box.
+         */
+        private static MaterializedBoxLocation build(final Double x,
+                                                     final Double y,
+                                                     final Double z,
+                                                     final Integer width,
+                                                     final Integer height,
+                                                     final Double scale) {
+
+            MaterializedBoxLocation location = null;
+
+            final double boxScale = scale == null ? 1.0 : scale;
+
+            if ((x != null) && (y != null) && (z != null) && (width != null) && (height != null) &&
+                (boxScale > 0) && (boxScale <= 1.0) && (z == Math.floor(z)) && (x >= 0) && (y >= 0)) {
+
+                final int level = (int) Math.round(Math.log(1.0 / boxScale) / Math.log(2));
+                final int factor = 1 << level;
+
+                if ((boxScale == 1.0 / factor) &&
+                    (width % factor == 0) && (height % factor == 0) &&
+                    (x % width == 0) && (y % height == 0)) {
+
+                    location = new MaterializedBoxLocation(level,
+                                                           (int) (y / height),
+                                                           (int) (x / width),
+                                                           width / factor,
+                                                           height / factor);
+                }
+            }
+
+            return location;
+        }
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(RenderImageService.class);
 
     private static final Integer DEFAULT_MAX_TILE_SPECS_FOR_LARGE_DATA = 40;
+
+    /** Sharded box stores keyed by base box path (each store is checked against its attributes file before use). */
+    private static final Map<String, ShardedBoxStore> SHARDED_BOX_STORES = new ConcurrentHashMap<>();
+
+    /** Materialized box attributes keyed by base box path (each is checked against its file before use). */
+    private static final Map<String, MaterializedBoxAttributes> MATERIALIZED_BOX_ATTRIBUTES =
+            new ConcurrentHashMap<>();
 }
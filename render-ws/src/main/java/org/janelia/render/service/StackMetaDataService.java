@@ -33,6 +33,7 @@ import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.stack.HierarchicalStack;
 import org.janelia.alignment.spec.stack.MipmapPathBuilder;
 import org.janelia.alignment.spec.stack.ReconstructionCycle;
+import org.janelia.alignment.spec.stack.ScapeSpec;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.alignment.spec.stack.StackMetaData;
 import org.janelia.alignment.spec.stack.StackStats;
@@ -617,6 +618,86 @@ public class StackMetaDataService {
         return saveMipmapPathBuilder(owner, project, stack, null);
     }
 
+    @Path("v1/owner/{owner}/project/{project}/stack/{stack}/scapes")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = "Stack Data APIs",
+            value = "The precomputed scape (low resolution layer image) specs for the specified stack")
+    @ApiResponses(value = {
+            @ApiResponse(code = 404, message = "Stack not found")
+    })
+    public List<ScapeSpec> getScapes(@PathParam("owner") final String owner,
+                                     @PathParam("project") final String project,
+                                     @PathParam("stack") final String stack) {
+
+        LOG.info("getScapes: entry, owner={}, project={}, stack={}",
+                 owner, project, stack);
+
+        List<ScapeSpec> scapes = null;
+        try {
+            final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+            scapes = stackMetaData.getCurrentScapes();
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return scapes == null ? new ArrayList<ScapeSpec>() : scapes;
+    }
+
+    @Path("v1/owner/{owner}/project/{project}/stack/{stack}/scapes")
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            tags = {"Stack Data APIs", "Stack Management APIs"},
+            value = "Saves precomputed scape (low resolution layer image) specs for stack",
+            notes = "Layer renders with a scale less than or equal to a scape's scale are derived from " +
+                    "the scape with the smallest such scale (instead of from the layer's tiles).")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "scape specs successfully saved"),
+            @ApiResponse(code = 400, message = "stack is READ_ONLY or scape specs are invalid"),
+            @ApiResponse(code = 404, message = "stack not found")
+    })
+    public Response saveScapes(@PathParam("owner") final String owner,
+                               @PathParam("project") final String project,
+                               @PathParam("stack") final String stack,
+                               final List<ScapeSpec> scapes) {
+
+        LOG.info("saveScapes: entry, owner={}, project={}, stack={}, scapes={}",
+                 owner, project, stack, scapes);
+
+        try {
+            if (scapes != null) {
+                for (final ScapeSpec scapeSpec : scapes) {
+                    scapeSpec.validate();
+                }
+            }
+            final StackMetaData stackMetaData = getStackMetaData(owner, project, stack);
+            validateStackIsModifiable(stackMetaData);
+            stackMetaData.setCurrentScapes(scapes);
+            renderDao.saveStackMetaData(stackMetaData);
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        return Response.ok().build();
+    }
+
+    @Path("v1/owner/{owner}/project/{project}/stack/{stack}/scapes")
+    @DELETE
+    @ApiOperation(
+            tags = {"Stack Data APIs", "Stack Management APIs"},
+            value = "Deletes precomputed scape specs for stack")
+    @ApiResponses(value = {
+            @ApiResponse(code = 400, message = "stack is READ_ONLY"),
+            @ApiResponse(code = 404, message = "stack not found")
+    })
+    public Response deleteScapes(@PathParam("owner") final String owner,
+                                 @PathParam("project") final String project,
+                                 @PathParam("stack") final String stack) {
+        return saveScapes(owner, project, stack, null);
+    }
+
     @Path("v1/owner/{owner}/project/{project}/stack/{stack}/cycle")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
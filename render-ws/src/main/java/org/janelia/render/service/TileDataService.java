@@ -16,6 +16,7 @@ import javax.ws.rs.core.Response;
 
 import org.janelia.alignment.ImageAndMask;
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.RenderTargetType;
 import org.janelia.alignment.spec.ChannelSpec;
 import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.TransformSpecMetaData;
@@ -143,7 +144,8 @@ public class TileDataService {
                                                 @QueryParam("excludeAllTransforms") final Boolean excludeAllTransforms,
                                                 @QueryParam("minIntensity") final Double minIntensity,
                                                 @QueryParam("maxIntensity") final Double maxIntensity,
-                                                @QueryParam("channels") final String channels) {
+                                                @QueryParam("channels") final String channels,
+                                                @QueryParam("targetType") final RenderTargetType targetType) {
 
         LOG.info("getRenderParameters: entry, owner={}, project={}, stack={}, tileId={}",
                  owner, project, stack, tileId);
@@ -166,6 +168,7 @@ public class TileDataService {
             parameters.setMinIntensity(minIntensity);
             parameters.setMaxIntensity(maxIntensity);
             parameters.setChannels(channels);
+            parameters.setTargetType(targetType);
 
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
@@ -262,7 +265,8 @@ public class TileDataService {
                                                                  @QueryParam("filter") final Boolean filter,
                                                                  @QueryParam("binaryMask") final Boolean binaryMask,
                                                                  @QueryParam("convertToGray") final Boolean convertToGray,
-                                                                 @QueryParam("channels") final String channels) {
+                                                                 @QueryParam("channels") final String channels,
+                                                                 @QueryParam("targetType") final RenderTargetType targetType) {
 
         LOG.info("getTileWithNeighborsRenderParameters: entry, owner={}, project={}, stack={}, tileId={}",
                  owner, project, stack, tileId);
@@ -304,7 +308,8 @@ public class TileDataService {
                                                                        filter,
                                                                        binaryMask,
                                                                        convertToGray,
-                                                                       channels);
+                                                                       channels,
+                                                                       targetType);
 
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
@@ -13,6 +13,7 @@ import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.RenderTargetType;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.alignment.spec.stack.StackMetaData;
 import org.janelia.render.service.util.RenderServiceUtil;
@@ -73,6 +74,7 @@ public class TileImageService {
                                            @QueryParam("minIntensity") final Double minIntensity,
                                            @QueryParam("maxIntensity") final Double maxIntensity,
                                            @QueryParam("channels") final String channels,
+                                           @QueryParam("targetType") final RenderTargetType targetType,
                                            @Context final Request request) {
 
         LOG.info("renderJpegImageForTile: entry, owner={}, project={}, stack={}, tileId={}",
@@ -87,8 +89,8 @@ public class TileImageService {
                                                         normalizeForMatching,
                                                         excludeAfterLastLabels, excludeFirstAndAllAfterLabels,
                                                         excludeAllTransforms,
-                                                        minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderJpegImage(renderParameters, null, responseHelper);
+                                                        minIntensity, maxIntensity, channels, targetType);
+            return RenderServiceUtil.renderJpegImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -117,6 +119,7 @@ public class TileImageService {
                                           @QueryParam("minIntensity") final Double minIntensity,
                                           @QueryParam("maxIntensity") final Double maxIntensity,
                                           @QueryParam("channels") final String channels,
+                                          @QueryParam("targetType") final RenderTargetType targetType,
                                           @Context final Request request) {
 
         LOG.info("renderPngImageForTile: entry, owner={}, project={}, stack={}, tileId={}",
@@ -131,8 +134,8 @@ public class TileImageService {
                                                         normalizeForMatching,
                                                         excludeAfterLastLabels, excludeFirstAndAllAfterLabels,
                                                         excludeAllTransforms,
-                                                        minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderPngImage(renderParameters, null, responseHelper);
+                                                        minIntensity, maxIntensity, channels, targetType);
+            return RenderServiceUtil.renderPngImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -161,6 +164,7 @@ public class TileImageService {
                                            @QueryParam("minIntensity") final Double minIntensity,
                                            @QueryParam("maxIntensity") final Double maxIntensity,
                                            @QueryParam("channels") final String channels,
+                                           @QueryParam("targetType") final RenderTargetType targetType,
                                            @Context final Request request) {
 
         LOG.info("renderTiffImageForTile: entry, owner={}, project={}, stack={}, tileId={}",
@@ -175,8 +179,8 @@ public class TileImageService {
                                                         normalizeForMatching,
                                                         excludeAfterLastLabels, excludeFirstAndAllAfterLabels,
                                                         excludeAllTransforms,
-                                                        minIntensity, maxIntensity, channels);
-            return RenderServiceUtil.renderTiffImage(renderParameters, null, responseHelper);
+                                                        minIntensity, maxIntensity, channels, targetType);
+            return RenderServiceUtil.renderTiffImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -204,7 +208,7 @@ public class TileImageService {
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
                     tileDataService.getTileSourceRenderParameters(owner, project, stack, tileId, scale, filter);
-            return RenderServiceUtil.renderJpegImage(renderParameters, null, responseHelper);
+            return RenderServiceUtil.renderJpegImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -232,7 +236,7 @@ public class TileImageService {
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
                     tileDataService.getTileSourceRenderParameters(owner, project, stack, tileId, scale, filter);
-            return RenderServiceUtil.renderPngImage(renderParameters, null, responseHelper);
+            return RenderServiceUtil.renderPngImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -260,7 +264,7 @@ public class TileImageService {
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
                     tileDataService.getTileSourceRenderParameters(owner, project, stack, tileId, scale, filter);
-            return RenderServiceUtil.renderTiffImage(renderParameters, null, responseHelper);
+            return RenderServiceUtil.renderTiffImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -288,7 +292,7 @@ public class TileImageService {
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
                     tileDataService.getTileMaskRenderParameters(owner, project, stack, tileId, scale, filter);
-            return RenderServiceUtil.renderJpegImage(renderParameters, null, responseHelper);
+            return RenderServiceUtil.renderJpegImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -316,7 +320,7 @@ public class TileImageService {
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
                     tileDataService.getTileMaskRenderParameters(owner, project, stack, tileId, scale, filter);
-            return RenderServiceUtil.renderPngImage(renderParameters, null, responseHelper);
+            return RenderServiceUtil.renderPngImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -344,7 +348,7 @@ public class TileImageService {
         if (responseHelper.isModified()) {
             final RenderParameters renderParameters =
                     tileDataService.getTileMaskRenderParameters(owner, project, stack, tileId, scale, filter);
-            return RenderServiceUtil.renderTiffImage(renderParameters, null, responseHelper);
+            return RenderServiceUtil.renderTiffImage(renderParameters, null, null, responseHelper);
         } else {
             return responseHelper.getNotModifiedResponse();
         }
@@ -369,6 +373,7 @@ public class TileImageService {
                                                      @QueryParam("heightFactor") final Double heightFactor,
                                                      @QueryParam("boundingBoxesOnly") final Boolean boundingBoxesOnly,
                                                      @QueryParam("channels") final String channels,
+                                                     @QueryParam("targetType") final RenderTargetType targetType,
                                                      @Context final Request request) {
 
         LOG.info("renderJpegTileWithNeighborsImage: entry, owner={}, project={}, stack={}, tileId={}",
@@ -379,11 +384,12 @@ public class TileImageService {
             final RenderParameters renderParameters =
                     tileDataService.getTileWithNeighborsRenderParameters(owner, project, stack, tileId,
                                                                          widthFactor, heightFactor, scale,
-                                                                         filter, binaryMask, convertToGray, channels);
+                                                                         filter, binaryMask, convertToGray, channels,
+                                                                         targetType);
             if ((boundingBoxesOnly != null) && boundingBoxesOnly) {
                 return RenderServiceUtil.renderJpegBoundingBoxes(renderParameters, responseHelper);
             } else {
-                return RenderServiceUtil.renderJpegImage(renderParameters, null, responseHelper);
+                return RenderServiceUtil.renderJpegImage(renderParameters, null, null, responseHelper);
             }
         } else {
             return responseHelper.getNotModifiedResponse();
@@ -107,6 +107,52 @@ public class RenderDao {
         return renderParameters;
     }
 
+    /**
+     * Finds all tiles for a batch of boxes with one query that only matches tiles intersecting
+     * at least one of the boxes (so disjoint boxes do not pull in the tiles between them).
+     *
+     * @return a render parameters object (with bounds covering all of the boxes)
+     *         for all tiles that intersect any of the specified boxes.
+     *
+     * @throws IllegalArgumentException
+     *   if any required parameters are missing or if more than maxNumberOfTiles tiles intersect the boxes.
+     */
+    public RenderParameters getParametersForBoxes(final StackId stackId,
+                                                  final Double z,
+                                                  final List<Bounds> boxes,
+                                                  final Double scale,
+                                                  final int maxNumberOfTiles)
+            throws IllegalArgumentException {
+
+        MongoUtil.validateRequiredParameter("stackId", stackId);
+        MongoUtil.validateRequiredParameter("z", z);
+        MongoUtil.validateRequiredParameter("boxes", boxes);
+
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+
+        final List<Document> boxQueries = new ArrayList<>(boxes.size());
+        for (final Bounds box : boxes) {
+            boxQueries.add(getIntersectsBoxQuery(z, box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY()));
+            minX = Math.min(minX, box.getMinX());
+            minY = Math.min(minY, box.getMinY());
+            maxX = Math.max(maxX, box.getMaxX());
+            maxY = Math.max(maxY, box.getMaxY());
+        }
+
+        // EXAMPLE:   find({"$or": [{"z": 4050.0 , "minX": {"$lte": 239850.0} , ...}, {"z": 4050.0, ...}]})
+        final Document tileQuery = new Document(QueryOperators.OR, boxQueries);
+
+        final RenderParameters renderParameters =
+                new RenderParameters(null, minX, minY,
+                                     (int) Math.ceil(maxX - minX), (int) Math.ceil(maxY - minY), scale);
+        addResolvedTileSpecs(stackId, tileQuery, renderParameters, maxNumberOfTiles);
+
+        return renderParameters;
+    }
+
     /**
      * @return a render parameters object for all tiles that match the specified criteria.
      *
@@ -252,8 +298,8 @@ public class RenderDao {
 
             // apply fully resolved transform specs to tiles
             for (final TileSpec tileSpec : tileSpecs) {
+                tileSpec.resolveTransformReferences(resolvedIdToSpecMap);
                 transforms = tileSpec.getTransforms();
-                transforms.resolveReferences(resolvedIdToSpecMap);
                 if (! transforms.isFullyResolved()) {
                     throw new IllegalStateException(
                             "tile spec " + tileSpec.getTileId() +
@@ -1766,6 +1812,13 @@ public class RenderDao {
     private Map<String, TransformSpec> addResolvedTileSpecs(final StackId stackId,
                                                             final Document tileQuery,
                                                             final RenderParameters renderParameters) {
+        return addResolvedTileSpecs(stackId, tileQuery, renderParameters, MAX_TILES_PER_QUERY);
+    }
+
+    private Map<String, TransformSpec> addResolvedTileSpecs(final StackId stackId,
+                                                            final Document tileQuery,
+                                                            final RenderParameters renderParameters,
+                                                            final int maxNumberOfTiles) {
 
         final MongoCollection<Document> tileCollection = getTileCollection(stackId);
 
@@ -1780,7 +1833,7 @@ public class RenderDao {
             TileSpec tileSpec;
             int count = 0;
             while (cursor.hasNext()) {
-                if (count > 50000) {
+                if (count >= maxNumberOfTiles) {
                     throw new IllegalArgumentException("query too broad, over " + count + " tiles match " + tileQuery);
                 }
                 document = cursor.next();
@@ -2157,6 +2210,9 @@ public class RenderDao {
 
     private static final Logger LOG = LoggerFactory.getLogger(RenderDao.class);
 
+    /** Maximum number of tiles returned for any render parameters query. */
+    private static final int MAX_TILES_PER_QUERY = 50000;
+
     /** Explicitly named index options allow a little more namespace room for stack id components. */
     private static final IndexOptions TRANSFORM_A_OPTIONS = new IndexOptions().unique(true).background(true).name("A");
     private static final IndexOptions TILE_A_OPTIONS = new IndexOptions().unique(true).background(true).name("A");
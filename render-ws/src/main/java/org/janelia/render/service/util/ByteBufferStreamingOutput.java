@@ -0,0 +1,39 @@
+package org.janelia.render.service.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Wrapper for {@link ByteBuffer} instances (e.g. memory mapped portions of a file)
+ * that need to be streamed as the response for a JAX-RS API request.
+ *
+ * @author Eric Trautman
+ */
+public class ByteBufferStreamingOutput
+        implements StreamingOutput {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferStreamingOutput(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(final OutputStream outputStream)
+            throws IOException, WebApplicationException {
+        // use a duplicate so that the response can be written more than once
+        final ByteBuffer source = buffer.duplicate();
+        // don't close the channel since that would close the response stream
+        final WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+}
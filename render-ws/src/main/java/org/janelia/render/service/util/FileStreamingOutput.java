@@ -1,15 +1,16 @@
 package org.janelia.render.service.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
-import org.apache.commons.io.IOUtils;
-
 /**
  * Wrapper for {@link File} instances that need to be
  * streamed as the response for a JAX-RS API request.
@@ -28,8 +29,15 @@ public class FileStreamingOutput
     @Override
     public void write(final OutputStream outputStream)
             throws IOException, WebApplicationException {
-        try (FileInputStream inputStream = new FileInputStream(file)) {
-            IOUtils.copyLarge(inputStream, outputStream);
+        // let the file channel move bytes directly to the target instead of copying through an extra heap buffer
+        // (don't close the target channel since that would close the response stream)
+        final WritableByteChannel targetChannel = Channels.newChannel(outputStream);
+        try (final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = fileChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, targetChannel);
+            }
         }
     }
 
@@ -1,8 +1,15 @@
 package org.janelia.render.service.util;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
 
 import javax.ws.rs.core.Response;
 
@@ -10,6 +17,8 @@ import org.janelia.alignment.ArgbRenderer;
 import org.janelia.alignment.BoundingBoxRenderer;
 import org.janelia.alignment.RenderParameters;
 import org.janelia.alignment.Utils;
+import org.janelia.alignment.spec.ChannelSpec;
+import org.janelia.alignment.spec.TileSpec;
 import org.janelia.render.service.model.IllegalServiceArgumentException;
 import org.janelia.render.service.model.ServiceException;
 import org.slf4j.Logger;
@@ -26,6 +35,9 @@ public class RenderServiceUtil {
     public static final String IMAGE_PNG_MIME_TYPE = "image/png";
     public static final String IMAGE_TIFF_MIME_TYPE = "image/tiff";
 
+    /** Default time after which limited renders stop mapping tiles. */
+    public static final long DEFAULT_RENDER_TIME_BUDGET_MILLIS = 20000;
+
     public static void throwServiceException(final Throwable t)
             throws ServiceException {
 
@@ -67,39 +79,59 @@ public class RenderServiceUtil {
 
     public static Response renderJpegImage(final RenderParameters renderParameters,
                                            final Integer maxTileSpecsToRender,
+                                           final Long renderTimeBudgetMillis,
                                            final ResponseHelper responseHelper) {
         return renderImageStream(renderParameters,
                                  Utils.JPEG_FORMAT,
                                  IMAGE_JPEG_MIME_TYPE,
                                  maxTileSpecsToRender,
+                                 renderTimeBudgetMillis,
                                  responseHelper);
     }
 
 
     public static Response renderPngImage(final RenderParameters renderParameters,
                                           final Integer maxTileSpecsToRender,
+                                          final Long renderTimeBudgetMillis,
                                           final ResponseHelper responseHelper) {
         return renderImageStream(renderParameters,
                                  Utils.PNG_FORMAT,
                                  IMAGE_PNG_MIME_TYPE,
                                  maxTileSpecsToRender,
+                                 renderTimeBudgetMillis,
                                  responseHelper);
     }
 
     public static Response renderTiffImage(final RenderParameters renderParameters,
                                            final Integer maxTileSpecsToRender,
+                                           final Long renderTimeBudgetMillis,
                                            final ResponseHelper responseHelper) {
         return renderImageStream(renderParameters,
                                  Utils.TIFF_FORMAT,
                                  IMAGE_TIFF_MIME_TYPE,
                                  maxTileSpecsToRender,
+                                 renderTimeBudgetMillis,
                                  responseHelper);
     }
 
+    /**
+     * Renders an image and streams it as a response.
+     *
+     * If the number of tiles to render exceeds maxTileSpecsToRender, the image is progressively rendered
+     * at a reduced scale (see {@link #getProgressiveLevel}) and then scaled up to the requested size.
+     * Responses for these reduced detail images include a
+     * {@link ResponseHelper#LEVEL_OF_DETAIL_HEADER level of detail header}.
+     *
+     * Limited renders (with a maxTileSpecsToRender value) also stop mapping tiles once the render time budget
+     * (default is {@value #DEFAULT_RENDER_TIME_BUDGET_MILLIS} milliseconds) has elapsed.
+     * Tile outlines are drawn over images that ran out of time and responses for these images include an
+     * {@link ResponseHelper#INCOMPLETE_RENDER_HEADER incomplete render header}.
+     */
     public static Response renderImageStream(final RenderParameters renderParameters,
                                              final String format,
                                              final String mimeType,
                                              final Integer maxTileSpecsToRender,
+                                             final Long renderTimeBudgetMillis,
                                              final ResponseHelper responseHelper) {
 
         LOG.info("renderImageStream: entry, format={}, mimeType={}", format, mimeType);
@@ -109,18 +141,52 @@ public class RenderServiceUtil {
 
             // if we need to optimize render time (e.g. when we're rendering a box from a database stack)
             // and there are too many tiles to dynamically render the result quickly,
-            // just render the tile bounding boxes instead ...
-            final boolean renderBoundingBoxesOnly = (maxTileSpecsToRender != null) &&
-                                                    (renderParameters.numberOfTileSpecs() > maxTileSpecsToRender);
+            // render the tiles from coarser mipmaps and stop mapping tiles when the time budget runs out ...
+            final int levelOfDetail = getProgressiveLevel(renderParameters, maxTileSpecsToRender);
+
+            final Long renderDeadline;
+            final long timeBudget;
+            if (maxTileSpecsToRender == null) {
+                renderDeadline = null;
+                timeBudget = 0;
+            } else {
+                timeBudget = renderTimeBudgetMillis == null ? DEFAULT_RENDER_TIME_BUDGET_MILLIS :
+                             Math.max(0, renderTimeBudgetMillis);
+                renderDeadline = System.currentTimeMillis() + timeBudget;
+                renderParameters.setRenderDeadline(renderDeadline);
+            }
+
+            final BufferedImage targetImage;
+            if (levelOfDetail > 0) {
+                targetImage = validateParametersAndRenderProgressiveImage(renderParameters, levelOfDetail);
+            } else {
+                targetImage = validateParametersAndRenderImage(renderParameters, false);
+            }
+
+            // some tiles may have been skipped if the deadline passed during the render,
+            // so draw outlines to show where all of the tiles should be
+            final boolean ranOutOfTime = (renderDeadline != null) && (System.currentTimeMillis() > renderDeadline);
+            if (ranOutOfTime) {
+                LOG.warn("renderImageStream: render of {} tiles exceeded {} millisecond budget",
+                         renderParameters.numberOfTileSpecs(), timeBudget);
+                final BoundingBoxRenderer boundingBoxRenderer = new BoundingBoxRenderer(renderParameters, Color.GREEN);
+                boundingBoxRenderer.render(targetImage, false);
+            }
 
-            final BufferedImage targetImage = validateParametersAndRenderImage(renderParameters,
-                                                                               renderBoundingBoxesOnly);
             final BufferedImageStreamingOutput out =
                     new BufferedImageStreamingOutput(targetImage,
                                                      format,
                                                      renderParameters.isConvertToGray(),
                                                      renderParameters.getQuality());
-            response = responseHelper.getImageByteResponse(out, mimeType);
+
+            if (ranOutOfTime || (levelOfDetail > 0)) {
+                response = responseHelper.getReducedDetailImageByteResponse(out,
+                                                                            mimeType,
+                                                                            levelOfDetail,
+                                                                            ranOutOfTime);
+            } else {
+                response = responseHelper.getImageByteResponse(out, mimeType);
+            }
         } catch (final Throwable t) {
             RenderServiceUtil.throwServiceException(t);
         }
@@ -130,6 +196,95 @@ public class RenderServiceUtil {
         return response;
     }
 
+    /**
+     * Each progressive level halves the render scale and therefore (roughly) quarters the number of
+     * source pixels that need to be loaded and mapped for each tile with mipmaps.
+     * Levels are increased until the render fits within budget or until the coarsest available mipmap
+     * (see {@link #getCoarsestMipmapLevel}) is reached.  Tiles without coarser mipmaps cost the same to load
+     * at any scale, but are still reduced by {@value #MIN_PROGRESSIVE_LEVEL_LIMIT} level(s) to cut mapping costs.
+     * Levels are also limited so that reduced images always contain at least one pixel.
+     *
+     * Renders that are still over budget at the returned level (see {@link #isOverRenderBudget})
+     * are rendered anyway but are bounded by the render deadline.
+     *
+     * @param  renderParameters      parameters for the render.
+     * @param  maxTileSpecsToRender  render budget (or null if the render is not limited).
+     *
+     * @return the smallest level (relative to the requested scale) at which the render
+     *         should fit within the specified budget (0 if the render is already within budget) or
+     *         the largest supported level if the render does not fit within the budget at any level.
+     */
+    public static int getProgressiveLevel(final RenderParameters renderParameters,
+                                          final Integer maxTileSpecsToRender) {
+
+        int level = 0;
+
+        if (maxTileSpecsToRender != null) {
+
+            final long numberOfTileSpecs = renderParameters.numberOfTileSpecs();
+            final long budget = Math.max(1, maxTileSpecsToRender);
+
+            if (budget < numberOfTileSpecs) {
+
+                final double scale = renderParameters.getScale();
+                final int smallestSide = Math.min(renderParameters.getWidth(), renderParameters.getHeight());
+                final int coarsestRelativeLevel =
+                        getCoarsestMipmapLevel(renderParameters) - Utils.bestMipmapLevel(scale);
+                final int maxLevel = Math.min(MAX_PROGRESSIVE_LEVEL,
+                                              Math.max(MIN_PROGRESSIVE_LEVEL_LIMIT, coarsestRelativeLevel));
+
+                while ((level < maxLevel) &&
+                       ((budget << (2 * level)) < numberOfTileSpecs) &&
+                       ((smallestSide * scale / (1L << (level + 1))) >= 1.0)) {
+                    level++;
+                }
+            }
+        }
+
+        return level;
+    }
+
+    /**
+     * @param  renderParameters      parameters for the render.
+     * @param  maxTileSpecsToRender  render budget (or null if the render is not limited).
+     *
+     * @return true if the render has too many tiles to fit within the specified budget
+     *         even at its {@link #getProgressiveLevel progressive level}; otherwise false.
+     */
+    public static boolean isOverRenderBudget(final RenderParameters renderParameters,
+                                             final Integer maxTileSpecsToRender) {
+        boolean isOverBudget = false;
+        if (maxTileSpecsToRender != null) {
+            final long budget = Math.max(1, maxTileSpecsToRender);
+            final int level = getProgressiveLevel(renderParameters, maxTileSpecsToRender);
+            isOverBudget = (budget << (2 * level)) < renderParameters.numberOfTileSpecs();
+        }
+        return isOverBudget;
+    }
+
+    /**
+     * @return the coarsest mipmap level available for any of the render's tiles
+     *         (including levels that can be derived by the render's mipmap path builder).
+     */
+    public static int getCoarsestMipmapLevel(final RenderParameters renderParameters) {
+
+        int coarsestLevel = 0;
+
+        if (renderParameters.hasMipmapPathBuilder()) {
+            coarsestLevel = renderParameters.getMipmapPathBuilder().getNumberOfLevels();
+        }
+
+        if (renderParameters.hasTileSpecs()) {
+            for (final TileSpec tileSpec : renderParameters.getTileSpecs()) {
+                for (final ChannelSpec channelSpec : tileSpec.getAllChannels()) {
+                    coarsestLevel = Math.max(coarsestLevel, channelSpec.getMaxMipmapLevel());
+                }
+            }
+        }
+
+        return coarsestLevel;
+    }
+
     public static Response streamImageFile(final File imageFile,
                                            final String mimeType,
                                            final ResponseHelper responseHelper) {
@@ -150,6 +305,94 @@ public class RenderServiceUtil {
         return response;
     }
 
+    public static Response streamImageBytes(final ByteBuffer imageBytes,
+                                            final String mimeType,
+                                            final ResponseHelper responseHelper) {
+
+        LOG.info("streamImageBytes: entry, {} bytes", imageBytes.remaining());
+
+        Response response = null;
+        try {
+
+            final ByteBufferStreamingOutput out = new ByteBufferStreamingOutput(imageBytes);
+            response = responseHelper.getImageByteResponse(out, mimeType);
+        } catch (final Throwable t) {
+            RenderServiceUtil.throwServiceException(t);
+        }
+
+        LOG.info("streamImageBytes: exit");
+
+        return response;
+    }
+
+    /**
+     * Fully renders an image (regardless of the number of tiles) and saves it to the specified file.
+     * The image is written to a temporary file and then atomically moved into place
+     * so that concurrent requests never stream a partially written file.
+     *
+     * @throws IOException
+     *   if the image cannot be saved.
+     */
+    public static void renderAndSaveImage(final RenderParameters renderParameters,
+                                          final String format,
+                                          final File imageFile)
+            throws IOException {
+
+        final BufferedImage targetImage = validateParametersAndRenderImage(renderParameters, false);
+
+        final File tempFile = new File(imageFile.getParentFile(),
+                                       "." + imageFile.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Utils.saveImage(targetImage,
+                            tempFile.getAbsolutePath(),
+                            format,
+                            renderParameters.isConvertToGray(),
+                            renderParameters.getQuality());
+            Files.move(tempFile.toPath(),
+                       imageFile.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tempFile.exists() && (! tempFile.delete())) {
+                LOG.warn("failed to remove {}", tempFile);
+            }
+        }
+
+        LOG.info("renderAndSaveImage: saved {}", imageFile);
+    }
+
+    /**
+     * Renders the image at a scale reduced by the specified level and then scales it up to the requested size.
+     */
+    private static BufferedImage validateParametersAndRenderProgressiveImage(final RenderParameters renderParameters,
+                                                                             final int levelOfDetail)
+            throws IllegalArgumentException, IllegalStateException {
+
+        final double requestedScale = renderParameters.getScale();
+        final double reducedScale = requestedScale / (1 << levelOfDetail);
+
+        LOG.info("validateParametersAndRenderProgressiveImage: rendering {} tiles at scale {} (level {}) instead of {}",
+                 renderParameters.numberOfTileSpecs(), reducedScale, levelOfDetail, requestedScale);
+
+        final BufferedImage reducedImage;
+        renderParameters.setScale(reducedScale);
+        try {
+            reducedImage = validateParametersAndRenderImage(renderParameters, false);
+        } finally {
+            renderParameters.setScale(requestedScale);
+        }
+
+        final BufferedImage targetImage = renderParameters.openTargetImage();
+
+        final Graphics2D targetGraphics = targetImage.createGraphics();
+        targetGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        targetGraphics.drawImage(reducedImage, 0, 0, targetImage.getWidth(), targetImage.getHeight(), null);
+        targetGraphics.dispose();
+
+        return targetImage;
+    }
+
     private static BufferedImage validateParametersAndRenderImage(final RenderParameters renderParameters,
                                                                   final boolean renderBoundingBoxesOnly)
             throws IllegalArgumentException, IllegalStateException {
@@ -182,5 +425,11 @@ public class RenderServiceUtil {
         return targetImage;
     }
 
+    /** Level limit for renders without coarser mipmaps (renders at 1/2 of the requested scale). */
+    private static final int MIN_PROGRESSIVE_LEVEL_LIMIT = 1;
+
+    /** Largest supported progressive level (keeps shifted budgets within range). */
+    private static final int MAX_PROGRESSIVE_LEVEL = 15;
+
     private static final Logger LOG = LoggerFactory.getLogger(RenderServiceUtil.class);
 }
\ No newline at end of file
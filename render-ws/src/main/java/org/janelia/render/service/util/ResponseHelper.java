@@ -21,6 +21,19 @@ public class ResponseHelper {
     /** Omits cache control information from responses. */
     public static final ResponseHelper NO_CACHE_HELPER = new ResponseHelper();
 
+    /**
+     * Header identifying the mipmap level (relative to the requested scale) of images rendered with
+     * reduced detail.  Level 1 images were rendered at half the requested scale, level 2 at a quarter, ...
+     * Responses without this header contain fully detailed images.
+     */
+    public static final String LEVEL_OF_DETAIL_HEADER = "X-Render-Level-Of-Detail";
+
+    /**
+     * Header identifying images that are missing some (or all) tile pixels because the request exceeded
+     * its tile or time budget.  Tile outlines are drawn in these images to show where tiles should be.
+     */
+    public static final String INCOMPLETE_RENDER_HEADER = "X-Render-Incomplete";
+
     private final StackMetaData stackMetaData;
     private Response.ResponseBuilder notModifiedBuilder;
 
@@ -67,6 +80,27 @@ public class ResponseHelper {
         return responseBuilder.build();
     }
 
+    /**
+     * @return response for an image rendered with less detail than requested.
+     *         The response identifies the rendered level of detail (and whether any tiles are missing)
+     *         and is not cached so that clients can get the fully detailed image in the future.
+     */
+    public Response getReducedDetailImageByteResponse(final StreamingOutput imageByteStream,
+                                                      final String mimeType,
+                                                      final int levelOfDetail,
+                                                      final boolean incomplete) {
+        final CacheControl cc = new CacheControl();
+        cc.setNoCache(true);
+        final Response.ResponseBuilder responseBuilder = Response.ok(imageByteStream, mimeType);
+        if (levelOfDetail > 0) {
+            responseBuilder.header(LEVEL_OF_DETAIL_HEADER, levelOfDetail);
+        }
+        if (incomplete) {
+            responseBuilder.header(INCOMPLETE_RENDER_HEADER, true);
+        }
+        return responseBuilder.cacheControl(cc).build();
+    }
+
     public static Response.ResponseBuilder setDefaultMaxAge(final Response.ResponseBuilder builder) {
         final CacheControl cc = new CacheControl();
         cc.setMaxAge(3600); // 1 hour
@@ -11,6 +11,12 @@ import org.slf4j.LoggerFactory;
  */
 public class SharedImageProcessorCache {
 
+    /**
+     * Name of the system property that specifies the percentage (0 - 100) of the shared cache
+     * reserved for filtered tiles.  Filtered tiles are not cached when the property is not set.
+     */
+    public static final String FILTERED_CACHE_PERCENT_PROPERTY = "render.filteredCachePercent";
+
     private static ImageProcessorCache sharedCache;
 
     public static ImageProcessorCache getInstance() {
@@ -22,12 +28,21 @@ public class SharedImageProcessorCache {
 
     private static synchronized void setSharedCache() {
         if (sharedCache == null) {
-            long maxCachedPixels = ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS;
+            // cache weights are measured in bytes (pixel count * bytes per pixel)
+            long maxCachedBytes = ImageProcessorCache.DEFAULT_MAX_CACHED_PIXELS;
             final long maxMemory = Runtime.getRuntime().maxMemory();
             if (maxMemory < Long.MAX_VALUE) {
-                maxCachedPixels = maxMemory / 2;  // TODO: consider configuring max pixels instead
+                maxCachedBytes = maxMemory / 2;  // TODO: consider configuring max pixels instead
             }
-            sharedCache = new ImageProcessorCache(maxCachedPixels, true, false);
+
+            // filtered (e.g. contrast normalized) tiles are expensive to derive,
+            // so optionally reserve part of the cache budget for them
+            final int filteredPercent = Integer.getInteger(FILTERED_CACHE_PERCENT_PROPERTY, 0);
+
+            sharedCache = ImageProcessorCache.withFilteredChannelMapCache(maxCachedBytes,
+                                                                          filteredPercent,
+                                                                          true,
+                                                                          false);
 
             LOG.info("setSharedCache: exit, created {}", sharedCache);
         }
@@ -1,14 +1,22 @@
 package org.janelia.render.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.json.JsonUtils;
+import org.janelia.alignment.spec.Bounds;
 import org.janelia.alignment.spec.LastTileTransform;
 import org.janelia.alignment.spec.LeafTransformSpec;
 import org.janelia.alignment.spec.ResolvedTileSpecCollection;
@@ -16,6 +24,7 @@ import org.janelia.alignment.spec.TileSpec;
 import org.janelia.alignment.spec.TransformSpec;
 import org.janelia.alignment.spec.stack.StackId;
 import org.janelia.render.service.dao.RenderDao;
+import org.janelia.render.service.model.IllegalServiceArgumentException;
 import org.janelia.test.EmbeddedMongoDb;
 import org.jboss.resteasy.spi.ResteasyUriInfo;
 import org.junit.AfterClass;
@@ -82,11 +91,95 @@ public class RenderDataServiceTest {
                                                     null,
                                                     null,
                                                     null,
+                                                    null,
                                                     null);
 
         Assert.assertNotNull("null parameters returned", renderParameters);
     }
 
+    @Test
+    public void testGetExternalRenderParametersForBoxes() throws Exception {
+
+        final RenderParameters singleBoxParameters =
+                service.getExternalRenderParameters(alignStackId.getOwner(),
+                                                    alignStackId.getProject(),
+                                                    alignStackId.getStack(),
+                                                    100000.0,
+                                                    17000.0,
+                                                    Z,
+                                                    200,
+                                                    200,
+                                                    1.0,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    null);
+
+        final List<Bounds> boxes = Arrays.asList(new Bounds(100000.0, 17000.0, 100200.0, 17200.0),
+                                                 new Bounds(-900000.0, -900000.0, -899800.0, -899800.0));
+
+        final Response response =
+                service.getExternalRenderParametersForBoxes(alignStackId.getOwner(),
+                                                            alignStackId.getProject(),
+                                                            alignStackId.getStack(),
+                                                            Z,
+                                                            1.0,
+                                                            null,
+                                                            null,
+                                                            null,
+                                                            null,
+                                                            null,
+                                                            boxes);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(outputStream);
+
+        final TypeReference<List<RenderParameters>> typeReference = new TypeReference<List<RenderParameters>>() {};
+        final JsonUtils.GenericHelper<List<RenderParameters>> helper = new JsonUtils.GenericHelper<>(typeReference);
+        final List<RenderParameters> boxParametersList = helper.fromJson(outputStream.toString());
+
+        Assert.assertEquals("invalid number of parameters returned", boxes.size(), boxParametersList.size());
+
+        final RenderParameters firstBoxParameters = boxParametersList.get(0);
+        Assert.assertEquals("invalid x for first box", 100000.0, firstBoxParameters.getX(), 0.001);
+        Assert.assertEquals("invalid width for first box", 200, firstBoxParameters.getWidth());
+        Assert.assertEquals("invalid number of tiles for first box",
+                            singleBoxParameters.getTileSpecs().size(), firstBoxParameters.getTileSpecs().size());
+
+        Assert.assertFalse("second box should not have any tiles", boxParametersList.get(1).hasTileSpecs());
+    }
+
+    @Test(expected = IllegalServiceArgumentException.class)
+    public void testGetExternalRenderParametersForNoBoxes() throws Exception {
+        service.getExternalRenderParametersForBoxes(alignStackId.getOwner(),
+                                                    alignStackId.getProject(),
+                                                    alignStackId.getStack(),
+                                                    Z,
+                                                    1.0,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    Collections.<Bounds>emptyList());
+    }
+
+    @Test(expected = IllegalServiceArgumentException.class)
+    public void testGetExternalRenderParametersForTooManyBoxes() throws Exception {
+        service.getExternalRenderParametersForBoxes(alignStackId.getOwner(),
+                                                    alignStackId.getProject(),
+                                                    alignStackId.getStack(),
+                                                    Z,
+                                                    1.0,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    null,
+                                                    Collections.nCopies(1001, new Bounds(0.0, 0.0, 10.0, 10.0)));
+    }
+
     @Test
     public void testGetAndSaveResolvedTiles() throws Exception {
 
@@ -0,0 +1,115 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.janelia.render.service.util;
+
+import org.janelia.alignment.ImageAndMask;
+import org.janelia.alignment.RenderParameters;
+import org.janelia.alignment.spec.ChannelSpec;
+import org.janelia.alignment.spec.TileSpec;
+import org.janelia.alignment.spec.stack.MipmapPathBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RenderServiceUtil} class.
+ *
+ * @author Eric Trautman
+ */
+public class RenderServiceUtilTest {
+
+    @Test
+    public void testGetProgressiveLevel() throws Exception {
+
+        final RenderParameters renderParameters = buildRenderParameters(1000, 0.5, 100, 0);
+
+        Assert.assertEquals("unlimited render should not be reduced",
+                            0, RenderServiceUtil.getProgressiveLevel(renderParameters, null));
+        Assert.assertEquals("render within budget should not be reduced",
+                            0, RenderServiceUtil.getProgressiveLevel(renderParameters, 100));
+        Assert.assertEquals("invalid level for render slightly over budget",
+                            1, RenderServiceUtil.getProgressiveLevel(renderParameters, 99));
+        Assert.assertEquals("invalid level for render 4 times over budget",
+                            1, RenderServiceUtil.getProgressiveLevel(renderParameters, 25));
+        Assert.assertFalse("render 4 times over budget should fit at reduced level",
+                           RenderServiceUtil.isOverRenderBudget(renderParameters, 25));
+        Assert.assertEquals("render 5 times over budget without mipmaps should be reduced by one level",
+                            1, RenderServiceUtil.getProgressiveLevel(renderParameters, 20));
+        Assert.assertTrue("render 5 times over budget without mipmaps should be over budget",
+                          RenderServiceUtil.isOverRenderBudget(renderParameters, 20));
+        Assert.assertEquals("invalid level for render without budget",
+                            1, RenderServiceUtil.getProgressiveLevel(renderParameters, 0));
+
+        // 1000 * 0.001 = 1 pixel, so the render cannot be reduced
+        final RenderParameters tinyRenderParameters = buildRenderParameters(1000, 0.001, 100, 0);
+        Assert.assertEquals("render that cannot be reduced should not be reduced",
+                            0, RenderServiceUtil.getProgressiveLevel(tinyRenderParameters, 99));
+        Assert.assertTrue("render that cannot be reduced should be over budget",
+                          RenderServiceUtil.isOverRenderBudget(tinyRenderParameters, 99));
+        Assert.assertEquals("tiny render within budget should not be reduced",
+                            0, RenderServiceUtil.getProgressiveLevel(tinyRenderParameters, 100));
+        Assert.assertFalse("tiny render within budget should not be over budget",
+                           RenderServiceUtil.isOverRenderBudget(tinyRenderParameters, 100));
+    }
+
+    @Test
+    public void testGetProgressiveLevelWithMipmaps() throws Exception {
+
+        // scale 0.5 uses mipmap level 1, so tiles with mipmaps up to level 3 can be reduced by 2 levels
+        final RenderParameters renderParameters = buildRenderParameters(1000, 0.5, 100, 3);
+
+        Assert.assertEquals("invalid coarsest mipmap level",
+                            3, RenderServiceUtil.getCoarsestMipmapLevel(renderParameters));
+        Assert.assertEquals("invalid level for render 10 times over budget",
+                            2, RenderServiceUtil.getProgressiveLevel(renderParameters, 10));
+        Assert.assertFalse("render 10 times over budget should fit at coarsest mipmap level",
+                           RenderServiceUtil.isOverRenderBudget(renderParameters, 10));
+        Assert.assertEquals("render 20 times over budget should use coarsest mipmap level",
+                            2, RenderServiceUtil.getProgressiveLevel(renderParameters, 5));
+        Assert.assertTrue("render 20 times over budget should be over budget at coarsest mipmap level",
+                          RenderServiceUtil.isOverRenderBudget(renderParameters, 5));
+
+        renderParameters.setMipmapPathBuilder(new MipmapPathBuilder("/mipmaps", 5, "tif"));
+
+        Assert.assertEquals("invalid coarsest mipmap level with path builder",
+                            5, RenderServiceUtil.getCoarsestMipmapLevel(renderParameters));
+        Assert.assertEquals("invalid level for render 100 times over budget with path builder",
+                            4, RenderServiceUtil.getProgressiveLevel(renderParameters, 1));
+        Assert.assertFalse("render 100 times over budget should fit at derived mipmap level",
+                           RenderServiceUtil.isOverRenderBudget(renderParameters, 1));
+    }
+
+    private static RenderParameters buildRenderParameters(final int size,
+                                                          final double scale,
+                                                          final int numberOfTiles,
+                                                          final int maxMipmapLevel) {
+        final RenderParameters renderParameters = new RenderParameters(null, 0.0, 0.0, size, size, scale);
+        for (int i = 0; i < numberOfTiles; i++) {
+            final TileSpec tileSpec = new TileSpec();
+            tileSpec.setTileId("tile-" + i);
+            if (maxMipmapLevel > 0) {
+                final ChannelSpec channelSpec = new ChannelSpec();
+                for (int level = 0; level <= maxMipmapLevel; level++) {
+                    channelSpec.putMipmap(level, new ImageAndMask("/mipmaps/" + level + "/tile-" + i + ".tif", null));
+                }
+                tileSpec.addChannel(channelSpec);
+            }
+            renderParameters.addTileSpec(tileSpec);
+        }
+        return renderParameters;
+    }
+
+}